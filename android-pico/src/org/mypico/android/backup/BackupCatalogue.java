@@ -0,0 +1,303 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A small encrypted index of a provider's full backups, so that finding the latest backup or
+ * pruning old ones is a single small read rather than a listing of the whole backup folder.
+ * <p>
+ * Each entry records a backup's name, the time it was made and its size, which are enough to
+ * tell whether the catalogue is still up to date with a local backup without reading it. Backups
+ * that are hashed as they are written also record the SHA-256 hash of the stored backup, so a
+ * downloaded copy can be checked against it.
+ * <p>
+ * The catalogue is encrypted under the backup key like the backups themselves, so it can't be
+ * read before the user has entered their recovery words; readers must fall back to listing the
+ * backups when it can't be read.
+ * <p>
+ * The catalogue is kept in its own folder of a {@link BackupStore}, so listings of the backups
+ * themselves don't include it.
+ */
+public final class BackupCatalogue {
+
+    /**
+     * Folder of the {@link BackupStore} the catalogue is kept in.
+     */
+    public static final String FOLDER = "catalogue";
+
+    private static final String NAME = "backups";
+    private static final byte[] MAGIC = {'P', 'I', 'C', 'O', 'C', 'A', 'T', 0x02};
+    private static final int MAX_ENTRIES = 10000;
+    private static final HashFunction HASH = Hashing.sha256();
+
+    /**
+     * A backup recorded in the catalogue.
+     */
+    public static final class Entry {
+        private final String name;
+        private final long time;
+        private final long size;
+        private final byte[] hash;
+
+        /**
+         * @param name Name of the backup.
+         * @param time When the backup was made, in milliseconds since the epoch.
+         * @param size Size of the stored backup in bytes.
+         * @param hash SHA-256 hash of the stored backup, or <code>null</code> if it isn't known.
+         */
+        public Entry(final String name, final long time, final long size, final byte[] hash) {
+            if (hash != null && hash.length != HASH.bits() / 8) {
+                throw new IllegalArgumentException("Not a SHA-256 hash");
+            }
+            this.name = name;
+            this.time = time;
+            this.size = size;
+            this.hash = (hash != null) ? hash.clone() : null;
+        }
+
+        /**
+         * Make the entry for a backup file from its metadata, without reading it.
+         *
+         * @param file The backup file.
+         * @return The entry, named after the file, with no hash.
+         */
+        public static Entry forFile(final File file) {
+            return new Entry(file.getName(), file.lastModified(), file.length(), null);
+        }
+
+        /**
+         * @return The name of the backup.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return When the backup was made, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The size of the stored backup in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return The SHA-256 hash of the stored backup, or absent if it isn't known.
+         */
+        public Optional<byte[]> getHash() {
+            return (hash != null) ? Optional.of(hash.clone()) : Optional.<byte[]>absent();
+        }
+
+        /**
+         * Find whether a local file is the backup this entry records, from its metadata alone.
+         *
+         * @param file The file.
+         * @return true if the file has the recorded size and modification time.
+         */
+        public boolean describes(final File file) {
+            return file.isFile() && file.length() == size && file.lastModified() == time;
+        }
+
+        /**
+         * Find whether a downloaded file holds the backup this entry records. This reads the
+         * whole file, so should only be used once the backup has been fetched.
+         *
+         * @param file The file.
+         * @return true if the file has the recorded size and, when it is known, hash.
+         * @throws IOException if the file could not be read.
+         */
+        public boolean matches(final File file) throws IOException {
+            return file.isFile() && file.length() == size
+                && (hash == null || Arrays.equals(Files.hash(file, HASH).asBytes(), hash));
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + time;
+        }
+    }
+
+    // Newest first
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * Read the catalogue from a store.
+     *
+     * @param store The store.
+     * @param key   Key the catalogue was written with.
+     * @return The catalogue.
+     * @throws IOException if there is no catalogue, or it could not be read or decrypted.
+     */
+    public static BackupCatalogue load(final BackupStore store, final BackupKey key)
+        throws IOException {
+        final DataInputStream in = new DataInputStream(ChunkedBackup.newDecryptingStream(
+            new ByteArrayInputStream(store.read(FOLDER, NAME)), key));
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a backup catalogue");
+            }
+            final int count = in.readInt();
+            if (count < 0 || count > MAX_ENTRIES) {
+                throw new IOException("Invalid backup catalogue");
+            }
+            final BackupCatalogue catalogue = new BackupCatalogue();
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final long time = in.readLong();
+                final long size = in.readLong();
+                byte[] hash = null;
+                if (in.readBoolean()) {
+                    hash = new byte[HASH.bits() / 8];
+                    in.readFully(hash);
+                }
+                catalogue.entries.add(new Entry(name, time, size, hash));
+            }
+            if (in.read() != -1) {
+                throw new IOException("Backup catalogue has trailing data");
+            }
+            catalogue.sort();
+            return catalogue;
+        } catch (EOFException e) {
+            throw new IOException("Backup catalogue is truncated", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the catalogue to a store, replacing the one there.
+     *
+     * @param store The store.
+     * @param key   Key to encrypt the catalogue with.
+     * @throws IOException if the catalogue could not be written.
+     */
+    public void save(final BackupStore store, final BackupKey key) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out =
+            new DataOutputStream(ChunkedBackup.newEncryptingStream(bytes, key));
+        out.write(MAGIC);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.name);
+            out.writeLong(entry.time);
+            out.writeLong(entry.size);
+            out.writeBoolean(entry.hash != null);
+            if (entry.hash != null) {
+                out.write(entry.hash);
+            }
+        }
+        out.close();
+        store.write(FOLDER, NAME, bytes.toByteArray());
+    }
+
+    /**
+     * Record a backup, replacing any entry with the same name.
+     *
+     * @param entry The backup.
+     */
+    public void add(final Entry entry) {
+        remove(entry.name);
+        entries.add(entry);
+        sort();
+    }
+
+    /**
+     * Forget a backup.
+     *
+     * @param name Name of the backup.
+     * @return true if the backup was in the catalogue.
+     */
+    public boolean remove(final String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).name.equals(name)) {
+                entries.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The backups, newest first.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return The newest backup, or absent if the catalogue is empty.
+     */
+    public Optional<Entry> getLatest() {
+        return entries.isEmpty() ? Optional.<Entry>absent() : Optional.of(entries.get(0));
+    }
+
+    /**
+     * Forget all but the newest backups.
+     *
+     * @param keep Number of backups to keep.
+     * @return The backups forgotten, which the caller should delete.
+     */
+    public List<Entry> prune(final int keep) {
+        if (entries.size() <= keep) {
+            return Collections.emptyList();
+        }
+        final List<Entry> old = new ArrayList<Entry>(entries.subList(keep, entries.size()));
+        entries.subList(keep, entries.size()).clear();
+        return old;
+    }
+
+    private void sort() {
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry e1, final Entry e2) {
+                return (e1.time < e2.time) ? 1 : ((e1.time > e2.time) ? -1 : 0);
+            }
+        });
+    }
+}
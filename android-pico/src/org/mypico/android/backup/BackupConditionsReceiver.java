@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+
+/**
+ * Restarts {@link BackupService} when the device is plugged in or its network changes, while a
+ * backup is waiting for them. Disabled in the AndroidManifest, and only enabled by the service
+ * while it is waiting, so the app is not woken by every network change.
+ */
+public class BackupConditionsReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        context.startService(BackupService.newRunIntent(context));
+    }
+
+    /**
+     * Enable or disable the receiver.
+     *
+     * @param context Context of the app.
+     * @param enabled true to enable the receiver.
+     */
+    static void setEnabled(final Context context, final boolean enabled) {
+        context.getPackageManager().setComponentEnabledSetting(
+            new ComponentName(context, BackupConditionsReceiver.class),
+            enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+            PackageManager.DONT_KILL_APP);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.backup.IBackupProvider.BackupType;
+
+import android.content.Context;
+
+import com.google.common.base.Optional;
+
+/**
+ * Finds the backups that can be restored across all of the linked providers at once.
+ * <p>
+ * Each provider that can be read without the UI (the SD card, and DropBox once its access token
+ * has been stored) is probed on its own thread for the metadata of its backups, so finding the
+ * newest backup costs a single round trip rather than one per provider. The backups found are
+ * reported as each provider answers. A provider that fails or doesn't answer within
+ * {@link #PROBE_TIMEOUT_MS} is left out rather than failing the discovery.
+ * Google Drive and OneDrive need their interactive clients, so they are still only reached through
+ * the configured {@link BackupProviderFragment}.
+ * <p>
+ * Methods block, so must not be called on the UI thread.
+ */
+public final class BackupDiscovery {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(BackupDiscovery.class.getSimpleName());
+
+    /**
+     * How long to wait for all of the providers to answer, in milliseconds.
+     */
+    public static final long PROBE_TIMEOUT_MS = 15000;
+
+    /**
+     * Maximum number of candidates returned by {@link #discover}.
+     */
+    public static final int MAX_CANDIDATES = 5;
+
+    // Every backup name made by getBackupName() has the device model in front of this
+    private static final String NAME_MARKER = "-pico.backup";
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+    /**
+     * A provider's backups, as seen by the discovery.
+     */
+    interface Source {
+
+        /**
+         * List the backups the provider holds.
+         *
+         * @return The backups, in no particular order.
+         * @throws IOException if the provider could not be read.
+         */
+        List<Candidate> list() throws IOException;
+
+        /**
+         * Fetch one of the backups listed by {@link #list}.
+         *
+         * @param candidate The backup.
+         * @param cacheFile File the backup may be downloaded to.
+         * @return The file holding the backup, which can be restored with {@link BackupRestore}.
+         * @throws IOException if the backup could not be fetched.
+         */
+        File download(Candidate candidate, File cacheFile) throws IOException;
+    }
+
+    /**
+     * Told about backups as the providers answer.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the discovering thread each time a provider answers with backups.
+         *
+         * @param candidates The newest backups found so far, newest first. At most
+         *                   {@link #MAX_CANDIDATES} are given.
+         */
+        void onCandidatesFound(List<Candidate> candidates);
+    }
+
+    /**
+     * A backup that can be restored.
+     */
+    public static final class Candidate {
+        private final Source source;
+        private final BackupType type;
+        private final String name;
+        private final long time;
+        private final long size;
+        private final boolean snapshot;
+
+        /**
+         * @param source   The provider holding the backup.
+         * @param type     The type of the provider.
+         * @param name     The name of the backup file, or of the snapshot.
+         * @param time     When the backup was made, in milliseconds since the epoch.
+         * @param size     Size of the backup file, or of the database for a snapshot.
+         * @param snapshot true if the backup is an {@link IncrementalBackup} snapshot.
+         */
+        Candidate(final Source source, final BackupType type, final String name, final long time,
+                  final long size, final boolean snapshot) {
+            this.source = source;
+            this.type = type;
+            this.name = name;
+            this.time = time;
+            this.size = size;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * @return The type of the provider holding the backup.
+         */
+        public BackupType getType() {
+            return type;
+        }
+
+        /**
+         * @return The name of the backup file, or of the snapshot.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return When the backup was made, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The size of the backup file in bytes, or of the database a snapshot restores.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return true if the backup is an incremental snapshot.
+         */
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Get the device that made the backup, from the name given to it by
+         * {@link BackupProviderFragment#getBackupName}. For DropBox the model is preceded by the
+         * name of the account.
+         *
+         * @return The device, or absent for snapshots and files not named by Pico.
+         */
+        public Optional<String> getDevice() {
+            if (snapshot) {
+                return Optional.absent();
+            }
+            final String fileName = name.substring(name.lastIndexOf('/') + 1);
+            final int end = fileName.indexOf(NAME_MARKER);
+            return (end > 0) ? Optional.of(fileName.substring(0, end)) : Optional.<String>absent();
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + name;
+        }
+    }
+
+    private BackupDiscovery() {
+        // no instances
+    }
+
+    /**
+     * Probe every provider that can be read without the UI.
+     *
+     * @param context  Context used to find the linked providers.
+     * @param listener Told about the newest backups found so far each time a provider answers.
+     * @return The newest backups, newest first. At most {@link #MAX_CANDIDATES} are returned.
+     * @throws InterruptedException if interrupted while waiting for the providers.
+     */
+    public static List<Candidate> discover(final Context context, final Listener listener)
+        throws InterruptedException {
+        final List<Source> sources = new ArrayList<Source>();
+        sources.addAll(SdCardBackupProviderFragment.newDiscoverySource().asSet());
+        sources.addAll(DropboxBackupProviderFragment.newDiscoverySource(context).asSet());
+        return discover(sources, PROBE_TIMEOUT_MS, listener);
+    }
+
+    /**
+     * Probe the sources concurrently. The listener is called as each source answers, so a slow
+     * source doesn't hold back the backups already found on the others.
+     *
+     * @param sources   The sources.
+     * @param timeoutMs How long to wait for them all, in milliseconds.
+     * @param listener  Told about the newest backups found so far each time a source answers.
+     * @return The newest backups, newest first. At most {@link #MAX_CANDIDATES} are returned.
+     * @throws InterruptedException if interrupted while waiting for the sources.
+     */
+    static List<Candidate> discover(final List<Source> sources, final long timeoutMs,
+                                    final Listener listener) throws InterruptedException {
+        final CompletionService<List<Candidate>> completion =
+            new ExecutorCompletionService<List<Candidate>>(EXECUTOR);
+        final Map<Future<List<Candidate>>, Source> pending =
+            new HashMap<Future<List<Candidate>>, Source>();
+        for (final Source source : sources) {
+            pending.put(completion.submit(new Callable<List<Candidate>>() {
+                @Override
+                public List<Candidate> call() throws IOException {
+                    return source.list();
+                }
+            }), source);
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        try {
+            while (!pending.isEmpty()) {
+                final Future<List<Candidate>> result =
+                    completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (result == null) {
+                    break;
+                }
+                final Source source = pending.remove(result);
+                try {
+                    final List<Candidate> found = result.get();
+                    if (!found.isEmpty()) {
+                        candidates.addAll(found);
+                        listener.onCandidatesFound(newest(candidates));
+                    }
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Could not list backups of " + source, e.getCause());
+                }
+            }
+        } finally {
+            // Sources still running at the timeout are cancelled
+            for (final Map.Entry<Future<List<Candidate>>, Source> entry : pending.entrySet()) {
+                entry.getKey().cancel(true);
+                LOGGER.warn("Listing backups of {} was stopped", entry.getValue());
+            }
+        }
+
+        LOGGER.debug("Found {} backups", candidates.size());
+        return newest(candidates);
+    }
+
+    /**
+     * Sort backups newest first and keep at most {@link #MAX_CANDIDATES} of them.
+     *
+     * @param candidates The backups.
+     * @return The newest backups.
+     */
+    private static List<Candidate> newest(final List<Candidate> candidates) {
+        final List<Candidate> sorted = new ArrayList<Candidate>(candidates);
+        Collections.sort(sorted, new Comparator<Candidate>() {
+            @Override
+            public int compare(final Candidate c1, final Candidate c2) {
+                return (c1.time < c2.time) ? 1 : ((c1.time > c2.time) ? -1 : 0);
+            }
+        });
+        return (sorted.size() > MAX_CANDIDATES)
+            ? new ArrayList<Candidate>(sorted.subList(0, MAX_CANDIDATES)) : sorted;
+    }
+
+    /**
+     * Start fetching a backup in the background.
+     *
+     * @param candidate The backup, as returned by {@link #discover}.
+     * @param cacheFile File the backup may be downloaded to.
+     * @return The file holding the backup, once fetched.
+     */
+    public static Future<File> download(final Candidate candidate, final File cacheFile) {
+        return EXECUTOR.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                LOGGER.debug("Fetching backup {}", candidate);
+                return candidate.source.download(candidate, cacheFile);
+            }
+        });
+    }
+}
@@ -34,7 +34,11 @@ import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.mypico.android.core.PicoApplication;
 import org.mypico.android.backup.IBackupProvider.BackupType;
@@ -62,6 +66,21 @@ public final class BackupFactory {
      */
     private final static String LAST_BACKUP_TIME_KEY = "LastBackupTime";
 
+    /**
+     * Key used to store whether providers that support it make incremental backups.
+     */
+    private final static String INCREMENTAL_BACKUP_KEY = "IncrementalBackup";
+
+    /**
+     * Key used to store the providers backed up to as well as the configured one.
+     */
+    private final static String MIRROR_BACKUP_KEY = "MirrorBackup";
+
+    /**
+     * Key for the compressed backup preference.
+     */
+    private final static String COMPRESSED_BACKUP_KEY = "CompressedBackup";
+
     /**
      * Set the last saved backup time to the current time.
      */
@@ -180,6 +199,98 @@ public final class BackupFactory {
         editor.commit();
     }
 
+    /**
+     * Find whether providers that support it should make incremental backups, see
+     * {@link IncrementalBackup}. On by default.
+     *
+     * @return true if incremental backups should be made.
+     */
+    public static boolean isIncrementalBackup() {
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        return preferences.getBoolean(INCREMENTAL_BACKUP_KEY, true);
+    }
+
+    /**
+     * Set whether providers that support it should make incremental backups.
+     *
+     * @param incremental true to make incremental backups, false for full ones.
+     */
+    public static void setIncrementalBackup(final boolean incremental) {
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        final SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean(INCREMENTAL_BACKUP_KEY, incremental);
+        editor.commit();
+    }
+
+    /**
+     * Find whether full backups should be compressed before they are encrypted, see
+     * {@link ChunkedBackup}. On by default.
+     *
+     * @return true if backups should be compressed.
+     */
+    public static boolean isCompressedBackup() {
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        return preferences.getBoolean(COMPRESSED_BACKUP_KEY, true);
+    }
+
+    /**
+     * Set whether full backups should be compressed before they are encrypted.
+     *
+     * @param compressed true to compress backups.
+     */
+    public static void setCompressedBackup(final boolean compressed) {
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        final SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean(COMPRESSED_BACKUP_KEY, compressed);
+        editor.commit();
+    }
+
+    /**
+     * Get the providers automatic backups are also made to, as well as the configured one, so
+     * that the backup survives the loss of one of them.
+     *
+     * @return The extra providers, which may include the configured one.
+     */
+    public static EnumSet<BackupType> getMirrorBackupTypes() {
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        final EnumSet<BackupType> backupTypes = EnumSet.noneOf(BackupType.class);
+        for (String backupPref :
+            preferences.getStringSet(MIRROR_BACKUP_KEY, Collections.<String>emptySet())) {
+            try {
+                backupTypes.add(BackupType.valueOf(backupPref));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Mirror backup is invalid {}", backupPref);
+            }
+        }
+        backupTypes.remove(BackupType.NONE);
+        return backupTypes;
+    }
+
+    /**
+     * Set the providers automatic backups are also made to.
+     *
+     * @param backupTypes The extra providers.
+     */
+    public static void setMirrorBackupTypes(final Set<BackupType> backupTypes) {
+        // Verify the method preconditions
+        checkNotNull(backupTypes);
+
+        final Set<String> backupPrefs = new HashSet<String>();
+        for (BackupType backupType : backupTypes) {
+            backupPrefs.add(backupType.toString());
+        }
+        final SharedPreferences preferences =
+            PreferenceManager.getDefaultSharedPreferences(PicoApplication.getContext());
+        final SharedPreferences.Editor editor = preferences.edit();
+        editor.putStringSet(MIRROR_BACKUP_KEY, backupPrefs);
+        editor.commit();
+    }
+
     /**
      * Add the DropBox fragment UI to the activity.
      *
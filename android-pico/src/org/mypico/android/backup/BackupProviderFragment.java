@@ -36,10 +36,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.EnumSet;
 
+import org.mypico.android.core.PicoApplication;
 import org.mypico.android.db.DbHelper;
 import org.mypico.android.util.PauseHandler;
 import org.mypico.android.util.ProgressDialogFragment;
@@ -50,8 +50,6 @@ import org.mypico.android.R;
 import org.mypico.jpico.backup.BackupFileException;
 import org.mypico.jpico.backup.BackupKey;
 import org.mypico.jpico.backup.BackupKeyException;
-import org.mypico.jpico.backup.EncBackupFile;
-import org.mypico.jpico.gson.EncBackupFileGson;
 
 /**
  * BackupProviderFragment abstraction representing a backup provider.
@@ -414,32 +412,14 @@ public abstract class BackupProviderFragment extends Fragment implements IBackup
                 // Create a backup key from the entered user secret (note this is persisted)
                 final BackupKey backupKey = SharedPreferencesBackupKey.newInstance(userSecret);
 
-                final FileInputStream encBackupIs = new FileInputStream(encryptedBackupFile);
-                try {
-                    // Read the data from the encrypted Pico backup
-                    byte[] encryptedData = new byte[(int) encryptedBackupFile.length()];
-                    encBackupIs.read(encryptedData);
-
-                    // De-serialised JSON encoded backup
-                    final String jsonEnc = new String(encryptedData, "UTF-8");
-                    final EncBackupFile encBackupFile =
-                        EncBackupFileGson.gson.fromJson(jsonEnc, EncBackupFile.class);
-
-                    // Create the decrypted database file
-                    final File dbFile = DbHelper.getDatabaseFile();
-                    if (!dbFile.exists()) {
-                        dbFile.getParentFile().mkdirs();
-                        dbFile.createNewFile();
-                    }
-
-                    encBackupFile.createUnencryptedBackupFile(dbFile, backupKey);
-                    LOGGER.debug("Pico backup successfully restored");
-                    handler.sendMessage(handler.obtainMessage(
-                        BackupPauseHandler.CALLBACK,
-                        BackupPauseHandler.ON_RESTORE_BACKUP_SUCCESS, 0));
-                } finally {
-                    encBackupIs.close();
-                }
+                // Decrypt and check the backup, streaming it where the backup format allows,
+                // then swap it in for the open database
+                BackupRestore.restore(encryptedBackupFile, backupKey,
+                    DbHelper.getInstance(PicoApplication.getContext()));
+                LOGGER.debug("Pico backup successfully restored");
+                handler.sendMessage(handler.obtainMessage(
+                    BackupPauseHandler.CALLBACK,
+                    BackupPauseHandler.ON_RESTORE_BACKUP_SUCCESS, 0));
             } catch (BackupFileException e) {
                 // BackupFile could not be restored, usually a result of the decryption of the
                 // backup file failing
@@ -528,6 +508,16 @@ public abstract class BackupProviderFragment extends Fragment implements IBackup
         new DecryptThread(this, handler, encryptedBackupFile, userSecret).start();
     }
 
+    @Override
+    public void decryptRestoredBackup(final File backupFile, final byte[] userSecret) {
+        // Verify the method's preconditions
+        checkNotNull(backupFile);
+        checkNotNull(userSecret);
+
+        // Run of the UI thread
+        new DecryptThread(this, handler, backupFile, userSecret).start();
+    }
+
     protected void configureBackupProviderSuccess() {
         isConfigured = true;
         handler.sendMessage(handler.obtainMessage(BackupPauseHandler.CALLBACK,
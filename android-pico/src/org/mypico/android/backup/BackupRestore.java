@@ -0,0 +1,223 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.db.DbHelper;
+import org.mypico.jpico.backup.BackupFileException;
+import org.mypico.jpico.backup.BackupKey;
+import org.mypico.jpico.backup.BackupKeyException;
+import org.mypico.jpico.backup.EncBackupFile;
+import org.mypico.jpico.db.DbVersioner;
+import org.mypico.jpico.gson.EncBackupFileGson;
+
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonParseException;
+
+/**
+ * Decrypts a downloaded backup into the Pico database file.
+ * <p>
+ * The backup is decrypted into a temporary file next to the database and checked with SQLite's
+ * integrity check and against the schema versions this app can open. Only then does it replace
+ * the database, through {@link DbHelper#replaceDatabase(File)}, so a failed restore leaves the
+ * database as it was and a successful one is visible without restarting the app. A
+ * {@link ChunkedBackup}, or an {@link IncrementalBackup} bundle, is decrypted as a stream, one
+ * chunk at a time. A JSON encoded {@link EncBackupFile} is parsed straight from the file rather
+ * than read into memory first, but jpico decrypts it as a whole.
+ */
+final class BackupRestore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        BackupRestore.class.getSimpleName());
+
+    private static final String TEMP_SUFFIX = ".restore";
+    private static final int BUFFER_SIZE = 8192;
+
+    // Report corruption as a failure rather than let SQLite's default handler delete the file
+    private static final DatabaseErrorHandler KEEP_ON_CORRUPTION = new DatabaseErrorHandler() {
+        @Override
+        public void onCorruption(final SQLiteDatabase db) {
+            LOGGER.warn("Restored database {} is corrupt", db.getPath());
+        }
+    };
+
+    private BackupRestore() {
+        // no instances
+    }
+
+    /**
+     * Restore a backup.
+     *
+     * @param backupFile The encrypted backup.
+     * @param key        Key the backup was made with.
+     * @param helper     Helper of the database to replace.
+     * @throws IOException         if the backup could not be read, failed authentication, was
+     *                             not a usable database or could not replace the database.
+     * @throws BackupFileException if jpico could not decrypt a JSON encoded backup.
+     * @throws BackupKeyException  if the key could not be used to decrypt a JSON encoded backup.
+     */
+    static void restore(final File backupFile, final BackupKey key, final DbHelper helper)
+        throws IOException, BackupFileException, BackupKeyException {
+        final File dbFile = helper.getFile();
+        final File parent = dbFile.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        final File tempFile = new File(parent, dbFile.getName() + TEMP_SUFFIX);
+
+        boolean restored = false;
+        try {
+            final InputStream in =
+                new BufferedInputStream(new FileInputStream(backupFile), BUFFER_SIZE);
+            try {
+                if (IncrementalBackup.isBundle(in)) {
+                    LOGGER.debug("Restoring incremental backup");
+                    decryptIncremental(in, key, tempFile);
+                } else if (ChunkedBackup.isChunked(in)) {
+                    LOGGER.debug("Restoring chunked backup");
+                    decryptChunked(in, key, tempFile);
+                } else {
+                    LOGGER.debug("Restoring JSON backup");
+                    decryptJson(in, key, tempFile);
+                }
+            } finally {
+                in.close();
+            }
+
+            verify(tempFile);
+            helper.replaceDatabase(tempFile);
+            restored = true;
+        } finally {
+            if (!restored && tempFile.exists() && !tempFile.delete()) {
+                LOGGER.warn("Could not delete {}", tempFile);
+            }
+            deleteJournals(tempFile);
+        }
+    }
+
+    /**
+     * Check a decrypted database before it replaces the current one.
+     *
+     * @param file The decrypted database.
+     * @throws IOException if it cannot be opened, fails the integrity check or has a schema
+     *                     version this app cannot open.
+     */
+    private static void verify(final File file) throws IOException {
+        final SQLiteDatabase db;
+        try {
+            // Read-write, as a read-only handle may fail on a database left in WAL mode
+            db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE, KEEP_ON_CORRUPTION);
+        } catch (SQLiteException e) {
+            throw new IOException("Restored database could not be opened", e);
+        }
+        try {
+            // Older versions are upgraded when the database is reopened, newer ones cannot be
+            final int version = db.getVersion();
+            if (version < 1 || version > DbVersioner.CURRENT_VERSION) {
+                throw new IOException("Restored database has unsupported version " + version);
+            }
+            final Cursor c = db.rawQuery("PRAGMA integrity_check", null);
+            try {
+                final String result = c.moveToFirst() ? c.getString(0) : null;
+                if (!"ok".equals(result)) {
+                    throw new IOException("Restored database failed integrity check: " + result);
+                }
+            } finally {
+                c.close();
+            }
+            LOGGER.debug("Restored database version {} passed integrity check", version);
+        } catch (SQLiteException e) {
+            throw new IOException("Restored database could not be checked", e);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Tidy up any journal files SQLite left beside the temporary database. They are named after
+     * it, so would never be applied to the real database.
+     */
+    private static void deleteJournals(final File file) {
+        for (String suffix : new String[]{"-wal", "-shm", "-journal"}) {
+            final File journal = new File(file.getPath() + suffix);
+            if (journal.exists() && !journal.delete()) {
+                LOGGER.warn("Could not delete {}", journal);
+            }
+        }
+    }
+
+    private static void decryptIncremental(final InputStream in, final BackupKey key,
+                                           final File tempFile) throws IOException {
+        final FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            IncrementalBackup.restore(in, key, out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void decryptChunked(final InputStream in, final BackupKey key,
+                                       final File tempFile) throws IOException {
+        final InputStream plain = ChunkedBackup.newDecryptingStream(in, key);
+        final FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            ByteStreams.copy(plain, out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void decryptJson(final InputStream in, final BackupKey key,
+                                    final File tempFile)
+        throws IOException, BackupFileException, BackupKeyException {
+        final EncBackupFile encBackupFile;
+        try {
+            encBackupFile = EncBackupFileGson.gson.fromJson(
+                new InputStreamReader(in, "UTF-8"), EncBackupFile.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Backup is not valid JSON", e);
+        }
+        if (encBackupFile == null) {
+            throw new IOException("Backup is empty");
+        }
+        encBackupFile.createUnencryptedBackupFile(tempFile, key);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.backup.IBackupProvider.BackupType;
+import org.mypico.android.db.DbChanges;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import static org.mypico.android.backup.IBackupProvider.BackupType.DROPBOX;
+import static org.mypico.android.backup.IBackupProvider.BackupType.SDCARD;
+
+/**
+ * Schedules automatic backups when the database changes.
+ * <p>
+ * Writes counted by {@link DbChanges} arrive in bursts, for example when several pairings are
+ * deleted together, so they are first allowed to settle. Each settled burst marks a backup as
+ * pending in the shared preferences and (re)sets an alarm for {@link BackupService} after a
+ * further quiet period, so a run of edits leads to one backup. A change is never held back for
+ * more than {@link #MAX_DELAY_MS} by later ones. Failed backups are retried with exponential
+ * backoff. The pending state survives the process, and {@link #start} reschedules it.
+ * <p>
+ * Only providers that can back up without the UI, incrementally, are backed up automatically;
+ * see {@link #getAutomaticTypes()}. Those include any mirror providers, which are backed up to
+ * together; a provider that fails is retried on its own.
+ */
+public final class BackupScheduler implements DbChanges.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        BackupScheduler.class.getSimpleName());
+
+    // Writes closer together than this are one burst
+    private static final long SETTLE_MS = 2 * 1000;
+    // Quiet period after a burst before the backup runs
+    private static final long DEBOUNCE_MS = 10 * 60 * 1000;
+    // Longest a change waits while further changes keep arriving
+    private static final long MAX_DELAY_MS = 6 * AlarmManager.INTERVAL_HOUR;
+    // First retry delay after a failed backup, doubled on each further failure
+    private static final long MIN_RETRY_MS = 5 * 60 * 1000;
+    private static final long MAX_RETRY_MS = AlarmManager.INTERVAL_HALF_DAY;
+
+    private static final String CHANGES_KEY = "BackupChanges";
+    private static final String PENDING_SINCE_KEY = "BackupPendingSince";
+    private static final String ATTEMPTS_KEY = "BackupAttempts";
+    private static final String RETRY_TYPES_KEY = "BackupRetryTypes";
+
+    // Guards the read-modify-write of the preferences above
+    private static final Object LOCK = new Object();
+
+    private static BackupScheduler instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Runnable settled = new Runnable() {
+        @Override
+        public void run() {
+            changesSettled();
+        }
+    };
+
+    private BackupScheduler(final Context context) {
+        this.context = context;
+        final HandlerThread thread =
+            new HandlerThread("BackupScheduler", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Start listening for database changes, and reschedule a backup left pending by an earlier
+     * process. Called once when the app starts.
+     *
+     * @param context Context used to schedule backups.
+     */
+    public static synchronized void start(final Context context) {
+        if (instance == null) {
+            instance = new BackupScheduler(context.getApplicationContext());
+            DbChanges.getInstance().setListener(instance);
+
+            final long pendingSince = preferences(context).getLong(PENDING_SINCE_KEY, -1);
+            if (pendingSince >= 0 && !getAutomaticTypes().isEmpty()) {
+                LOGGER.debug("Backup pending since {}", pendingSince);
+                scheduleRun(context, delayFor(pendingSince));
+            }
+        }
+    }
+
+    /**
+     * Find whether the configured provider is backed up automatically. Otherwise backups to it
+     * are only made when the UI asks for them.
+     *
+     * @return true if backups are made automatically.
+     */
+    public static boolean isAutomatic() {
+        return getAutomaticTypes().contains(BackupFactory.restoreBackupType());
+    }
+
+    /**
+     * Get the providers backed up to automatically: those of the configured and mirror providers
+     * that can be backed up without the UI.
+     *
+     * @return The providers.
+     */
+    static EnumSet<BackupType> getAutomaticTypes() {
+        if (!BackupFactory.isIncrementalBackup()) {
+            return EnumSet.noneOf(BackupType.class);
+        }
+        final EnumSet<BackupType> backupTypes = BackupFactory.getMirrorBackupTypes();
+        backupTypes.add(BackupFactory.restoreBackupType());
+        backupTypes.retainAll(EnumSet.of(SDCARD, DROPBOX));
+        return backupTypes;
+    }
+
+    @Override
+    public void onDbChanged(final long generation) {
+        handler.removeCallbacks(settled);
+        handler.postDelayed(settled, SETTLE_MS);
+    }
+
+    private void changesSettled() {
+        final long pendingSince;
+        synchronized (LOCK) {
+            final SharedPreferences preferences = preferences(context);
+            final SharedPreferences.Editor editor = preferences.edit();
+            editor.putLong(CHANGES_KEY, preferences.getLong(CHANGES_KEY, 0) + 1);
+            if (!preferences.contains(PENDING_SINCE_KEY)) {
+                editor.putLong(PENDING_SINCE_KEY, System.currentTimeMillis());
+            }
+            // Every provider needs the new changes
+            editor.remove(RETRY_TYPES_KEY);
+            editor.commit();
+            pendingSince = preferences.getLong(PENDING_SINCE_KEY, -1);
+        }
+        if (!getAutomaticTypes().isEmpty()) {
+            scheduleRun(context, delayFor(pendingSince));
+        }
+    }
+
+    /**
+     * @return true if there are changes that have not been backed up.
+     */
+    static boolean isPending(final Context context) {
+        return preferences(context).contains(PENDING_SINCE_KEY);
+    }
+
+    /**
+     * @return The number of settled bursts of changes so far, to pass to
+     * {@link #backupFinished} once the backup has been made.
+     */
+    static long getChanges(final Context context) {
+        return preferences(context).getLong(CHANGES_KEY, 0);
+    }
+
+    /**
+     * Get the providers that should be backed up to by the next run. Empty after new changes,
+     * meaning all of them; otherwise the ones that failed last time.
+     *
+     * @param context Context used to read the preferences.
+     * @return The providers to retry.
+     */
+    static EnumSet<BackupType> getRetryTypes(final Context context) {
+        final EnumSet<BackupType> backupTypes = EnumSet.noneOf(BackupType.class);
+        for (String backupPref : preferences(context)
+            .getStringSet(RETRY_TYPES_KEY, Collections.<String>emptySet())) {
+            try {
+                backupTypes.add(BackupType.valueOf(backupPref));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Retry backup is invalid {}", backupPref);
+            }
+        }
+        return backupTypes;
+    }
+
+    /**
+     * Record the outcome of a backup. Changes made since it started stay pending, and
+     * providers that failed are retried with exponential backoff.
+     *
+     * @param context Context used to read the preferences and schedule any retry.
+     * @param changes The value of {@link #getChanges} before the backup started.
+     * @param failed  The providers that could not be backed up to.
+     */
+    static void backupFinished(final Context context, final long changes,
+                               final Set<BackupType> failed) {
+        final int attempts;
+        synchronized (LOCK) {
+            final SharedPreferences preferences = preferences(context);
+            final SharedPreferences.Editor editor = preferences.edit();
+            final boolean changed = preferences.getLong(CHANGES_KEY, 0) != changes;
+            if (failed.isEmpty()) {
+                editor.remove(ATTEMPTS_KEY);
+                editor.remove(RETRY_TYPES_KEY);
+                if (changed) {
+                    // Their own alarm is already set
+                    editor.putLong(PENDING_SINCE_KEY, System.currentTimeMillis());
+                } else {
+                    editor.remove(PENDING_SINCE_KEY);
+                }
+                editor.commit();
+                return;
+            }
+
+            attempts = preferences.getInt(ATTEMPTS_KEY, 0) + 1;
+            editor.putInt(ATTEMPTS_KEY, attempts);
+            if (!changed) {
+                // Otherwise every provider needs the new changes
+                final Set<String> backupPrefs = new HashSet<String>();
+                for (BackupType backupType : failed) {
+                    backupPrefs.add(backupType.toString());
+                }
+                editor.putStringSet(RETRY_TYPES_KEY, backupPrefs);
+            }
+            editor.commit();
+        }
+        final long delay = (attempts > 10)
+            ? MAX_RETRY_MS : Math.min(MIN_RETRY_MS << (attempts - 1), MAX_RETRY_MS);
+        LOGGER.info("Backup attempt {} to {} failed, retrying in {}ms",
+            new Object[]{attempts, failed, delay});
+        scheduleRun(context, delay);
+    }
+
+    /**
+     * Set the alarm that starts {@link BackupService}, replacing any earlier one.
+     */
+    private static void scheduleRun(final Context context, final long delayMs) {
+        final PendingIntent operation = PendingIntent.getService(context, 0,
+            BackupService.newRunIntent(context), PendingIntent.FLAG_UPDATE_CURRENT);
+        final AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Not a wakeup alarm; the backup can wait until the device is next awake
+        alarms.set(AlarmManager.ELAPSED_REALTIME,
+            SystemClock.elapsedRealtime() + delayMs, operation);
+    }
+
+    private static long delayFor(final long pendingSince) {
+        final long deadline = pendingSince + MAX_DELAY_MS - System.currentTimeMillis();
+        return Math.max(0, Math.min(DEBOUNCE_MS, deadline));
+    }
+
+    private static SharedPreferences preferences(final Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
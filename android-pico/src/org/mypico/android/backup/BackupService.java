@@ -0,0 +1,280 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.R;
+import org.mypico.android.backup.IBackupProvider.BackupType;
+import org.mypico.android.db.DbHelper;
+import org.mypico.jpico.backup.BackupKey;
+import org.mypico.jpico.backup.BackupKeyException;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.support.v4.app.NotificationCompat;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+
+import static org.mypico.android.backup.IBackupProvider.BackupType.SDCARD;
+
+/**
+ * Makes the automatic backups scheduled by {@link BackupScheduler}, away from the UI.
+ * <p>
+ * A backup is only made while the device is charging and, unless it is only to the SD card, on an
+ * unmetered network. Otherwise {@link BackupConditionsReceiver} is enabled to start the service
+ * again when the power or network changes. The database is backed up to every automatic provider
+ * at once, see {@link IncrementalBackup#create(File, BackupKey, Map, int,
+ * IncrementalBackup.ProgressListener)}, with a notification showing each provider's progress and
+ * then the overall result.
+ */
+public class BackupService extends IntentService {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(BackupService.class.getSimpleName());
+
+    static final String RUN_BACKUP_ACTION = "RUN_BACKUP";
+
+    // Distinct from the notification of backups made by BackupProviderFragment
+    private static final int NOTIFICATION_ID = 2;
+
+    public BackupService() {
+        this(BackupService.class.getCanonicalName());
+    }
+
+    public BackupService(final String name) {
+        super(name);
+    }
+
+    /**
+     * Create the intent that runs a pending backup.
+     *
+     * @param context Context of the intent.
+     * @return The intent.
+     */
+    static Intent newRunIntent(final Context context) {
+        final Intent intent = new Intent(context, BackupService.class);
+        intent.setAction(RUN_BACKUP_ACTION);
+        return intent;
+    }
+
+    @Override
+    protected void onHandleIntent(final Intent intent) {
+        if (!RUN_BACKUP_ACTION.equals(intent.getAction())) {
+            LOGGER.warn("Unrecongised action {} ignored", intent.getAction());
+            return;
+        }
+        final EnumSet<BackupType> backupTypes = BackupScheduler.getAutomaticTypes();
+        final EnumSet<BackupType> retryTypes = BackupScheduler.getRetryTypes(this);
+        if (!retryTypes.isEmpty()) {
+            backupTypes.retainAll(retryTypes);
+        }
+        if (!BackupScheduler.isPending(this) || backupTypes.isEmpty()) {
+            BackupConditionsReceiver.setEnabled(this, false);
+            return;
+        }
+
+        final boolean needsNetwork = !EnumSet.of(SDCARD).containsAll(backupTypes);
+        if (!isCharging() || (needsNetwork && !isUnmetered())) {
+            LOGGER.debug("Backup waiting for power or an unmetered network");
+            BackupConditionsReceiver.setEnabled(this, true);
+            return;
+        }
+        BackupConditionsReceiver.setEnabled(this, false);
+
+        final long changes = BackupScheduler.getChanges(this);
+        final EnumSet<BackupType> failed = EnumSet.noneOf(BackupType.class);
+        final Map<String, BackupStore> stores = new LinkedHashMap<String, BackupStore>();
+        final Map<String, BackupType> storeTypes = new HashMap<String, BackupType>();
+        for (BackupType backupType : backupTypes) {
+            final Optional<BackupStore> store = newStore(backupType);
+            if (store.isPresent()) {
+                stores.put(backupType.getProviderName(), store.get());
+                storeTypes.put(backupType.getProviderName(), backupType);
+            } else {
+                LOGGER.warn("{} backup is not available", backupType);
+                failed.add(backupType);
+            }
+        }
+
+        if (!stores.isEmpty()) {
+            final Progress progress = new Progress(stores.keySet());
+            try {
+                final BackupKey backupKey = SharedPreferencesBackupKey.restoreInstance();
+                final File dbFile = DbHelper.newSnapshot(this);
+                try {
+                    for (IncrementalBackup.Result result : IncrementalBackup.create(
+                        dbFile, backupKey, stores, IncrementalBackup.DEFAULT_SNAPSHOTS, progress)) {
+                        if (!result.isSuccess()) {
+                            failed.add(storeTypes.get(result.name));
+                        }
+                    }
+                } finally {
+                    dbFile.delete();
+                }
+            } catch (BackupKeyException e) {
+                LOGGER.error("BackupKey is invalid", e);
+                failed.addAll(backupTypes);
+            } catch (IOException e) {
+                LOGGER.error("Could not snapshot the database", e);
+                failed.addAll(backupTypes);
+            }
+        }
+
+        if (!failed.containsAll(backupTypes)) {
+            BackupFactory.saveBackupTimeNow();
+        }
+        BackupScheduler.backupFinished(this, changes, failed);
+        notifyFinished(backupTypes, failed);
+    }
+
+    private Optional<BackupStore> newStore(final BackupType backupType) {
+        switch (backupType) {
+            case SDCARD:
+                return SdCardBackupProviderFragment.newIncrementalStore();
+            case DROPBOX:
+                return DropboxBackupProviderFragment.newIncrementalStore(this);
+            default:
+                return Optional.absent();
+        }
+    }
+
+    /**
+     * Shows the progress of each provider in a notification, updated as a provider's percentage
+     * changes.
+     */
+    private final class Progress implements IncrementalBackup.ProgressListener {
+
+        private final Map<String, Integer> percentages = new LinkedHashMap<String, Integer>();
+
+        Progress(final Set<String> names) {
+            for (String name : names) {
+                percentages.put(name, 0);
+            }
+            show();
+        }
+
+        @Override
+        public void onProgress(final String name, final int done, final int total) {
+            final int percentage = (total == 0) ? 100 : Math.min(100, done * 100 / total);
+            synchronized (this) {
+                if (percentages.put(name, percentage) == percentage) {
+                    return;
+                }
+            }
+            show();
+        }
+
+        private void show() {
+            final NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+            int sum = 0;
+            synchronized (this) {
+                for (Map.Entry<String, Integer> entry : percentages.entrySet()) {
+                    style.addLine(getString(R.string.automatic_backup__notification_progress,
+                        entry.getKey(), entry.getValue()));
+                    sum += entry.getValue();
+                }
+            }
+            final NotificationCompat.Builder builder = newNotification()
+                .setContentText(getText(R.string.create_backup_task__backup_notification))
+                .setProgress(100, sum / percentages.size(), false)
+                .setOngoing(true)
+                .setStyle(style);
+            notificationManager().notify(NOTIFICATION_ID, builder.build());
+        }
+    }
+
+    /**
+     * Replace the progress notification with the result for every provider.
+     */
+    private void notifyFinished(final Set<BackupType> backupTypes,
+                                final Set<BackupType> failed) {
+        final List<String> succeededNames = new ArrayList<String>();
+        final List<String> failedNames = new ArrayList<String>();
+        for (BackupType backupType : backupTypes) {
+            (failed.contains(backupType) ? failedNames : succeededNames)
+                .add(backupType.getProviderName());
+        }
+        final Joiner joiner = Joiner.on(", ");
+        final CharSequence text;
+        if (failedNames.isEmpty()) {
+            text = getString(R.string.automatic_backup__notification_success,
+                joiner.join(succeededNames));
+        } else if (succeededNames.isEmpty()) {
+            text = getString(R.string.automatic_backup__notification_failure,
+                joiner.join(failedNames));
+        } else {
+            text = getString(R.string.automatic_backup__notification_partial,
+                joiner.join(succeededNames), joiner.join(failedNames));
+        }
+        final NotificationCompat.Builder builder = newNotification()
+            .setContentText(text)
+            .setAutoCancel(true)
+            .setStyle(new NotificationCompat.BigTextStyle().bigText(text));
+        notificationManager().notify(NOTIFICATION_ID, builder.build());
+    }
+
+    private NotificationCompat.Builder newNotification() {
+        return new NotificationCompat.Builder(this)
+            .setContentTitle(getText(R.string.create_backup_task__backup_notification_title))
+            .setSmallIcon(R.drawable.ic_notification)
+            .setColor(getResources().getColor(R.color.pico_orange));
+    }
+
+    private NotificationManager notificationManager() {
+        return (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    private boolean isCharging() {
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the current state without
+        // registering anything
+        final Intent battery =
+            registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private boolean isUnmetered() {
+        final ConnectivityManager connectivity =
+            (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo network = connectivity.getActiveNetworkInfo();
+        return network != null && network.isConnected() && !connectivity.isActiveNetworkMetered();
+    }
+}
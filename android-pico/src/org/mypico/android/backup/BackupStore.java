@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A place backups can be stored without a UI, as named blobs in a few flat folders.
+ * <p>
+ * Methods block, so must not be called on the UI thread.
+ *
+ * @see IncrementalBackup
+ */
+public interface BackupStore {
+
+    /**
+     * List the blobs in a folder.
+     *
+     * @param folder The folder.
+     * @return The names of the blobs, in no particular order. Empty if the folder does not exist.
+     * @throws IOException if the store could not be read.
+     */
+    List<String> list(String folder) throws IOException;
+
+    /**
+     * Read a blob.
+     *
+     * @param folder The folder.
+     * @param name   The name of the blob.
+     * @return The contents.
+     * @throws IOException if the blob does not exist or could not be read.
+     */
+    byte[] read(String folder, String name) throws IOException;
+
+    /**
+     * Write a blob, replacing any blob with the same name.
+     *
+     * @param folder The folder, created if need be.
+     * @param name   The name of the blob.
+     * @param data   The contents.
+     * @throws IOException if the blob could not be written.
+     */
+    void write(String folder, String name, byte[] data) throws IOException;
+
+    /**
+     * Delete a blob. Deleting a blob that does not exist is not an error.
+     *
+     * @param folder The folder.
+     * @param name   The name of the blob.
+     * @throws IOException if the blob could not be deleted.
+     */
+    void delete(String folder, String name) throws IOException;
+}
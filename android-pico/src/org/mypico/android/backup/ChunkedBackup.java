@@ -0,0 +1,735 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The chunked backup format, which can be decrypted as a stream.
+ * <p>
+ * A chunked backup starts with a header:
+ * <pre>
+ *   magic      8 bytes  "PICOBAK" followed by 0x02
+ *   version    int
+ *   chunkSize  int      largest plaintext chunk, between {@link #MIN_CHUNK_SIZE} and
+ *                       {@link #MAX_CHUNK_SIZE}
+ *   flags      int      {@link #FLAG_DEFLATE} if the database was compressed before it was
+ *                       chunked, absent from version 1 backups
+ *   fileId     16 bytes random, unique to the backup
+ * </pre>
+ * followed by chunks:
+ * <pre>
+ *   record     int      ciphertext length, with the top bit set on the last chunk
+ *   ciphertext          AES-256-CTR, counter block = chunk index (8 bytes) || 0 (8 bytes)
+ *   tag        32 bytes HMAC-SHA256 over chunk index (8 bytes) || record || ciphertext
+ * </pre>
+ * The encryption and MAC keys are derived from the user secret of the {@link BackupKey} and the
+ * file id with HMAC-SHA256, so every backup has its own keys. From version 2 the flags are
+ * derived into the keys too, so changing them makes the first chunk fail authentication. Each
+ * chunk is authenticated before any of it is released, the chunk index stops chunks being
+ * reordered, and the last chunk flag stops a backup being truncated unnoticed.
+ * <p>
+ * Backups are written with chunks of {@link #CHUNK_SIZE} bytes, either pushed through
+ * {@link #newEncryptingStream(OutputStream, BackupKey)} or pulled through
+ * {@link #newEncryptingStream(InputStream, BackupKey)}. Only the last chunk is shorter, and it is
+ * empty only if the whole backup is, so the length of a backup follows from the length of the
+ * database; see {@link #encryptedLength(long)}.
+ * <p>
+ * The database has many free pages and much repeated text, so it can be compressed with deflate
+ * before it is chunked, see {@link #newEncryptingStream(OutputStream, BackupKey, boolean)}. The
+ * length of a compressed backup is then only bounded, see {@link #maxEncryptedLength(long)}.
+ * Version 1 backups, which predate the flags, are still decrypted.
+ */
+public final class ChunkedBackup {
+
+    static final byte[] MAGIC = {'P', 'I', 'C', 'O', 'B', 'A', 'K', 0x02};
+    static final int VERSION = 2;
+    // Version of backups written before the flags field was added
+    static final int VERSION_NO_FLAGS = 1;
+    /// Flag set if the chunks hold the database compressed with deflate
+    static final int FLAG_DEFLATE = 0x01;
+    static final int MIN_CHUNK_SIZE = 1024;
+    static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    static final int FILE_ID_LENGTH = 16;
+    static final int TAG_LENGTH = 32;
+    static final int LAST_CHUNK = 0x80000000;
+    /// Size of the chunks backups are written with
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // Deflate level, chosen for speed as most of the gain comes from free pages
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + 4 + 4 + FILE_ID_LENGTH;
+    private static final int RECORD_OVERHEAD = 4 + TAG_LENGTH;
+
+    private static final String CIPHER = "AES/CTR/NoPadding";
+    static final String MAC = "HmacSHA256";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private ChunkedBackup() {
+        // no instances
+    }
+
+    /**
+     * Find whether a backup is in the chunked format, by its first bytes.
+     *
+     * @param in Stream positioned at the start of the backup, which must support
+     *           {@link InputStream#mark}. It is reset before returning.
+     * @return true if the backup starts with the chunked format's magic.
+     * @throws IOException if the stream could not be read.
+     */
+    public static boolean isChunked(final InputStream in) throws IOException {
+        return startsWith(in, MAGIC);
+    }
+
+    /**
+     * Find whether a stream starts with the given bytes.
+     *
+     * @param in    Stream, which must support {@link InputStream#mark}. It is reset before
+     *              returning.
+     * @param magic The bytes.
+     * @return true if the stream starts with them.
+     * @throws IOException if the stream could not be read.
+     */
+    static boolean startsWith(final InputStream in, final byte[] magic) throws IOException {
+        final byte[] start = new byte[magic.length];
+        in.mark(start.length);
+        try {
+            return ByteStreams.read(in, start, 0, start.length) == start.length
+                && Arrays.equals(start, magic);
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Open a chunked backup for decryption. Only one chunk of the backup is held in memory at a
+     * time.
+     *
+     * @param in  Stream positioned at the start of the backup.
+     * @param key Key the backup was made with.
+     * @return A stream of the decrypted backup, decompressed if it was compressed. Closing it
+     * closes <code>in</code>.
+     * @throws IOException if the header is not valid. Reading the stream throws
+     *                     <code>IOException</code> if a chunk fails authentication or the
+     *                     backup is truncated.
+     */
+    public static InputStream newDecryptingStream(final InputStream in, final BackupKey key)
+        throws IOException {
+        final DecryptingInputStream decrypted =
+            new DecryptingInputStream(new DataInputStream(in), key);
+        return decrypted.compressed ? new InflatingInputStream(decrypted) : decrypted;
+    }
+
+    /**
+     * Encrypt a backup as it is written. The last chunk is written by
+     * {@link EncryptingOutputStream#finish()} or {@link EncryptingOutputStream#close()}.
+     *
+     * @param out Stream to write the encrypted backup to. The header is written straight away.
+     * @param key Key to make the backup with.
+     * @return A stream to write the database to.
+     * @throws IOException if the header could not be written.
+     */
+    public static EncryptingOutputStream newEncryptingStream(final OutputStream out,
+                                                             final BackupKey key)
+        throws IOException {
+        return newEncryptingStream(out, key, false);
+    }
+
+    /**
+     * Encrypt a backup as it is written, optionally compressing it first. The last chunk is
+     * written by {@link EncryptingOutputStream#finish()} or {@link EncryptingOutputStream#close()}.
+     *
+     * @param out      Stream to write the encrypted backup to. The header is written straight
+     *                 away.
+     * @param key      Key to make the backup with.
+     * @param compress Whether to compress the backup with deflate before encrypting it.
+     * @return A stream to write the database to.
+     * @throws IOException if the header could not be written.
+     */
+    public static EncryptingOutputStream newEncryptingStream(final OutputStream out,
+                                                             final BackupKey key,
+                                                             final boolean compress)
+        throws IOException {
+        return new EncryptingOutputStream(out, new Sealer(key, compress ? FLAG_DEFLATE : 0));
+    }
+
+    /**
+     * Encrypt a backup as it is read, for APIs that upload from an <code>InputStream</code>.
+     *
+     * The backup is not compressed, so that its length is known in advance.
+     *
+     * @param in  Stream of the database.
+     * @param key Key to make the backup with.
+     * @return A stream of the encrypted backup. Closing it closes <code>in</code>.
+     * @throws IOException if the keys could not be derived.
+     */
+    public static InputStream newEncryptingStream(final InputStream in, final BackupKey key)
+        throws IOException {
+        return new EncryptingInputStream(in, new Sealer(key, 0));
+    }
+
+    /**
+     * Write the backup of a database file, reading and encrypting it a chunk at a time.
+     *
+     * @param dbFile   Database file to back up.
+     * @param key      Key to make the backup with.
+     * @param compress Whether to compress the backup with deflate before encrypting it.
+     * @param out      Stream to write the backup to. It is flushed but not closed.
+     * @throws IOException if the database could not be read or the backup written.
+     */
+    public static void writeBackup(final File dbFile, final BackupKey key,
+                                   final boolean compress, final OutputStream out)
+        throws IOException {
+        final InputStream in = new FileInputStream(dbFile);
+        try {
+            final EncryptingOutputStream encrypted = newEncryptingStream(out, key, compress);
+            ByteStreams.copy(in, encrypted);
+            encrypted.finish();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the length of the uncompressed backup of a database.
+     *
+     * @param plainLength Length of the database in bytes.
+     * @return Length of its backup in bytes.
+     */
+    public static long encryptedLength(final long plainLength) {
+        final long chunks = Math.max(1, (plainLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        return HEADER_LENGTH + plainLength + chunks * RECORD_OVERHEAD;
+    }
+
+    /**
+     * Get the longest a compressed or uncompressed backup of a database can be. Deflate can
+     * expand data that does not compress, by a few bytes per block.
+     *
+     * @param plainLength Length of the database in bytes.
+     * @return Upper bound on the length of its backup in bytes.
+     */
+    public static long maxEncryptedLength(final long plainLength) {
+        // zlib's compressBound()
+        final long deflated = plainLength + (plainLength >> 12) + (plainLength >> 14)
+            + (plainLength >> 25) + 13;
+        return encryptedLength(deflated);
+    }
+
+    /**
+     * Derive a key from the user secret of a backup key.
+     *
+     * @param key     The backup key.
+     * @param label   What the key is for, so that keys for different purposes differ.
+     * @param context Further input, such as the id of a backup, may be empty.
+     * @return A 32 byte key.
+     * @throws IOException if HMAC-SHA256 is not available.
+     */
+    static byte[] derive(final BackupKey key, final String label, final byte[] context)
+        throws IOException {
+        try {
+            final Mac mac = Mac.getInstance(MAC);
+            mac.init(new SecretKeySpec(key.getUserSecret(), MAC));
+            mac.update(label.getBytes(ASCII));
+            return mac.doFinal(context);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Backup keys could not be derived", e);
+        }
+    }
+
+    /**
+     * The keys of one backup.
+     */
+    static final class Keys {
+        final SecretKeySpec encryption;
+        final SecretKeySpec authentication;
+
+        /**
+         * @param context The file id, followed by the flags from version 2.
+         */
+        Keys(final BackupKey key, final byte[] context) throws IOException {
+            encryption = new SecretKeySpec(derive(key, "encryption", context), "AES");
+            authentication = new SecretKeySpec(derive(key, "authentication", context), MAC);
+        }
+
+        static byte[] context(final byte[] fileId, final int flags) {
+            return ByteBuffer.allocate(FILE_ID_LENGTH + 4).put(fileId).putInt(flags).array();
+        }
+
+        Cipher cipher() throws IOException {
+            try {
+                return Cipher.getInstance(CIPHER);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Backup cipher could not be created", e);
+            }
+        }
+
+        /**
+         * Initialise a cipher for one chunk. Each chunk has its own range of counter blocks.
+         */
+        void init(final Cipher cipher, final int mode, final long chunkIndex)
+            throws GeneralSecurityException {
+            cipher.init(mode, encryption, new IvParameterSpec(
+                ByteBuffer.allocate(16).putLong(chunkIndex).array()));
+        }
+
+        Mac mac() throws IOException {
+            try {
+                final Mac mac = Mac.getInstance(MAC);
+                mac.init(authentication);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Backup MAC could not be initialised", e);
+            }
+        }
+    }
+
+    /**
+     * Compute the tag of a chunk.
+     */
+    static byte[] tag(final Mac mac, final long chunkIndex, final int record,
+                      final byte[] ciphertext, final int length) {
+        mac.update(ByteBuffer.allocate(12).putLong(chunkIndex).putInt(record).array());
+        mac.update(ciphertext, 0, length);
+        return mac.doFinal();
+    }
+
+    /**
+     * Encrypts and authenticates the chunks of a new backup.
+     */
+    private static final class Sealer {
+        final byte[] header;
+        private final Keys keys;
+        private final Cipher cipher;
+        private final Mac mac;
+        private long chunkIndex;
+
+        final int flags;
+
+        Sealer(final BackupKey key, final int flags) throws IOException {
+            final byte[] fileId = new byte[FILE_ID_LENGTH];
+            new SecureRandom().nextBytes(fileId);
+            keys = new Keys(key, Keys.context(fileId, flags));
+            cipher = keys.cipher();
+            mac = keys.mac();
+            this.flags = flags;
+            header = ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).putInt(VERSION)
+                .putInt(CHUNK_SIZE).putInt(flags).put(fileId).array();
+        }
+
+        /**
+         * Seal one chunk.
+         *
+         * @param plaintext The chunk.
+         * @param length    Length of the chunk.
+         * @param last      Whether this is the last chunk.
+         * @param record    Buffer for the record, at least {@link #RECORD_OVERHEAD} bytes longer
+         *                  than the chunk.
+         * @return The length of the record.
+         */
+        int seal(final byte[] plaintext, final int length, final boolean last,
+                 final byte[] record) throws IOException {
+            final int header = last ? (length | LAST_CHUNK) : length;
+            try {
+                keys.init(cipher, Cipher.ENCRYPT_MODE, chunkIndex);
+                cipher.doFinal(plaintext, 0, length, record, 4);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Backup chunk " + chunkIndex + " could not be encrypted", e);
+            }
+            ByteBuffer.wrap(record).putInt(header);
+            mac.update(ByteBuffer.allocate(12).putLong(chunkIndex).putInt(header).array());
+            mac.update(record, 4, length);
+            try {
+                mac.doFinal(record, 4 + length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Backup chunk " + chunkIndex + " could not be tagged", e);
+            }
+            chunkIndex++;
+            return RECORD_OVERHEAD + length;
+        }
+    }
+
+    /**
+     * Stream that encrypts a backup as it is written, compressing it first if the
+     * {@link #FLAG_DEFLATE} flag is set.
+     */
+    public static final class EncryptingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Sealer sealer;
+        private final byte[] plaintext = new byte[CHUNK_SIZE];
+        private final byte[] record = new byte[CHUNK_SIZE + RECORD_OVERHEAD];
+        private final Deflater deflater;
+        private final byte[] deflated;
+        private int position;
+        private boolean finished;
+
+        EncryptingOutputStream(final OutputStream out, final Sealer sealer) throws IOException {
+            this.out = out;
+            this.sealer = sealer;
+            if ((sealer.flags & FLAG_DEFLATE) != 0) {
+                deflater = new Deflater(COMPRESSION_LEVEL);
+                deflated = new byte[CHUNK_SIZE];
+            } else {
+                deflater = null;
+                deflated = null;
+            }
+            out.write(sealer.header);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (finished) {
+                throw new IOException("Backup has been finished");
+            }
+            if (deflater == null) {
+                writeChunks(b, off, len);
+            } else {
+                deflater.setInput(b, off, len);
+                while (!deflater.needsInput()) {
+                    writeChunks(deflated, 0, deflater.deflate(deflated));
+                }
+            }
+        }
+
+        private void writeChunks(final byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // Only write a full chunk once more data arrives, as the last one is marked
+                if (position == plaintext.length) {
+                    out.write(record, 0, sealer.seal(plaintext, position, false, record));
+                    position = 0;
+                }
+                final int n = Math.min(len, plaintext.length - position);
+                System.arraycopy(b, off, plaintext, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Write the last chunk and flush, without closing the underlying stream. Nothing more can
+         * be written afterwards.
+         *
+         * @throws IOException if the chunk could not be written.
+         */
+        public void finish() throws IOException {
+            if (!finished) {
+                if (deflater != null) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        writeChunks(deflated, 0, deflater.deflate(deflated));
+                    }
+                    deflater.end();
+                }
+                finished = true;
+                out.write(record, 0, sealer.seal(plaintext, position, true, record));
+                out.flush();
+            }
+        }
+
+        /**
+         * Flush the underlying stream. Data in the current chunk is not written until the chunk
+         * is full or the backup is finished.
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Stream that encrypts a backup as it is read.
+     */
+    private static final class EncryptingInputStream extends InputStream {
+
+        private final InputStream in;
+        private final Sealer sealer;
+        private final byte[] plaintext = new byte[CHUNK_SIZE];
+        private byte[] record;
+        private int position;
+        private int limit;
+        // Byte read ahead to find whether a full chunk is the last, or -1
+        private int pending = -1;
+        private boolean last;
+
+        EncryptingInputStream(final InputStream in, final Sealer sealer) {
+            this.in = in;
+            this.sealer = sealer;
+            record = sealer.header;
+            limit = record.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return record[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(record, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            if (last) {
+                return false;
+            }
+            if (record.length != CHUNK_SIZE + RECORD_OVERHEAD) {
+                record = new byte[CHUNK_SIZE + RECORD_OVERHEAD];
+            }
+
+            int length = 0;
+            if (pending >= 0) {
+                plaintext[length++] = (byte) pending;
+                pending = -1;
+            }
+            while (length < plaintext.length) {
+                final int n = in.read(plaintext, length, plaintext.length - length);
+                if (n < 0) {
+                    last = true;
+                    break;
+                }
+                length += n;
+            }
+            if (!last) {
+                pending = in.read();
+                last = (pending < 0);
+            }
+
+            limit = sealer.seal(plaintext, length, last, record);
+            position = 0;
+            return true;
+        }
+    }
+
+    private static final class DecryptingInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private final Keys keys;
+        private final Mac mac;
+        private final Cipher cipher;
+        private final byte[] ciphertext;
+        private final byte[] plaintext;
+        private final byte[] tag = new byte[TAG_LENGTH];
+        private int position;
+        private int limit;
+        private long chunkIndex;
+        private boolean last;
+        final boolean compressed;
+
+        DecryptingInputStream(final DataInputStream in, final BackupKey key) throws IOException {
+            this.in = in;
+            try {
+                final byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException("Not a chunked backup");
+                }
+                final int version = in.readInt();
+                if (version != VERSION && version != VERSION_NO_FLAGS) {
+                    throw new IOException("Unsupported chunked backup version " + version);
+                }
+                final int chunkSize = in.readInt();
+                if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+                    throw new IOException("Invalid backup chunk size " + chunkSize);
+                }
+                final int flags = (version == VERSION_NO_FLAGS) ? 0 : in.readInt();
+                if ((flags & ~FLAG_DEFLATE) != 0) {
+                    throw new IOException("Unsupported backup flags " + flags);
+                }
+                compressed = (flags & FLAG_DEFLATE) != 0;
+                final byte[] fileId = new byte[FILE_ID_LENGTH];
+                in.readFully(fileId);
+
+                keys = new Keys(key,
+                    (version == VERSION_NO_FLAGS) ? fileId : Keys.context(fileId, flags));
+                mac = keys.mac();
+                cipher = keys.cipher();
+                ciphertext = new byte[chunkSize];
+                plaintext = new byte[chunkSize];
+            } catch (EOFException e) {
+                throw new IOException("Backup header is truncated", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return plaintext[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(plaintext, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Make sure there is plaintext to read.
+         *
+         * @return false at the end of the backup.
+         */
+        private boolean fill() throws IOException {
+            while (position == limit) {
+                if (last) {
+                    return false;
+                }
+                readChunk();
+            }
+            return true;
+        }
+
+        private void readChunk() throws IOException {
+            final int record;
+            try {
+                record = in.readInt();
+                final int length = record & ~LAST_CHUNK;
+                if (length > ciphertext.length) {
+                    throw new IOException("Backup chunk " + chunkIndex + " is too long");
+                }
+                in.readFully(ciphertext, 0, length);
+                in.readFully(tag);
+
+                if (!MessageDigest.isEqual(tag, tag(mac, chunkIndex, record, ciphertext, length))) {
+                    throw new IOException("Backup chunk " + chunkIndex + " failed authentication");
+                }
+                keys.init(cipher, Cipher.DECRYPT_MODE, chunkIndex);
+                limit = cipher.doFinal(ciphertext, 0, length, plaintext, 0);
+                position = 0;
+            } catch (EOFException e) {
+                throw new IOException("Backup is truncated at chunk " + chunkIndex, e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Backup chunk " + chunkIndex + " could not be decrypted", e);
+            }
+
+            chunkIndex++;
+            if ((record & LAST_CHUNK) != 0) {
+                last = true;
+                if (in.read() != -1) {
+                    throw new IOException("Backup has data after its last chunk");
+                }
+            }
+        }
+    }
+
+    /**
+     * Decompresses a decrypted backup, making sure nothing follows the end of the compressed
+     * data.
+     */
+    private static final class InflatingInputStream extends InflaterInputStream {
+
+        private boolean checked;
+
+        InflatingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n < 0 && !checked) {
+                checked = true;
+                // Reading on to the end also checks the last chunk
+                if (inf.getRemaining() > 0 || in.read() != -1) {
+                    throw new IOException("Backup has data after its compressed end");
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+/**
+ * A {@link BackupStore} in a local directory, such as the Pico directory on the SD card. Each
+ * folder is a subdirectory. Blobs are written to a temporary file that is then renamed, so a
+ * blob is either whole or absent.
+ */
+final class DirectoryBackupStore implements BackupStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File root;
+
+    DirectoryBackupStore(final File root) {
+        this.root = root;
+    }
+
+    @Override
+    public List<String> list(final String folder) {
+        final File[] files = new File(root, folder).listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<String>(files.length);
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(TEMP_SUFFIX)) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public byte[] read(final String folder, final String name) throws IOException {
+        return Files.toByteArray(new File(new File(root, folder), name));
+    }
+
+    @Override
+    public void write(final String folder, final String name, final byte[] data)
+        throws IOException {
+        final File dir = new File(root, folder);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        final File temp = new File(dir, name + TEMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(dir, name))) {
+            temp.delete();
+            throw new IOException("Could not write " + name + " to " + dir);
+        }
+    }
+
+    @Override
+    public void delete(final String folder, final String name) throws IOException {
+        final File file = new File(new File(root, folder), name);
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
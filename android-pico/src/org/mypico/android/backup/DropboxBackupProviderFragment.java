@@ -22,6 +22,7 @@
 package org.mypico.android.backup;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -41,31 +42,33 @@ import com.dropbox.client2.exception.DropboxPartialFileException;
 import com.dropbox.client2.exception.DropboxServerException;
 import com.dropbox.client2.exception.DropboxUnlinkedException;
 import com.dropbox.client2.session.AppKeyPair;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.mypico.android.db.DbHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.mypico.jpico.backup.BackupFile;
 import org.mypico.jpico.backup.BackupKey;
 import org.mypico.jpico.backup.BackupKeyException;
-import org.mypico.jpico.backup.EncBackupFile;
-import org.mypico.jpico.gson.EncBackupFileGson;
 import org.mypico.android.R;
 import org.mypico.android.core.PicoApplication;
 import org.mypico.android.util.AsyncTaskResult;
@@ -89,6 +92,8 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
     private static final String DROPBOX_ACCESS_TOKEN_KEY = "DropBoxAccessToken";
     private static final int DBX_CHOOSER_REQUEST = 0;
     private static final String dropboxUri = "com.dropbox.android";
+    // Folder holding incremental backups
+    private static final String INCREMENTAL_DIR = "/incremental";
 
     private DropboxAPI<AndroidAuthSession> mDBApi;
     private String APP_KEY;
@@ -98,7 +103,7 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
     /**
      * Backs up the Pico database file to DropBox.
      */
-    private class CreateBackupTask extends AsyncTask<File, Void, AsyncTaskResult<Boolean>> {
+    private class CreateBackupTask extends AsyncTask<Void, Void, AsyncTaskResult<Boolean>> {
 
         @Override
         protected void onPreExecute() {
@@ -106,29 +111,43 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
         }
 
         @Override
-        protected AsyncTaskResult<Boolean> doInBackground(final File... params) {
-            // Verify the method's preconditions
-            final File dbFile = checkNotNull(params[0]);
-
+        protected AsyncTaskResult<Boolean> doInBackground(final Void... params) {
             LOGGER.info("Backing up Pico database to DropBox");
             // Copy the file to the user's DropBox
+            File dbFile = null;
             try {
-                // Staging and encryption of the database under the backup secret key        	
-                final BackupFile backupDbFile = BackupFile.newInstance(dbFile);
+                dbFile = DbHelper.newSnapshot(PicoApplication.getContext());
+
+                // Encryption of the database under the backup secret key, streamed to
+                // DropBox as it is uploaded
                 final BackupKey backupKey = SharedPreferencesBackupKey.restoreInstance();
-                final EncBackupFile encBackupDbFile = backupDbFile.createEncBackupFile(backupKey);
+                if (BackupFactory.isIncrementalBackup()) {
+                    IncrementalBackup.create(dbFile, backupKey,
+                        new DropboxBackupStore(mDBApi, INCREMENTAL_DIR),
+                        IncrementalBackup.DEFAULT_SNAPSHOTS);
+                    return new AsyncTaskResult<Boolean>(true);
+                }
 
-                // JSON encode the encrypted database backup file
-                final String jsonEnc = EncBackupFileGson.gson.toJson(encBackupDbFile);
-                final InputStream jsonEncIs = new ByteArrayInputStream(jsonEnc.getBytes("UTF-8"));
+                final long length = dbFile.length();
+                // The backup is hashed as it is uploaded, for its catalogue entry
+                final HashingInputStream backupIs = new HashingInputStream(Hashing.sha256(),
+                    ChunkedBackup.newEncryptingStream(
+                        ByteStreams.limit(new FileInputStream(dbFile), length), backupKey));
+                final Entry response;
                 try {
-                    final Entry response = mDBApi.putFile(getBackupName(), jsonEncIs,
-                        jsonEnc.getBytes("UTF-8").length, null, null);
+                    response = mDBApi.putFile(getBackupName(), backupIs,
+                        ChunkedBackup.encryptedLength(length), null, null);
                     LOGGER.info("The backed up file's revision in DropBox is: {}", response.rev);
-                    return new AsyncTaskResult<Boolean>(true);
                 } finally {
-                    jsonEncIs.close();
+                    backupIs.close();
                 }
+
+                // DropBox may have renamed the backup to avoid a conflict, so it is
+                // catalogued under the path it was given
+                addToCatalogue(new BackupCatalogue.Entry(response.path,
+                    RESTUtility.parseDate(response.modified).getTime(), response.bytes,
+                    backupIs.hash().asBytes()), backupKey);
+                return new AsyncTaskResult<Boolean>(true);
             } catch (BackupKeyException e) {
                 // BackupKey is invalid
                 LOGGER.error("BackupKey is invalid", e);
@@ -138,8 +157,8 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
                 LOGGER.error("Database file not found", e);
                 return new AsyncTaskResult<Boolean>(e);
             } catch (IOException e) {
-                // Reading from BackupFile failed (resulting in IOException)
-                LOGGER.error("Reading from the BackupFile failed", e);
+                // Reading or encrypting the database failed (resulting in IOException)
+                LOGGER.error("Reading from the database file failed", e);
                 return new AsyncTaskResult<Boolean>(e);
             } catch (DropboxUnlinkedException e) {
                 // DropBox account unlinked, configure() should run onResume()
@@ -161,6 +180,10 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
             } catch (DropboxException e) {
                 LOGGER.error("Unknown DropBox error occurred", e);
                 return new AsyncTaskResult<Boolean>(e);
+            } finally {
+                if (dbFile != null) {
+                    dbFile.delete();
+                }
             }
         }
 
@@ -184,23 +207,80 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
         RestoreLatestBackupTask() throws IOException {
         }
 
+        /**
+         * Restore the backup named by the catalogue, or the latest incremental snapshot if it
+         * is newer.
+         *
+         * @return The result, or <code>null</code> if the catalogue turned out to be out of date.
+         */
+        private AsyncTaskResult<Boolean> restoreCataloguedBackup(
+            final BackupCatalogue.Entry latest) throws IOException {
+            final BackupStore store = new DropboxBackupStore(mDBApi, INCREMENTAL_DIR);
+            final String snapshot = IncrementalBackup.latestSnapshot(store);
+            if (snapshot != null && IncrementalBackup.snapshotTime(snapshot) > latest.getTime()) {
+                LOGGER.debug("Snapshot to restore = {}", snapshot);
+                IncrementalBackup.download(store, snapshot, tempFile);
+                return new AsyncTaskResult<Boolean>(true);
+            }
+
+            LOGGER.debug("File to restore = {}", latest.getName());
+            final AsyncTaskResult<Boolean> result =
+                super.doInBackground(new File(latest.getName()));
+            if (result.getError() == null && !latest.matches(tempFile)) {
+                LOGGER.warn("Backup catalogue is out of date");
+                return null;
+            }
+            return result;
+        }
+
         @Override
         protected AsyncTaskResult<Boolean> doInBackground(final File... params) {
 
             // Copy the file to the user's DropBox
             try {
+                // The catalogue names the latest full backup without listing them all,
+                // provided the backup key is available to read it
+                final Optional<BackupCatalogue.Entry> catalogued = findCataloguedBackup();
+                if (catalogued.isPresent()) {
+                    final AsyncTaskResult<Boolean> result = restoreCataloguedBackup(
+                        catalogued.get());
+                    if (result != null) {
+                        return result;
+                    }
+                }
+
                 final Entry dropboxDir = mDBApi.metadata("/", 0, null, true, null);
                 if (dropboxDir.isDir) {
-                    if (!dropboxDir.contents.isEmpty()) {
-                        Collections.sort(dropboxDir.contents, new Comparator<Entry>() {
-                            public int compare(final Entry e1, final Entry e2) {
-                                final Date dateE1 = RESTUtility.parseDate(e1.modified);
-                                final Date dateE2 = RESTUtility.parseDate(e2.modified);
-                                return dateE2.compareTo(dateE1);
-                            }
-                        });
+                    // Full backups are the files at the top level
+                    final List<Entry> backups = new ArrayList<Entry>();
+                    for (Entry entry : dropboxDir.contents) {
+                        if (!entry.isDir) {
+                            backups.add(entry);
+                        }
+                    }
+                    Collections.sort(backups, new Comparator<Entry>() {
+                        public int compare(final Entry e1, final Entry e2) {
+                            final Date dateE1 = RESTUtility.parseDate(e1.modified);
+                            final Date dateE2 = RESTUtility.parseDate(e2.modified);
+                            return dateE2.compareTo(dateE1);
+                        }
+                    });
+                    final Date latest = backups.isEmpty()
+                        ? null : RESTUtility.parseDate(backups.get(0).modified);
+
+                    // Restore the latest incremental snapshot instead if it is newer
+                    final BackupStore store = new DropboxBackupStore(mDBApi, INCREMENTAL_DIR);
+                    final String snapshot = IncrementalBackup.latestSnapshot(store);
+                    if (snapshot != null && (latest == null
+                        || IncrementalBackup.snapshotTime(snapshot) > latest.getTime())) {
+                        LOGGER.debug("Snapshot to restore = {}", snapshot);
+                        IncrementalBackup.download(store, snapshot, tempFile);
+                        return new AsyncTaskResult<Boolean>(true);
+                    }
+
+                    if (latest != null) {
                         // The file to back is the latest
-                        final File backupFile = new File(dropboxDir.contents.get(0).path);
+                        final File backupFile = new File(backups.get(0).path);
                         LOGGER.debug("File to restore = {}", backupFile);
 
                         return super.doInBackground(backupFile);
@@ -233,10 +313,55 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
             } catch (DropboxException e) {
                 LOGGER.error("Unknown DropBox error occurred", e);
                 return new AsyncTaskResult<Boolean>(e);
+            } catch (IOException e) {
+                LOGGER.error("Incremental backup could not be downloaded", e);
+                return new AsyncTaskResult<Boolean>(e);
             }
         }
     }
 
+    /**
+     * Record a new full backup in the catalogue. Failing to is not fatal, as readers of the
+     * catalogue fall back to listing the backups when it is out of date.
+     *
+     * @param entry The backup.
+     * @param key   The backup key.
+     */
+    private void addToCatalogue(final BackupCatalogue.Entry entry, final BackupKey key) {
+        final BackupStore store = new DropboxBackupStore(mDBApi, "");
+        BackupCatalogue catalogue;
+        try {
+            catalogue = BackupCatalogue.load(store, key);
+        } catch (IOException e) {
+            LOGGER.info("Starting a new backup catalogue", e);
+            catalogue = new BackupCatalogue();
+        }
+        catalogue.add(entry);
+        try {
+            catalogue.save(store, key);
+        } catch (IOException e) {
+            LOGGER.warn("Backup catalogue could not be updated", e);
+        }
+    }
+
+    /**
+     * Find the latest full backup from the catalogue.
+     *
+     * @return The backup, or absent if the catalogue can't be read.
+     */
+    private Optional<BackupCatalogue.Entry> findCataloguedBackup() {
+        try {
+            return BackupCatalogue.load(new DropboxBackupStore(mDBApi, ""),
+                SharedPreferencesBackupKey.restoreInstance()).getLatest();
+        } catch (BackupKeyException e) {
+            // Not yet restored, so the catalogue can't be read
+            LOGGER.debug("No backup key to read the backup catalogue with");
+        } catch (IOException e) {
+            LOGGER.warn("Backup catalogue could not be read", e);
+        }
+        return Optional.absent();
+    }
+
     /**
      * Restores the selected backup file from DropBox.
      *
@@ -419,6 +544,113 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
         }
     }
 
+    /**
+     * Get the store incremental backups are made to, for backing up without the UI.
+     *
+     * @param context Context used to read the app keys and the stored access token.
+     * @return The store, or absent if DropBox has not been linked.
+     */
+    static Optional<BackupStore> newIncrementalStore(final Context context) {
+        final Optional<DropboxAPI<AndroidAuthSession>> api = newLinkedApi(context);
+        if (!api.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.<BackupStore>of(new DropboxBackupStore(api.get(), INCREMENTAL_DIR));
+    }
+
+    /**
+     * Get the backups in the user's DropBox, for finding the newest backup without the UI.
+     *
+     * @param context Context used to read the app keys and the stored access token.
+     * @return The source, or absent if DropBox has not been linked.
+     */
+    static Optional<BackupDiscovery.Source> newDiscoverySource(final Context context) {
+        final Optional<DropboxAPI<AndroidAuthSession>> api = newLinkedApi(context);
+        if (!api.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.<BackupDiscovery.Source>of(new DiscoverySource(api.get()));
+    }
+
+    private static Optional<DropboxAPI<AndroidAuthSession>> newLinkedApi(final Context context) {
+        final String dropBoxAccessToken = PreferenceManager.getDefaultSharedPreferences(context)
+            .getString(DROPBOX_ACCESS_TOKEN_KEY, "");
+        if (isNullOrEmpty(dropBoxAccessToken)) {
+            return Optional.absent();
+        }
+        final AppKeyPair appKeys = new AppKeyPair(
+            context.getString(R.string.DROPBOX_APP_KEY),
+            context.getString(R.string.DROPBOX_APP_SECRET));
+        final AndroidAuthSession session =
+            new AndroidAuthSession(appKeys, dropBoxAccessToken);
+        return Optional.of(new DropboxAPI<AndroidAuthSession>(session));
+    }
+
+    /**
+     * The full backups at the top level of the user's DropBox and the latest incremental
+     * snapshot.
+     */
+    private static final class DiscoverySource implements BackupDiscovery.Source {
+
+        private final DropboxAPI<?> api;
+        private final BackupStore store;
+
+        DiscoverySource(final DropboxAPI<?> api) {
+            this.api = api;
+            this.store = new DropboxBackupStore(api, INCREMENTAL_DIR);
+        }
+
+        @Override
+        public List<BackupDiscovery.Candidate> list() throws IOException {
+            final Entry dropboxDir;
+            try {
+                dropboxDir = api.metadata("/", 0, null, true, null);
+            } catch (DropboxException e) {
+                throw new IOException("Could not list DropBox backups", e);
+            }
+            final List<BackupDiscovery.Candidate> candidates =
+                new ArrayList<BackupDiscovery.Candidate>();
+            if (dropboxDir.isDir && dropboxDir.contents != null) {
+                for (Entry entry : dropboxDir.contents) {
+                    if (!entry.isDir && !entry.isDeleted) {
+                        candidates.add(new BackupDiscovery.Candidate(this, DROPBOX, entry.path,
+                            RESTUtility.parseDate(entry.modified).getTime(), entry.bytes, false));
+                    }
+                }
+            }
+            final String snapshot = IncrementalBackup.latestSnapshot(store);
+            if (snapshot != null) {
+                candidates.add(new BackupDiscovery.Candidate(this, DROPBOX, snapshot,
+                    IncrementalBackup.snapshotTime(snapshot),
+                    IncrementalBackup.snapshotLength(store, snapshot), true));
+            }
+            return candidates;
+        }
+
+        @Override
+        public File download(final BackupDiscovery.Candidate candidate, final File cacheFile)
+            throws IOException {
+            if (candidate.isSnapshot()) {
+                IncrementalBackup.download(store, candidate.getName(), cacheFile);
+                return cacheFile;
+            }
+            final FileOutputStream out = new FileOutputStream(cacheFile);
+            try {
+                api.getFile(candidate.getName(), null, out, null);
+            } catch (DropboxException e) {
+                throw new IOException("Could not download " + candidate.getName(), e);
+            } finally {
+                out.close();
+            }
+            return cacheFile;
+        }
+
+        @Override
+        public String toString() {
+            return "DropBox";
+        }
+    }
+
     private boolean dropBoxInstalled() {
 
         final PackageManager pm = getActivity().getPackageManager();
@@ -531,8 +763,7 @@ public final class DropboxBackupProviderFragment extends BackupProviderFragment
         checkState(isAttached, "DropBoxBackupProviderFragment isn't attached, cannot call isEmpty");
 
         // Backup of the file to the user's DropBox, result returned to onBackupListener  
-        final File dbFile = DbHelper.getDatabaseFile();
-        new CreateBackupTask().execute(dbFile);
+        new CreateBackupTask().execute();
     }
 
     @Override
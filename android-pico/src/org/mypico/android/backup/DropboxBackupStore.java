@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.dropbox.client2.DropboxAPI;
+import com.dropbox.client2.DropboxAPI.Entry;
+import com.dropbox.client2.exception.DropboxException;
+import com.dropbox.client2.exception.DropboxServerException;
+
+/**
+ * A {@link BackupStore} in a folder of the user's DropBox, using the synchronous DropBox API.
+ */
+final class DropboxBackupStore implements BackupStore {
+
+    private final DropboxAPI<?> api;
+    private final String root;
+
+    /**
+     * @param api  Linked DropBox API.
+     * @param root Path of the folder, such as <code>"/incremental"</code>.
+     */
+    DropboxBackupStore(final DropboxAPI<?> api, final String root) {
+        this.api = api;
+        this.root = root;
+    }
+
+    private String path(final String folder, final String name) {
+        return root + "/" + folder + "/" + name;
+    }
+
+    @Override
+    public List<String> list(final String folder) throws IOException {
+        final Entry dir;
+        try {
+            dir = api.metadata(root + "/" + folder, 0, null, true, null);
+        } catch (DropboxServerException e) {
+            if (e.error == DropboxServerException._404_NOT_FOUND) {
+                return Collections.emptyList();
+            }
+            throw new IOException("Could not list " + folder, e);
+        } catch (DropboxException e) {
+            throw new IOException("Could not list " + folder, e);
+        }
+        if (!dir.isDir || dir.contents == null) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<String>(dir.contents.size());
+        for (Entry entry : dir.contents) {
+            if (!entry.isDir && !entry.isDeleted) {
+                names.add(entry.fileName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public byte[] read(final String folder, final String name) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            api.getFile(path(folder, name), null, out, null);
+        } catch (DropboxException e) {
+            throw new IOException("Could not read " + name, e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void write(final String folder, final String name, final byte[] data)
+        throws IOException {
+        try {
+            // DropBox creates the parent folders as needed
+            api.putFileOverwrite(path(folder, name), new ByteArrayInputStream(data),
+                data.length, null);
+        } catch (DropboxException e) {
+            throw new IOException("Could not write " + name, e);
+        }
+    }
+
+    @Override
+    public void delete(final String folder, final String name) throws IOException {
+        try {
+            api.delete(path(folder, name));
+        } catch (DropboxServerException e) {
+            if (e.error != DropboxServerException._404_NOT_FOUND) {
+                throw new IOException("Could not delete " + name, e);
+            }
+        } catch (DropboxException e) {
+            throw new IOException("Could not delete " + name, e);
+        }
+    }
+}
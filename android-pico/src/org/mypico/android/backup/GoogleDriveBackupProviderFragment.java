@@ -54,7 +54,6 @@ import com.google.common.collect.Lists;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.io.ByteStreams.copy;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -71,10 +70,7 @@ import org.slf4j.LoggerFactory;
 
 import static org.mypico.android.backup.IBackupProvider.BackupType.GOOGLEDRIVE;
 
-import org.mypico.jpico.backup.BackupFile;
 import org.mypico.jpico.backup.BackupKeyException;
-import org.mypico.jpico.backup.EncBackupFile;
-import org.mypico.jpico.gson.EncBackupFileGson;
 
 /**
  * UI Fragment for managing backups to Google Drive.
@@ -448,9 +444,7 @@ public final class GoogleDriveBackupProviderFragment extends BackupProviderFragm
             " cannot call isEmpty");
 
         // Backup of the file to the user's Google Drive, result returned to onBackupListener
-        final File dbFile = DbHelper.getDatabaseFile(getActivity());
-        ;
-        LOGGER.info("Backing up Pico database {} to Google Drive", dbFile.getPath());
+        LOGGER.info("Backing up Pico database to Google Drive");
 
         Drive.DriveApi.newDriveContents(mGoogleApiClient)
             .setResultCallback(new ResultCallback<DriveContentsResult>() {
@@ -471,48 +465,44 @@ public final class GoogleDriveBackupProviderFragment extends BackupProviderFragm
 
                     // Copy the contents of the pico database to the new Google Drive file
                     try {
-                        // Staging and encryption of the database under the backup secret key
-                        final BackupFile backupDbFile = BackupFile.newInstance(dbFile);
-                        final EncBackupFile encBackupDbFile = backupDbFile.createEncBackupFile(
-                            SharedPreferencesBackupKey.restoreInstance());
-
-                        // JSON encode the encrypted database backup file
-                        final String jsonEnc = EncBackupFileGson.gson.toJson(encBackupDbFile);
-                        final InputStream jsonEncIs =
-                            new ByteArrayInputStream(jsonEnc.getBytes("UTF-8"));
+                        // Encryption of the database under the backup secret key, streamed
+                        // straight into the new Google Drive file
+                        final File dbFile = DbHelper.newSnapshot(getActivity());
                         try {
-                            // Guava ByteStreams.copy() does not flush or close either stream
-                            copy(jsonEncIs, result.getDriveContents().getOutputStream());
-
-                            final String backupName = android.os.Build.MODEL + "-pico.bak";
-                            final MetadataChangeSet changeSet = new MetadataChangeSet.Builder()
-                                .setTitle(backupName)
-                                .setMimeType("text/plain")
-                                .build();
-                            Drive.DriveApi
-                                .getFolder(mGoogleApiClient, backupFolder)
-                                .createFile(mGoogleApiClient, changeSet, result.getDriveContents())
-                                .setResultCallback(
-                                    new ResultCallback<DriveFolder.DriveFileResult>() {
-
-                                        @Override
-                                        public void onResult(
-                                            final DriveFolder.DriveFileResult result) {
-
-                                            if (!result.getStatus().isSuccess()) {
-                                                LOGGER.error("Error while trying to create new " +
-                                                    "file contents");
-                                                createBackupFailure();
-                                                return;
-                                            }
-
-                                            LOGGER.info("File created");
-                                            createBackupSuccess();
-                                        }
-                                    });
+                            ChunkedBackup.writeBackup(dbFile,
+                                SharedPreferencesBackupKey.restoreInstance(),
+                                BackupFactory.isCompressedBackup(),
+                                result.getDriveContents().getOutputStream());
                         } finally {
-                            jsonEncIs.close();
+                            dbFile.delete();
                         }
+
+                        final String backupName = android.os.Build.MODEL + "-pico.bak";
+                        final MetadataChangeSet changeSet = new MetadataChangeSet.Builder()
+                            .setTitle(backupName)
+                            .setMimeType("text/plain")
+                            .build();
+                        Drive.DriveApi
+                            .getFolder(mGoogleApiClient, backupFolder)
+                            .createFile(mGoogleApiClient, changeSet, result.getDriveContents())
+                            .setResultCallback(
+                                new ResultCallback<DriveFolder.DriveFileResult>() {
+
+                                    @Override
+                                    public void onResult(
+                                        final DriveFolder.DriveFileResult result) {
+
+                                        if (!result.getStatus().isSuccess()) {
+                                            LOGGER.error("Error while trying to create new " +
+                                                "file contents");
+                                            createBackupFailure();
+                                            return;
+                                        }
+
+                                        LOGGER.info("File created");
+                                        createBackupSuccess();
+                                    }
+                                });
                     } catch (BackupKeyException e) {
                         LOGGER.error("BackupKey is invalid", e);
                         createBackupFailure();
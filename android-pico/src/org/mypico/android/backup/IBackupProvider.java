@@ -21,6 +21,7 @@
 
 package org.mypico.android.backup;
 
+import java.io.File;
 import java.util.EnumSet;
 
 import com.google.common.base.Optional;
@@ -100,6 +101,16 @@ public interface IBackupProvider {
      */
     public void decryptRestoredBackup(final byte[] userSecret);
 
+    /**
+     * Decrypt and restore a backup that was fetched without this provider, such as one found by
+     * {@link BackupDiscovery}. The result is returned in the same way as for
+     * {@link #decryptRestoredBackup(byte[])}.
+     *
+     * @param backupFile The backup.
+     * @param userSecret The user secret the backup was encrypted with.
+     */
+    public void decryptRestoredBackup(final File backupFile, final byte[] userSecret);
+
     /**
      * Returns the RestoreOptions supported by the BackupProvider.
      * By default all restore options are supported. Sub-classes of the BackupProviderFragment
@@ -0,0 +1,746 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Incremental backups, which only store the parts of the database that changed since the last.
+ * <p>
+ * The database is split into chunks of {@link #CHUNK_SIZE} bytes, a whole number of SQLite pages,
+ * so a change to one pairing only changes the few chunks holding the pages it touched. Each chunk
+ * is named by an HMAC of its contents under a key derived from the backup key, which lets
+ * identical chunks be recognised without revealing their contents, and is stored compressed and
+ * encrypted in the {@link ChunkedBackup} format in the {@link #CHUNKS} folder of a
+ * {@link BackupStore}. A backup
+ * only writes the chunks the store does not already have, plus a small manifest in the
+ * {@link #SNAPSHOTS} folder listing the chunks of the snapshot in order. The manifest is not
+ * encrypted, so a snapshot can be fetched before the user has entered their backup key, but it is
+ * authenticated with another derived key.
+ * <p>
+ * To restore, {@link #download} fetches a snapshot's manifest and chunks into one bundle file,
+ * which {@link #restore} checks and decrypts. Only the newest snapshots are kept; chunks no longer
+ * listed by any of them are deleted.
+ */
+public final class IncrementalBackup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        IncrementalBackup.class.getSimpleName());
+
+    /// Folder of the store holding the chunks
+    static final String CHUNKS = "chunks";
+    /// Folder of the store holding the manifests
+    static final String SNAPSHOTS = "snapshots";
+    /// Size the database is split into, a multiple of any SQLite page size up to 32 KiB
+    static final int CHUNK_SIZE = 32 * 1024;
+    /// Number of snapshots kept by default
+    public static final int DEFAULT_SNAPSHOTS = 5;
+
+    private static final byte[] MANIFEST_MAGIC = {'P', 'I', 'C', 'O', 'M', 'A', 'N', 0x01};
+    private static final byte[] BUNDLE_MAGIC = {'P', 'I', 'C', 'O', 'I', 'N', 'C', 0x01};
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final int ID_LENGTH = 32;
+    // Manifests list at most this many chunks, 32 GiB of database
+    private static final int MAX_CHUNKS = 1024 * 1024;
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+    // Attempts at writing a blob to a store before the store is given up on
+    private static final int WRITE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    // Encrypted chunks waiting to be written, bounding the memory a slow store can take
+    private static final int MAX_QUEUED_CHUNKS = 16;
+
+    /**
+     * What a backup wrote.
+     */
+    public static final class Stats {
+        /// Name of the new snapshot
+        public final String snapshot;
+        /// Number of chunks in the snapshot
+        public final int chunks;
+        /// Number of those chunks that were written
+        public final int written;
+        /// Bytes written, including the manifest
+        public final long bytesWritten;
+
+        Stats(final String snapshot, final int chunks, final int written,
+              final long bytesWritten) {
+            this.snapshot = snapshot;
+            this.chunks = chunks;
+            this.written = written;
+            this.bytesWritten = bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return snapshot + ": " + written + " of " + chunks + " chunks written, "
+                + bytesWritten + " bytes";
+        }
+    }
+
+    /**
+     * The outcome of a backup to one store.
+     */
+    public static final class Result {
+        /// Name of the store
+        public final String name;
+        /// What was written, or <code>null</code> if the backup failed
+        public final Stats stats;
+        /// Why the backup failed, or <code>null</code> if it succeeded
+        public final IOException error;
+
+        Result(final String name, final Stats stats, final IOException error) {
+            this.name = name;
+            this.stats = stats;
+            this.error = error;
+        }
+
+        /**
+         * @return true if the store has the new snapshot.
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Told of the progress of a backup to several stores.
+     */
+    public interface ProgressListener {
+        /**
+         * Called as a store is found to have a chunk, or has written it, from the thread doing so.
+         *
+         * @param name  Name of the store.
+         * @param done  Number of chunks of the database the store has.
+         * @param total Number of chunks in the database.
+         */
+        void onProgress(String name, int done, int total);
+    }
+
+    /**
+     * One store being backed up to, with the thread writing to it.
+     */
+    private static final class Target {
+        final String name;
+        final BackupStore store;
+        final ProgressListener listener;
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        // Only used by the thread reading the database
+        final Set<String> stored = new HashSet<String>();
+        // Only used by the executor's thread
+        int written;
+        long bytesWritten;
+        Stats stats;
+
+        final AtomicInteger done = new AtomicInteger();
+        volatile IOException error;
+
+        Target(final String name, final BackupStore store, final ProgressListener listener) {
+            this.name = name;
+            this.store = store;
+            this.listener = listener;
+        }
+
+        void fail(final Throwable e) {
+            if (error == null) {
+                LOGGER.warn("Backup to " + name + " failed", e);
+                error = (e instanceof IOException)
+                    ? (IOException) e : new IOException("Backup to " + name + " failed", e);
+            }
+        }
+
+        void chunkDone(final int total) {
+            final int d = done.incrementAndGet();
+            if (listener != null) {
+                listener.onProgress(name, d, total);
+            }
+        }
+
+        /**
+         * Write a blob, retrying with backoff. Does nothing once the store has failed.
+         *
+         * @return true if the blob was written.
+         */
+        boolean write(final String folder, final String blobName, final byte[] blob) {
+            for (int attempt = 1; error == null; attempt++) {
+                try {
+                    store.write(folder, blobName, blob);
+                    return true;
+                } catch (IOException e) {
+                    if (attempt == WRITE_ATTEMPTS) {
+                        fail(e);
+                        break;
+                    }
+                    LOGGER.debug("Write to {} failed, retrying: {}", name, e.getMessage());
+                    try {
+                        Thread.sleep(RETRY_DELAY_MS << (attempt - 1));
+                    } catch (InterruptedException ie) {
+                        fail(new IOException("Backup interrupted", ie));
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Task writing the manifest once every chunk has been written, then pruning.
+         */
+        Runnable finish(final String snapshot, final byte[] manifest, final int chunks,
+                        final int keep) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    if (!write(SNAPSHOTS, snapshot, manifest)) {
+                        return;
+                    }
+                    stats = new Stats(snapshot, chunks, written, bytesWritten + manifest.length);
+                    LOGGER.info("Incremental backup to {} {}", name, stats);
+                    try {
+                        prune(store, keep);
+                    } catch (IOException e) {
+                        LOGGER.warn("Pruning " + name + " failed", e);
+                    }
+                }
+            };
+        }
+
+        Result await() {
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.debug("Still backing up to {}", name);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                fail(new IOException("Backup interrupted", e));
+            }
+            if (error == null && stats == null) {
+                fail(new IOException("Backup to " + name + " did not finish"));
+            }
+            return (error == null)
+                ? new Result(name, stats, null) : new Result(name, null, error);
+        }
+    }
+
+    /**
+     * The parsed contents of a manifest.
+     */
+    private static final class Manifest {
+        final long created;
+        final long length;
+        final int chunkSize;
+        final List<byte[]> ids;
+        final byte[] body;
+        final byte[] tag;
+
+        Manifest(final long created, final long length, final int chunkSize,
+                 final List<byte[]> ids, final byte[] body, final byte[] tag) {
+            this.created = created;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.ids = ids;
+            this.body = body;
+            this.tag = tag;
+        }
+    }
+
+    private IncrementalBackup() {
+        // no instances
+    }
+
+    /**
+     * Back up a database file, writing only the chunks the store does not have, then prune old
+     * snapshots.
+     *
+     * @param dbFile Checkpointed database file.
+     * @param key    Key to make the backup with.
+     * @param store  Store to back up to.
+     * @param keep   Number of snapshots to keep, at least one.
+     * @return What was written.
+     * @throws IOException if the database could not be read or the store written.
+     */
+    public static Stats create(final File dbFile, final BackupKey key, final BackupStore store,
+                               final int keep) throws IOException {
+        final Result result =
+            create(dbFile, key, Collections.singletonMap("store", store), keep, null).get(0);
+        if (!result.isSuccess()) {
+            throw result.error;
+        }
+        return result.stats;
+    }
+
+    /**
+     * Back up a database file to several stores at once.
+     * <p>
+     * The database is read and each chunk encrypted once, however many stores lack it. Every
+     * store has its own thread, so a slow store only holds up the others once a small queue of
+     * encrypted chunks is full, and a failed write is retried on that store alone. A store that
+     * still fails gets no snapshot, while the others carry on. Backups are made one at a time, so
+     * pruning cannot delete chunks another backup is relying on; a store that could not be pruned
+     * still has its new snapshot.
+     *
+     * @param dbFile   Checkpointed database file.
+     * @param key      Key to make the backup with.
+     * @param stores   Stores to back up to, by name.
+     * @param keep     Number of snapshots to keep in each store, at least one.
+     * @param listener Told of each store's progress, or <code>null</code>.
+     * @return The result for each store, in the iteration order of <code>stores</code>.
+     */
+    public static synchronized List<Result> create(final File dbFile, final BackupKey key,
+                                                   final Map<String, BackupStore> stores,
+                                                   final int keep,
+                                                   final ProgressListener listener) {
+        final List<Target> targets = new ArrayList<Target>(stores.size());
+        for (Map.Entry<String, BackupStore> entry : stores.entrySet()) {
+            targets.add(new Target(entry.getKey(), entry.getValue(), listener));
+        }
+        final int total = (int) ((dbFile.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        final List<byte[]> ids = new ArrayList<byte[]>();
+        try {
+            final long length = readChunks(dbFile, key, targets, ids, total);
+            final long created = System.currentTimeMillis();
+            final String snapshot =
+                String.format(Locale.US, "%013d%s", created, SNAPSHOT_SUFFIX);
+            final byte[] manifest = encodeManifest(created, length, ids, manifestMac(key));
+            for (Target target : targets) {
+                target.executor.execute(
+                    target.finish(snapshot, manifest, ids.size(), Math.max(1, keep)));
+            }
+        } catch (IOException e) {
+            for (Target target : targets) {
+                target.fail(e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Target target : targets) {
+                target.fail(new IOException("Backup interrupted", e));
+            }
+        } finally {
+            for (Target target : targets) {
+                target.executor.shutdown();
+            }
+        }
+
+        final List<Result> results = new ArrayList<Result>(targets.size());
+        for (Target target : targets) {
+            results.add(target.await());
+        }
+        return results;
+    }
+
+    /**
+     * Read the database, queueing each chunk on the stores lacking it.
+     *
+     * @return The length of the database.
+     */
+    private static long readChunks(final File dbFile, final BackupKey key,
+                                   final List<Target> targets, final List<byte[]> ids,
+                                   final int total) throws IOException, InterruptedException {
+        // Find what every store already has, all at once
+        final List<Future<List<String>>> listings = new ArrayList<Future<List<String>>>();
+        for (final Target target : targets) {
+            listings.add(target.executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    return target.store.list(CHUNKS);
+                }
+            }));
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                targets.get(i).stored.addAll(listings.get(i).get());
+            } catch (ExecutionException e) {
+                targets.get(i).fail(e.getCause());
+            }
+        }
+
+        final Mac idMac = idMac(key);
+        final Semaphore queued = new Semaphore(MAX_QUEUED_CHUNKS);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final List<Target> lacking = new ArrayList<Target>(targets.size());
+        long length = 0;
+        final InputStream in = new FileInputStream(dbFile);
+        try {
+            int n;
+            while ((n = ByteStreams.read(in, chunk, 0, chunk.length)) > 0) {
+                idMac.update(chunk, 0, n);
+                final byte[] id = idMac.doFinal();
+                ids.add(id);
+                length += n;
+
+                final String name = HEX.encode(id);
+                lacking.clear();
+                for (Target target : targets) {
+                    if (target.error != null) {
+                        continue;
+                    }
+                    if (target.stored.add(name)) {
+                        lacking.add(target);
+                    } else {
+                        target.chunkDone(total);
+                    }
+                }
+                if (!lacking.isEmpty()) {
+                    queued.acquire();
+                    writeChunk(lacking, name, encrypt(chunk, n, key), queued, total);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return length;
+    }
+
+    /**
+     * Queue a chunk on each store lacking it, releasing its place in the queue once every store
+     * has written it.
+     */
+    private static void writeChunk(final List<Target> lacking, final String name,
+                                   final byte[] blob, final Semaphore queued, final int total) {
+        final AtomicInteger remaining = new AtomicInteger(lacking.size());
+        for (final Target target : lacking) {
+            target.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (target.write(CHUNKS, name, blob)) {
+                            target.written++;
+                            target.bytesWritten += blob.length;
+                            target.chunkDone(total);
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            queued.release();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Find the newest snapshot in a store.
+     *
+     * @param store The store.
+     * @return The name of the snapshot, or <code>null</code> if there are none.
+     * @throws IOException if the store could not be read.
+     */
+    public static String latestSnapshot(final BackupStore store) throws IOException {
+        final List<String> snapshots = snapshots(store);
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    /**
+     * Get the time a snapshot was made, from its name.
+     *
+     * @param snapshot Name of the snapshot.
+     * @return The time, in milliseconds since the epoch.
+     */
+    public static long snapshotTime(final String snapshot) {
+        return Long.parseLong(
+            snapshot.substring(0, snapshot.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    /**
+     * Get the length of the database a snapshot restores, from its manifest. No key is needed.
+     *
+     * @param store    The store.
+     * @param snapshot Name of the snapshot.
+     * @return The length in bytes.
+     * @throws IOException if the manifest could not be read.
+     */
+    public static long snapshotLength(final BackupStore store, final String snapshot)
+        throws IOException {
+        return parseManifest(store.read(SNAPSHOTS, snapshot)).length;
+    }
+
+    /**
+     * Fetch a snapshot and its chunks from a store into a bundle file, which can be restored with
+     * {@link #restore}. No key is needed.
+     *
+     * @param store    The store.
+     * @param snapshot Name of the snapshot.
+     * @param bundle   File to write the bundle to.
+     * @throws IOException if the snapshot could not be fetched.
+     */
+    public static void download(final BackupStore store, final String snapshot,
+                                final File bundle) throws IOException {
+        final byte[] manifest = store.read(SNAPSHOTS, snapshot);
+        final Manifest m = parseManifest(manifest);
+
+        final DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bundle)));
+        try {
+            out.write(BUNDLE_MAGIC);
+            out.writeInt(manifest.length);
+            out.write(manifest);
+            for (byte[] id : m.ids) {
+                final byte[] blob = store.read(CHUNKS, HEX.encode(id));
+                out.writeInt(blob.length);
+                out.write(blob);
+            }
+        } finally {
+            out.close();
+        }
+        LOGGER.debug("Downloaded snapshot {} of {} chunks", snapshot, m.ids.size());
+    }
+
+    /**
+     * Find whether a backup is a bundle written by {@link #download}.
+     *
+     * @param in Stream positioned at the start of the backup, which must support
+     *           {@link InputStream#mark}. It is reset before returning.
+     * @return true if the backup is a bundle.
+     * @throws IOException if the stream could not be read.
+     */
+    public static boolean isBundle(final InputStream in) throws IOException {
+        return ChunkedBackup.startsWith(in, BUNDLE_MAGIC);
+    }
+
+    /**
+     * Check and decrypt a bundle. The manifest is authenticated, then each chunk is decrypted
+     * and checked against the id the manifest lists for it before it is written.
+     *
+     * @param in  Stream of the bundle.
+     * @param key Key the backup was made with.
+     * @param out Stream to write the database to.
+     * @throws IOException if the bundle could not be read or failed authentication.
+     */
+    public static void restore(final InputStream in, final BackupKey key, final OutputStream out)
+        throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        try {
+            final byte[] magic = new byte[BUNDLE_MAGIC.length];
+            data.readFully(magic);
+            if (!Arrays.equals(magic, BUNDLE_MAGIC)) {
+                throw new IOException("Not an incremental backup");
+            }
+            final int manifestLength = data.readInt();
+            if (manifestLength < 0 || manifestLength > MAX_CHUNKS * ID_LENGTH + 1024) {
+                throw new IOException("Invalid manifest length " + manifestLength);
+            }
+            final byte[] manifest = new byte[manifestLength];
+            data.readFully(manifest);
+            final Manifest m = parseManifest(manifest);
+            if (!MessageDigest.isEqual(m.tag, manifestMac(key).doFinal(m.body))) {
+                throw new IOException("Backup manifest failed authentication");
+            }
+
+            final Mac idMac = idMac(key);
+            final int maxBlob = (int) ChunkedBackup.maxEncryptedLength(m.chunkSize);
+            long length = 0;
+            for (byte[] id : m.ids) {
+                final int blobLength = data.readInt();
+                if (blobLength < 0 || blobLength > maxBlob) {
+                    throw new IOException("Invalid chunk length " + blobLength);
+                }
+                final byte[] blob = new byte[blobLength];
+                data.readFully(blob);
+                final byte[] chunk = ByteStreams.toByteArray(
+                    ChunkedBackup.newDecryptingStream(new ByteArrayInputStream(blob), key));
+                if (!MessageDigest.isEqual(id, idMac.doFinal(chunk))) {
+                    throw new IOException("Backup chunk " + HEX.encode(id) + " does not match");
+                }
+                out.write(chunk);
+                length += chunk.length;
+            }
+            if (length != m.length) {
+                throw new IOException("Restored " + length + " bytes, expected " + m.length);
+            }
+            if (data.read() != -1) {
+                throw new IOException("Backup has data after its last chunk");
+            }
+        } catch (EOFException e) {
+            throw new IOException("Incremental backup is truncated", e);
+        }
+    }
+
+    /**
+     * Delete all but the newest snapshots, then the chunks none of the remaining snapshots list.
+     */
+    private static void prune(final BackupStore store, final int keep) throws IOException {
+        final List<String> snapshots = snapshots(store);
+        for (String snapshot : snapshots.subList(0, Math.max(0, snapshots.size() - keep))) {
+            store.delete(SNAPSHOTS, snapshot);
+        }
+
+        final Set<String> listed = new HashSet<String>();
+        for (String snapshot : snapshots.subList(
+            Math.max(0, snapshots.size() - keep), snapshots.size())) {
+            try {
+                for (byte[] id : parseManifest(store.read(SNAPSHOTS, snapshot)).ids) {
+                    listed.add(HEX.encode(id));
+                }
+            } catch (IOException e) {
+                // Without its list any chunk might be needed
+                LOGGER.warn("Snapshot " + snapshot + " unreadable, chunks not pruned", e);
+                return;
+            }
+        }
+        int deleted = 0;
+        for (String chunk : store.list(CHUNKS)) {
+            if (!listed.contains(chunk)) {
+                store.delete(CHUNKS, chunk);
+                deleted++;
+            }
+        }
+        LOGGER.debug("Pruned {} unused chunks", deleted);
+    }
+
+    /**
+     * List the snapshots in a store, oldest first.
+     */
+    private static List<String> snapshots(final BackupStore store) throws IOException {
+        final List<String> snapshots = new ArrayList<String>();
+        for (String name : store.list(SNAPSHOTS)) {
+            if (name.endsWith(SNAPSHOT_SUFFIX)) {
+                snapshots.add(name);
+            }
+        }
+        // Names start with the zero padded creation time
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private static byte[] encrypt(final byte[] chunk, final int length, final BackupKey key)
+        throws IOException {
+        final ByteArrayOutputStream blob =
+            new ByteArrayOutputStream((int) ChunkedBackup.maxEncryptedLength(length));
+        // Chunks are named by their plaintext, so compressing them doesn't affect deduplication
+        final OutputStream out = ChunkedBackup.newEncryptingStream(blob, key, true);
+        out.write(chunk, 0, length);
+        out.close();
+        return blob.toByteArray();
+    }
+
+    private static byte[] encodeManifest(final long created, final long length,
+                                         final List<byte[]> ids, final Mac mac)
+        throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MANIFEST_MAGIC);
+        out.writeLong(created);
+        out.writeLong(length);
+        out.writeInt(CHUNK_SIZE);
+        out.writeInt(ids.size());
+        for (byte[] id : ids) {
+            out.write(id);
+        }
+        out.write(mac.doFinal(bytes.toByteArray()));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Manifest parseManifest(final byte[] manifest) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest));
+        try {
+            final byte[] magic = new byte[MANIFEST_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MANIFEST_MAGIC)) {
+                throw new IOException("Not a backup manifest");
+            }
+            final long created = in.readLong();
+            final long length = in.readLong();
+            final int chunkSize = in.readInt();
+            final int count = in.readInt();
+            if (chunkSize <= 0 || chunkSize > ChunkedBackup.MAX_CHUNK_SIZE
+                || count < 0 || count > MAX_CHUNKS) {
+                throw new IOException("Invalid backup manifest");
+            }
+            final List<byte[]> ids = new ArrayList<byte[]>(count);
+            for (int i = 0; i < count; i++) {
+                final byte[] id = new byte[ID_LENGTH];
+                in.readFully(id);
+                ids.add(id);
+            }
+            final int bodyLength = manifest.length - ID_LENGTH;
+            final byte[] tag = new byte[ID_LENGTH];
+            in.readFully(tag);
+            if (in.read() != -1) {
+                throw new IOException("Backup manifest has trailing data");
+            }
+            return new Manifest(created, length, chunkSize, ids,
+                Arrays.copyOf(manifest, bodyLength), tag);
+        } catch (EOFException e) {
+            throw new IOException("Backup manifest is truncated", e);
+        }
+    }
+
+    private static Mac idMac(final BackupKey key) throws IOException {
+        return mac(ChunkedBackup.derive(key, "chunk id", new byte[0]));
+    }
+
+    private static Mac manifestMac(final BackupKey key) throws IOException {
+        return mac(ChunkedBackup.derive(key, "manifest", new byte[0]));
+    }
+
+    private static Mac mac(final byte[] key) throws IOException {
+        try {
+            final Mac mac = Mac.getInstance(ChunkedBackup.MAC);
+            mac.init(new SecretKeySpec(key, ChunkedBackup.MAC));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Backup MAC could not be initialised", e);
+        }
+    }
+}
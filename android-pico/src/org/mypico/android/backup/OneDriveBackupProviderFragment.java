@@ -46,11 +46,11 @@ import com.google.common.io.ByteStreams;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -72,10 +72,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.mypico.android.R;
-import org.mypico.jpico.backup.BackupFile;
+import org.mypico.android.core.PicoApplication;
 import org.mypico.jpico.backup.BackupKeyException;
-import org.mypico.jpico.backup.EncBackupFile;
-import org.mypico.jpico.gson.EncBackupFileGson;
 
 import static org.mypico.android.backup.IBackupProvider.BackupType.ONEDRIVE;
 
@@ -93,6 +91,9 @@ public final class OneDriveBackupProviderFragment extends BackupProviderFragment
     private static final String ONEDRIVE_BACKUP_FOLDER_FNAME = "pico-backup";
     private static final String ONEDRIVE_BACKUP_FOLDER_DESC =
         "Store Pico database backups";
+    // Encrypted backup waiting to be uploaded, and the progress of its upload session
+    private static final String PENDING_UPLOAD_NAME = "onedrive-upload.backup";
+    private static final String PENDING_UPLOAD_STATE_NAME = "onedrive-upload.state";
     /* Scopes represent permission that the Pico requests of the user:
      * 
      * wl.signin - single-sign on if the user is already signed into their Microsoft account
@@ -360,20 +361,20 @@ public final class OneDriveBackupProviderFragment extends BackupProviderFragment
                                             public void run() {
 
                                                 try {
-                                                    final File dbFile = DbHelper.getDatabaseFile();
-                                                    if (!dbFile.exists()) {
-                                                        dbFile.getParentFile().mkdirs();
-                                                        dbFile.createNewFile();
-                                                    }
+                                                    // Never download over the open database;
+                                                    // the restore replaces it once checked
+                                                    final File backupFile = File.createTempFile(
+                                                        "picobackup", null,
+                                                        PicoApplication.getContext().getCacheDir());
 
                                                     final InputStream is = operation.getStream();
                                                     try {
                                                         final FileOutputStream os =
-                                                            new FileOutputStream(dbFile);
+                                                            new FileOutputStream(backupFile);
                                                         try {
                                                             ByteStreams.copy(is, os);
                                                             LOGGER.debug("Backup file downloaded.");
-                                                            downloadBackupSuccess(dbFile);
+                                                            downloadBackupSuccess(backupFile);
                                                         } finally {
                                                             os.close();
                                                         }
@@ -494,56 +495,87 @@ public final class OneDriveBackupProviderFragment extends BackupProviderFragment
         checkState(isAttached, "OneDrive Fragment isn't attached, cannot call backup");
 
         // Backup of the file to the user's OneDrive, result returned to onBackupListener  
-        // Initialise the Pico database filename
-        final File dbFile = DbHelper.getDatabaseFile();
-        LOGGER.info("Backing up Pico database {} to OneDrive", dbFile.getPath());
-        final BackupFile backupDbFile = BackupFile.newInstance(dbFile);
+        LOGGER.info("Backing up Pico database to OneDrive");
         try {
-            // Staging and encryption of the database under the backup secret key
-            final EncBackupFile encBackupDbFile = backupDbFile.createEncBackupFile(
-                SharedPreferencesBackupKey.restoreInstance());
-
-            // JSON encode the encrypted database backup file
-            final String jsonEnc = EncBackupFileGson.gson.toJson(encBackupDbFile);
-            final InputStream jsonEncIs = new ByteArrayInputStream(jsonEnc.getBytes("UTF-8"));
+            // The encrypted backup and the progress of its upload are kept until the upload
+            // completes, so a dropped connection resumes rather than starting from zero. The
+            // pending backup is only reused while the database hasn't changed since; the
+            // snapshot keeps the modification time of the checkpointed database.
+            final File cacheDir = getActivity().getCacheDir();
+            final File backupFile = new File(cacheDir, PENDING_UPLOAD_NAME);
+            final File stateFile = new File(cacheDir, PENDING_UPLOAD_STATE_NAME);
+            final File dbFile = DbHelper.newSnapshot(getActivity());
             try {
-                client.uploadAsync(backupFolder, getBackupName(), jsonEncIs,
-                    new LiveUploadOperationListener() {
-
-                        {
-                            // Invoke the callback on the onCreateBackupListener
-                            createBackupStarted();
+                if (backupFile.isFile() && backupFile.lastModified() > dbFile.lastModified()) {
+                    LOGGER.info("Resuming upload of pending OneDrive backup");
+                } else {
+                    stateFile.delete();
+
+                    // Encryption of the database under the backup secret key, streamed to the
+                    // file that is then uploaded from disk
+                    final OutputStream backupFileOs = new FileOutputStream(backupFile);
+                    boolean written = false;
+                    try {
+                        ChunkedBackup.writeBackup(dbFile,
+                            SharedPreferencesBackupKey.restoreInstance(),
+                            BackupFactory.isCompressedBackup(), backupFileOs);
+                        written = true;
+                    } finally {
+                        backupFileOs.close();
+                        if (!written) {
+                            backupFile.delete();
                         }
+                    }
+                }
+            } finally {
+                dbFile.delete();
+            }
 
-                        @Override
-                        public void onUploadFailed(final LiveOperationException exception,
-                                                   final LiveOperation operation) {
-                            createBackupCompleted();
+            // Name the backup after the pending file so a resumed upload keeps its name
+            client.uploadResumableAsync(backupFolder, getBackupName(backupFile.lastModified()),
+                backupFile, stateFile, new LiveUploadOperationListener() {
 
-                            LOGGER.error("Error uploading backup file", exception);
-                            createBackupFailure();
-                        }
+                    {
+                        // Invoke the callback on the onCreateBackupListener
+                        createBackupStarted();
+                    }
+
+                    @Override
+                    public void onUploadFailed(final LiveOperationException exception,
+                                               final LiveOperation operation) {
+                        // Keep the pending backup so the next attempt can resume it
+                        createBackupCompleted();
+
+                        LOGGER.error("Error uploading backup file", exception);
+                        createBackupFailure();
+                    }
 
-                        @Override
-                        public void onUploadCompleted(final LiveOperation operation) {
-                            createBackupCompleted();
+                    @Override
+                    public void onUploadCompleted(final LiveOperation operation) {
+                        createBackupCompleted();
+                        backupFile.delete();
 
+                        final JSONObject result = operation.getResult();
+                        if (result.has("error")) {
+                            // Error returned to onUploadCompleted rather than onUploadFailed
+                            LOGGER.error("Error uploading backup file: {}",
+                                result.optString("error"));
+                            createBackupFailure();
+                        } else {
                             LOGGER.info("File uploaded.");
                             createBackupSuccess();
                         }
+                    }
 
-                        @Override
-                        public void onUploadProgress(final int totalBytes,
-                                                     final int bytesRemaining, final LiveOperation operation) {
+                    @Override
+                    public void onUploadProgress(final int totalBytes,
+                                                 final int bytesRemaining, final LiveOperation operation) {
 
-                            // Update the progress bar
-                            LOGGER.debug("OneDrive backup progress {}",
-                                ((float) (bytesRemaining / totalBytes)) * 100);
-                        }
-                    });
-            } finally {
-                jsonEncIs.close();
-            }
+                        // Update the progress bar
+                        LOGGER.debug("OneDrive backup progress {}",
+                            ((float) (bytesRemaining / totalBytes)) * 100);
+                    }
+                });
         } catch (BackupKeyException e) {
             LOGGER.error("BackupKey is invalid, cannot create backup with OneDrive", e);
             createBackupFailure();
@@ -564,11 +596,20 @@ public final class OneDriveBackupProviderFragment extends BackupProviderFragment
      * @return backup file name.
      */
     String getBackupName() {
-        // Create a unique filename for the backup
+        return getBackupName(new Date().getTime());
+    }
+
+    /**
+     * Creates the name for a backup of the Pico database made at the given time.
+     *
+     * @param time time the backup was made, in milliseconds since the epoch.
+     * @return backup file name.
+     */
+    private String getBackupName(final long time) {
         final String backupName =
             android.os.Build.MODEL +
                 "-pico-" +
-                new Date().getTime() +
+                time +
                 ".backup";
         LOGGER.trace("Filename = {}", backupName);
         return backupName;
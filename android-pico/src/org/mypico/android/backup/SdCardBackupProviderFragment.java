@@ -24,18 +24,13 @@ package org.mypico.android.backup;
 import android.os.AsyncTask;
 import android.os.Environment;
 
-import com.google.common.io.ByteStreams;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.io.Files.copy;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -54,9 +49,11 @@ import static org.mypico.android.backup.IBackupProvider.BackupType.SDCARD;
 import org.mypico.android.core.PicoApplication;
 import org.mypico.android.util.AsyncTaskResult;
 import org.mypico.jpico.backup.BackupKeyException;
-import org.mypico.jpico.backup.BackupFile;
-import org.mypico.jpico.backup.EncBackupFile;
-import org.mypico.jpico.gson.EncBackupFileGson;
+import org.mypico.jpico.backup.BackupKey;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.hash.Hashing;
 
 /**
  * UI Fragment for managing backups to the SD card.
@@ -75,6 +72,12 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
 
     private static final String PICO_BACKUP_DIR = File.separator + "pico-backup";
 
+    // Subdirectory of the backup directory holding incremental backups
+    private static final String INCREMENTAL_DIR = "incremental";
+
+    // Cache file incremental backups are downloaded to for restoring
+    private static final String BUNDLE_NAME = "sdcard-restore.backup";
+
     /**
      * Backs up the Pico database file to the external storage.
      */
@@ -96,64 +99,56 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
         @Override
         protected AsyncTaskResult<Boolean> doInBackground(final File... params) {
             // Verify the method's preconditions
-            final File dbFile = checkNotNull(params[0]);
-            final File backupDir = checkNotNull(params[1]);
+            final File backupDir = checkNotNull(params[0]);
 
             LOGGER.info("Backing up Pico database to SD card");
 
             // Copy the file to the user's Pico SD card backup
+            File dbFile = null;
             try {
-                // Staging and encryption of the database under the backup secret key
-                final BackupFile backupDbFile = BackupFile.newInstance(dbFile);
-                final EncBackupFile encBackupDbFile = backupDbFile.createEncBackupFile(
-                    SharedPreferencesBackupKey.restoreInstance());
-
-                // JSON encode the encrypted database backup file
-                final String jsonEnc = EncBackupFileGson.gson.toJson(encBackupDbFile);
-                final InputStream jsonEncIs =
-                    new ByteArrayInputStream(jsonEnc.getBytes("UTF-8"));
-                try {
-                    final File backupFile = new File(backupDir, backupName);
-                    LOGGER.debug("Backup filename {}", backupFile.getPath());
-                    if (!backupFile.exists()) {
-                        backupFile.getParentFile().mkdirs();
-                        backupFile.createNewFile();
-                        // Backup the Pico database - copy(From, To)
-                        final OutputStream backupFileOs = new FileOutputStream(backupFile);
-                        try {
-                            ByteStreams.copy(jsonEncIs, backupFileOs);
-                        } finally {
-                            backupFileOs.close();
-                        }
-                    }
+                dbFile = DbHelper.newSnapshot(PicoApplication.getContext());
+
+                // Encryption of the database under the backup secret key, streamed
+                // straight to the backup file
+                final BackupKey backupKey = SharedPreferencesBackupKey.restoreInstance();
+                if (BackupFactory.isIncrementalBackup()) {
+                    IncrementalBackup.create(dbFile, backupKey,
+                        new DirectoryBackupStore(new File(backupDir, INCREMENTAL_DIR)),
+                        MAX_BACKUPS);
+                    return new AsyncTaskResult<Boolean>(true);
+                }
 
-                    // Ensure that the last 5 backups are kept.
-                    final List<File> backups = Arrays.asList(backupDir.listFiles());
-                    final int numBackups = backups.size();
-                    if (numBackups >= MAX_BACKUPS) {
-                        // Sort in order of oldest backups first
-                        Collections.sort(backups, new Comparator<File>() {
-                            public int compare(final File f1, final File f2) {
-                                if (f1.lastModified() < f2.lastModified()) {
-                                    return -1;
-                                } else if (f1.lastModified() > f2.lastModified()) {
-                                    return 1;
-                                } else {
-                                    return 0;
-                                }
-                            }
-                        });
-
-                        // Delete the oldest backups - so that only 5 remain
-                        for (int i = 0; i < numBackups - MAX_BACKUPS; i++) {
-                            final File file = backups.get(i);
-                            file.delete();
+                final File backupFile = new File(backupDir, backupName);
+                LOGGER.debug("Backup filename {}", backupFile.getPath());
+                final BackupCatalogue catalogue = loadCatalogue(backupDir, backupKey);
+                if (!backupFile.exists()) {
+                    backupFile.getParentFile().mkdirs();
+                    // The backup is hashed as it is written, for its catalogue entry
+                    final HashingOutputStream backupFileOs = new HashingOutputStream(
+                        Hashing.sha256(), new FileOutputStream(backupFile));
+                    boolean written = false;
+                    try {
+                        ChunkedBackup.writeBackup(dbFile, backupKey,
+                            BackupFactory.isCompressedBackup(), backupFileOs);
+                        written = true;
+                    } finally {
+                        backupFileOs.close();
+                        if (!written) {
+                            backupFile.delete();
                         }
                     }
-                    return new AsyncTaskResult<Boolean>(true);
-                } finally {
-                    jsonEncIs.close();
+                    catalogue.add(new BackupCatalogue.Entry(backupName,
+                        backupFile.lastModified(), backupFile.length(),
+                        backupFileOs.hash().asBytes()));
                 }
+
+                // Ensure that the last 5 backups are kept.
+                for (BackupCatalogue.Entry old : catalogue.prune(MAX_BACKUPS)) {
+                    LOGGER.debug("Deleting old backup {}", old.getName());
+                    new File(backupDir, old.getName()).delete();
+                }
+                catalogue.save(new DirectoryBackupStore(backupDir), backupKey);
+                return new AsyncTaskResult<Boolean>(true);
             } catch (BackupKeyException e) {
                 // BackupKey is invalid
                 LOGGER.error("BackupKey is invalid", e);
@@ -162,6 +157,10 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
                 // Couldn't create file
                 LOGGER.error("Couldn't create backup file (may be out of storage?)", e);
                 return new AsyncTaskResult<Boolean>(e);
+            } finally {
+                if (dbFile != null) {
+                    dbFile.delete();
+                }
             }
         }
 
@@ -185,9 +184,11 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
     private final class RestoreBackupTask
         extends AsyncTask<File, Void, AsyncTaskResult<Boolean>> {
 
+        private final File bundleFile;
         private File tempFile = null;
 
-        RestoreBackupTask() throws IOException {
+        RestoreBackupTask(final File bundleFile) {
+            this.bundleFile = bundleFile;
         }
 
         @Override
@@ -201,26 +202,31 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
             // Verify the method's preconditions
             final File backupDir = checkNotNull(params[0]);
 
-            // Sort the backup files in order of last modified
-            final List<File> backups = Arrays.asList(backupDir.listFiles());
-            Collections.sort(backups, new Comparator<File>() {
-                public int compare(final File f1, final File f2) {
-                    if (f1.lastModified() > f2.lastModified()) {
-                        return -1;
-                    } else if (f1.lastModified() < f2.lastModified()) {
-                        return 1;
-                    } else {
-                        return 0;
-                    }
+            try {
+                // The latest full backup file, if there is one
+                final File backupFile = findLatestBackupFile(backupDir);
+
+                // Restore the latest incremental snapshot instead if it is newer
+                final BackupStore store =
+                    new DirectoryBackupStore(new File(backupDir, INCREMENTAL_DIR));
+                final String snapshot = IncrementalBackup.latestSnapshot(store);
+                if (snapshot != null && (backupFile == null
+                    || IncrementalBackup.snapshotTime(snapshot) > backupFile.lastModified())) {
+                    LOGGER.debug("Found snapshot to restore {}", snapshot);
+                    IncrementalBackup.download(store, snapshot, bundleFile);
+                    tempFile = bundleFile;
+                } else if (backupFile != null) {
+                    LOGGER.debug("Found file to restore {}", backupFile.getPath());
+                    tempFile = backupFile;
+                } else {
+                    return new AsyncTaskResult<Boolean>(
+                        new IOException("No backups in " + backupDir));
                 }
-            });
-
-            // Backup the latest backup file
-            final File backupFile = backups.get(0);
-            LOGGER.debug("Found file to backup {}", backupFile.getPath());
-            tempFile = backupFile;
-
-            return new AsyncTaskResult<Boolean>(true);
+                return new AsyncTaskResult<Boolean>(true);
+            } catch (IOException e) {
+                LOGGER.error("Couldn't read backup", e);
+                return new AsyncTaskResult<Boolean>(e);
+            }
         }
 
         @Override
@@ -321,10 +327,8 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
         checkState(isAttached, "SD card Fragment isn't attached, cannot call backup");
 
         // Backup of the file to the user's DropBox, result returned to onBackupListener
-        final File dbFile = DbHelper.getDatabaseFile(getActivity());
         final File sdCardDir = new File(Environment.getExternalStorageDirectory().getPath());
-        new CreateBackupTask(getBackupName())
-            .execute(dbFile, new File(sdCardDir, PICO_BACKUP_DIR));
+        new CreateBackupTask(getBackupName()).execute(new File(sdCardDir, PICO_BACKUP_DIR));
     }
 
     @Override
@@ -346,12 +350,168 @@ public final class SdCardBackupProviderFragment extends BackupProviderFragment {
         // Restore the backup from the user's DropBox,
         // result returned to onBackupRestoredListener
         final File sdCardDir = new File(Environment.getExternalStorageDirectory().getPath());
+        new RestoreBackupTask(new File(getActivity().getCacheDir(), BUNDLE_NAME))
+            .execute(new File(sdCardDir, PICO_BACKUP_DIR));
+    }
+
+    /**
+     * Get the store incremental backups are made to, for backing up without the UI.
+     *
+     * @return The store, or absent if the external storage is not writable.
+     */
+    static Optional<BackupStore> newIncrementalStore() {
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            return Optional.absent();
+        }
+        final File sdCardDir = new File(Environment.getExternalStorageDirectory().getPath());
+        return Optional.<BackupStore>of(new DirectoryBackupStore(
+            new File(new File(sdCardDir, PICO_BACKUP_DIR), INCREMENTAL_DIR)));
+    }
+
+    /**
+     * Get the backups on the external storage, for finding the newest backup without the UI.
+     *
+     * @return The source, or absent if the external storage is not readable.
+     */
+    static Optional<BackupDiscovery.Source> newDiscoverySource() {
+        final String state = Environment.getExternalStorageState();
+        if (!Environment.MEDIA_MOUNTED.equals(state)
+            && !Environment.MEDIA_MOUNTED_READ_ONLY.equals(state)) {
+            return Optional.absent();
+        }
+        final File sdCardDir = new File(Environment.getExternalStorageDirectory().getPath());
+        return Optional.<BackupDiscovery.Source>of(
+            new DiscoverySource(new File(sdCardDir, PICO_BACKUP_DIR)));
+    }
+
+    /**
+     * The full backups and the latest incremental snapshot on the external storage.
+     */
+    private static final class DiscoverySource implements BackupDiscovery.Source {
+
+        private final File backupDir;
+        private final BackupStore store;
+
+        DiscoverySource(final File backupDir) {
+            this.backupDir = backupDir;
+            this.store = new DirectoryBackupStore(new File(backupDir, INCREMENTAL_DIR));
+        }
+
+        @Override
+        public List<BackupDiscovery.Candidate> list() throws IOException {
+            final List<BackupDiscovery.Candidate> candidates =
+                new ArrayList<BackupDiscovery.Candidate>();
+            for (File file : listBackupFiles(backupDir)) {
+                candidates.add(new BackupDiscovery.Candidate(this, SDCARD, file.getName(),
+                    file.lastModified(), file.length(), false));
+            }
+            final String snapshot = IncrementalBackup.latestSnapshot(store);
+            if (snapshot != null) {
+                candidates.add(new BackupDiscovery.Candidate(this, SDCARD, snapshot,
+                    IncrementalBackup.snapshotTime(snapshot),
+                    IncrementalBackup.snapshotLength(store, snapshot), true));
+            }
+            return candidates;
+        }
+
+        @Override
+        public File download(final BackupDiscovery.Candidate candidate, final File cacheFile)
+            throws IOException {
+            if (candidate.isSnapshot()) {
+                IncrementalBackup.download(store, candidate.getName(), cacheFile);
+                return cacheFile;
+            }
+            // Full backups are already local, so can be restored in place
+            return new File(backupDir, candidate.getName());
+        }
+
+        @Override
+        public String toString() {
+            return backupDir.getPath();
+        }
+    }
+
+    /**
+     * Read the catalogue of the full backups in the backup directory, rebuilding it from the
+     * directory if it is missing or can't be read with the key.
+     *
+     * @param backupDir The backup directory.
+     * @param key       The backup key.
+     * @return The catalogue. Rebuilt entries have no hash, so the backups aren't read.
+     */
+    private static BackupCatalogue loadCatalogue(final File backupDir, final BackupKey key) {
+        try {
+            return BackupCatalogue.load(new DirectoryBackupStore(backupDir), key);
+        } catch (IOException e) {
+            LOGGER.info("Rebuilding backup catalogue of {}", backupDir.getPath(), e);
+        }
+        final BackupCatalogue catalogue = new BackupCatalogue();
+        for (File file : listBackupFiles(backupDir)) {
+            catalogue.add(BackupCatalogue.Entry.forFile(file));
+        }
+        return catalogue;
+    }
+
+    /**
+     * Find the latest full backup file, from the catalogue if the backup key is available and the
+     * catalogue is up to date, otherwise by listing the backup directory. The catalogue entry is
+     * checked against the file's size and modification time only; the backup is authenticated as
+     * it is decrypted, so it isn't read here.
+     *
+     * @param backupDir The backup directory.
+     * @return The backup file, or <code>null</code> if there are none.
+     */
+    private static File findLatestBackupFile(final File backupDir) {
         try {
-            new RestoreBackupTask().execute(new File(sdCardDir, PICO_BACKUP_DIR));
+            final Optional<BackupCatalogue.Entry> latest = BackupCatalogue.load(
+                new DirectoryBackupStore(backupDir), SharedPreferencesBackupKey.restoreInstance())
+                .getLatest();
+            if (latest.isPresent()) {
+                final File file = new File(backupDir, latest.get().getName());
+                if (latest.get().describes(file)) {
+                    return file;
+                }
+                LOGGER.warn("Backup catalogue of {} is out of date", backupDir.getPath());
+            }
+        } catch (BackupKeyException e) {
+            // Not yet restored, so the catalogue can't be read
+            LOGGER.debug("No backup key to read the backup catalogue with");
         } catch (IOException e) {
-            LOGGER.error("Failed to create temporary file");
-            downloadBackupFailure();
+            LOGGER.warn("Backup catalogue of {} could not be read", backupDir.getPath(), e);
         }
+
+        final List<File> backups = listBackupFiles(backupDir);
+        return backups.isEmpty() ? null : backups.get(backups.size() - 1);
+    }
+
+    /**
+     * List the full backup files in the backup directory, oldest first.
+     *
+     * @param backupDir The backup directory.
+     * @return The backup files.
+     */
+    private static List<File> listBackupFiles(final File backupDir) {
+        final List<File> backups = new ArrayList<File>();
+        final File[] files = backupDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    backups.add(file);
+                }
+            }
+        }
+        Collections.sort(backups, new Comparator<File>() {
+            public int compare(final File f1, final File f2) {
+                if (f1.lastModified() < f2.lastModified()) {
+                    return -1;
+                } else if (f1.lastModified() > f2.lastModified()) {
+                    return 1;
+                } else {
+                    return 0;
+                }
+            }
+        });
+        return backups;
     }
 
     /**
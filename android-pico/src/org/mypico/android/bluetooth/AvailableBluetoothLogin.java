@@ -5,9 +5,6 @@ import android.content.Intent;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import org.mypico.android.core.VisualCodeIntentGenerator;
 import org.mypico.android.core.visualcode.AndroidVisualCode;
 import org.mypico.android.core.visualcode.CodeType;
@@ -115,9 +112,9 @@ public class AvailableBluetoothLogin {
      */
     @Nullable
     private static String getServiceName(Context context, SafeService safeService) {
-        final OrmLiteSqliteOpenHelper helper = OpenHelperManager.getHelper(context, DbHelper.class);
+        final DbHelper helper = DbHelper.getInstance(context);
         try {
-            final DbDataAccessor accessor = new DbDataAccessor(helper.getConnectionSource());
+            final DbDataAccessor accessor = helper.getDataAccessor();
             final Service service = safeService.getService(accessor);
             if (service != null) {
                 return service.getName();
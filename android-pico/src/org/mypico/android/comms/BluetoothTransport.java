@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.mypico.android.core.PicoServiceImpl;
+import org.mypico.jpico.comms.CombinedVerifierProxy;
+import org.mypico.jpico.comms.JsonMessageSerializer;
+
+/**
+ * Transport for services with a {@code btspp://DDDDDDDDDDDD[:PP]} address, where
+ * {@code DDDDDDDDDDDD} is a 6-byte hex device id and {@code PP} an optional 1-byte hex RFCOMM
+ * channel number.
+ */
+class BluetoothTransport extends Transport {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(BluetoothTransport.class.getSimpleName());
+
+    static final String SCHEME = "btspp";
+
+    static final UUID AUTHENTICATION_SERVICE_UUID =
+        UUID.fromString("ed995e5a-c7e7-4442-a6ee-407400000000");
+
+    private final Context context;
+    private final String hwAddress;
+    private final int channel;
+    private BluetoothSocket socket;
+    private boolean closed;
+
+    BluetoothTransport(final Context context, final Uri address) {
+        super(address);
+        this.context = context.getApplicationContext();
+
+        final String serviceAddr = address.toString();
+        final String hwAddressStr = serviceAddr.substring(8, 8 + 12).toUpperCase();
+        // Insert colon between each pair of characters
+        hwAddress = hwAddressStr.replaceAll("..(?!$)", "$0:");
+        if (serviceAddr.length() == 23) {
+            // Contains port
+            channel = Integer.parseInt(serviceAddr.substring(serviceAddr.length() - 2), 16);
+        } else {
+            channel = 0;
+        }
+    }
+
+    @Override
+    public void connect() throws IOException {
+        final BluetoothManager bMgr =
+            (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        final BluetoothAdapter bAdapter = bMgr.getAdapter();
+        if (bAdapter == null || !bAdapter.isEnabled()) {
+            throw new IOException("Bluetooth is not available");
+        }
+        final BluetoothDevice bDevice = bAdapter.getRemoteDevice(hwAddress);
+
+        final BluetoothSocket bSocket;
+        if (channel != 0) {
+            try {
+                final Method m = bDevice.getClass().getMethod(
+                    "createRfcommSocket", new Class[]{int.class});
+                bSocket = (BluetoothSocket) m.invoke(bDevice, channel);
+            } catch (Exception e) {
+                throw new IOException("Unable to create RFCOMM socket", e);
+            }
+        } else {
+            bSocket = bDevice.createRfcommSocketToServiceRecord(AUTHENTICATION_SERVICE_UUID);
+        }
+
+        synchronized (this) {
+            if (closed) {
+                bSocket.close();
+                throw new IOException("Transport closed");
+            }
+            socket = bSocket;
+        }
+
+        LOGGER.info("BT device address: " + hwAddress);
+        LOGGER.info("BT channel: " + channel);
+        bSocket.connect();
+        LOGGER.info("Bluetooth socket is connected");
+    }
+
+    @Override
+    public CombinedVerifierProxy getProxy() throws IOException {
+        synchronized (this) {
+            if (socket == null || closed) {
+                throw new IOException("Transport not connected");
+            }
+            return new SigmaProxy(socket, new JsonMessageSerializer());
+        }
+    }
+
+    @Override
+    public void close() {
+        final BluetoothSocket bSocket;
+        synchronized (this) {
+            closed = true;
+            bSocket = socket;
+        }
+        if (bSocket != null) {
+            LOGGER.info("Closing bluetooth socket");
+            try {
+                bSocket.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close bluetooth socket", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean putContinuousExtras(final Intent intent) {
+        intent.putExtra(PicoServiceImpl.PROXY_BT_ADDRESS, hwAddress);
+        intent.putExtra(PicoServiceImpl.PROXY_BT_CHANNEL, channel);
+        return true;
+    }
+
+    @Override
+    public boolean isBluetooth() {
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+
+import android.content.Intent;
+import android.net.Uri;
+
+import org.mypico.android.core.PicoServiceImpl;
+import org.mypico.android.data.SafeService;
+import org.mypico.jpico.comms.CombinedVerifierProxy;
+import org.mypico.jpico.comms.JsonMessageSerializer;
+import org.mypico.jpico.comms.RendezvousSigmaProxy;
+import org.mypico.rendezvous.RendezvousChannel;
+
+/**
+ * Transport for services reached through a rendezvous point ({@code http://} addresses).
+ * <p>
+ * The rendezvous channel makes its own HTTP requests, so connecting the transport only checks
+ * that the rendezvous host is reachable.
+ */
+class RendezvousTransport extends SocketTransport {
+
+    static final String SCHEME = "http";
+
+    private static final int HTTP_PORT = 80;
+
+    RendezvousTransport(final Uri address) {
+        super(address, HTTP_PORT);
+    }
+
+    @Override
+    public CombinedVerifierProxy getProxy() throws IOException {
+        final RendezvousChannel channel =
+            new RendezvousChannel(SafeService.UriToURI(getAddress()).toURL());
+        return new RendezvousSigmaProxy(channel, new JsonMessageSerializer());
+    }
+
+    @Override
+    public boolean putContinuousExtras(final Intent intent) {
+        intent.putExtra(PicoServiceImpl.PROXY_CHANNEL, getAddress());
+        return true;
+    }
+}
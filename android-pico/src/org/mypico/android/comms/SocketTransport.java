@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import android.net.Uri;
+
+/**
+ * Base class for transports that run over TCP. The race is run on a plain socket connected to
+ * the service host, which is closed again once the link is known to be up: the jpico proxies
+ * open their own connections. A transport that isn't raced is not probed at all.
+ */
+abstract class SocketTransport extends Transport {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+
+    private final int defaultPort;
+    private Socket socket;
+    private boolean closed;
+
+    SocketTransport(final Uri address, final int defaultPort) {
+        super(address);
+        this.defaultPort = defaultPort;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        final Uri address = getAddress();
+        final int port = (address.getPort() == -1) ? defaultPort : address.getPort();
+        final Socket s = new Socket();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Transport closed");
+            }
+            socket = s;
+        }
+        try {
+            s.connect(new InetSocketAddress(address.getHost(), port), CONNECT_TIMEOUT_MS);
+        } finally {
+            s.close();
+        }
+    }
+
+    @Override
+    public boolean isProbeOnly() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        final Socket s;
+        synchronized (this) {
+            closed = true;
+            s = socket;
+        }
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Nothing more to be done
+            }
+        }
+    }
+}
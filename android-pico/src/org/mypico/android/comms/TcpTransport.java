@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+
+import android.net.Uri;
+
+import org.mypico.jpico.comms.CombinedVerifierProxy;
+import org.mypico.jpico.comms.JsonMessageSerializer;
+import org.mypico.jpico.comms.SocketCombinedProxy;
+
+/**
+ * Transport for services with a {@code tcp://host:port} address.
+ * <p>
+ * The protocol runs over jpico's {@link SocketCombinedProxy}, which frames messages the way
+ * existing verifiers expect but opens its own connection, so connecting the transport only checks
+ * that the service is reachable.
+ */
+class TcpTransport extends SocketTransport {
+
+    static final String SCHEME = "tcp";
+
+    TcpTransport(final Uri address) {
+        super(address, -1);
+    }
+
+    @Override
+    public CombinedVerifierProxy getProxy() throws IOException {
+        final Uri address = getAddress();
+        return new SocketCombinedProxy(
+            address.getHost(),
+            address.getPort(),
+            new JsonMessageSerializer());
+    }
+}
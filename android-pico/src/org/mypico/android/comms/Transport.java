@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.mypico.jpico.comms.CombinedVerifierProxy;
+
+/**
+ * A single way of reaching a service that a {@link TransportRacer} can race against others.
+ * <p>
+ * Establishing a transport is split into two steps. {@link #connect()} blocks until the
+ * underlying link (TCP connection or RFCOMM socket) is up, and can be aborted from another thread
+ * by calling {@link #close()}. Once a transport has won the race, {@link #getProxy()} returns the
+ * proxy that the SIGMA prover should run over.
+ *
+ * @see TransportRacer
+ */
+public abstract class Transport {
+
+    private final Uri address;
+
+    protected Transport(final Uri address) {
+        this.address = address;
+    }
+
+    /**
+     * Create the transport appropriate for the scheme of a service address.
+     *
+     * @param context Context used to access system services.
+     * @param address The service address.
+     * @return The transport for the address.
+     * @throws IllegalArgumentException if the scheme of the address isn't supported.
+     */
+    public static Transport forAddress(final Context context, final Uri address) {
+        final String scheme = address.getScheme();
+        if (TcpTransport.SCHEME.equals(scheme)) {
+            return new TcpTransport(address);
+        } else if (RendezvousTransport.SCHEME.equals(scheme)) {
+            return new RendezvousTransport(address);
+        } else if (BluetoothTransport.SCHEME.equals(scheme)) {
+            return new BluetoothTransport(context, address);
+        } else {
+            throw new IllegalArgumentException("unsupported service protocol: " + scheme);
+        }
+    }
+
+    /**
+     * Whether an address can still be used after the login it was given for. Rendezvous channel
+     * URLs are single use, and a TCP address may have moved on, but a Bluetooth device address
+     * stays the same.
+     *
+     * @param address The service address.
+     * @return {@code true} if the address can be reused.
+     */
+    public static boolean isReusableAddress(final Uri address) {
+        return BluetoothTransport.SCHEME.equals(address.getScheme());
+    }
+
+    /**
+     * Get the address of the service this transport connects to.
+     *
+     * @return The service address.
+     */
+    public Uri getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the name of the transport, used to key the win-rate statistics.
+     *
+     * @return The transport name.
+     */
+    public String getName() {
+        return address.getScheme();
+    }
+
+    /**
+     * Establish the underlying link to the service. This blocks until the link is up.
+     *
+     * @throws IOException if the link could not be established or the transport was closed.
+     */
+    public abstract void connect() throws IOException;
+
+    /**
+     * Get the proxy to run the SIGMA protocol over. Should only be called after a successful
+     * call to {@link #connect()}, unless the transport {@link #isProbeOnly() only probes}.
+     *
+     * @return The verifier proxy.
+     * @throws IOException if the proxy could not be created.
+     */
+    public abstract CombinedVerifierProxy getProxy() throws IOException;
+
+    /**
+     * Close the transport, aborting any {@link #connect()} in progress.
+     */
+    public abstract void close();
+
+    /**
+     * Whether {@link #connect()} only checks that the service is reachable, because the proxy
+     * opens its own connection. Such a transport needn't be connected when it has nothing to
+     * race against.
+     *
+     * @return {@code true} if connecting only probes the service, {@code false} if the proxy runs
+     * over the link that {@link #connect()} establishes.
+     */
+    public boolean isProbeOnly() {
+        return false;
+    }
+
+    /**
+     * Add the extras {@link org.mypico.android.core.PicoServiceImpl} needs to continue
+     * authentication over this transport.
+     *
+     * @param intent The intent that will start the continuous authentication.
+     * @return {@code true} if continuous authentication is supported over this transport,
+     * {@code false} otherwise.
+     */
+    public boolean putContinuousExtras(final Intent intent) {
+        return false;
+    }
+
+    /**
+     * Whether the transport is a Bluetooth link. Services reached over Bluetooth don't need to be
+     * sent the local Bluetooth address as extra data.
+     *
+     * @return {@code true} for Bluetooth transports, {@code false} otherwise.
+     */
+    public boolean isBluetooth() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + "(" + address + ")";
+    }
+}
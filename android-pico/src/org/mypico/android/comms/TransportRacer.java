@@ -0,0 +1,314 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.SystemClock;
+
+/**
+ * Connects to a service that is reachable over several transports by racing them against each
+ * other, in the style of "happy eyeballs".
+ * <p>
+ * The candidates are started one after another, separated by a short stagger delay, so that the
+ * preferred transport gets a head start but a slow one (a rendezvous point under load, or a flaky
+ * RFCOMM connect) can't hold up the whole login. The first transport to establish its link wins
+ * and all of the others are cancelled and closed.
+ * <p>
+ * The racer keeps win-rate statistics for each transport, and uses them to decide which
+ * candidate gets the head start in later races.
+ * <p>
+ * A single candidate isn't raced at all: it is connected on the calling thread, or not connected
+ * if connecting would only probe the service, and is left out of the statistics.
+ * <p>
+ * It uses the singleton pattern, so the statistics are shared by every authentication.
+ */
+public final class TransportRacer {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(TransportRacer.class.getSimpleName());
+
+    /**
+     * Default delay between starting successive candidates, in milliseconds.
+     */
+    public static final long DEFAULT_STAGGER_MS = 300;
+
+    private static TransportRacer instance;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Statistics> statistics = new HashMap<String, Statistics>();
+    private final long staggerMs;
+
+    /**
+     * Win-rate statistics for a single transport.
+     */
+    public static final class Statistics {
+        private int attempts;
+        private int wins;
+        private int failures;
+        private long totalWinMillis;
+
+        private Statistics() {
+        }
+
+        private Statistics(final Statistics other) {
+            attempts = other.attempts;
+            wins = other.wins;
+            failures = other.failures;
+            totalWinMillis = other.totalWinMillis;
+        }
+
+        /**
+         * @return The number of races the transport has taken part in.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return The number of races the transport has won.
+         */
+        public int getWins() {
+            return wins;
+        }
+
+        /**
+         * @return The number of times the transport failed to connect.
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The fraction of races won, or 0 if the transport has never raced.
+         */
+        public float getWinRate() {
+            return (attempts == 0) ? 0f : ((float) wins) / attempts;
+        }
+
+        /**
+         * @return The mean time from the start of the race to winning it, in milliseconds, or 0
+         * if the transport has never won.
+         */
+        public long getMeanWinMillis() {
+            return (wins == 0) ? 0 : totalWinMillis / wins;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{attempts=%d, wins=%d, failures=%d, winRate=%.2f, meanWin=%dms}",
+                attempts, wins, failures, getWinRate(), getMeanWinMillis());
+        }
+    }
+
+    private TransportRacer(final long staggerMs) {
+        this.staggerMs = staggerMs;
+    }
+
+    /**
+     * Get the racer instance.
+     *
+     * @return The current instance.
+     */
+    public static synchronized TransportRacer getInstance() {
+        if (instance == null) {
+            instance = new TransportRacer(DEFAULT_STAGGER_MS);
+        }
+        return instance;
+    }
+
+    /**
+     * Race the candidate transports and return the first one to connect. All the other
+     * candidates are closed before this method returns.
+     *
+     * @param candidates The transports to race, in order of preference.
+     * @return The connected transport. The caller is responsible for closing it.
+     * @throws IOException if none of the candidates could connect.
+     */
+    public Transport connect(final List<Transport> candidates) throws IOException {
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No transports to connect");
+        }
+        if (candidates.size() == 1) {
+            return connectOnly(candidates.get(0));
+        }
+
+        final List<Transport> ordered = orderByWinRate(candidates);
+        final CompletionService<Transport> completionService =
+            new ExecutorCompletionService<Transport>(executor);
+        final Map<Future<Transport>, Transport> futures =
+            new HashMap<Future<Transport>, Transport>();
+        final long start = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < ordered.size(); i++) {
+            final Transport transport = ordered.get(i);
+            final long delay = i * staggerMs;
+            futures.put(completionService.submit(new Callable<Transport>() {
+                @Override
+                public Transport call() throws Exception {
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    LOGGER.debug("Starting transport {}", transport);
+                    transport.connect();
+                    return transport;
+                }
+            }), transport);
+        }
+
+        Transport winner = null;
+        Throwable lastError = null;
+        try {
+            for (int i = 0; i < ordered.size() && winner == null; i++) {
+                final Future<Transport> future = completionService.take();
+                try {
+                    winner = future.get();
+                } catch (ExecutionException e) {
+                    final Transport failed = futures.get(future);
+                    LOGGER.warn("Transport {} failed to connect", failed, e.getCause());
+                    recordFailure(failed);
+                    lastError = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } finally {
+            // Cancel the losers, whether or not they've started yet
+            for (Map.Entry<Future<Transport>, Transport> entry : futures.entrySet()) {
+                if (entry.getValue() != winner) {
+                    entry.getKey().cancel(true);
+                    entry.getValue().close();
+                }
+            }
+            recordAttempts(ordered);
+        }
+
+        if (winner == null) {
+            if (lastError instanceof IOException) {
+                throw (IOException) lastError;
+            }
+            throw new IOException("Unable to connect to service", lastError);
+        }
+
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        recordWin(winner, elapsed);
+        LOGGER.info("Transport {} won the race after {}ms", winner, elapsed);
+        LOGGER.debug("Transport statistics: {}", getStatistics());
+        return winner;
+    }
+
+    /**
+     * Connect a transport that has nothing to race against. Probing the service first would only
+     * add a round trip before the proxy makes its own connection.
+     */
+    private static Transport connectOnly(final Transport transport) throws IOException {
+        if (transport.isProbeOnly()) {
+            LOGGER.debug("Using transport {} without probing it", transport);
+            return transport;
+        }
+        try {
+            transport.connect();
+        } catch (IOException e) {
+            transport.close();
+            throw e;
+        }
+        LOGGER.debug("Connected transport {}", transport);
+        return transport;
+    }
+
+    /**
+     * Get a snapshot of the win-rate statistics of each transport that has raced, keyed by
+     * {@link Transport#getName()}.
+     *
+     * @return The statistics.
+     */
+    public synchronized Map<String, Statistics> getStatistics() {
+        final Map<String, Statistics> copy = new HashMap<String, Statistics>();
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            copy.put(entry.getKey(), new Statistics(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Order the candidates so that the transports that have won most often start first. Ties
+     * (including transports that have never raced) keep the caller's order.
+     */
+    private synchronized List<Transport> orderByWinRate(final List<Transport> candidates) {
+        final List<Transport> ordered = new ArrayList<Transport>(candidates);
+        Collections.sort(ordered, new Comparator<Transport>() {
+            @Override
+            public int compare(Transport lhs, Transport rhs) {
+                return Float.compare(winRate(rhs), winRate(lhs));
+            }
+        });
+        return ordered;
+    }
+
+    private float winRate(final Transport transport) {
+        final Statistics stats = statistics.get(transport.getName());
+        return (stats == null) ? 0f : stats.getWinRate();
+    }
+
+    private Statistics statisticsFor(final Transport transport) {
+        Statistics stats = statistics.get(transport.getName());
+        if (stats == null) {
+            stats = new Statistics();
+            statistics.put(transport.getName(), stats);
+        }
+        return stats;
+    }
+
+    private synchronized void recordAttempts(final List<Transport> transports) {
+        for (Transport transport : transports) {
+            statisticsFor(transport).attempts++;
+        }
+    }
+
+    private synchronized void recordWin(final Transport transport, final long elapsed) {
+        final Statistics stats = statisticsFor(transport);
+        stats.wins++;
+        stats.totalWinMillis += elapsed;
+    }
+
+    private synchronized void recordFailure(final Transport transport) {
+        statisticsFor(transport).failures++;
+    }
+}
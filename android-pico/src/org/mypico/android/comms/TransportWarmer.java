@@ -0,0 +1,234 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.comms;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import org.mypico.jpico.comms.CombinedVerifierProxy;
+
+/**
+ * Speculatively connects to a service as soon as its visual code has been scanned, so that the
+ * link is already up by the time the user has chosen a pairing and the authentication starts.
+ * <p>
+ * Only transports whose proxy runs over the connected link (Bluetooth) are warmed. The tcp and
+ * rendezvous proxies open their own connections, so warming them would only probe the service.
+ * <p>
+ * A warmed transport is handed over to the authentication by {@link #claim(Uri)}. If nobody
+ * claims it within {@link #IDLE_TIMEOUT_MS} it is closed.
+ * <p>
+ * It uses the singleton pattern, so the transport warmed by one component can be claimed by
+ * another.
+ */
+public final class TransportWarmer {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(TransportWarmer.class.getSimpleName());
+
+    /**
+     * Time after which an unclaimed warmed transport is closed, in milliseconds.
+     */
+    public static final long IDLE_TIMEOUT_MS = 30000;
+
+    private static TransportWarmer instance;
+
+    private final ExecutorService connectExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService idleExecutor =
+        Executors.newSingleThreadScheduledExecutor();
+    private final Map<Uri, WarmTransport> warmed = new HashMap<Uri, WarmTransport>();
+
+    /**
+     * A transport whose connection was started by the warmer. Connecting it waits for the
+     * connection already in progress rather than starting a new one.
+     */
+    private static final class WarmTransport extends Transport {
+
+        private final Transport transport;
+        private Future<Void> connecting;
+        private ScheduledFuture<?> idleClose;
+
+        WarmTransport(final Transport transport) {
+            super(transport.getAddress());
+            this.transport = transport;
+        }
+
+        @Override
+        public String getName() {
+            return transport.getName();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            try {
+                connecting.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Warm-up connection failed", cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for warm-up connection");
+            }
+        }
+
+        @Override
+        public CombinedVerifierProxy getProxy() throws IOException {
+            return transport.getProxy();
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+
+        @Override
+        public boolean putContinuousExtras(final Intent intent) {
+            return transport.putContinuousExtras(intent);
+        }
+
+        @Override
+        public boolean isBluetooth() {
+            return transport.isBluetooth();
+        }
+
+        @Override
+        public String toString() {
+            return "warm " + transport;
+        }
+    }
+
+    private TransportWarmer() {
+    }
+
+    /**
+     * Get the warmer instance.
+     *
+     * @return The current instance.
+     */
+    public static synchronized TransportWarmer getInstance() {
+        if (instance == null) {
+            instance = new TransportWarmer();
+        }
+        return instance;
+    }
+
+    /**
+     * Start connecting to a service in the background. Does nothing if a connection to the
+     * address is already being warmed, or if the transport for it
+     * {@link Transport#isProbeOnly() only probes}. Repeated calls don't extend the idle timeout.
+     *
+     * @param context Context used to access system services.
+     * @param address The service address.
+     */
+    public synchronized void warm(final Context context, final Uri address) {
+        if (address == null || warmed.containsKey(address)) {
+            return;
+        }
+
+        final Transport transport;
+        try {
+            transport = Transport.forAddress(context, address);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Not warming unsupported address {}", address);
+            return;
+        }
+        if (transport.isProbeOnly()) {
+            LOGGER.debug("Not warming {}, its proxy opens its own connection", address);
+            return;
+        }
+
+        LOGGER.debug("Warming up connection to {}", address);
+        final WarmTransport warm = new WarmTransport(transport);
+        warm.connecting = connectExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                transport.connect();
+                LOGGER.debug("Warm-up connection to {} established", address);
+                return null;
+            }
+        });
+        warm.idleClose = idleExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(address, warm);
+            }
+        }, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        warmed.put(address, warm);
+    }
+
+    /**
+     * Take ownership of the transport being warmed for an address, if there is one. The
+     * transport may still be connecting; its {@link Transport#connect()} waits for the
+     * warm-up connection to complete.
+     *
+     * @param address The service address.
+     * @return The warmed transport, or {@code null} if the address isn't being warmed. The caller
+     * is responsible for closing it.
+     */
+    public synchronized Transport claim(final Uri address) {
+        final WarmTransport warm = warmed.remove(address);
+        if (warm == null) {
+            return null;
+        }
+        warm.idleClose.cancel(false);
+        if (warm.connecting.isDone()) {
+            try {
+                warm.connect();
+            } catch (IOException e) {
+                // Let the caller start afresh rather than inherit a failed warm-up
+                LOGGER.debug("Warm-up connection to {} failed", address, e);
+                warm.close();
+                return null;
+            }
+        }
+        LOGGER.debug("Claimed warm-up connection to {}", address);
+        return warm;
+    }
+
+    private synchronized void expire(final Uri address, final WarmTransport warm) {
+        if (warmed.get(address) == warm) {
+            warmed.remove(address);
+            LOGGER.debug("Closing unused warm-up connection to {}", address);
+            warm.connecting.cancel(true);
+            warm.close();
+        }
+    }
+}
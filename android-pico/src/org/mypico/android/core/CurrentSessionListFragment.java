@@ -175,18 +175,6 @@ public class CurrentSessionListFragment extends SessionListFragment {
             throw new IllegalStateException("adapter not initialised");
         }
 
-        int index = adapter.getPosition(session);
-        if (index >= 0) {
-            // already present, need to remove the current adapter/list entry
-            adapter.remove(session);
-        } else {
-            // not present
-            index = 0;
-        }
-
-        // add the adapter/list entry
-        if (session.getStatus() == Status.ACTIVE || session.getStatus() == Status.PAUSED) {
-            adapter.insert(session, index);
-        }
+        adapter.update(getListView(), session);
     }
 }
@@ -25,8 +25,10 @@ import java.security.Security;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.mypico.android.backup.BackupScheduler;
 import org.mypico.android.data.SafeSession;
 import org.mypico.android.crypto.PrngFixes;
+import org.mypico.android.db.SessionRetentionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,6 +70,12 @@ final public class PicoApplication extends Application {
         super.onCreate();
         mContext = this;
         LOGGER.debug("Application started (onCreate called)");
+
+        // Keep the session table trimmed
+        SessionRetentionService.schedule(this);
+
+        // Back up changes to the pairings in the background
+        BackupScheduler.start(this);
     }
 
     /**
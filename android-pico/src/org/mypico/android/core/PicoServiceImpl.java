@@ -46,12 +46,11 @@ import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.data.SafeSession;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -151,12 +150,12 @@ final public class PicoServiceImpl extends Service implements PicoService, Conti
     public void onCreate() {
         LOGGER.debug("Starting PicoServiceImpl");
 
-        // Ormlite helper thin
-        OrmLiteSqliteOpenHelper helper = OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
 
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.warn("Failed to connect to database");
         }
@@ -610,6 +609,7 @@ final public class PicoServiceImpl extends Service implements PicoService, Conti
 
             // Persist update to underlying storage.
             pairing.save();
+            PairingsProvider.notifyChange(this);
 
             // Return the updated PairingInfo
             return new SafePairing(pairing);
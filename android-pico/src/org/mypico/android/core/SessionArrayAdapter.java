@@ -23,24 +23,32 @@ package org.mypico.android.core;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.List;
+import java.util.Date;
 
 import org.mypico.android.data.SafeSession;
 import org.mypico.android.R;
+import org.mypico.jpico.data.session.Session.Status;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.support.v4.app.ListFragment;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.TextView;
 
 /**
  * Provides the UI elements for displaying sessions in the UI session list. This provides the
  * individual entries for each running session.
+ * <p>
+ * Rows are recycled and their ids are the session ids. A session update that only changes a
+ * session's last authentication time or status is applied with {@link #update(ListView,
+ * SafeSession)}, which rebinds just the changed views of the visible row rather than the whole
+ * list. Formatted dates are kept per session and only reformatted when they change.
  *
  * @author Claudio Dettoni <cd611@cam.ac.uk>
  * @author David Llewellyn-Jones <dl551@cam.ac.uk>
@@ -52,53 +60,162 @@ import android.widget.TextView;
  */
 final class SessionArrayAdapter extends ArrayAdapter<SafeSession> {
 
+    // Parts of a row that need binding
+    private static final int NAME = 1;
+    private static final int LAST_AUTH = 2;
+    private static final int STATUS = 4;
+    private static final int ALL = NAME | LAST_AUTH | STATUS;
+
+    private static class ViewHolder {
+        TextView pairingName;
+        TextView lastAuth;
+        ImageView statusIcon;
+    }
+
+    private static class FormattedDate {
+        final long time;
+        final String text;
+
+        FormattedDate(final long time, final String text) {
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+    // Only used on the UI thread, so one instance per adapter is safe
     @SuppressLint("SimpleDateFormat")
-    private static final DateFormat lastAuthFormat =
-        new SimpleDateFormat("d MMM yyyy, HH:mm:ss");
+    private final DateFormat lastAuthFormat = new SimpleDateFormat("d MMM yyyy, HH:mm:ss");
+    private final SparseArray<FormattedDate> lastAuthText = new SparseArray<FormattedDate>();
 
     public SessionArrayAdapter(Context context, int resource) {
         super(context, resource);
+        setNotifyOnChange(false);
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        super.notifyDataSetChanged();
+        // ArrayAdapter turns automatic notification back on, but update() notifies itself
+        setNotifyOnChange(false);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
-    public SessionArrayAdapter(Context context, int resource, List<SafeSession> sessions) {
-        super(context, resource, sessions);
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        // Inflate the view and get references to the inner views
-        LayoutInflater inflater =
-            (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View view = inflater.inflate(R.layout.list_session_info, parent, false);
-        TextView pairingNameView = (TextView) view.findViewById(
-            R.id.list_session_info__pairing_name);
-        TextView lastAuthView = (TextView) view.findViewById(
-            R.id.list_session_info__last_auth);
-        ImageView statusIconView = (ImageView) view.findViewById(
-            R.id.list_session_info__status_icon);
-
-        // Get the session info for this list item
-        SafeSession sessionInfo = getItem(position);
-
-        // Insert relevant values into the view
-        pairingNameView.setText(sessionInfo.getSafePairing().getDisplayName());
-        lastAuthView.setText(lastAuthFormat.format(sessionInfo.getLastAuthDate()));
-        switch (sessionInfo.getStatus()) {
-            case ACTIVE:
-                statusIconView.setImageResource(android.R.drawable.presence_online);
-                break;
-            case PAUSED:
-                statusIconView.setImageResource(android.R.drawable.presence_away);
-                break;
-            case ERROR:
-                statusIconView.setImageResource(android.R.drawable.presence_busy);
-                break;
-            case CLOSED:
-            default:
-                statusIconView.setImageResource(android.R.drawable.presence_invisible);
-                break;
+        final ViewHolder holder;
+        if (convertView == null) {
+            // Inflate the view and get references to the inner views
+            convertView = LayoutInflater.from(getContext()).inflate(
+                R.layout.list_session_info, parent, false);
+            holder = new ViewHolder();
+            holder.pairingName = (TextView) convertView.findViewById(
+                R.id.list_session_info__pairing_name);
+            holder.lastAuth = (TextView) convertView.findViewById(
+                R.id.list_session_info__last_auth);
+            holder.statusIcon = (ImageView) convertView.findViewById(
+                R.id.list_session_info__status_icon);
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
         }
 
-        return view;
+        bind(holder, getItem(position), ALL);
+        return convertView;
+    }
+
+    /**
+     * Apply an update to a session. New sessions are added to the top of the list and sessions
+     * which are no longer active or paused are removed. Otherwise the session keeps its position
+     * and, if its row is visible, only the views showing changed fields are rebound.
+     *
+     * @param list    The list showing this adapter.
+     * @param session The updated session.
+     */
+    public void update(final ListView list, final SafeSession session) {
+        final boolean live =
+            (session.getStatus() == Status.ACTIVE || session.getStatus() == Status.PAUSED);
+        final int position = getPosition(session);
+
+        if (position < 0) {
+            if (live) {
+                insert(session, 0);
+                notifyDataSetChanged();
+            }
+        } else if (!live) {
+            remove(session);
+            lastAuthText.remove(session.getId());
+            notifyDataSetChanged();
+        } else {
+            final int changed = changes(getItem(position), session);
+            if (changed != 0) {
+                // Same id and position, so the list structure is unchanged
+                remove(session);
+                insert(session, position);
+                final View row = list.getChildAt(
+                    position + list.getHeaderViewsCount() - list.getFirstVisiblePosition());
+                if (row != null && row.getTag() instanceof ViewHolder) {
+                    bind((ViewHolder) row.getTag(), session, changed);
+                }
+            }
+        }
+    }
+
+    private static int changes(final SafeSession from, final SafeSession to) {
+        int changed = 0;
+        if (!from.getSafePairing().getDisplayName().equals(to.getSafePairing().getDisplayName())) {
+            changed |= NAME;
+        }
+        if (from.getLastAuthDate().getTime() != to.getLastAuthDate().getTime()) {
+            changed |= LAST_AUTH;
+        }
+        if (from.getStatus() != to.getStatus()) {
+            changed |= STATUS;
+        }
+        return changed;
+    }
+
+    private void bind(final ViewHolder holder, final SafeSession sessionInfo, final int parts) {
+        if ((parts & NAME) != 0) {
+            holder.pairingName.setText(sessionInfo.getSafePairing().getDisplayName());
+        }
+        if ((parts & LAST_AUTH) != 0) {
+            holder.lastAuth.setText(formatLastAuth(sessionInfo));
+        }
+        if ((parts & STATUS) != 0) {
+            switch (sessionInfo.getStatus()) {
+                case ACTIVE:
+                    holder.statusIcon.setImageResource(android.R.drawable.presence_online);
+                    break;
+                case PAUSED:
+                    holder.statusIcon.setImageResource(android.R.drawable.presence_away);
+                    break;
+                case ERROR:
+                    holder.statusIcon.setImageResource(android.R.drawable.presence_busy);
+                    break;
+                case CLOSED:
+                default:
+                    holder.statusIcon.setImageResource(android.R.drawable.presence_invisible);
+                    break;
+            }
+        }
+    }
+
+    private String formatLastAuth(final SafeSession sessionInfo) {
+        final Date date = sessionInfo.getLastAuthDate();
+        FormattedDate formatted = lastAuthText.get(sessionInfo.getId());
+        if (formatted == null || formatted.time != date.getTime()) {
+            formatted = new FormattedDate(date.getTime(), lastAuthFormat.format(date));
+            lastAuthText.put(sessionInfo.getId(), formatted);
+        }
+        return formatted.text;
     }
 }
@@ -18,6 +18,7 @@ import org.mypico.android.core.visualcode.AndroidVisualCode;
 import org.mypico.android.core.visualcode.CodeType;
 import org.mypico.android.data.NonceParcel;
 import org.mypico.android.data.ParcelableCredentials;
+import org.mypico.android.util.LatencyTracer;
 import org.mypico.android.data.SafeService;
 import org.mypico.jpico.gson.VisualCodeGson;
 import org.mypico.jpico.visualcode.DelegatePairingVisualCode;
@@ -181,7 +182,8 @@ public class VisualCodeIntentGenerator {
      *                         a result. This affects some properties of the generated Intent. Specifically, passing
      *                         {@code true} will NOT set the Intent's next activity class, for it is assumed that
      *                         the Activity's parent will take appropriate action itself.
-     * @return An Intent, todo: describe it!
+     * @return An Intent, todo: describe it! The Intent carries the id of a new
+     * {@link LatencyTracer} trace in the {@link LatencyTracer#EXTRA_AUTH_ID} extra.
      * @throws InvalidVisualCodeException if the JSON is malformed, or does not represent a valid
      *                                    Pico visual code.
      * @throws WrongCodeTypeException     if the code represented by the JSON is not of a type specified
@@ -190,6 +192,8 @@ public class VisualCodeIntentGenerator {
     public Intent getIntent(Context context, String json, EnumSet<CodeType> allowedTypes,
                             boolean startedForResult)
         throws InvalidVisualCodeException, WrongCodeTypeException, JsonParseException {
+        final long start = LatencyTracer.now();
+
         // deserialise the JSON string into a VisualCode object
         final AndroidVisualCode code = deserialiseJson(json);
 
@@ -200,7 +204,14 @@ public class VisualCodeIntentGenerator {
             throw new WrongCodeTypeException(type);
         }
 
-        return code.createIntent(context, startedForResult);
+        final Intent intent = code.createIntent(context, startedForResult);
+
+        // Start tracing the authentication from here
+        final LatencyTracer tracer = LatencyTracer.getInstance();
+        final long authId = tracer.begin();
+        tracer.record(authId, LatencyTracer.STAGE_INTENT_GENERATION, start, LatencyTracer.now());
+        intent.putExtra(LatencyTracer.EXTRA_AUTH_ID, authId);
+        return intent;
     }
 
     /**
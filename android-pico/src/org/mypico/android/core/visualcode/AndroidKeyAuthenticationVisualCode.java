@@ -1,10 +1,12 @@
 package org.mypico.android.core.visualcode;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
+import org.mypico.android.comms.TransportWarmer;
 import org.mypico.android.core.VisualCodeIntentGenerator;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.pairing.ChooseKeyPairingActivity;
@@ -39,6 +41,9 @@ public class AndroidKeyAuthenticationVisualCode extends KeyAuthenticationVisualC
      * <li>{@link VisualCodeIntentGenerator#TERMINAL_ADDRESS TERMINAL_ADDRESS} (optional)</li>
      * <li>{@link VisualCodeIntentGenerator#TERMINAL_COMMITMENT TERMINAL_COMMITMENT} (optional)</li>
      * </ul>
+     * <p>
+     * When called from an activity, a Bluetooth connection to the service is warmed up by the
+     * {@link TransportWarmer} so that it is ready by the time the authentication starts.
      */
     @NonNull
     @Override
@@ -56,6 +61,13 @@ public class AndroidKeyAuthenticationVisualCode extends KeyAuthenticationVisualC
         SafeService service = SafeService.fromVisualCode(this);
         intent.putExtra(SERVICE, service);
 
+        // Start connecting to the service while the user chooses a pairing. Logins advertised
+        // over Bluetooth are re-created by the Bluetooth service every few seconds whether or not
+        // the user logs in, so only warm up for codes scanned from an activity.
+        if (context instanceof Activity) {
+            TransportWarmer.getInstance().warm(context, service.getAddress());
+        }
+
         // Add terminal details to intent
         VisualCodeIntentGenerator.putTerminalDetailsIfPresent(intent, this);
 
@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.data;
+
+import android.net.Uri;
+import android.os.BadParcelableException;
+import android.os.Parcel;
+
+/**
+ * The compact parcel encoding shared by the <code>Safe*</code> data objects.
+ * <p>
+ * Each object starts with one int holding the format version in its top half and bit flags for
+ * its optional fields in its bottom half, so absent fields take no space at all. URIs are
+ * written as strings, and nested objects are written inline rather than as parcelables, which
+ * would each carry their class name.
+ * <p>
+ * Lists of these objects are left to <code>Parcel.writeList</code>, with no table of shared
+ * services: the only lists that are actually marshalled hold a single pairing, and the large
+ * session and pairing lists are broadcast in process without being marshalled.
+ */
+final class CompactParcel {
+
+    /**
+     * Version of the encoding, bumped whenever the layout of any object changes.
+     */
+    static final int VERSION = 1;
+
+    private static final int VERSION_SHIFT = 16;
+    private static final int FLAGS_MASK = (1 << VERSION_SHIFT) - 1;
+
+    private CompactParcel() {
+        // no instances
+    }
+
+    /**
+     * Write the header of an object.
+     *
+     * @param out   The parcel.
+     * @param flags The object's flags, at most 16 bits.
+     */
+    static void writeHeader(final Parcel out, final int flags) {
+        out.writeInt((VERSION << VERSION_SHIFT) | flags);
+    }
+
+    /**
+     * Read the header of an object.
+     *
+     * @param in   The parcel.
+     * @param type The type of object, for the error message.
+     * @return The object's flags.
+     * @throws BadParcelableException if the object was written by another version.
+     */
+    static int readHeader(final Parcel in, final Class<?> type) {
+        final int header = in.readInt();
+        final int version = header >>> VERSION_SHIFT;
+        if (version != VERSION) {
+            throw new BadParcelableException(
+                type.getSimpleName() + " parcel version " + version + " is not " + VERSION);
+        }
+        return header & FLAGS_MASK;
+    }
+
+    /**
+     * Write a URI as its string form.
+     *
+     * @param out   The parcel.
+     * @param value The URI, may be <code>null</code>.
+     */
+    static void writeUri(final Parcel out, final Uri value) {
+        out.writeString((value == null) ? null : value.toString());
+    }
+
+    /**
+     * Read a URI written by {@link #writeUri(Parcel, Uri)}.
+     *
+     * @param in The parcel.
+     * @return The URI, or <code>null</code> if none was written.
+     */
+    static Uri readUri(final Parcel in) {
+        final String value = in.readString();
+        return (value == null) ? null : Uri.parse(value);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.data;
+
+import org.mypico.android.data.SafePairing.PairingType;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The few fields of a pairing needed to list it in the UI.
+ * <p>
+ * Unlike {@link SafePairing}, a <code>PairingSummary</code> carries no service commitment,
+ * address or logo, so a page of them stays a few bytes per row when it is broadcast. The full
+ * pairing can be loaded by id when it is needed, for example to show its details.
+ *
+ * @see org.mypico.android.db.PairingSummaries
+ */
+public final class PairingSummary implements Parcelable {
+
+    public static final Parcelable.Creator<PairingSummary> CREATOR =
+        new Parcelable.Creator<PairingSummary>() {
+
+            @Override
+            public PairingSummary createFromParcel(final Parcel source) {
+                return new PairingSummary(
+                    source.readInt(), // id
+                    source.readString(), // name
+                    source.readString(), // service name
+                    PairingType.values()[source.readInt()]);
+            }
+
+            @Override
+            public PairingSummary[] newArray(final int size) {
+                return new PairingSummary[size];
+            }
+        };
+
+    private final int id;
+    private final String name;
+    private final String serviceName;
+    private final PairingType type;
+
+    /**
+     * Constructor.
+     *
+     * @param id          Database id of the pairing.
+     * @param name        Name of the pairing.
+     * @param serviceName Name of the pairing's service.
+     * @param type        Whether the pairing is a key or a credential pairing.
+     */
+    public PairingSummary(
+        final int id, final String name, final String serviceName, final PairingType type) {
+        if (type == null) {
+            throw new NullPointerException("type must not be null");
+        }
+        this.id = id;
+        this.name = name;
+        this.serviceName = serviceName;
+        this.type = type;
+    }
+
+    /**
+     * @return The database id of the pairing.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The name of the pairing.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The name of the pairing's service.
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * @return Whether the pairing is a key or a credential pairing.
+     */
+    public PairingType getType() {
+        return type;
+    }
+
+    /**
+     * Get a string to represent the pairing in the UI, formatted as
+     * {@link SafePairing#getDisplayName()} formats it.
+     *
+     * @return The string to display the pairing to the user as.
+     */
+    public String getDisplayName() {
+        return new StringBuilder()
+            .append(serviceName)
+            .append(": ")
+            .append(name)
+            .toString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel out, final int flags) {
+        out.writeInt(id);
+        out.writeString(name);
+        out.writeString(serviceName);
+        out.writeInt(type.ordinal());
+    }
+}
@@ -68,14 +68,7 @@ final public class SafeKeyPairing extends SafePairing {
             @Override
             public SafeKeyPairing createFromParcel(Parcel source) {
                 // Just reuse the superclass CREATOR:
-                SafePairing p =
-                    SafePairing.CREATOR.createFromParcel(source);
-                return new SafeKeyPairing(
-                    p.pairingId,
-                    p.idIsKnown(),
-                    p.getName(),
-                    p.getSafeService(),
-                    p.getDateCreated().orNull());
+                return wrap(SafePairing.CREATOR.createFromParcel(source));
             }
 
             @Override
@@ -106,6 +99,25 @@ final public class SafeKeyPairing extends SafePairing {
         super(id, idIsKnown, name, service, dateCreated);
     }
 
+    /**
+     * Rewrap a pairing read from a parcel as a <code>SafeKeyPairing</code>.
+     *
+     * @param p The pairing.
+     * @return <code>p</code> itself if it is already a <code>SafeKeyPairing</code>, or a new one
+     * with the same data.
+     */
+    static SafeKeyPairing wrap(final SafePairing p) {
+        if (p instanceof SafeKeyPairing) {
+            return (SafeKeyPairing) p;
+        }
+        return new SafeKeyPairing(
+            p.pairingId,
+            p.idIsKnown(),
+            p.getName(),
+            p.getSafeService(),
+            p.getDateCreated().orNull());
+    }
+
     /**
      * Create a new <code>SafeKeyPairing</code> from the given data.
      *
@@ -72,14 +72,7 @@ final public class SafeLensPairing extends SafePairing {
             @Override
             public SafeLensPairing createFromParcel(Parcel source) {
                 // Just reuse the superclass CREATOR:
-                SafePairing p =
-                    SafePairing.CREATOR.createFromParcel(source);
-                return new SafeLensPairing(
-                    p.pairingId,
-                    p.idIsKnown(),
-                    p.getName(),
-                    p.getSafeService(),
-                    p.getDateCreated().orNull());
+                return wrap(SafePairing.CREATOR.createFromParcel(source));
             }
 
             @Override
@@ -110,6 +103,25 @@ final public class SafeLensPairing extends SafePairing {
         super(id, idIsKnown, name, service, dateCreated);
     }
 
+    /**
+     * Rewrap a pairing read from a parcel as a <code>SafeLensPairing</code>.
+     *
+     * @param p The pairing.
+     * @return <code>p</code> itself if it is already a <code>SafeLensPairing</code>, or a new one
+     * with the same data.
+     */
+    static SafeLensPairing wrap(final SafePairing p) {
+        if (p instanceof SafeLensPairing) {
+            return (SafeLensPairing) p;
+        }
+        return new SafeLensPairing(
+            p.pairingId,
+            p.idIsKnown(),
+            p.getName(),
+            p.getSafeService(),
+            p.getDateCreated().orNull());
+    }
+
     /**
      * Constructor to create a <code>SafeLensPairing</code> from a {@see LensPairing}.
      *
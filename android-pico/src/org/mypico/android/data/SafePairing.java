@@ -64,7 +64,12 @@ import com.google.common.base.Optional;
 public class SafePairing implements Parcelable, AuthFailedSource, DelegationFailedSource {
 
     private static final int UNKNOWN_ID = -1;
-    private static final long INVALID_DATE = -1;
+
+    // Flags for the compact parcel encoding
+    private static final int FLAG_ID_KNOWN = 1;
+    private static final int FLAG_HAS_DATE = 1 << 1;
+    private static final int FLAG_KEY_PAIRING = 1 << 2;
+    private static final int FLAG_LENS_PAIRING = 1 << 3;
 
     public static enum PairingType {
         KEY,
@@ -91,26 +96,7 @@ public class SafePairing implements Parcelable, AuthFailedSource, DelegationFail
              */
             @Override
             public SafePairing createFromParcel(Parcel source) {
-                // Read boolean array containing idIsKnown flag
-                boolean[] b = new boolean[1];
-                source.readBooleanArray(b);
-
-                // Check whether the Pairing dateCreated file is set
-                final long dateCreatedField = source.readLong();
-                final Date dateCreated;
-                if (dateCreatedField == INVALID_DATE) {
-                    dateCreated = null;
-                } else {
-                    dateCreated = new Date(dateCreatedField);
-                }
-
-                return new SafePairing(
-                    source.readInt(), // id
-                    b[0], // idIsKnown
-                    source.readString(), // name
-                    (SafeService) source.readParcelable(
-                        SafeService.class.getClassLoader()), // service
-                    dateCreated);
+                return readCompact(source);
             }
 
             /**
@@ -190,6 +176,15 @@ public class SafePairing implements Parcelable, AuthFailedSource, DelegationFail
         return name;
     }
 
+    /**
+     * Get the database id of the pairing. Only meaningful if {@link #idIsKnown()} is true.
+     *
+     * @return the pairing id.
+     */
+    public int getId() {
+        return pairingId;
+    }
+
     /**
      * Retrieve whether the pairing id has been set and is known.
      *
@@ -355,18 +350,66 @@ public class SafePairing implements Parcelable, AuthFailedSource, DelegationFail
         if (out == null)
             throw new NullPointerException();
 
-        out.writeBooleanArray(new boolean[]{idIsKnown});
-        // Check whether the dateCreated attribute is set yet.
+        writeCompact(out);
+    }
+
+    /**
+     * Write this pairing in the compact encoding. The flags record whether this is a key or lens
+     * pairing, so that {@link #readCompact(Parcel)} returns the same type.
+     *
+     * @param out The parcel to write to.
+     * @see CompactParcel
+     */
+    void writeCompact(final Parcel out) {
+        int flags = 0;
+        if (idIsKnown) {
+            flags |= FLAG_ID_KNOWN;
+        }
         // This will be null when a new SafePairing is created and a
         // corresponding Pairing has not yet been written to the database
-        if (dateCreated == null) {
-            out.writeLong(INVALID_DATE);
-        } else {
+        if (dateCreated != null) {
+            flags |= FLAG_HAS_DATE;
+        }
+        if (this instanceof SafeKeyPairing) {
+            flags |= FLAG_KEY_PAIRING;
+        } else if (this instanceof SafeLensPairing) {
+            flags |= FLAG_LENS_PAIRING;
+        }
+        CompactParcel.writeHeader(out, flags);
+
+        if (idIsKnown) {
+            out.writeInt(pairingId);
+        }
+        if (dateCreated != null) {
             out.writeLong(dateCreated.getTime());
         }
-        out.writeInt(pairingId);
         out.writeString(name);
-        out.writeParcelable(serviceInfo, flags);
+        serviceInfo.writeCompact(out);
+    }
+
+    /**
+     * Read a pairing written by {@link #writeCompact(Parcel)}.
+     *
+     * @param in The parcel to read from.
+     * @return The pairing, a {@link SafeKeyPairing} or {@link SafeLensPairing} if it was written
+     * as one.
+     */
+    static SafePairing readCompact(final Parcel in) {
+        final int flags = CompactParcel.readHeader(in, SafePairing.class);
+        final boolean idIsKnown = (flags & FLAG_ID_KNOWN) != 0;
+        final int id = idIsKnown ? in.readInt() : UNKNOWN_ID;
+        final Date dateCreated = ((flags & FLAG_HAS_DATE) != 0) ? new Date(in.readLong()) : null;
+        final String name = in.readString();
+        final SafeService service = SafeService.readCompact(in);
+
+        final SafePairing pairing = new SafePairing(id, idIsKnown, name, service, dateCreated);
+        if ((flags & FLAG_KEY_PAIRING) != 0) {
+            return SafeKeyPairing.wrap(pairing);
+        } else if ((flags & FLAG_LENS_PAIRING) != 0) {
+            return SafeLensPairing.wrap(pairing);
+        } else {
+            return pairing;
+        }
     }
 
     /**
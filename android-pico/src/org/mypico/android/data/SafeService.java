@@ -62,6 +62,11 @@ final public class SafeService implements Parcelable, AuthFailedSource {
 
     private static final int UNKNOWN_ID = -1;
 
+    // Flags for the compact parcel encoding
+    private static final int FLAG_ID_KNOWN = 1;
+    private static final int FLAG_HAS_ADDRESS = 1 << 1;
+    private static final int FLAG_HAS_LOGO = 1 << 2;
+
     /**
      * Generates a SafeSession instance from a Parcelable class, whose data had previously been
      * written by Parcelable.writeToParcel().
@@ -82,22 +87,7 @@ final public class SafeService implements Parcelable, AuthFailedSource {
              */
             @Override
             public SafeService createFromParcel(Parcel source) {
-                // Read commitment, which is prepended with its length in bytes
-                byte[] commitment = new byte[source.readInt()];
-                source.readByteArray(commitment);
-
-                // Read boolean array containing idIsKnown flag
-                boolean[] b = new boolean[1];
-                source.readBooleanArray(b);
-
-                return new SafeService(
-                    source.readInt(), // serviceId
-                    b[0], // idIsKnown
-                    source.readString(), // name
-                    (Uri) source.readParcelable(null), // address
-                    commitment, // commitment
-                    (Uri) source.readParcelable(null) // logoUri
-                );
+                return readCompact(source);
             }
 
             /**
@@ -119,7 +109,7 @@ final public class SafeService implements Parcelable, AuthFailedSource {
     private final byte[] commitment;
     private final Uri logoUri;
 
-    private SafeService(
+    SafeService(
         final int serviceId,
         final boolean idIsKnown,
         final String name,
@@ -268,16 +258,56 @@ final public class SafeService implements Parcelable, AuthFailedSource {
      */
     @Override
     public void writeToParcel(final Parcel out, final int flags) {
-        // Write out the commitment byte array (prepended with its length)
-        out.writeInt(commitment.length);
-        out.writeByteArray(commitment);
+        writeCompact(out);
+    }
+
+    /**
+     * Write this service in the compact encoding.
+     *
+     * @param out The parcel to write to.
+     * @see CompactParcel
+     */
+    void writeCompact(final Parcel out) {
+        int flags = 0;
+        if (idIsKnown) {
+            flags |= FLAG_ID_KNOWN;
+        }
+        if (address != null) {
+            flags |= FLAG_HAS_ADDRESS;
+        }
+        if (logoUri != null) {
+            flags |= FLAG_HAS_LOGO;
+        }
+        CompactParcel.writeHeader(out, flags);
 
-        // Write the other fields
-        out.writeBooleanArray(new boolean[]{idIsKnown});
-        out.writeInt(serviceId);
+        if (idIsKnown) {
+            out.writeInt(serviceId);
+        }
+        out.writeByteArray(commitment);
         out.writeString(name);
-        out.writeParcelable(address, flags);
-        out.writeParcelable(logoUri, flags);
+        if (address != null) {
+            CompactParcel.writeUri(out, address);
+        }
+        if (logoUri != null) {
+            CompactParcel.writeUri(out, logoUri);
+        }
+    }
+
+    /**
+     * Read a service written by {@link #writeCompact(Parcel)}.
+     *
+     * @param in The parcel to read from.
+     * @return The service.
+     */
+    static SafeService readCompact(final Parcel in) {
+        final int flags = CompactParcel.readHeader(in, SafeService.class);
+        final boolean idIsKnown = (flags & FLAG_ID_KNOWN) != 0;
+        final int serviceId = idIsKnown ? in.readInt() : UNKNOWN_ID;
+        final byte[] commitment = in.createByteArray();
+        final String name = in.readString();
+        final Uri address = ((flags & FLAG_HAS_ADDRESS) != 0) ? CompactParcel.readUri(in) : null;
+        final Uri logoUri = ((flags & FLAG_HAS_LOGO) != 0) ? CompactParcel.readUri(in) : null;
+        return new SafeService(serviceId, idIsKnown, name, address, commitment, logoUri);
     }
 
     /**
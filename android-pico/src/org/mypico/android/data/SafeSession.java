@@ -47,6 +47,10 @@ import android.os.Parcelable;
  */
 final public class SafeSession implements Parcelable {
 
+    // Flags for the compact parcel encoding
+    private static final int FLAG_HAS_DATE = 1;
+    private static final int FLAG_HAS_TOKEN = 1 << 1;
+
     private int id;
     private SafePairing pairing;
     private Session.Status status;
@@ -74,18 +78,7 @@ final public class SafeSession implements Parcelable {
              */
             @Override
             public SafeSession createFromParcel(Parcel source) {
-
-                long t;
-
-                return new SafeSession(
-                    source.readInt(),
-                    (SafePairing) source.readParcelable(SafePairing.class.getClassLoader()),
-                    Session.Status.values()[source.readInt()],
-                    Session.Error.values()[source.readInt()],
-                    ((t = source.readLong()) > 0) ? new Date(t) : null,
-                    (ParcelableAuthToken) source.readParcelable(
-                        ParcelableAuthToken.class.getClassLoader())
-                );
+                return readCompact(source);
             }
 
             /**
@@ -111,7 +104,7 @@ final public class SafeSession implements Parcelable {
      * @param lastAuthDate The last time and date an authentication occurred.
      * @param authToken    An auth token to associate with the session.
      */
-    private SafeSession(
+    SafeSession(
         final int sessionId,
         final SafePairing pairing,
         final Session.Status status,
@@ -286,12 +279,58 @@ final public class SafeSession implements Parcelable {
      */
     @Override
     public void writeToParcel(Parcel out, int flags) {
+        writeCompact(out);
+    }
+
+    /**
+     * Write this session in the compact encoding. The pairing is written inline, and the status
+     * and error share one int.
+     *
+     * @param out The parcel to write to.
+     * @see CompactParcel
+     */
+    void writeCompact(final Parcel out) {
+        int flags = 0;
+        if (lastAuthDate != null) {
+            flags |= FLAG_HAS_DATE;
+        }
+        if (authToken != null) {
+            flags |= FLAG_HAS_TOKEN;
+        }
+        CompactParcel.writeHeader(out, flags);
+
         out.writeInt(id);
-        out.writeParcelable(pairing, flags);
-        out.writeInt(status.ordinal());
-        out.writeInt(error.ordinal());
-        out.writeLong((lastAuthDate != null) ? lastAuthDate.getTime() : 0);
-        out.writeParcelable(authToken, flags);
+        out.writeInt(status.ordinal() | (error.ordinal() << 8));
+        if (lastAuthDate != null) {
+            out.writeLong(lastAuthDate.getTime());
+        }
+        pairing.writeCompact(out);
+        if (authToken != null) {
+            authToken.writeToParcel(out, 0);
+        }
+    }
+
+    /**
+     * Read a session written by {@link #writeCompact(Parcel)}.
+     *
+     * @param in The parcel to read from.
+     * @return The session.
+     */
+    static SafeSession readCompact(final Parcel in) {
+        final int flags = CompactParcel.readHeader(in, SafeSession.class);
+        final int id = in.readInt();
+        final int state = in.readInt();
+        final Date lastAuthDate = ((flags & FLAG_HAS_DATE) != 0) ? new Date(in.readLong()) : null;
+        final SafePairing pairing = SafePairing.readCompact(in);
+        final ParcelableAuthToken authToken = ((flags & FLAG_HAS_TOKEN) != 0)
+            ? ParcelableAuthToken.CREATOR.createFromParcel(in) : null;
+        return new SafeSession(
+            id,
+            pairing,
+            Session.Status.values()[state & 0xff],
+            Session.Error.values()[state >>> 8],
+            lastAuthDate,
+            authToken);
     }
 }
 
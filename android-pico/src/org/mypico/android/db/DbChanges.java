@@ -0,0 +1,114 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.db;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the writes to the Pico database that change what a backup would hold.
+ * <p>
+ * Every insert, update and delete run through the {@link DbHelper} connection is checked against
+ * its operation key, as used by {@link DbStatistics}. Writes to the pairing, service and terminal
+ * tables bump the generation and are reported to the listener; session writes, which happen on
+ * every login, are not. The generation is process-wide and starts at zero with the process.
+ */
+public final class DbChanges {
+
+    private static final DbChanges INSTANCE = new DbChanges();
+
+    /**
+     * Told about each counted write.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that made the write, so must be quick.
+         *
+         * @param generation The generation after the write.
+         */
+        void onDbChanged(long generation);
+    }
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Listener listener;
+
+    private DbChanges() {
+    }
+
+    /**
+     * Get the change counter.
+     *
+     * @return The process-wide instance.
+     */
+    public static DbChanges getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The number of counted writes since the process started.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Set the listener told about each counted write, replacing any previous one.
+     *
+     * @param listener The listener, or <code>null</code> for none.
+     */
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Record a statement run.
+     *
+     * @param operation The operation key of the statement.
+     */
+    void record(final String operation) {
+        if (isBackedUpWrite(operation)) {
+            final long g = generation.incrementAndGet();
+            final Listener l = listener;
+            if (l != null) {
+                l.onDbChanged(g);
+            }
+        }
+    }
+
+    /**
+     * Find whether an operation writes to one of the backed up tables.
+     */
+    static boolean isBackedUpWrite(final String operation) {
+        final int colon = operation.indexOf(':');
+        if (colon < 0) {
+            return false;
+        }
+        final String kind = operation.substring(0, colon);
+        if (!kind.equals("insert") && !kind.equals("update") && !kind.equals("delete")) {
+            return false;
+        }
+        final String table = operation.substring(colon + 1).toUpperCase(Locale.US);
+        return table.contains("PAIRING") || table.contains("SERVICE")
+            || table.contains("TERMINAL");
+    }
+}
@@ -22,14 +22,19 @@
 package org.mypico.android.db;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.mypico.android.R;
 import org.mypico.android.core.PicoApplication;
 import org.mypico.jpico.data.pairing.KeyPairingAccessor;
 import org.mypico.jpico.data.pairing.LensPairingAccessor;
+import org.mypico.jpico.db.DbDataAccessor;
+import org.mypico.jpico.db.DbDataFactory;
 import org.mypico.jpico.db.DbKeyPairingAccessor;
 import org.mypico.jpico.db.DbKeyPairingImp;
 import org.mypico.jpico.db.DbLensPairingAccessor;
@@ -41,15 +46,31 @@ import org.mypico.jpico.db.DbTerminalImp;
 import org.mypico.jpico.db.DbVersioner;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.google.common.io.Files;
+import com.j256.ormlite.android.AndroidConnectionSource;
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
+import com.j256.ormlite.dao.BaseDaoImpl;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableInfo;
 
 /**
  * Database helper class used to manage the creation and upgrading of your database. This class also
  * usually provides the DAOs used by the other classes.
+ * <p>
+ * There is a single, thread-safe instance per process, obtained with {@link #getInstance}. It
+ * builds the DAOs, the {@link DbDataFactory} and the {@link DbDataAccessor} once and shares them
+ * between every component. Every statement run against the database is timed into the
+ * {@link DbStatistics} counters. The DAOs are built from the table configuration generated at
+ * build time rather than by reflection.
+ * <p>
+ * The database runs in write-ahead logging mode with a single serialized writer and a pool of
+ * read-only connections, so list and lookup queries run alongside session writes.
  *
  * @author Claudio Dettoni <cd611@cam.ac.uk>
  * @author David Llewellyn-Jones <dl551@cam.ac.uk>
@@ -65,10 +86,43 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
     // app
     private static final String DATABASE_NAME = "pico.db";
 
+    private static final String SNAPSHOT_PREFIX = "pico";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    // Copy of the old database kept while a replacement is opened, in case it cannot be
+    private static final String PREVIOUS_SUFFIX = ".previous";
+    private static final String[] JOURNAL_SUFFIXES = {"-wal", "-shm", "-journal"};
+
+    /**
+     * Default number of read-only connections kept alongside the writer.
+     */
+    public static final int DEFAULT_READ_CONNECTIONS = 2;
+
+    /**
+     * Value of {@code PRAGMA auto_vacuum} when free pages are released by
+     * {@code PRAGMA incremental_vacuum}, see {@link SessionRetention}.
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final TimingConnectionProxyFactory PROXY_FACTORY =
+        new TimingConnectionProxyFactory(DbStatistics.getInstance(), DbChanges.getInstance());
+
     private static DbHelper instance;
 
-    public static DbHelper getInstance(final Context context) {
+    static {
+        // Time every statement; this must be installed before any connection is opened
+        AndroidConnectionSource.setDatabaseConnectionProxyFactory(PROXY_FACTORY);
+    }
+
+    /**
+     * Get the process-wide database helper.
+     *
+     * @param context Context used to open the database.
+     * @return The helper instance.
+     */
+    public static synchronized DbHelper getInstance(final Context context) {
         if (instance == null) {
+            recoverReplacement(getDatabaseFile(context));
             instance = new DbHelper(context.getApplicationContext());
         }
         return instance;
@@ -84,20 +138,72 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
     private DbKeyPairingAccessor keyPairingAccessor;
     private DbLensPairingAccessor lensPairingAccessor;
 
+    private DbDataFactory dataFactory;
+    private DbDataAccessor dataAccessor;
+
+    private final Context context;
+    private final PooledConnectionSource pooledConnectionSource;
+    private final File databaseFile;
+
     /**
      * @deprecated use {@link #getInstance} instead.
      */
     @Deprecated
     public DbHelper(final Context context) {
+        this(context, DATABASE_NAME, true);
+    }
 
-        // This is an optimisation which reduces the time taken to creates the
-        // DAOs, but the config file must be re-generated everytime the database
-        // schema changes, so leave it turned off for the time being.
+    /**
+     * Create a helper for the named database.
+     * <p>
+     * When {@code useConfigFile} is set the DAOs are built from the table configuration in
+     * {@code R.raw.ormlite_config}, which the {@code generateOrmliteConfig} build task regenerates
+     * from the jpico classes on every build. Otherwise ORMLite reflects over the annotations of
+     * each class the first time its DAO is requested.
+     *
+     * @param context Context used to open the database.
+     * @param databaseName Name of the database file.
+     * @param useConfigFile {@code true} to load the pre-generated table configuration.
+     */
+    DbHelper(final Context context, final String databaseName, final boolean useConfigFile) {
+        super(context, databaseName, null, DbVersioner.CURRENT_VERSION,
+            useConfigFile ? openConfigFile(context) : null);
+
+        // Readers no longer block behind the writer and vice versa
+        setWriteAheadLoggingEnabled(true);
+        pooledConnectionSource =
+            new PooledConnectionSource(this, PROXY_FACTORY, DEFAULT_READ_CONNECTIONS);
+        connectionSource = pooledConnectionSource;
+        this.context = context.getApplicationContext();
+        databaseFile = context.getDatabasePath(databaseName);
+        LOGGER.debug("DatabaseHelper constructed (config file {})", useConfigFile);
+    }
 
-        // super(context, DATABASE_NAME, null, DATABASE_VERSION, R.raw.ormlite_config);
+    /**
+     * Set the number of read-only connections used for queries made outside a transaction. Writes
+     * are always serialized through a single connection.
+     *
+     * @param size Maximum number of read-only connections, or zero to run every query on the
+     *             writer.
+     */
+    public void setReadConnectionPoolSize(final int size) {
+        pooledConnectionSource.setMaxReaders(size);
+    }
 
-        super(context, DATABASE_NAME, null, DbVersioner.CURRENT_VERSION);
-        LOGGER.debug("DatabaseHelper constructed");
+    /**
+     * Open the pre-generated table configuration. A {@code null} stream makes ORMLite fall back
+     * to reflection, so a missing resource only costs startup time.
+     *
+     * @param context Context used to open the resource.
+     * @return Stream of the configuration, or {@code null} if it could not be opened.
+     */
+    private static InputStream openConfigFile(final Context context) {
+        try {
+            return context.getResources().openRawResource(R.raw.ormlite_config);
+        } catch (Resources.NotFoundException e) {
+            LOGGER.warn("ORMLite config file not found, falling back to reflection", e);
+            return null;
+        }
     }
 
     public static File getDatabaseFile() {
@@ -108,6 +214,233 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
         return context.getDatabasePath(DATABASE_NAME);
     }
 
+    /**
+     * @return The file this helper keeps its database in.
+     */
+    public File getFile() {
+        return databaseFile;
+    }
+
+    /**
+     * Copy the database, with every committed change, to a new file in the cache directory.
+     * Anything that reads the database as a file, such as a backup, must work from a snapshot:
+     * in write-ahead logging mode recent commits live in a separate log, and the live file is
+     * rewritten whenever SQLite checkpoints that log.
+     *
+     * @param context Context used to open the database.
+     * @return The snapshot, which the caller must delete once done with it.
+     * @throws IOException if the log could not be checkpointed or the file not copied.
+     * @see #snapshot(File)
+     */
+    public static File newSnapshot(final Context context) throws IOException {
+        final File snapshot =
+            File.createTempFile(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX, context.getCacheDir());
+        boolean written = false;
+        try {
+            getInstance(context).snapshot(snapshot);
+            written = true;
+            return snapshot;
+        } finally {
+            if (!written && !snapshot.delete()) {
+                LOGGER.warn("Could not delete {}", snapshot);
+            }
+        }
+    }
+
+    /**
+     * Copy the database, with every committed change, to a file. The writer is held from the
+     * checkpoint to the end of the copy, so neither a commit nor an automatic checkpoint can tear
+     * it; reads on the pooled connections carry on. The copy keeps the modification time of the
+     * database file.
+     *
+     * @param target File to copy the database to.
+     * @throws IOException if the log could not be checkpointed or the file not copied.
+     */
+    public void snapshot(final File target) throws IOException {
+        pooledConnectionSource.lockWriter();
+        try {
+            checkpoint();
+            Files.copy(databaseFile, target);
+            if (!target.setLastModified(databaseFile.lastModified())) {
+                LOGGER.warn("Could not set the modification time of {}", target);
+            }
+        } finally {
+            pooledConnectionSource.unlockWriter();
+        }
+    }
+
+    /**
+     * Take the writer, so that no other thread can write, start a transaction or checkpoint
+     * until {@link #unlockWriter()} is called by the same thread.
+     */
+    void lockWriter() {
+        pooledConnectionSource.lockWriter();
+    }
+
+    /**
+     * Give up the writer taken by {@link #lockWriter()}.
+     */
+    void unlockWriter() {
+        pooledConnectionSource.unlockWriter();
+    }
+
+    /**
+     * Copy all committed changes from the write-ahead log into the database file.
+     *
+     * @throws IOException if a reader kept the checkpoint from completing.
+     */
+    public void checkpoint() throws IOException {
+        final Cursor c = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            if (c.moveToFirst() && c.getInt(0) != 0) {
+                throw new IOException("Checkpoint blocked, database file is behind the log");
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Replace the database file while the app is running, for example with a restored backup.
+     * <p>
+     * Every pooled connection is closed first, waiting for work in progress to finish. The old
+     * database is then checkpointed and closed, and if anything still holds it open, or its
+     * write-ahead log is not empty, the replacement is refused rather than pulling the file out
+     * from under a live connection. A copy of the old database is kept for rollback while the
+     * replacement is renamed straight over it, so the database file never goes missing. The
+     * replacement is opened, upgrading its schema if it is from an older version, the DAOs are
+     * rebuilt and open pairing lists are told to reload, so callers see its contents straight
+     * away. If it cannot be opened the old database is put back.
+     *
+     * @param replacement Checked database file on the same file system as the database.
+     * @throws IOException if the database is in use or could not be replaced.
+     */
+    public void replaceDatabase(final File replacement) throws IOException {
+        try {
+            pooledConnectionSource.suspend();
+        } catch (SQLException e) {
+            throw new IOException("Could not close the database", e);
+        }
+        try {
+            final File previous = new File(databaseFile.getPath() + PREVIOUS_SUFFIX);
+            synchronized (this) {
+                // Holding the helper keeps anyone from reopening the database meanwhile
+                closeCheckpointed();
+                Files.copy(databaseFile, previous);
+                if (!replacement.renameTo(databaseFile)) {
+                    deletePrevious(previous);
+                    throw new IOException(
+                        "Could not rename " + replacement + " to " + databaseFile);
+                }
+                // The old log is empty, but its shared memory index must not outlive it
+                deleteJournals(databaseFile);
+                resetDaos();
+                try {
+                    getWritableDatabase();
+                } catch (RuntimeException e) {
+                    // The helper closes a database it failed to open or upgrade
+                    LOGGER.error("Replacement database could not be opened", e);
+                    deleteJournals(databaseFile);
+                    if (!previous.renameTo(databaseFile)) {
+                        throw new IOException("Could not put back " + previous, e);
+                    }
+                    resetDaos();
+                    throw new IOException("Could not open the replacement database", e);
+                }
+                deletePrevious(previous);
+            }
+            LOGGER.info("Database replaced");
+        } finally {
+            pooledConnectionSource.resume();
+        }
+        PairingsProvider.notifyChange(context);
+    }
+
+    /**
+     * Checkpoint the write-ahead log into the database file and close the database, checking
+     * that nothing else still has it open. Must be called with the connections suspended.
+     *
+     * @throws IOException if the database is still in use.
+     */
+    private void closeCheckpointed() throws IOException {
+        final SQLiteDatabase db = getWritableDatabase();
+        checkpoint();
+        db.close();
+        if (db.isOpen()) {
+            throw new IOException("Database is still in use");
+        }
+        final File wal = new File(databaseFile.getPath() + JOURNAL_SUFFIXES[0]);
+        if (wal.length() > 0) {
+            throw new IOException("Database is still in use, " + wal + " was not checkpointed");
+        }
+    }
+
+    /**
+     * Put back the database moved aside by an interrupted {@link #replaceDatabase}, or drop the
+     * copy of the old database if the replacement had already been renamed into place.
+     *
+     * @param databaseFile The database file.
+     */
+    private static void recoverReplacement(final File databaseFile) {
+        final File previous = new File(databaseFile.getPath() + PREVIOUS_SUFFIX);
+        if (!previous.exists()) {
+            return;
+        }
+        if (databaseFile.exists()) {
+            LOGGER.info("Dropping {} left by an interrupted replacement", previous);
+            deletePrevious(previous);
+        } else if (previous.renameTo(databaseFile)) {
+            LOGGER.warn("Put back {} left by an interrupted replacement", previous);
+        } else {
+            LOGGER.error("Could not put back {}", previous);
+        }
+    }
+
+    private static void deletePrevious(final File previous) {
+        if (previous.exists() && !previous.delete()) {
+            LOGGER.warn("Could not delete {}", previous);
+        }
+    }
+
+    private static void deleteJournals(final File dbFile) throws IOException {
+        for (String suffix : JOURNAL_SUFFIXES) {
+            final File journal = new File(dbFile.getPath() + suffix);
+            if (journal.exists() && !journal.delete()) {
+                throw new IOException("Could not delete " + journal);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached DAOs and accessors so they are rebuilt against the current database.
+     */
+    private synchronized void resetDaos() {
+        serviceDao = null;
+        pairingDao = null;
+        keyPairingDao = null;
+        lensPairingDao = null;
+        sessionDao = null;
+        terminalDao = null;
+        keyPairingAccessor = null;
+        lensPairingAccessor = null;
+        dataFactory = null;
+        dataAccessor = null;
+        DaoManager.clearDaoCache();
+    }
+
+    /**
+     * Ask for incremental auto-vacuum. This takes effect immediately on a new database, as it is
+     * set before the tables are created; an existing or restored database only switches when it
+     * is rebuilt, which {@link SessionRetentionService} does once in the background.
+     */
+    @Override
+    public void onConfigure(final SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!db.isReadOnly()) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+    }
+
     /**
      * This is called when the database is first created. Creates the required database tables.
      */
@@ -123,6 +456,9 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
 
     /**
      * Enable foreign key constraints:
+     * <p>
+     * Also adds any missing indexes on the columns used by the login lookups, see
+     * {@link DbIndexes}.
      *
      * @see <a href="http://stackoverflow.com/questions/6789075/deleting-using-ormlite-on-android}">Stack Overflow</a>
      */
@@ -131,6 +467,12 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
         super.onOpen(db);
         if (!db.isReadOnly()) {
             db.setForeignKeyConstraintsEnabled(true);
+            try {
+                DbIndexes.ensure(db, DbIndexes.hotColumns(this));
+            } catch (SQLException e) {
+                // The indexes only affect speed, so carry on without them
+                LOGGER.error("Failed to add lookup indexes", e);
+            }
         }
     }
 
@@ -158,7 +500,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbServiceImp, Integer> getServiceDao() throws SQLException {
+    synchronized Dao<DbServiceImp, Integer> getServiceDao() throws SQLException {
         if (serviceDao == null) {
             serviceDao = getDao(DbServiceImp.class);
         }
@@ -172,7 +514,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbPairingImp, Integer> getPairingDao() throws SQLException {
+    synchronized Dao<DbPairingImp, Integer> getPairingDao() throws SQLException {
         if (pairingDao == null) {
             pairingDao = getDao(DbPairingImp.class);
         }
@@ -186,7 +528,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbKeyPairingImp, Integer> getKeyPairingDao() throws SQLException {
+    synchronized Dao<DbKeyPairingImp, Integer> getKeyPairingDao() throws SQLException {
         if (keyPairingDao == null) {
             keyPairingDao = getDao(DbKeyPairingImp.class);
         }
@@ -200,7 +542,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbLensPairingImp, Integer> getLensPairingDao() throws SQLException {
+    synchronized Dao<DbLensPairingImp, Integer> getLensPairingDao() throws SQLException {
         if (lensPairingDao == null) {
             lensPairingDao = getDao(DbLensPairingImp.class);
         }
@@ -214,7 +556,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbSessionImp, Integer> getSessionDao() throws SQLException {
+    synchronized Dao<DbSessionImp, Integer> getSessionDao() throws SQLException {
         if (sessionDao == null) {
             sessionDao = getDao(DbSessionImp.class);
         }
@@ -228,7 +570,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The data access object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    Dao<DbTerminalImp, Integer> getTerminalDao() throws SQLException {
+    synchronized Dao<DbTerminalImp, Integer> getTerminalDao() throws SQLException {
         if (terminalDao == null) {
             terminalDao = getDao(DbTerminalImp.class);
         }
@@ -242,7 +584,7 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The accessor object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    public KeyPairingAccessor getKeyPairingAccessor() throws SQLException {
+    public synchronized KeyPairingAccessor getKeyPairingAccessor() throws SQLException {
         if (keyPairingAccessor == null) {
             keyPairingAccessor = new DbKeyPairingAccessor(
                 getKeyPairingDao(), getPairingDao(), getServiceDao());
@@ -257,11 +599,59 @@ final public class DbHelper extends OrmLiteSqliteOpenHelper {
      * @return The accessor object.
      * @throws SQLException if an error occurs accessing the database.
      */
-    public LensPairingAccessor getLensPairingAccessor() throws SQLException {
+    public synchronized LensPairingAccessor getLensPairingAccessor() throws SQLException {
         if (lensPairingAccessor == null) {
             lensPairingAccessor = new DbLensPairingAccessor(
                 getLensPairingDao(), getPairingDao(), getServiceDao());
         }
         return lensPairingAccessor;
     }
+
+    /**
+     * Get the shared factory for creating new data objects in the database.
+     *
+     * @return The factory.
+     * @throws SQLException if an error occurs accessing the database.
+     */
+    public synchronized DbDataFactory getDataFactory() throws SQLException {
+        if (dataFactory == null) {
+            dataFactory = new DbDataFactory(getConnectionSource());
+        }
+        return dataFactory;
+    }
+
+    /**
+     * Get the shared accessor for querying data objects from the database.
+     *
+     * @return The accessor.
+     * @throws SQLException if an error occurs accessing the database.
+     */
+    public synchronized DbDataAccessor getDataAccessor() throws SQLException {
+        if (dataAccessor == null) {
+            dataAccessor = new DbDataAccessor(getConnectionSource());
+        }
+        return dataAccessor;
+    }
+
+    /**
+     * Get the ORMLite table definition behind a DAO, for building SQL that ORMLite's query
+     * builders cannot express.
+     *
+     * @param dao A DAO handed out by this helper.
+     * @return The table definition.
+     */
+    @SuppressWarnings("unchecked")
+    static <T, ID> TableInfo<T, ID> getTableInfo(final Dao<T, ID> dao) {
+        // DAOs handed out by DbHelper are always created by DaoManager
+        return ((BaseDaoImpl<T, ID>) dao).getTableInfo();
+    }
+
+    /**
+     * Get the per-operation latency counters for the database.
+     *
+     * @return The statistics.
+     */
+    public static DbStatistics getStatistics() {
+        return DbStatistics.getInstance();
+    }
 }
\ No newline at end of file
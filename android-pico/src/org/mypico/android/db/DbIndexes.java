@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * Indexes for the columns used by the lookups made on every login.
+ * <p>
+ * {@code getServiceByCommitment} and {@code getTerminalByCommitment} filter on the commitment
+ * column, and the pairing lookups by service commitment join the pairing tables through their
+ * foreign keys, none of which SQLite indexes on its own. The schema itself is owned by
+ * {@code DbVersioner}, so the indexes are added here, idempotently, each time the database is
+ * opened for writing. Column names are taken from the ORMLite table definitions rather than
+ * hard-coded.
+ */
+final class DbIndexes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DbIndexes.class.getSimpleName());
+
+    /**
+     * A column that should lead an index.
+     */
+    static final class Column {
+        final String table;
+        final String column;
+
+        Column(final String table, final String column) {
+            this.table = table;
+            this.column = column;
+        }
+
+        String indexName() {
+            return table + "_" + column + "_idx";
+        }
+
+        @Override
+        public String toString() {
+            return table + "." + column;
+        }
+    }
+
+    private DbIndexes() {
+        // no instances
+    }
+
+    /**
+     * Find the columns used by the hot lookups.
+     *
+     * @param helper Helper providing the table definitions.
+     * @return The columns.
+     * @throws SQLException if a DAO could not be created or a column is missing.
+     */
+    static List<Column> hotColumns(final DbHelper helper) throws SQLException {
+        final List<Column> columns = new ArrayList<Column>();
+        addField(columns, helper.getServiceDao(), "commitment");
+        addField(columns, helper.getTerminalDao(), "commitment");
+        addForeign(columns, helper.getPairingDao());
+        addForeign(columns, helper.getKeyPairingDao());
+        addForeign(columns, helper.getLensPairingDao());
+        addForeign(columns, helper.getSessionDao());
+        return columns;
+    }
+
+    /**
+     * Create any missing indexes.
+     *
+     * @param db      Writable database.
+     * @param columns Columns to index.
+     */
+    static void ensure(final SQLiteDatabase db, final List<Column> columns) {
+        for (Column c : columns) {
+            if (isIndexed(db, c)) {
+                continue;
+            }
+            LOGGER.info("Adding index {}", c.indexName());
+            db.execSQL("CREATE INDEX IF NOT EXISTS `" + c.indexName() + "` ON `" + c.table
+                + "` (`" + c.column + "`)");
+        }
+    }
+
+    private static boolean isIndexed(final SQLiteDatabase db, final Column c) {
+        final Cursor indexes = db.rawQuery("PRAGMA index_list(`" + c.table + "`)", null);
+        try {
+            final int name = indexes.getColumnIndexOrThrow("name");
+            while (indexes.moveToNext()) {
+                if (leadingColumn(db, indexes.getString(name)).equalsIgnoreCase(c.column)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            indexes.close();
+        }
+    }
+
+    private static String leadingColumn(final SQLiteDatabase db, final String index) {
+        final Cursor info = db.rawQuery("PRAGMA index_info(`" + index + "`)", null);
+        try {
+            final int seqno = info.getColumnIndexOrThrow("seqno");
+            final int name = info.getColumnIndexOrThrow("name");
+            while (info.moveToNext()) {
+                if (info.getInt(seqno) == 0) {
+                    return info.getString(name);
+                }
+            }
+            return "";
+        } finally {
+            info.close();
+        }
+    }
+
+    private static <T> void addField(final List<Column> columns, final Dao<T, ?> dao,
+                                     final String fieldName) throws SQLException {
+        final TableInfo<T, ?> info = DbHelper.getTableInfo(dao);
+        for (FieldType field : info.getFieldTypes()) {
+            if (!field.isForeign() && field.getFieldName().equals(fieldName)) {
+                columns.add(new Column(info.getTableName(), field.getColumnName()));
+                return;
+            }
+        }
+        throw new SQLException("No " + fieldName + " column in " + info.getTableName());
+    }
+
+    private static <T> void addForeign(final List<Column> columns, final Dao<T, ?> dao) {
+        final TableInfo<T, ?> info = DbHelper.getTableInfo(dao);
+        for (FieldType field : info.getFieldTypes()) {
+            if (field.isForeign() && !field.isId()) {
+                columns.add(new Column(info.getTableName(), field.getColumnName()));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-operation latency counters for the Pico database.
+ * <p>
+ * Every statement run through the {@link DbHelper} connection is timed and counted against an
+ * operation key of the form {@code <operation>:<table>}, for example {@code select:SESSIONS} or
+ * {@code insert:PAIRINGS}. The counters are process-wide and can be read at any time with
+ * {@link #snapshot()}.
+ */
+public final class DbStatistics {
+
+    private static final DbStatistics INSTANCE = new DbStatistics();
+
+    private final Map<String, Counter> counters = new TreeMap<String, Counter>();
+
+    /**
+     * Latency counter for a single operation.
+     */
+    public static final class Counter {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private Counter() {
+        }
+
+        private Counter(final Counter other) {
+            count = other.count;
+            totalNanos = other.totalNanos;
+            maxNanos = other.maxNanos;
+        }
+
+        /**
+         * @return The number of times the operation has run.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The total time spent in the operation, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return The longest single run of the operation, in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @return The mean time of the operation, in nanoseconds, or 0 if it has never run.
+         */
+        public long getMeanNanos() {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{count=%d, mean=%.3fms, max=%.3fms}",
+                count, getMeanNanos() / 1e6, maxNanos / 1e6);
+        }
+    }
+
+    private DbStatistics() {
+    }
+
+    /**
+     * Get the statistics instance.
+     *
+     * @return The process-wide instance.
+     */
+    public static DbStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a single run of an operation.
+     *
+     * @param operation The operation key.
+     * @param nanos     The time the operation took, in nanoseconds.
+     */
+    public synchronized void record(final String operation, final long nanos) {
+        Counter counter = counters.get(operation);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(operation, counter);
+        }
+        counter.count++;
+        counter.totalNanos += nanos;
+        counter.maxNanos = Math.max(counter.maxNanos, nanos);
+    }
+
+    /**
+     * Get a copy of the current counters, keyed and sorted by operation.
+     *
+     * @return The counters.
+     */
+    public synchronized Map<String, Counter> snapshot() {
+        final Map<String, Counter> copy = new TreeMap<String, Counter>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            copy.put(entry.getKey(), new Counter(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Reset all of the counters.
+     */
+    public synchronized void reset() {
+        counters.clear();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.mypico.jpico.db.DbKeyPairingImp;
+import org.mypico.jpico.db.DbLensPairingImp;
+import org.mypico.jpico.db.DbPairingImp;
+import org.mypico.jpico.db.DbServiceImp;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.PreparedUpdate;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * A set of pairing deletions, renames and re-points applied together.
+ * <p>
+ * {@link #execute} runs the whole batch inside one SQLite transaction, so clearing many pairings
+ * costs a single disk sync, and either every mutation is applied or, if any statement fails, none
+ * is. Which of the pairings still exist is resolved with one query up front, and the services
+ * pairings are re-pointed to with another; mutations of missing pairings or services are
+ * reported as {@link Outcome#NOT_FOUND} without further work. Renames and re-points then run as a
+ * single prepared update each, and the deletions as one bulk delete per table, removing each
+ * pairing's sessions and key or lens pairing row along with it.
+ */
+public final class PairingBatch {
+
+    // SQLite allows at most 999 host parameters per statement
+    private static final int MAX_LOOKUP_IDS = 500;
+
+    /**
+     * Result of a single mutation.
+     */
+    public enum Outcome {
+        DONE,
+        NOT_FOUND
+    }
+
+    private enum Kind {
+        DELETE,
+        RENAME,
+        REPOINT
+    }
+
+    private static final class Mutation {
+        final Kind kind;
+        final int pairingId;
+        final String name;
+        final int serviceId;
+
+        Mutation(final Kind kind, final int pairingId, final String name, final int serviceId) {
+            this.kind = kind;
+            this.pairingId = pairingId;
+            this.name = name;
+            this.serviceId = serviceId;
+        }
+    }
+
+    private final List<Mutation> mutations = new ArrayList<Mutation>();
+
+    /**
+     * Delete a pairing.
+     *
+     * @param pairingId Id of the pairing.
+     * @return This batch.
+     */
+    public PairingBatch delete(final int pairingId) {
+        mutations.add(new Mutation(Kind.DELETE, pairingId, null, 0));
+        return this;
+    }
+
+    /**
+     * Rename a pairing.
+     *
+     * @param pairingId Id of the pairing.
+     * @param name      New name of the pairing.
+     * @return This batch.
+     */
+    public PairingBatch rename(final int pairingId, final String name) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null");
+        }
+        mutations.add(new Mutation(Kind.RENAME, pairingId, name, 0));
+        return this;
+    }
+
+    /**
+     * Move a pairing to a different service.
+     *
+     * @param pairingId Id of the pairing.
+     * @param serviceId Id of the service the pairing should belong to.
+     * @return This batch.
+     */
+    public PairingBatch repoint(final int pairingId, final int serviceId) {
+        mutations.add(new Mutation(Kind.REPOINT, pairingId, null, serviceId));
+        return this;
+    }
+
+    /**
+     * @return The number of mutations in the batch.
+     */
+    public int size() {
+        return mutations.size();
+    }
+
+    /**
+     * Apply the batch.
+     *
+     * @param helper Database to apply the batch to.
+     * @return The outcome of each mutation, in the order they were added.
+     * @throws IOException if the batch could not be applied, in which case none of the
+     *                     mutations are.
+     */
+    public List<Outcome> execute(final DbHelper helper) throws IOException {
+        if (mutations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return TransactionManager.callInTransaction(helper.getConnectionSource(),
+                new Callable<List<Outcome>>() {
+                    @Override
+                    public List<Outcome> call() throws SQLException {
+                        return apply(helper);
+                    }
+                });
+        } catch (SQLException e) {
+            throw new IOException("Pairing batch failed", e);
+        }
+    }
+
+    private List<Outcome> apply(final DbHelper helper) throws SQLException {
+        final Set<Integer> pairingIds = new HashSet<Integer>();
+        final Set<Integer> serviceIds = new HashSet<Integer>();
+        for (Mutation mutation : mutations) {
+            pairingIds.add(mutation.pairingId);
+            if (mutation.kind == Kind.REPOINT) {
+                serviceIds.add(mutation.serviceId);
+            }
+        }
+        final Dao<DbPairingImp, Integer> pairingDao = helper.getPairingDao();
+        final Set<Integer> pairings = findPresent(pairingDao, pairingIds).keySet();
+        final Map<Integer, DbServiceImp> services =
+            findPresent(helper.getServiceDao(), serviceIds);
+
+        final SelectArg nameArg = new SelectArg();
+        final SelectArg serviceArg = new SelectArg();
+        final SelectArg idArg = new SelectArg();
+        PreparedUpdate<DbPairingImp> rename = null;
+        PreparedUpdate<DbPairingImp> repoint = null;
+
+        final List<Outcome> outcomes = new ArrayList<Outcome>(mutations.size());
+        final List<Integer> deleted = new ArrayList<Integer>();
+        for (Mutation mutation : mutations) {
+            if (!pairings.contains(mutation.pairingId)
+                || (mutation.kind == Kind.REPOINT && !services.containsKey(mutation.serviceId))) {
+                outcomes.add(Outcome.NOT_FOUND);
+                continue;
+            }
+            idArg.setValue(mutation.pairingId);
+            if (mutation.kind == Kind.RENAME) {
+                if (rename == null) {
+                    rename = prepareUpdate(pairingDao, column(pairingDao, "name"), nameArg, idArg);
+                }
+                nameArg.setValue(mutation.name);
+                pairingDao.update(rename);
+            } else if (mutation.kind == Kind.REPOINT) {
+                if (repoint == null) {
+                    repoint = prepareUpdate(pairingDao,
+                        foreignColumn(DbHelper.getTableInfo(pairingDao), DbServiceImp.class),
+                        serviceArg, idArg);
+                }
+                serviceArg.setValue(services.get(mutation.serviceId));
+                pairingDao.update(repoint);
+            } else {
+                pairings.remove(mutation.pairingId);
+                deleted.add(mutation.pairingId);
+            }
+            outcomes.add(Outcome.DONE);
+        }
+
+        for (int i = 0; i < deleted.size(); i += MAX_LOOKUP_IDS) {
+            final int end = Math.min(deleted.size(), i + MAX_LOOKUP_IDS);
+            deletePairings(helper, deleted.subList(i, end));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Find which of the given rows exist, selecting only their ids.
+     *
+     * @param dao DAO of the table to look in.
+     * @param ids Ids of the rows.
+     * @return The rows found, holding only their ids, by id.
+     */
+    private static <T> Map<Integer, T> findPresent(final Dao<T, Integer> dao,
+                                                   final Set<Integer> ids) throws SQLException {
+        final String idColumn = DbHelper.getTableInfo(dao).getIdField().getColumnName();
+        final List<Integer> lookup = new ArrayList<Integer>(ids);
+        final Map<Integer, T> present = new HashMap<Integer, T>();
+        for (int i = 0; i < lookup.size(); i += MAX_LOOKUP_IDS) {
+            final List<Integer> chunk =
+                lookup.subList(i, Math.min(lookup.size(), i + MAX_LOOKUP_IDS));
+            for (T row : dao.queryBuilder().selectColumns(idColumn).where().in(idColumn, chunk)
+                .query()) {
+                present.put(dao.extractId(row), row);
+            }
+        }
+        return present;
+    }
+
+    private static PreparedUpdate<DbPairingImp> prepareUpdate(
+        final Dao<DbPairingImp, Integer> dao, final String column, final SelectArg value,
+        final SelectArg id) throws SQLException {
+        final UpdateBuilder<DbPairingImp, Integer> update = dao.updateBuilder();
+        update.updateColumnValue(column, value);
+        update.where().eq(DbHelper.getTableInfo(dao).getIdField().getColumnName(), id);
+        return update.prepare();
+    }
+
+    /**
+     * Delete pairings with a statement per table: first the sessions made with them, then their
+     * key and lens pairing rows, then the pairings themselves.
+     */
+    private static void deletePairings(final DbHelper helper, final List<Integer> ids)
+        throws SQLException {
+        final Dao<DbPairingImp, Integer> pairingDao = helper.getPairingDao();
+        final String pairingId = DbHelper.getTableInfo(pairingDao).getIdField().getColumnName();
+
+        final Map<Class<?>, QueryBuilder<?, ?>> doomed =
+            new HashMap<Class<?>, QueryBuilder<?, ?>>();
+        final QueryBuilder<DbPairingImp, Integer> pairings = pairingDao.queryBuilder();
+        pairings.selectColumns(pairingId).where().in(pairingId, ids);
+        doomed.put(DbPairingImp.class, pairings);
+        doomed.put(DbKeyPairingImp.class, selectReferencing(helper.getKeyPairingDao(), pairings));
+        doomed.put(DbLensPairingImp.class,
+            selectReferencing(helper.getLensPairingDao(), pairings));
+
+        deleteReferencing(helper.getSessionDao(), doomed);
+        deleteReferencing(helper.getKeyPairingDao(), doomed);
+        deleteReferencing(helper.getLensPairingDao(), doomed);
+        final DeleteBuilder<DbPairingImp, Integer> delete = pairingDao.deleteBuilder();
+        delete.where().in(pairingId, ids);
+        delete.delete();
+    }
+
+    /**
+     * Select the ids of the rows of a table that reference the given pairings.
+     */
+    private static <T, ID> QueryBuilder<T, ID> selectReferencing(
+        final Dao<T, ID> dao, final QueryBuilder<DbPairingImp, Integer> pairings)
+        throws SQLException {
+        final TableInfo<T, ID> info = DbHelper.getTableInfo(dao);
+        final QueryBuilder<T, ID> query = dao.queryBuilder();
+        query.selectColumns(info.getIdField().getColumnName())
+            .where().in(foreignColumn(info, DbPairingImp.class), pairings);
+        return query;
+    }
+
+    /**
+     * Delete the rows of a table with a foreign key into any of the doomed rows.
+     */
+    private static <T, ID> void deleteReferencing(
+        final Dao<T, ID> dao, final Map<Class<?>, QueryBuilder<?, ?>> doomed)
+        throws SQLException {
+        final DeleteBuilder<T, ID> delete = dao.deleteBuilder();
+        final Where<T, ID> where = delete.where();
+        int clauses = 0;
+        for (FieldType field : DbHelper.getTableInfo(dao).getFieldTypes()) {
+            final QueryBuilder<?, ?> rows = doomed.get(field.getType());
+            if (field.isForeign() && rows != null) {
+                where.in(field.getColumnName(), rows);
+                clauses++;
+            }
+        }
+        if (clauses > 1) {
+            where.or(clauses);
+        }
+        if (clauses > 0) {
+            delete.delete();
+        }
+    }
+
+    private static String column(final Dao<DbPairingImp, Integer> dao, final String fieldName)
+        throws SQLException {
+        for (FieldType field : DbHelper.getTableInfo(dao).getFieldTypes()) {
+            if (!field.isForeign() && field.getFieldName().equals(fieldName)) {
+                return field.getColumnName();
+            }
+        }
+        throw new SQLException("No " + fieldName + " column in pairing table");
+    }
+
+    private static String foreignColumn(final TableInfo<?, ?> info, final Class<?> type)
+        throws SQLException {
+        for (FieldType field : info.getFieldTypes()) {
+            if (field.isForeign() && field.getType() == type) {
+                return field.getColumnName();
+            }
+        }
+        throw new SQLException("No " + type.getSimpleName() + " column in "
+            + info.getTableName());
+    }
+}
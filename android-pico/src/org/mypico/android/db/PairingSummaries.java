@@ -0,0 +1,148 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+
+import org.mypico.android.data.SafePairing.PairingType;
+import org.mypico.jpico.db.DbPairingImp;
+import org.mypico.jpico.db.DbServiceImp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * Lists pairings reading only what the pairing lists show.
+ * <p>
+ * Loading every {@link org.mypico.jpico.data.pairing.KeyPairing} and
+ * {@link org.mypico.jpico.data.pairing.LensPairing} to list them also reads their keys,
+ * credentials and services. Instead, one query joins the pairing table to the service table and
+ * selects only the pairing id, name, service name and whether the pairing is a key or a lens
+ * pairing. The result is an SQLite cursor, so rows are read a window at a time as the list
+ * scrolls. Table and column names come from the ORMLite table definitions.
+ *
+ * @see PairingsProvider
+ */
+final class PairingSummaries {
+
+    private PairingSummaries() {
+        // no instances
+    }
+
+    /**
+     * Query key and lens pairings, in id order.
+     *
+     * @param helper    Helper providing the table definitions.
+     * @param db        Database to query.
+     * @param type      Only return pairings of this type, or all of them if <code>null</code>.
+     * @param serviceId Only return pairings with this service, or with any if <code>null</code>.
+     * @return A cursor with the {@link PairingsProvider} columns.
+     * @throws SQLException if a DAO could not be created.
+     */
+    static Cursor query(final DbHelper helper, final SQLiteDatabase db, final PairingType type,
+                        final Integer serviceId) throws SQLException {
+        final String[] args = (serviceId != null) ? new String[]{serviceId.toString()} : null;
+        return db.rawQuery(select(helper, type, serviceId != null), args);
+    }
+
+    /**
+     * Build the statement run by {@link #query}.
+     *
+     * @param helper    Helper providing the table definitions.
+     * @param type      Only return pairings of this type, or all of them if <code>null</code>.
+     * @param byService Whether to filter on the service id, bound as the only argument.
+     * @return The SQL.
+     * @throws SQLException if a DAO could not be created.
+     */
+    static String select(final DbHelper helper, final PairingType type, final boolean byService)
+        throws SQLException {
+        final TableInfo<DbPairingImp, Integer> pairings =
+            DbHelper.getTableInfo(helper.getPairingDao());
+        final TableInfo<DbServiceImp, Integer> services =
+            DbHelper.getTableInfo(helper.getServiceDao());
+        final String keyPairings = DbHelper.getTableInfo(helper.getKeyPairingDao()).getTableName();
+        final String keyColumn = "k.`" + foreignColumn(
+            DbHelper.getTableInfo(helper.getKeyPairingDao()), DbPairingImp.class) + "`";
+        final String lensPairings =
+            DbHelper.getTableInfo(helper.getLensPairingDao()).getTableName();
+        final String lensColumn = "l.`" + foreignColumn(
+            DbHelper.getTableInfo(helper.getLensPairingDao()), DbPairingImp.class) + "`";
+        final String id = "p.`" + pairings.getIdField().getColumnName() + "`";
+        final String service = "p.`" + foreignColumn(pairings, DbServiceImp.class) + "`";
+
+        final StringBuilder sql = new StringBuilder()
+            .append("SELECT ").append(id).append(" AS ").append(PairingsProvider.COLUMN_ID)
+            .append(", p.`").append(column(pairings, "name")).append("` AS ")
+            .append(PairingsProvider.COLUMN_NAME)
+            .append(", s.`").append(column(services, "name")).append("` AS ")
+            .append(PairingsProvider.COLUMN_SERVICE_NAME)
+            .append(", CASE WHEN ").append(keyColumn).append(" IS NOT NULL THEN '")
+            .append(PairingType.KEY.name()).append("' ELSE '")
+            .append(PairingType.CREDENTIAL.name()).append("' END AS ")
+            .append(PairingsProvider.COLUMN_TYPE)
+            .append(" FROM `").append(pairings.getTableName()).append("` p")
+            .append(" JOIN `").append(services.getTableName()).append("` s ON s.`")
+            .append(services.getIdField().getColumnName()).append("` = ").append(service)
+            .append(" LEFT JOIN `").append(keyPairings).append("` k ON ")
+            .append(keyColumn).append(" = ").append(id)
+            .append(" LEFT JOIN `").append(lensPairings).append("` l ON ")
+            .append(lensColumn).append(" = ").append(id);
+        if (type == PairingType.KEY) {
+            sql.append(" WHERE ").append(keyColumn).append(" IS NOT NULL");
+        } else if (type == PairingType.CREDENTIAL) {
+            sql.append(" WHERE ").append(lensColumn).append(" IS NOT NULL");
+        } else {
+            sql.append(" WHERE (").append(keyColumn).append(" IS NOT NULL OR ")
+                .append(lensColumn).append(" IS NOT NULL)");
+        }
+        if (byService) {
+            sql.append(" AND ").append(service).append(" = ?");
+        }
+        sql.append(" ORDER BY ").append(id);
+        return sql.toString();
+    }
+
+    private static String column(final TableInfo<?, ?> info, final String fieldName)
+        throws SQLException {
+        for (FieldType field : info.getFieldTypes()) {
+            if (!field.isForeign() && field.getFieldName().equals(fieldName)) {
+                return field.getColumnName();
+            }
+        }
+        throw new SQLException("No " + fieldName + " column in " + info.getTableName());
+    }
+
+    private static String foreignColumn(final TableInfo<?, ?> info, final Class<?> type)
+        throws SQLException {
+        for (FieldType field : info.getFieldTypes()) {
+            if (field.isForeign() && field.getType() == type) {
+                return field.getColumnName();
+            }
+        }
+        throw new SQLException("No " + type.getSimpleName() + " column in "
+            + info.getTableName());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.BuildConfig;
+import org.mypico.android.data.PairingSummary;
+import org.mypico.android.data.SafePairing.PairingType;
+import org.mypico.jpico.comms.org.apache.commons.codec.binary.Base64;
+import org.mypico.jpico.data.service.Service;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Read-only provider of the pairing lists, for use with a <code>CursorLoader</code>.
+ * <p>
+ * Queries return the columns of a {@link PairingSummary} straight from an SQLite cursor, so a
+ * list reads its rows a window at a time instead of receiving every pairing in one parcel. Every
+ * cursor is registered for changes to {@link #CONTENT_URI}; code that adds, renames or deletes
+ * pairings calls {@link #notifyChange(Context)} so that open lists reload themselves.
+ * <p>
+ * The provider is not exported. Inserts, updates and deletes are not supported; pairings are
+ * still written through jpico.
+ */
+public class PairingsProvider extends ContentProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        PairingsProvider.class.getSimpleName());
+
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".pairings";
+
+    /**
+     * All key and lens pairings.
+     */
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/pairings");
+
+    public static final String COLUMN_ID = BaseColumns._ID;
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_SERVICE_NAME = "service_name";
+    public static final String COLUMN_TYPE = "type";
+
+    private static final String[] COLUMNS =
+        {COLUMN_ID, COLUMN_NAME, COLUMN_SERVICE_NAME, COLUMN_TYPE};
+
+    private static final String KEY_PATH = "key";
+    private static final String LENS_PATH = "lens";
+
+    private static final int ALL_PAIRINGS = 1;
+    private static final int KEY_PAIRINGS = 2;
+    private static final int LENS_PAIRINGS = 3;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(AUTHORITY, "pairings", ALL_PAIRINGS);
+        MATCHER.addURI(AUTHORITY, "pairings/" + KEY_PATH + "/*", KEY_PAIRINGS);
+        MATCHER.addURI(AUTHORITY, "pairings/" + LENS_PATH + "/*", LENS_PAIRINGS);
+    }
+
+    /**
+     * Get the URI of the key pairings with a service.
+     *
+     * @param commitment Commitment of the service.
+     * @return The URI.
+     */
+    public static Uri keyPairingsUri(final byte[] commitment) {
+        return serviceUri(KEY_PATH, commitment);
+    }
+
+    /**
+     * Get the URI of the lens pairings with a service.
+     *
+     * @param commitment Commitment of the service.
+     * @return The URI.
+     */
+    public static Uri lensPairingsUri(final byte[] commitment) {
+        return serviceUri(LENS_PATH, commitment);
+    }
+
+    private static Uri serviceUri(final String path, final byte[] commitment) {
+        return CONTENT_URI.buildUpon()
+            .appendPath(path)
+            .appendPath(Base64.encodeBase64URLSafeString(commitment))
+            .build();
+    }
+
+    /**
+     * Tell any open pairing lists that the pairings have changed.
+     *
+     * @param context Context used to get the content resolver.
+     */
+    public static void notifyChange(final Context context) {
+        context.getContentResolver().notifyChange(CONTENT_URI, null);
+    }
+
+    /**
+     * Read the pairing at the current position of a cursor returned by this provider.
+     *
+     * @param cursor The cursor.
+     * @return The pairing.
+     */
+    public static PairingSummary getSummary(final Cursor cursor) {
+        return new PairingSummary(
+            cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SERVICE_NAME)),
+            PairingType.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TYPE))));
+    }
+
+    @Override
+    public boolean onCreate() {
+        // The database is opened lazily by the first query
+        return true;
+    }
+
+    @Override
+    public Cursor query(final Uri uri, final String[] projection, final String selection,
+                        final String[] selectionArgs, final String sortOrder) {
+        final DbHelper helper = DbHelper.getInstance(getContext());
+        final PairingType type;
+        Integer serviceId = null;
+        try {
+            switch (MATCHER.match(uri)) {
+                case ALL_PAIRINGS:
+                    type = null;
+                    break;
+                case KEY_PAIRINGS:
+                case LENS_PAIRINGS:
+                    type = (MATCHER.match(uri) == KEY_PAIRINGS)
+                        ? PairingType.KEY : PairingType.CREDENTIAL;
+                    final Service service = helper.getDataAccessor().getServiceByCommitment(
+                        Base64.decodeBase64(uri.getLastPathSegment()));
+                    if (service == null) {
+                        return emptyCursor();
+                    }
+                    serviceId = service.getId();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown URI " + uri);
+            }
+
+            final Cursor cursor = PairingSummaries.query(
+                helper, helper.getReadableDatabase(), type, serviceId);
+            cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+            return cursor;
+        } catch (SQLException | IOException e) {
+            LOGGER.error("Failed to query pairings", e);
+            return null;
+        }
+    }
+
+    private Cursor emptyCursor() {
+        final Cursor cursor = new MatrixCursor(COLUMNS, 0);
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return cursor;
+    }
+
+    @Override
+    public String getType(final Uri uri) {
+        return "vnd.android.cursor.dir/vnd." + AUTHORITY;
+    }
+
+    @Override
+    public Uri insert(final Uri uri, final ContentValues values) {
+        throw new UnsupportedOperationException("Pairings are read-only");
+    }
+
+    @Override
+    public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+        throw new UnsupportedOperationException("Pairings are read-only");
+    }
+
+    @Override
+    public int update(final Uri uri, final ContentValues values, final String selection,
+                      final String[] selectionArgs) {
+        throw new UnsupportedOperationException("Pairings are read-only");
+    }
+}
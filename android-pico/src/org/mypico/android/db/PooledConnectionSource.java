@@ -0,0 +1,311 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.j256.ormlite.android.AndroidConnectionSource;
+import com.j256.ormlite.android.AndroidDatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnectionProxyFactory;
+
+/**
+ * Connection source with a single serialized writer and a pool of read-only connections.
+ * <p>
+ * Writes, transactions and any read made by a thread that currently holds the writer go through
+ * the helper's writable database, one thread at a time. Other reads borrow a read-only handle on
+ * the same file, so with write-ahead logging enabled list and lookup queries no longer wait for
+ * session writes to commit. A pool size of zero sends every read through the writer, which is the
+ * behaviour of the plain {@link AndroidConnectionSource}.
+ * <p>
+ * Unlike the plain source, which keeps its writer for good, every connection here can be closed
+ * and reopened with {@link #suspend()} and {@link #resume()}, so the database file can be swapped
+ * underneath a running app.
+ */
+final class PooledConnectionSource extends AndroidConnectionSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        PooledConnectionSource.class.getSimpleName());
+
+    private final SQLiteOpenHelper helper;
+    private final DatabaseConnectionProxyFactory proxyFactory;
+    private final ReentrantLock writer = new ReentrantLock(true);
+
+    // Guarded by writer
+    private DatabaseConnection writerConnection;
+
+    // Guarded by readers
+    private final Map<DatabaseConnection, SQLiteDatabase> readers =
+        new IdentityHashMap<DatabaseConnection, SQLiteDatabase>();
+    private final Deque<DatabaseConnection> idle = new ArrayDeque<DatabaseConnection>();
+    private int maxReaders;
+    private boolean closed = false;
+    private boolean suspended = false;
+
+    /**
+     * @param helper       Helper owning the writable database.
+     * @param proxyFactory Factory used to wrap the read-only connections, or {@code null}.
+     * @param maxReaders   Maximum number of read-only connections.
+     */
+    PooledConnectionSource(final SQLiteOpenHelper helper,
+                           final DatabaseConnectionProxyFactory proxyFactory,
+                           final int maxReaders) {
+        super(helper);
+        this.helper = helper;
+        this.proxyFactory = proxyFactory;
+        setMaxReaders(maxReaders);
+    }
+
+    /**
+     * Change the size of the read-only pool. Surplus connections are closed as they are
+     * returned.
+     *
+     * @param maxReaders Maximum number of read-only connections, zero to disable the pool.
+     */
+    void setMaxReaders(final int maxReaders) {
+        if (maxReaders < 0) {
+            throw new IllegalArgumentException("maxReaders must not be negative");
+        }
+        synchronized (readers) {
+            this.maxReaders = maxReaders;
+            while (readers.size() > maxReaders && !idle.isEmpty()) {
+                closeReader(idle.pop());
+            }
+            readers.notifyAll();
+        }
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection() throws SQLException {
+        final DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        writer.lock();
+        try {
+            if (writerConnection == null) {
+                writerConnection = openWriter();
+            }
+            return writerConnection;
+        } catch (SQLException e) {
+            writer.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            writer.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection() throws SQLException {
+        final DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        if (!writer.isHeldByCurrentThread()) {
+            final DatabaseConnection reader = borrowReader();
+            if (reader != null) {
+                return reader;
+            }
+        }
+        // Reads made while writing must see the uncommitted changes
+        return getReadWriteConnection();
+    }
+
+    @Override
+    public void releaseConnection(final DatabaseConnection connection) {
+        if (isSavedConnection(connection)) {
+            return;
+        }
+        synchronized (readers) {
+            if (readers.containsKey(connection)) {
+                if (closed || suspended || readers.size() > maxReaders) {
+                    closeReader(connection);
+                } else {
+                    idle.push(connection);
+                }
+                readers.notifyAll();
+                return;
+            }
+        }
+        if (writer.isHeldByCurrentThread()) {
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (readers) {
+            closed = true;
+            while (!idle.isEmpty()) {
+                closeReader(idle.pop());
+            }
+            readers.notifyAll();
+        }
+        super.close();
+    }
+
+    @Override
+    public void closeQuietly() {
+        close();
+    }
+
+    /**
+     * Take the writer, so that no other thread can write to the database, and so set off an
+     * automatic checkpoint, until {@link #unlockWriter()} is called by the same thread. Reads on
+     * the pooled connections carry on.
+     */
+    void lockWriter() {
+        writer.lock();
+    }
+
+    /**
+     * Give up the writer taken by {@link #lockWriter()}.
+     */
+    void unlockWriter() {
+        writer.unlock();
+    }
+
+    /**
+     * Close every connection to the database, waiting for writes and transactions in progress to
+     * finish and for borrowed read connections to be returned. Until {@link #resume()} is called
+     * by the same thread, other threads asking for a connection wait.
+     *
+     * @throws SQLException if interrupted while waiting for the connections.
+     */
+    void suspend() throws SQLException {
+        writer.lock();
+        synchronized (readers) {
+            suspended = true;
+            while (!idle.isEmpty()) {
+                closeReader(idle.pop());
+            }
+            while (!readers.isEmpty()) {
+                try {
+                    readers.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    resume();
+                    throw new SQLException("Interrupted waiting for read connections", e);
+                }
+            }
+        }
+        try {
+            // The helper notices the database has been closed and reopens it when next asked
+            helper.getWritableDatabase().close();
+        } catch (android.database.SQLException e) {
+            LOGGER.warn("Could not close the writable database", e);
+        }
+        writerConnection = null;
+        LOGGER.debug("Connections suspended");
+    }
+
+    /**
+     * Let connections be opened again after {@link #suspend()}.
+     */
+    void resume() {
+        synchronized (readers) {
+            suspended = false;
+            readers.notifyAll();
+        }
+        writer.unlock();
+    }
+
+    /**
+     * Take an idle read-only connection, opening a new one if the pool is not full and waiting
+     * otherwise.
+     *
+     * @return The connection, or {@code null} if the pool is disabled or closed.
+     * @throws SQLException if a new connection could not be opened.
+     */
+    private DatabaseConnection borrowReader() throws SQLException {
+        synchronized (readers) {
+            while (true) {
+                if (closed || suspended || maxReaders == 0) {
+                    return null;
+                } else if (!idle.isEmpty()) {
+                    return idle.pop();
+                } else if (readers.size() < maxReaders) {
+                    return openReader();
+                }
+                try {
+                    readers.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a read connection", e);
+                }
+            }
+        }
+    }
+
+    private DatabaseConnection openWriter() throws SQLException {
+        final SQLiteDatabase db;
+        try {
+            db = helper.getWritableDatabase();
+        } catch (android.database.SQLException e) {
+            throw new SQLException("Could not open write connection", e);
+        }
+        DatabaseConnection connection = new AndroidDatabaseConnection(db, true);
+        if (proxyFactory != null) {
+            connection = proxyFactory.createProxy(connection);
+        }
+        return connection;
+    }
+
+    private DatabaseConnection openReader() throws SQLException {
+        // Opening the writable database first creates or upgrades the schema and sets the
+        // journal mode, which the read-only handles cannot do themselves
+        final String path = helper.getWritableDatabase().getPath();
+        final SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            throw new SQLException("Could not open read connection to " + path, e);
+        }
+        DatabaseConnection connection = new AndroidDatabaseConnection(db, false);
+        if (proxyFactory != null) {
+            connection = proxyFactory.createProxy(connection);
+        }
+        readers.put(connection, db);
+        LOGGER.debug("Opened read connection {} of {}", readers.size(), maxReaders);
+        return connection;
+    }
+
+    private void closeReader(final DatabaseConnection connection) {
+        final SQLiteDatabase db = readers.remove(connection);
+        if (db != null) {
+            db.close();
+        }
+    }
+}
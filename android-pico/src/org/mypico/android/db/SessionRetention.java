@@ -0,0 +1,307 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.jpico.data.session.Session;
+import org.mypico.jpico.db.DbPairingImp;
+import org.mypico.jpico.db.DbSessionImp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * Keeps the session table from growing without bound.
+ * <p>
+ * Every login persists a session, so over years of use the table comes to dominate session
+ * queries and backups. {@link #run} keeps the latest {@link #getRetainedCount} sessions of each
+ * pairing and removes the older closed and errored ones, adding them to per-pairing counters in
+ * the {@value #COUNTERS_TABLE} table so the totals are not lost. Active and paused sessions are
+ * never removed. The freed pages are then returned to the file system with an incremental vacuum,
+ * once {@link SessionRetentionService} has switched the database to incremental auto-vacuum.
+ * <p>
+ * Every statement goes through the helper's connection source, so the writes take their turn on
+ * the serialized writer. The job is run in the background by {@link SessionRetentionService}.
+ */
+public final class SessionRetention {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        SessionRetention.class.getSimpleName());
+
+    /// The retained sessions preference key
+    public static final String PREFERENCE_KEY = "session_retention_count";
+    /// Default number of sessions kept for each pairing
+    public static final int DEFAULT_RETAINED = 20;
+
+    static final String COUNTERS_TABLE = "SESSION_COUNTERS";
+    private static final String COUNTER_PAIRING = "PAIRING_ID";
+    private static final String COUNTER_CLOSED = "CLOSED";
+    private static final String COUNTER_ERROR = "ERROR";
+
+    // Pages released per incremental vacuum step, so the writer is never held for long
+    private static final int VACUUM_PAGES = 256;
+
+    /**
+     * Before and after measurements of a retention run.
+     */
+    public static final class Report {
+        public int sessionsBefore;
+        public int sessionsAfter;
+        public long bytesBefore;
+        public long bytesAfter;
+        public long lookupNanosBefore;
+        public long lookupNanosAfter;
+
+        @Override
+        public String toString() {
+            return String.format("Sessions %d -> %d, database %d -> %d bytes, "
+                    + "session lookup %.2fms -> %.2fms", sessionsBefore, sessionsAfter,
+                bytesBefore, bytesAfter, lookupNanosBefore / 1e6, lookupNanosAfter / 1e6);
+        }
+    }
+
+    private SessionRetention() {
+        // no instances
+    }
+
+    /**
+     * Get the number of sessions kept for each pairing from the app's preferences.
+     *
+     * @param context The context to get preferences from.
+     * @return The number of sessions to keep, defaulting to {@link #DEFAULT_RETAINED}.
+     */
+    public static int getRetainedCount(final Context context) {
+        return Math.max(0, PreferenceManager.getDefaultSharedPreferences(context)
+            .getInt(PREFERENCE_KEY, DEFAULT_RETAINED));
+    }
+
+    /**
+     * Set the number of sessions kept for each pairing.
+     *
+     * @param context  The context to store preferences in.
+     * @param retained The number of sessions to keep.
+     */
+    public static void setRetainedCount(final Context context, final int retained) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+            .putInt(PREFERENCE_KEY, retained).apply();
+    }
+
+    /**
+     * Compact the session table.
+     *
+     * @param helper   The database.
+     * @param retained Number of sessions to keep for each pairing.
+     * @return Measurements taken before and after.
+     * @throws SQLException if the session table could not be described or compacted.
+     */
+    public static Report run(final DbHelper helper, final int retained) throws SQLException {
+        if (retained < 0) {
+            throw new IllegalArgumentException("retained must not be negative");
+        }
+        final Dao<DbSessionImp, Integer> sessionDao = helper.getSessionDao();
+        final Dao<DbPairingImp, Integer> pairingDao = helper.getPairingDao();
+        final TableInfo<DbSessionImp, Integer> sessions = DbHelper.getTableInfo(sessionDao);
+        final TableInfo<DbPairingImp, Integer> pairings = DbHelper.getTableInfo(pairingDao);
+
+        final String table = "`" + sessions.getTableName() + "`";
+        final String id = "`" + sessions.getIdField().getColumnName() + "`";
+        final FieldType pairingField = foreignField(sessions, DbPairingImp.class);
+        final String pairing = "`" + pairingField.getColumnName() + "`";
+        final FieldType statusField = fieldOfType(sessions, Session.Status.class);
+        final String status = "`" + statusField.getColumnName() + "`";
+        final String closed = sqlValue(statusField, Session.Status.CLOSED);
+        final String error = sqlValue(statusField, Session.Status.ERROR);
+
+        createCounters(sessionDao, pairings);
+
+        final Report report = new Report();
+        report.sessionsBefore = count(sessionDao, table);
+        report.bytesBefore = databaseBytes(sessionDao);
+        report.lookupNanosBefore = timeLookup(sessionDao, table, pairing);
+
+        // Sessions of a pairing that have at least `retained` newer sessions
+        final String expired = status + " IN (?, ?) AND (SELECT COUNT(*) FROM " + table
+            + " AS newer WHERE newer." + pairing + " = " + table + "." + pairing
+            + " AND newer." + id + " > " + table + "." + id + ") >= " + retained;
+        // Expired sessions of the counter's pairing with a given status
+        final String countExpired = "(SELECT COUNT(*) FROM " + table + " WHERE " + pairing
+            + " = " + COUNTERS_TABLE + "." + COUNTER_PAIRING + " AND " + status + " = ? AND "
+            + expired + ")";
+
+        final ConnectionSource connectionSource = helper.getConnectionSource();
+        TransactionManager.callInTransaction(connectionSource, new Callable<Void>() {
+            @Override
+            public Void call() throws SQLException {
+                sessionDao.executeRaw("INSERT OR IGNORE INTO " + COUNTERS_TABLE + " ("
+                    + COUNTER_PAIRING + ", " + COUNTER_CLOSED + ", " + COUNTER_ERROR
+                    + ") SELECT DISTINCT " + pairing + ", 0, 0 FROM " + table
+                    + " WHERE " + expired, closed, error);
+                sessionDao.executeRaw("UPDATE " + COUNTERS_TABLE + " SET "
+                    + COUNTER_CLOSED + " = " + COUNTER_CLOSED + " + " + countExpired + ", "
+                    + COUNTER_ERROR + " = " + COUNTER_ERROR + " + " + countExpired,
+                    closed, closed, error, error, closed, error);
+                sessionDao.executeRaw("DELETE FROM " + table + " WHERE " + expired,
+                    closed, error);
+                return null;
+            }
+        });
+
+        vacuum(connectionSource, sessionDao);
+
+        report.sessionsAfter = count(sessionDao, table);
+        report.bytesAfter = databaseBytes(sessionDao);
+        report.lookupNanosAfter = timeLookup(sessionDao, table, pairing);
+        LOGGER.info("Session retention (keep {}): {}", retained, report);
+        return report;
+    }
+
+    private static void createCounters(final Dao<?, ?> dao,
+                                       final TableInfo<DbPairingImp, Integer> pairings)
+        throws SQLException {
+        dao.executeRaw("CREATE TABLE IF NOT EXISTS " + COUNTERS_TABLE + " ("
+            + COUNTER_PAIRING + " INTEGER PRIMARY KEY REFERENCES `" + pairings.getTableName()
+            + "` (`" + pairings.getIdField().getColumnName() + "`) ON DELETE CASCADE, "
+            + COUNTER_CLOSED + " INTEGER NOT NULL DEFAULT 0, "
+            + COUNTER_ERROR + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * Release free pages back to the file system in small steps, each in its own transaction so
+     * that logins can write in between. Does nothing unless the database uses incremental
+     * auto-vacuum, which new databases do and {@link SessionRetentionService} switches older ones
+     * to.
+     */
+    private static void vacuum(final ConnectionSource connectionSource, final Dao<?, ?> dao)
+        throws SQLException {
+        if (dao.queryRawValue("PRAGMA auto_vacuum") != DbHelper.AUTO_VACUUM_INCREMENTAL) {
+            LOGGER.debug("Incremental auto-vacuum not enabled, free pages kept");
+            return;
+        }
+        final Callable<Void> step = new Callable<Void>() {
+            @Override
+            public Void call() throws SQLException {
+                // incremental_vacuum returns a row per step, which must be read for it to run
+                final GenericRawResults<String[]> results =
+                    dao.queryRaw("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+                try {
+                    for (String[] ignored : results) {
+                        // drain
+                    }
+                } finally {
+                    results.close();
+                }
+                return null;
+            }
+        };
+        long free = dao.queryRawValue("PRAGMA freelist_count");
+        while (free > 0) {
+            TransactionManager.callInTransaction(connectionSource, step);
+            final long remaining = dao.queryRawValue("PRAGMA freelist_count");
+            if (remaining >= free) {
+                break;
+            }
+            free = remaining;
+        }
+    }
+
+    private static int count(final Dao<?, ?> dao, final String table) throws SQLException {
+        return (int) dao.queryRawValue("SELECT COUNT(*) FROM " + table);
+    }
+
+    private static long databaseBytes(final Dao<?, ?> dao) throws SQLException {
+        return dao.queryRawValue("PRAGMA page_count") * dao.queryRawValue("PRAGMA page_size");
+    }
+
+    /**
+     * Time loading the sessions of the pairing with the most sessions.
+     */
+    private static long timeLookup(final Dao<?, ?> dao, final String table,
+                                   final String pairing) throws SQLException {
+        final GenericRawResults<String[]> busiest = dao.queryRaw("SELECT " + pairing + " FROM "
+            + table + " GROUP BY " + pairing + " ORDER BY COUNT(*) DESC LIMIT 1");
+        final String[] row;
+        try {
+            row = busiest.getFirstResult();
+        } finally {
+            busiest.close();
+        }
+        if (row == null) {
+            return 0;
+        }
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final GenericRawResults<String[]> results =
+            dao.queryRaw("SELECT * FROM " + table + " WHERE " + pairing + " = ?", row[0]);
+        try {
+            for (String[] ignored : results) {
+                // read every row
+            }
+        } finally {
+            results.close();
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static FieldType foreignField(final TableInfo<?, ?> info, final Class<?> type)
+        throws SQLException {
+        for (FieldType field : info.getFieldTypes()) {
+            if (field.isForeign() && field.getType() == type) {
+                return field;
+            }
+        }
+        throw new SQLException("No " + type.getSimpleName() + " column in "
+            + info.getTableName());
+    }
+
+    private static FieldType fieldOfType(final TableInfo<?, ?> info, final Class<?> type)
+        throws SQLException {
+        for (FieldType field : info.getFieldTypes()) {
+            if (field.getType() == type) {
+                return field;
+            }
+        }
+        throw new SQLException("No " + type.getSimpleName() + " column in "
+            + info.getTableName());
+    }
+
+    /**
+     * Convert a value to the form ORMLite stores it in, so enum columns match whether they are
+     * persisted by name or by ordinal.
+     */
+    private static String sqlValue(final FieldType field, final Object value)
+        throws SQLException {
+        return String.valueOf(field.convertJavaFieldToSqlArgValue(value));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+
+/**
+ * Runs {@link SessionRetention} in the background about once a day.
+ *
+ * @see SessionRetention
+ */
+public class SessionRetentionService extends IntentService {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(SessionRetentionService.class.getSimpleName());
+
+    static final String COMPACT_SESSIONS_ACTION = "COMPACT_SESSIONS";
+
+    // Give the app time to settle before the first run after it starts
+    private static final long FIRST_RUN_DELAY_MS = AlarmManager.INTERVAL_HOUR;
+
+    public SessionRetentionService() {
+        this(SessionRetentionService.class.getCanonicalName());
+    }
+
+    public SessionRetentionService(final String name) {
+        super(name);
+    }
+
+    /**
+     * Schedule the daily retention run, unless it is already scheduled. An existing alarm is left
+     * alone, so calling this every time the app starts does not keep pushing the run back.
+     *
+     * @param context Context used to set the alarm.
+     */
+    public static void schedule(final Context context) {
+        final Intent intent = new Intent(context, SessionRetentionService.class);
+        intent.setAction(COMPACT_SESSIONS_ACTION);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            LOGGER.debug("Session retention already scheduled");
+            return;
+        }
+        final PendingIntent operation = PendingIntent.getService(
+            context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        final AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+            SystemClock.elapsedRealtime() + FIRST_RUN_DELAY_MS,
+            AlarmManager.INTERVAL_DAY, operation);
+    }
+
+    @Override
+    protected void onHandleIntent(final Intent intent) {
+        if (COMPACT_SESSIONS_ACTION.equals(intent.getAction())) {
+            try {
+                final DbHelper helper = DbHelper.getInstance(this);
+                enableIncrementalVacuum(helper);
+                SessionRetention.run(helper, SessionRetention.getRetainedCount(this));
+            } catch (SQLException e) {
+                LOGGER.error("Session retention failed", e);
+            } catch (SQLiteException e) {
+                // Most likely the database was busy; the next run will catch up
+                LOGGER.warn("Session retention failed", e);
+            }
+        } else {
+            LOGGER.warn("Unrecongised action {} ignored", intent.getAction());
+        }
+    }
+
+    /**
+     * Switch a database created before incremental auto-vacuum, or restored from such a backup,
+     * over to it. The mode only takes effect once the file is rebuilt, so this costs a full
+     * {@code VACUUM} the first time; the writer is held throughout so nothing writes meanwhile.
+     * Runs on the service's worker thread, never the UI thread.
+     *
+     * @param helper The database.
+     */
+    static void enableIncrementalVacuum(final DbHelper helper) {
+        helper.lockWriter();
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                == DbHelper.AUTO_VACUUM_INCREMENTAL) {
+                return;
+            }
+            LOGGER.info("Rebuilding database for incremental auto-vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } catch (SQLiteException e) {
+            // Retention still works without it, and the next run tries again
+            LOGGER.warn("Could not rebuild database for incremental auto-vacuum", e);
+        } finally {
+            helper.unlockWriter();
+        }
+    }
+}
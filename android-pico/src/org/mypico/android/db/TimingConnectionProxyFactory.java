@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.stmt.GenericRowMapper;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnectionProxy;
+import com.j256.ormlite.support.DatabaseConnectionProxyFactory;
+import com.j256.ormlite.support.GeneratedKeyHolder;
+
+/**
+ * Wraps the ORMLite database connections so that every statement is timed into the
+ * {@link DbStatistics} counters, and writes are reported to {@link DbChanges}.
+ */
+final class TimingConnectionProxyFactory implements DatabaseConnectionProxyFactory {
+
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+        "(?:FROM|INTO|UPDATE|TABLE)\\s+[`\"]?(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final DbStatistics statistics;
+    private final DbChanges changes;
+
+    TimingConnectionProxyFactory(final DbStatistics statistics, final DbChanges changes) {
+        this.statistics = statistics;
+        this.changes = changes;
+    }
+
+    @Override
+    public DatabaseConnection createProxy(final DatabaseConnection realConnection)
+        throws SQLException {
+        return new TimingConnection(realConnection);
+    }
+
+    private void record(final String operation, final long nanos) {
+        statistics.record(operation, nanos);
+        changes.record(operation);
+    }
+
+    /**
+     * Build the operation key for a statement.
+     */
+    private static String operation(final String kind, final String statement) {
+        final Matcher m = TABLE_PATTERN.matcher(statement);
+        return m.find() ? kind + ":" + m.group(1) : kind;
+    }
+
+    private final class TimingConnection extends DatabaseConnectionProxy {
+
+        TimingConnection(final DatabaseConnection proxy) {
+            super(proxy);
+        }
+
+        @Override
+        public int executeStatement(String statementStr, int resultFlags) throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.executeStatement(statementStr, resultFlags);
+            } finally {
+                record(operation("execute", statementStr), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public CompiledStatement compileStatement(String statement, StatementType type,
+                                                  FieldType[] argFieldTypes, int resultFlags)
+            throws SQLException {
+            final CompiledStatement compiled =
+                super.compileStatement(statement, type, argFieldTypes, resultFlags);
+            final String operation =
+                operation(type.name().toLowerCase(Locale.US), statement);
+            return (CompiledStatement) Proxy.newProxyInstance(
+                CompiledStatement.class.getClassLoader(),
+                new Class<?>[]{CompiledStatement.class},
+                new TimingStatementHandler(compiled, operation));
+        }
+
+        @Override
+        public int insert(String statement, Object[] args, FieldType[] argfieldTypes,
+                          GeneratedKeyHolder keyHolder) throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.insert(statement, args, argfieldTypes, keyHolder);
+            } finally {
+                record(operation("insert", statement), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int update(String statement, Object[] args, FieldType[] argfieldTypes)
+            throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.update(statement, args, argfieldTypes);
+            } finally {
+                record(operation("update", statement), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int delete(String statement, Object[] args, FieldType[] argfieldTypes)
+            throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.delete(statement, args, argfieldTypes);
+            } finally {
+                record(operation("delete", statement), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public <T> Object queryForOne(String statement, Object[] args, FieldType[] argfieldTypes,
+                                      GenericRowMapper<T> rowMapper, ObjectCache objectCache)
+            throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.queryForOne(statement, args, argfieldTypes, rowMapper, objectCache);
+            } finally {
+                record(operation("select", statement), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long queryForLong(String statement) throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.queryForLong(statement);
+            } finally {
+                record(operation("select_long", statement), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long queryForLong(String statement, Object[] args, FieldType[] argFieldTypes)
+            throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                return super.queryForLong(statement, args, argFieldTypes);
+            } finally {
+                record(operation("select_long", statement), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Times the execution methods of a compiled statement.
+     */
+    private final class TimingStatementHandler implements InvocationHandler {
+
+        private final CompiledStatement statement;
+        private final String operation;
+
+        TimingStatementHandler(final CompiledStatement statement, final String operation) {
+            this.statement = statement;
+            this.operation = operation;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            final boolean timed = name.equals("runQuery")
+                || name.equals("runUpdate")
+                || name.equals("runExecute");
+            final long start = System.nanoTime();
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (timed) {
+                    record(operation, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
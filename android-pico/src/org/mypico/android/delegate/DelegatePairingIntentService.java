@@ -5,9 +5,6 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
@@ -15,6 +12,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,12 +71,11 @@ public class DelegatePairingIntentService extends IntentService {
     public void onCreate() {
         super.onCreate();
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -130,6 +127,7 @@ public class DelegatePairingIntentService extends IntentService {
                     final LensPairing newPairing = pairing.createLensPairing(
                         dbDataFactory, dbDataAccessor, credentials.getCredentials(), new ArrayList<String>());
                     newPairing.save();
+                    PairingsProvider.notifyChange(this);
 
                     localIntent.putExtra(PERSIST_PAIRING_ACTION, true);
                     localIntent.putExtra(PAIRING, new SafeLensPairing(newPairing));
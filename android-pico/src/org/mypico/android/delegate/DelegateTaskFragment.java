@@ -17,8 +17,6 @@ import android.graphics.Bitmap;
 import android.os.Bundle;
 
 import com.google.common.base.Optional;
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 
 /**
  * Fragment for performing the background network thread.
@@ -135,13 +133,12 @@ public class DelegateTaskFragment extends Fragment {
         // Ensure the fragment will be retained even if the activity is destroyed/recreated
         setRetainInstance(true);
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(activity, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(activity);
         try {
             // The database is used to retrieve the LensPairing
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            accessor = Optional.of(DbHelper.getInstance(activity).getLensPairingAccessor());
+            dbDataFactory = helper.getDataFactory();
+            accessor = Optional.of(helper.getLensPairingAccessor());
         } catch (SQLException e) {
             // TODO: We should probably do something more drastic than just log the error
             // like finish the activity and throw up an error message
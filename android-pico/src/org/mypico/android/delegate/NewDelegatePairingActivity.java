@@ -15,6 +15,7 @@ import org.mypico.android.core.ReattachTask;
 import org.mypico.android.data.NonceParcel;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,8 +47,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.widget.Toast;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 
 /**
  * UI for creating and naming a new Pico Lens pairing.
@@ -205,6 +204,7 @@ final public class NewDelegatePairingActivity extends Activity {
                     // Create and save the resulting pairing in the database
                     LensPairing newPairing = pairing.createLensPairing(dbDataFactory, dbDataAccessor, credentials, new ArrayList<String>());
                     newPairing.save();
+                    PairingsProvider.notifyChange(activity);
 
                     result = SUCCESS;
 
@@ -306,12 +306,11 @@ final public class NewDelegatePairingActivity extends Activity {
         final byte[] commitment = intent.getByteArrayExtra(VisualCodeIntentGenerator.TERMINAL_COMMITMENT);
         Nonce nonce = ((NonceParcel) intent.getParcelableExtra(VisualCodeIntentGenerator.NONCE)).getNonce();
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -60,12 +60,11 @@ import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.data.SafeSession;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.util.LatencyTracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
+import org.mypico.android.BuildConfig;
 import org.mypico.android.R;
 import org.mypico.android.bluetooth.PicoBluetoothService;
 import org.mypico.android.core.VisualCodeIntentGenerator;
@@ -168,6 +167,7 @@ final public class AuthenticateActivity extends Activity
 
         @Override
         public void onReceive(final Context context, final Intent intent) {
+            traceResultReceived(intent);
             if (!intent.hasExtra(AuthenticateIntentService.EXCEPTION)) {
                 if (intent.getAction().equals(AuthenticateIntentService.AUTHENTICATE_TERMINAL_ACTION)) {
                     if (intent.hasExtra(AuthenticateIntentService.EXTRA_DATA) &&
@@ -226,11 +226,11 @@ final public class AuthenticateActivity extends Activity
                                 // TODO: Figure out a better way to manage the pairing and service class variables
                                 service = pairing.getSafeService();
 
-                                OrmLiteSqliteOpenHelper helper = OpenHelperManager.getHelper(context, DbHelper.class);
+                                final DbHelper helper = DbHelper.getInstance(context);
 
                                 try {
                                     // TODO: Figure out a sensible place to store the AuthToken pairings
-                                    DbDataAccessor dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+                                    DbDataAccessor dbDataAccessor = helper.getDataAccessor();
                                     Map<String, String> credentials = pairing.getLensPairing(dbDataAccessor).getCredentials();
                                     if (credentials.size() == 1 && credentials.containsKey("AuthToken")) {
                                         String tokenString = credentials.get("AuthToken");
@@ -431,7 +431,7 @@ final public class AuthenticateActivity extends Activity
         final FragmentManager fragmentManager = getFragmentManager();
         final FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
 
-        final LensPairingListFragment fragment = LensPairingListFragment.newInstance(pairings, service);
+        final LensPairingListFragment fragment = LensPairingListFragment.newInstance(service);
         fragmentTransaction.add(R.id.lens_pairings_fragment, fragment, PAIRING_LIST_FRAGMENT);
         fragmentTransaction.commit();
         findViewById(R.id.lens_pairings_fragment).setVisibility(View.VISIBLE);
@@ -488,6 +488,31 @@ final public class AuthenticateActivity extends Activity
             .show(getFragmentManager(), "authFailedDialog");
     }
 
+    /**
+     * Complete the latency trace of an authentication when its result arrives. In debug builds
+     * the accumulated latency histograms are then written to the dump file.
+     *
+     * @param intent The result intent broadcast by the {@link AuthenticateIntentService}.
+     * @see LatencyTracer
+     */
+    private void traceResultReceived(final Intent intent) {
+        final long authId = LatencyTracer.getAuthId(intent);
+        if (authId != LatencyTracer.NO_TRACE) {
+            final LatencyTracer tracer = LatencyTracer.getInstance();
+            tracer.mark(authId, LatencyTracer.STAGE_RESULT_BROADCAST);
+            tracer.end(authId);
+            if (BuildConfig.DEBUG) {
+                final Context context = getApplicationContext();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        tracer.dump(context);
+                    }
+                }).start();
+            }
+        }
+    }
+
     /**
      * Called if authentication fails.
      */
@@ -23,14 +23,14 @@ package org.mypico.android.pairing;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.sql.SQLException;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -38,19 +38,13 @@ import org.json.JSONException;
 import org.mypico.android.R;
 import org.mypico.android.data.SafeKeyPairing;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.mypico.jpico.ProgressCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.json.JSONObject;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import android.app.IntentService;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothSocket;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.net.Uri;
@@ -58,7 +52,9 @@ import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
 import org.mypico.android.bluetooth.BluetoothInfo;
-import org.mypico.android.comms.SigmaProxy;
+import org.mypico.android.comms.Transport;
+import org.mypico.android.comms.TransportRacer;
+import org.mypico.android.comms.TransportWarmer;
 import org.mypico.android.core.AcquireCodeActivity;
 import org.mypico.android.core.PicoApplication;
 import org.mypico.android.core.PicoServiceImpl;
@@ -66,9 +62,9 @@ import org.mypico.android.core.VisualCodeIntentGenerator;
 import org.mypico.android.data.SafeLensPairing;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.data.SafeSession;
+import org.mypico.android.util.LatencyTracer;
 import org.mypico.jpico.comms.JsonMessageSerializer;
 import org.mypico.jpico.comms.RendezvousSigmaProxy;
-import org.mypico.jpico.comms.SocketCombinedProxy;
 import org.mypico.jpico.crypto.CryptoFactory;
 import org.mypico.jpico.crypto.AuthToken;
 import org.mypico.jpico.crypto.LensProver;
@@ -82,7 +78,6 @@ import org.mypico.jpico.crypto.messages.ReauthState;
 import org.mypico.jpico.crypto.messages.SequenceNumber;
 import org.mypico.jpico.data.pairing.KeyPairing;
 import org.mypico.jpico.data.pairing.LensPairing;
-import org.mypico.jpico.data.pairing.PairingNotFoundException;
 import org.mypico.jpico.data.session.Session;
 import org.mypico.jpico.data.terminal.Terminal;
 import org.mypico.jpico.db.DbDataAccessor;
@@ -125,7 +120,6 @@ public class AuthenticateIntentService extends IntentService {
     public static final String EXTRA_DATA = "EXTRA_DATA";
     static final String EXCEPTION = "EXCEPTION";
     static final String ACTIVITY_ID = "ACTIVITY_ID";
-    static final UUID AUTHENTICATION_SERVICE_UUID = UUID.fromString("ed995e5a-c7e7-4442-a6ee-407400000000");
 
     public static final String AUTH_PROGRESS_ACTION = "AuthenticateIntentService.PROGRESS";
     public static final String PROGRESS_EXTRA = "PROGRESS";
@@ -139,6 +133,8 @@ public class AuthenticateIntentService extends IntentService {
 
     private int receivedId;
 
+    private long authId;
+
     private String[] authProgressStageDescriptions;
 
     /**
@@ -161,6 +157,7 @@ public class AuthenticateIntentService extends IntentService {
             final Intent intent = new Intent(AUTH_PROGRESS_ACTION);
             final int progress = currentStage.getProgress();
             final String description = authProgressStageDescriptions[progress];
+            LatencyTracer.getInstance().mark(authId, LatencyTracer.STAGE_PROVER_PREFIX + progress);
             intent.putExtra(PROGRESS_EXTRA, progress);
             intent.putExtra(MAX_PROGRESS_EXTRA, currentStage.getMaxProgress());
             intent.putExtra(DESCRIPTION_EXTRA, description);
@@ -180,12 +177,11 @@ public class AuthenticateIntentService extends IntentService {
     public void onCreate() {
         super.onCreate();
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -199,6 +195,8 @@ public class AuthenticateIntentService extends IntentService {
     protected void onHandleIntent(final Intent intent) {
         receivedIntent = intent;
         receivedId = intent.getIntExtra(ACTIVITY_ID, 0);
+        authId = LatencyTracer.getAuthId(intent);
+        LatencyTracer.getInstance().mark(authId, LatencyTracer.STAGE_DISPATCH);
         LOGGER.info("Handling Intent for activity id: {}", receivedId);
         if (intent.getAction().equals(AUTHENTICATE_PAIRING_ACTION)) {
             if (intent.hasExtra(PAIRING) &&
@@ -266,6 +264,11 @@ public class AuthenticateIntentService extends IntentService {
 
     /**
      * Perform an authentication to the service using the pairing provided.
+     * <p>
+     * If the service can be reached in more than one way (the address in the visual code and the
+     * address stored with the pairing may differ), the transports are raced against each other
+     * using the {@link TransportRacer} and the authentication runs over the first to connect.
+     * Otherwise the single transport is used directly.
      *
      * @param pairing            The pairing to authenticate using.
      * @param service            The service to authenticate to.
@@ -280,328 +283,121 @@ public class AuthenticateIntentService extends IntentService {
         final String bluetoothAddress = BluetoothInfo.getLocalAddress(this);
         final byte[] bluetoothExtra = bluetoothAddress == null ? null : bluetoothAddress.getBytes();
 
+        final LatencyTracer tracer = LatencyTracer.getInstance();
         KeyPair keyPair = null;
         KeyPairing keyPairing;
+        Transport transport = null;
         try {
+            long start = LatencyTracer.now();
             keyPairing = pairing.getKeyPairing(dbDataAccessor);
+            tracer.record(authId, LatencyTracer.STAGE_DB_LOOKUP, start, LatencyTracer.now());
             if (keyPairing == null)
                 keyPair = CryptoFactory.INSTANCE.ecKpg().generateKeyPair();
             else
                 keyPair = new KeyPair(keyPairing.getPublicKey(), keyPairing.getPrivateKey());
-            if (true) {
-                // Instantiate and return a concrete proxy subclass based on the service address
-                //final Uri address = pairing.getSafeService().getAddress();
-                final Uri address = service.getAddress();
-                LOGGER.info("pairing.getSafeService().getAddress(): " + address.toString());
-                LOGGER.info("service.getAddress():" + service.getAddress());
-                LOGGER.info("address.getHost():" + address.getHost());
-                LOGGER.info("address.getScheme():" + address.getScheme());
-
-                if (address.getScheme().equals("tcp")) {
-                    final SocketCombinedProxy proxy = new SocketCombinedProxy(
-                        address.getHost(),
-                        address.getPort(),
-                        new JsonMessageSerializer());
-
-                    // Construct the prover:
-                    byte[] extraData = bluetoothExtra;
-                    if (keyPairing != null) {
-                        LOGGER.info("Sending extra data: {}", keyPairing.getExtraData());
-                        extraData = keyPairing.getExtraData().getBytes();
-                    }
-                    final NewSigmaProver prover = new NewSigmaProver(
-                        NewSigmaProver.VERSION_1_1,
-                        keyPair,
-                        extraData, //extra data here
-                        proxy,
-                        service.getCommitment(),
-                        progressCallback);
-
-                    final Session session;
-                    boolean proveResult = prover.prove();
-                    extraData = prover.getReceivedExtraData();
-                    String dataToSave = null;
-                    String pairingName = null;
-                    if (extraData != null && extraData.length > 0) {
-                        String extraDataStr = new String(extraData);
-                        LOGGER.debug("Received extraData = {}", extraDataStr);
-                        try {
-                            // New format, decode the JSON string
-                            JSONObject obj = new JSONObject(new String(extraData));
-                            dataToSave = obj.getString("data");
-                            pairingName = obj.getString("name");
-                        } catch (JSONException e) {
-                            // Old format, the service is expecting us to just store the data
-                            dataToSave = extraDataStr;
-                        }
-                    } else {
-                        LOGGER.debug("No extraData received");
-                    }
-
-                    keyPairing = pairing.getOrCreateKeyPairing(dbDataFactory, dbDataAccessor, keyPair, dataToSave);
-                    if (pairingName != null) {
-                        keyPairing.setName(pairingName);
-                    }
-                    keyPairing.save();
-
-                    if (proveResult) {
-                        session = Session.newInstanceActive(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            prover.getSharedKey(),
-                            keyPairing,
-                            null);
-                    } else {
-                        session = Session.newInstanceClosed(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            keyPairing,
-                            null);
-                    }
-
-
-                    // TO be removed - no need to persist sessions
-                    if (session.getStatus() != Session.Status.ERROR) {
-                        // If the session is ok, then save it.
-                        LOGGER.debug("Persisting session");
-                        session.save();
-                    }
-
-                    // Carry out the authentication and get the Session instance result:
-                    final SafeSession safeSession = new SafeSession(session);
-                    localIntent.putExtra(SESSION, safeSession);
-                    localIntent.putExtra(PAIRING, new SafeKeyPairing(keyPairing));
-                } else if (address.getScheme().equals("http")) {
-                    // Create a rendezvous channel
-                    final RendezvousChannel channel =
-                        new RendezvousChannel(SafeService.UriToURI(service.getAddress()).toURL());
-
-                    final RendezvousSigmaProxy proxy = new RendezvousSigmaProxy(
-                        channel, new JsonMessageSerializer());
-
 
-                    byte[] extraData = bluetoothExtra;
-                    if (keyPairing != null) {
-                        LOGGER.info("Sending extra data: {}", keyPairing.getExtraData());
-                        extraData = keyPairing.getExtraData().getBytes();
-                    }
-                    final NewSigmaProver prover = new NewSigmaProver(
-                        NewSigmaProver.VERSION_1_1,
-                        keyPair,
-                        extraData, //extra data here
-                        proxy,
-                        service.getCommitment(),
-                        progressCallback);
-
-                    // Authenticate to the Terminal
-                    LOGGER.debug("Authenticating to {} over RendezvousChannel {}",
-                        service, channel.getUrl());
-
-                    final Session session;
-                    boolean proveResult = prover.prove();
-                    extraData = prover.getReceivedExtraData();
-                    String dataToSave = null;
-                    String pairingName = null;
-                    if (extraData != null && extraData.length > 0) {
-                        String extraDataStr = new String(extraData);
-                        LOGGER.debug("Received extraData = {}", extraDataStr);
-                        try {
-                            // New format, decode the JSON string
-                            JSONObject obj = new JSONObject(new String(extraData));
-                            dataToSave = obj.getString("data");
-                            pairingName = obj.getString("name");
-                        } catch (JSONException e) {
-                            // Old format, the service is expecting us to just store the data
-                            dataToSave = extraDataStr;
-                        }
-                    } else {
-                        LOGGER.debug("No extraData received");
-                    }
-
-                    keyPairing = pairing.getOrCreateKeyPairing(dbDataFactory, dbDataAccessor, keyPair, dataToSave);
-                    if (pairingName != null) {
-                        keyPairing.setName(pairingName);
-                    }
-                    keyPairing.save();
-
-                    if (proveResult) {
-                        session = Session.newInstanceActive(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            prover.getSharedKey(),
-                            keyPairing,
-                            null);
-
-                    } else {
-                        session = Session.newInstanceClosed(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            keyPairing,
-                            null);
-                    }
-
-                    // TO be removed - no need to persist sessions
-                    if (session.getStatus() != Session.Status.ERROR) {
-                        // If the session is ok, then save it.
-                        LOGGER.debug("Persisting session");
-                        session.save();
-                    }
-
-                    // Carry out the authentication and get the Session instance result:
-                    final SafeSession safeSession = new SafeSession(session);
-                    LOGGER.debug("Current name {}", session.getPairing().getName());
-                    if (session.getStatus() == Session.Status.ACTIVE) {
-                        // Start continuous authentication
-                        final Intent intent = new Intent(this, PicoServiceImpl.class);
-                        final Uri url = SafeService.URIToUri(channel.getUrl().toURI());
-                        intent.putExtra(PicoServiceImpl.PROXY_CHANNEL, url);
-
-                        intent.putExtra(
-                            PicoServiceImpl.StartCommandType.class.getCanonicalName(),
-                            PicoServiceImpl.StartCommandType.START.ordinal());
-                        intent.putExtra(SafeSession.class.getCanonicalName(), safeSession);
-                        startService(intent);
-                    }
-
-                    localIntent.putExtra(SESSION, safeSession);
-                    SafeKeyPairing newSafeKeyPairing = new SafeKeyPairing(keyPairing);
-                    localIntent.putExtra(PAIRING, newSafeKeyPairing);
-
-
-                } else if (address.getScheme().equals("btspp")) {
-                    String serviceAddr = service.getAddress().toString();
-                    // Format is btspp://DDDDDDDDDDDD:PP
-                    // where DDDDDDDDDDDD is a 6-byte hex device id
-                    // and PP is a 1-byte hex channel number
-                    String hwAddressStr = serviceAddr.substring(8, 8 + 12).toUpperCase();
-                    //insert colon between each pair of characters
-                    String hwAddress = hwAddressStr.replaceAll("..(?!$)", "$0:");
-
-                    //create bluetooth socket connecting to specific BT hardware address
-                    BluetoothManager bMgr = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
-                    BluetoothAdapter bAdapter = bMgr.getAdapter();
-                    BluetoothDevice bDevice = bAdapter.getRemoteDevice(hwAddress);
-                    final int channel;
-                    final BluetoothSocket bSocket;
-
-                    if (serviceAddr.length() == 23) {
-                        // Contains port
-                        channel = Integer.parseInt(serviceAddr.substring(serviceAddr.length() - 2), 16);
-                        Method m = bDevice.getClass().getMethod("createRfcommSocket", new Class[]{int.class});
-                        bSocket = (BluetoothSocket) m.invoke(bDevice, channel);
-                    } else {
-                        channel = 0;
-                        bSocket = bDevice.createRfcommSocketToServiceRecord(AUTHENTICATION_SERVICE_UUID);
-                    }
-
-                    LOGGER.info("BT device address: " + hwAddress);
-                    LOGGER.info("BT channel: " + channel);
-
-                    bSocket.connect();
-                    LOGGER.info("Bluetooth socket is connected");
-
-                    final SigmaProxy proxy = new SigmaProxy(
-                        bSocket, new JsonMessageSerializer());
-
-                    //set the extra data to be null unless some was received
-                    // Bluetooth address does not need to be sent here
-                    byte[] extraData = null;
-                    if (receivedIntent.hasExtra(AuthenticateIntentService.EXTRA_DATA)) {
-                        extraData = receivedIntent.getByteArrayExtra(AuthenticateIntentService.EXTRA_DATA);
-                    }
-                    if (keyPairing != null) {
-                        LOGGER.info("Sending extra data: {}", keyPairing.getExtraData());
-                        extraData = keyPairing.getExtraData().getBytes();
-                    }
-                    final NewSigmaProver prover = new NewSigmaProver(
-                        NewSigmaProver.VERSION_1_1,
-                        keyPair,
-                        extraData, //extra data here
-                        proxy,
-                        service.getCommitment(),
-                        progressCallback);
-
-                    // Authenticate to the Terminal
-                    LOGGER.debug("Authenticating to {} over Bluetooth Channel",
-                        service);
-
-                    final Session session;
-                    boolean proveResult = prover.prove();
-                    extraData = prover.getReceivedExtraData();
-                    String dataToSave = null;
-                    String pairingName = null;
-                    if (extraData != null && extraData.length > 0) {
-                        String extraDataStr = new String(extraData);
-                        LOGGER.debug("Received extraData = {}", extraDataStr);
-                        try {
-                            // New format, decode the JSON string
-                            JSONObject obj = new JSONObject(new String(extraData));
-                            dataToSave = obj.getString("data");
-                            pairingName = obj.getString("name");
-                        } catch (JSONException e) {
-                            // Old format, the service is expecting us to just store the data
-                            dataToSave = extraDataStr;
-                        }
-                    } else {
-                        LOGGER.debug("No extraData received");
-                    }
-
-                    keyPairing = pairing.getOrCreateKeyPairing(dbDataFactory, dbDataAccessor, keyPair, dataToSave);
-                    if (pairingName != null) {
-                        keyPairing.setName(pairingName);
-                    }
-                    keyPairing.save();
-
-                    if (proveResult) {
-                        session = Session.newInstanceActive(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            prover.getSharedKey(),
-                            keyPairing,
-                            null);
-
-                    } else {
-                        session = Session.newInstanceClosed(
-                            dbDataFactory,
-                            Integer.toString(prover.getVerifierSessionId()),
-                            keyPairing,
-                            null);
-                    }
-
-                    if (session.getStatus() != Session.Status.ERROR) {
-                        // If the session is ok, then save it.
-                        LOGGER.debug("Persisting session");
-                        session.save();
-                    }
-
-                    LOGGER.info("Closing bluetooth socket");
-                    bSocket.close();
+            LOGGER.info("service.getAddress():" + service.getAddress());
+            start = LatencyTracer.now();
+            transport = TransportRacer.getInstance().connect(getTransportCandidates(pairing, service));
+            tracer.record(authId, LatencyTracer.STAGE_TRANSPORT_CONNECT, start, LatencyTracer.now());
+
+            byte[] extraData;
+            if (transport.isBluetooth()) {
+                //set the extra data to be null unless some was received
+                // Bluetooth address does not need to be sent here
+                extraData = null;
+                if (receivedIntent.hasExtra(AuthenticateIntentService.EXTRA_DATA)) {
+                    extraData = receivedIntent.getByteArrayExtra(AuthenticateIntentService.EXTRA_DATA);
+                }
+            } else {
+                extraData = bluetoothExtra;
+            }
+            if (keyPairing != null) {
+                LOGGER.info("Sending extra data: {}", keyPairing.getExtraData());
+                extraData = keyPairing.getExtraData().getBytes();
+            }
+            final NewSigmaProver prover = new NewSigmaProver(
+                NewSigmaProver.VERSION_1_1,
+                keyPair,
+                extraData, //extra data here
+                transport.getProxy(),
+                service.getCommitment(),
+                progressCallback);
+
+            // Authenticate to the service
+            LOGGER.debug("Authenticating to {} over {}", service, transport);
+
+            final Session session;
+            boolean proveResult = prover.prove();
+            extraData = prover.getReceivedExtraData();
+            String dataToSave = null;
+            String pairingName = null;
+            if (extraData != null && extraData.length > 0) {
+                String extraDataStr = new String(extraData);
+                LOGGER.debug("Received extraData = {}", extraDataStr);
+                try {
+                    // New format, decode the JSON string
+                    JSONObject obj = new JSONObject(new String(extraData));
+                    dataToSave = obj.getString("data");
+                    pairingName = obj.getString("name");
+                } catch (JSONException e) {
+                    // Old format, the service is expecting us to just store the data
+                    dataToSave = extraDataStr;
+                }
+            } else {
+                LOGGER.debug("No extraData received");
+            }
 
-                    // Carry out the authentication and get the Session instance result:
-                    final SafeSession safeSession = new SafeSession(session);
-                    if (session.getStatus() == Session.Status.ACTIVE) {
-                        // Start continuous authentication
-                        final Intent intent = new Intent(this, PicoServiceImpl.class);
-                        intent.putExtra(PicoServiceImpl.PROXY_BT_ADDRESS, hwAddress);
-                        intent.putExtra(PicoServiceImpl.PROXY_BT_CHANNEL, channel);
-
-                        intent.putExtra(
-                            PicoServiceImpl.StartCommandType.class.getCanonicalName(),
-                            PicoServiceImpl.StartCommandType.START.ordinal());
-                        intent.putExtra(SafeSession.class.getCanonicalName(), safeSession);
-                        startService(intent);
-                    }
+            start = LatencyTracer.now();
+            keyPairing = pairing.getOrCreateKeyPairing(dbDataFactory, dbDataAccessor, keyPair, dataToSave);
+            if (pairingName != null) {
+                keyPairing.setName(pairingName);
+            }
+            keyPairing.save();
+            PairingsProvider.notifyChange(this);
+
+            if (proveResult) {
+                session = Session.newInstanceActive(
+                    dbDataFactory,
+                    Integer.toString(prover.getVerifierSessionId()),
+                    prover.getSharedKey(),
+                    keyPairing,
+                    null);
+            } else {
+                session = Session.newInstanceClosed(
+                    dbDataFactory,
+                    Integer.toString(prover.getVerifierSessionId()),
+                    keyPairing,
+                    null);
+            }
 
-                    localIntent.putExtra(SESSION, safeSession);
-                    localIntent.putExtra(PAIRING, new SafeKeyPairing(keyPairing));
-                } else {
-                    throw new IllegalArgumentException(
-                        "unsupported service protocol: " + address.getScheme());
+            // TO be removed - no need to persist sessions
+            if (session.getStatus() != Session.Status.ERROR) {
+                // If the session is ok, then save it.
+                LOGGER.debug("Persisting session");
+                session.save();
+            }
+            tracer.record(authId, LatencyTracer.STAGE_SESSION_PERSIST, start, LatencyTracer.now());
+
+            // Release the link before continuous authentication opens its own
+            transport.close();
+
+            // Carry out the authentication and get the Session instance result:
+            final SafeSession safeSession = new SafeSession(session);
+            if (session.getStatus() == Session.Status.ACTIVE) {
+                // Start continuous authentication, if the transport supports it
+                final Intent intent = new Intent(this, PicoServiceImpl.class);
+                if (transport.putContinuousExtras(intent)) {
+                    intent.putExtra(
+                        PicoServiceImpl.StartCommandType.class.getCanonicalName(),
+                        PicoServiceImpl.StartCommandType.START.ordinal());
+                    intent.putExtra(SafeSession.class.getCanonicalName(), safeSession);
+                    startService(intent);
                 }
-            } else {
-                LOGGER.error("KeyPairing is invalid");
-                throw new PairingNotFoundException("KeyPairing is invalid");
             }
+
+            localIntent.putExtra(SESSION, safeSession);
+            localIntent.putExtra(PAIRING, new SafeKeyPairing(keyPairing));
         } catch (Exception e) {
             e.printStackTrace();
             final Bundle extras = new Bundle();
@@ -609,10 +405,59 @@ public class AuthenticateIntentService extends IntentService {
             extras.putInt(ACTIVITY_ID, receivedId);
             localIntent.putExtras(extras);
         } finally {
+            if (transport != null) {
+                transport.close();
+            }
+            localIntent.putExtra(LatencyTracer.EXTRA_AUTH_ID, authId);
             LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
         }
     }
 
+    /**
+     * Get the transports over which a service can be reached. The address given in the visual
+     * code is preferred. The address stored with an existing pairing is offered as an
+     * alternative only if it differs and is a stable Bluetooth address; a stored rendezvous
+     * channel is single use, and a dead one that still accepts connections could win the race
+     * and fail the login. Connections warmed up by the {@link TransportWarmer} when the
+     * code was scanned are used where available.
+     *
+     * @param pairing The pairing being authenticated.
+     * @param service The service to authenticate to.
+     * @return The candidate transports, in order of preference.
+     */
+    private List<Transport> getTransportCandidates(final SafeKeyPairing pairing,
+                                                   final SafeService service) {
+        final List<Transport> candidates = new ArrayList<Transport>();
+        candidates.add(getTransport(service.getAddress()));
+
+        final SafeService pairedService = pairing.getSafeService();
+        if (pairedService != null) {
+            final Uri pairedAddress = pairedService.getAddress();
+            if (pairedAddress != null && Transport.isReusableAddress(pairedAddress)
+                && !pairedAddress.equals(service.getAddress())) {
+                try {
+                    candidates.add(getTransport(pairedAddress));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Ignoring paired service address {}", pairedAddress, e);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Get the transport for a service address, preferring a connection that has already been
+     * warmed up.
+     *
+     * @param address The service address.
+     * @return The transport.
+     * @throws IllegalArgumentException if the scheme of the address isn't supported.
+     */
+    private Transport getTransport(final Uri address) {
+        final Transport warm = TransportWarmer.getInstance().claim(address);
+        return (warm != null) ? warm : Transport.forAddress(this, address);
+    }
+
     private void authenticatePairing(final SafeLensPairing pairing, final SafeService service,
                                      final String loginForm, final String cookieString, final Uri terminalAddress, final byte[] terminalSharedKey) {
         // Return the result as a broadcast
@@ -38,7 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.mypico.android.R;
-import org.mypico.android.data.SafePairing;
+import org.mypico.android.data.PairingSummary;
 
 /**
  * Show the dialogue for deleting a pairing.
@@ -57,7 +57,7 @@ public final class DeletePairingDialog extends DialogFragment {
     private Optional<DeletePairingListener> listener = Optional.absent();
 
     public static interface DeletePairingListener {
-        public void onDeleteOk(final ArrayList<SafePairing> pairings);
+        public void onDeleteOk(final ArrayList<PairingSummary> pairings);
 
         public void onDeleteCancel();
     }
@@ -75,7 +75,7 @@ public final class DeletePairingDialog extends DialogFragment {
      * @param targetFragment The fragment to associate the dialogue with.
      * @return The generated <code>DeletePairingDialog</code> object.
      */
-    public static DeletePairingDialog getInstance(final ArrayList<SafePairing> pairings,
+    public static DeletePairingDialog getInstance(final ArrayList<PairingSummary> pairings,
                                                   final Fragment targetFragment) {
         final DeletePairingDialog dialog = new DeletePairingDialog();
 
@@ -93,7 +93,7 @@ public final class DeletePairingDialog extends DialogFragment {
         return dialog;
     }
 
-    public static DeletePairingDialog getInstance(final ArrayList<SafePairing> pairings) {
+    public static DeletePairingDialog getInstance(final ArrayList<PairingSummary> pairings) {
         return getInstance(pairings, null);
     }
 
@@ -119,7 +119,7 @@ public final class DeletePairingDialog extends DialogFragment {
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
 
-        final ArrayList<SafePairing> pairings = getArguments().getParcelableArrayList(PAIRINGS);
+        final ArrayList<PairingSummary> pairings = getArguments().getParcelableArrayList(PAIRINGS);
         final int count = pairings.size();
         final int title;
         final String message;
@@ -127,10 +127,10 @@ public final class DeletePairingDialog extends DialogFragment {
         // The title and message of the dialog depends on the number of items being
         // deleted
         if (count == 1) {
-            final SafePairing pairing = pairings.get(0);
+            final PairingSummary pairing = pairings.get(0);
             title = R.string.delete_pairing_dialog__title_1;
             message = getActivity().getString(R.string.delete_pairing_dialog__message_1,
-                pairing.getSafeService().getName(), pairing.getName());
+                pairing.getServiceName(), pairing.getName());
         } else {
             title = R.string.delete_pairing_dialog__title_multi;
             message = getActivity().getString(R.string.delete_pairing_dialog__message_multi,
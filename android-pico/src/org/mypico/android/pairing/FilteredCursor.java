@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.pairing;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * A view of some of the rows of a cursor, without copying or re-querying them.
+ * <p>
+ * Closing the view does not close the underlying cursor, which stays owned by whoever created it
+ * (usually a loader).
+ */
+final class FilteredCursor extends CursorWrapper {
+
+    private final int[] rows;
+    private int position = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param cursor The underlying cursor.
+     * @param rows   Positions in the underlying cursor of the rows to show, in the order to show
+     *               them.
+     */
+    FilteredCursor(final Cursor cursor, final int[] rows) {
+        super(cursor);
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.length;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean moveToPosition(final int newPosition) {
+        if (newPosition < 0) {
+            position = -1;
+            return false;
+        } else if (newPosition >= rows.length) {
+            position = rows.length;
+            return false;
+        }
+        position = newPosition;
+        return super.moveToPosition(rows[newPosition]);
+    }
+
+    @Override
+    public boolean move(final int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(rows.length - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return rows.length > 0 && position == 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return rows.length > 0 && position == rows.length - 1;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return rows.length == 0 || position == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return rows.length == 0 || position == rows.length;
+    }
+
+    @Override
+    public void close() {
+        // The underlying cursor belongs to its creator
+    }
+}
@@ -26,9 +26,6 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
@@ -38,6 +35,7 @@ import java.util.List;
 import org.mypico.android.data.SafeKeyPairing;
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,12 +93,11 @@ public class KeyPairingIntentService extends IntentService {
         super.onCreate();
         LOGGER.debug("onCreate");
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -122,6 +119,7 @@ public class KeyPairingIntentService extends IntentService {
                     final KeyPairing newPairing = pairing.getKeyPairing(
                         dbDataAccessor);
                     newPairing.save();
+                    PairingsProvider.notifyChange(this);
 
                     localIntent.putExtra(PERSIST_PAIRING_ACTION, true);
                     localIntent.putExtra(PAIRING, new SafeKeyPairing(newPairing));
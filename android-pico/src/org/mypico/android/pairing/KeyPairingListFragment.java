@@ -21,15 +21,17 @@
 
 package org.mypico.android.pairing;
 
-import java.util.List;
-
 import org.mypico.android.data.SafeKeyPairing;
+import org.mypico.android.data.SafePairing;
+import org.mypico.android.data.SafeService;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
-import android.view.View;
-import android.widget.ListView;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
 
 final public class KeyPairingListFragment extends PairingListFragment {
 
@@ -43,43 +45,14 @@ final public class KeyPairingListFragment extends PairingListFragment {
         public void onPairingClicked(SafeKeyPairing pairing);
     }
 
-    private class UpdateTask extends GetKeyPairingsTask {
-
-        public UpdateTask() {
-            super(picoService);
-        }
-
-        @Override
-        public void onPostExecute(final List<SafeKeyPairing> pairings) {
-            LOGGER.info(
-                "{} pairings retrieved from the database",
-                pairings.size());
-
-            // Notify parent activity of the pairings returned if any. The
-            // different callbacks allow the activity to take different
-            // actions in each case.
-            final int count = pairings.size();
-            if (count == 0) {
-                listener.onNoPairings();
-            } else if (count == 1) {
-                listener.onSinglePairing(pairings.get(0));
-            } else if (count > 1) {
-                listener.onMultiplePairings(count);
-
-                // Update list adapter
-                adapter.clear();
-                adapter.addAll(pairings);
-                adapter.notifyDataSetChanged();
-            } else {
-                LOGGER.error("Cannot have {} pairings", count);
-            }
-        }
-    }
-
     private static final Logger LOGGER = LoggerFactory.getLogger(
         KeyPairingListFragment.class.getSimpleName());
 
+    private static final String SINGLE_REQUESTED = "SINGLE_REQUESTED";
+
     private Listener listener;
+    // The only pairing is chosen automatically once, not again each time the list reloads
+    private boolean singleRequested = false;
 
     @Override
     public void onAttach(final Activity activity) {
@@ -88,19 +61,56 @@ final public class KeyPairingListFragment extends PairingListFragment {
     }
 
     @Override
-    protected void updatePairingList() {
-        // Update the list of pairings (happens asynchronously)
-        LOGGER.debug("Updating pairings list...");
-        new UpdateTask().execute(serviceInfo);
+    public void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (savedInstanceState != null) {
+            singleRequested = savedInstanceState.getBoolean(SINGLE_REQUESTED);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(final Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(SINGLE_REQUESTED, singleRequested);
+    }
+
+    @Override
+    protected Uri getPairingsUri(final SafeService service) {
+        return PairingsProvider.keyPairingsUri(service.getCommitment());
     }
 
     @Override
-    public void onListItemClick(
-        final ListView l,
-        final View v,
-        final int position,
-        final long id) {
-        final SafeKeyPairing pairing = (SafeKeyPairing) adapter.getItem(position);
-        listener.onPairingClicked(pairing);
+    protected void onPairingsLoaded(final Cursor cursor) {
+        LOGGER.info(
+            "{} pairings retrieved from the database",
+            cursor.getCount());
+
+        // Notify parent activity of the pairings returned if any. The
+        // different callbacks allow the activity to take different
+        // actions in each case.
+        final int count = cursor.getCount();
+        if (count == 0) {
+            listener.onNoPairings();
+        } else if (count == 1) {
+            if (!singleRequested) {
+                // The activity needs the full pairing
+                singleRequested = true;
+                cursor.moveToFirst();
+                loadPairing(PairingsProvider.getSummary(cursor).getId(), true);
+            }
+        } else {
+            listener.onMultiplePairings(count);
+        }
+    }
+
+    @Override
+    protected void onPairingLoaded(final SafePairing pairing, final boolean single) {
+        if (!(pairing instanceof SafeKeyPairing)) {
+            LOGGER.warn("{} is not a key pairing", pairing);
+        } else if (single) {
+            listener.onSinglePairing((SafeKeyPairing) pairing);
+        } else {
+            listener.onPairingClicked((SafeKeyPairing) pairing);
+        }
     }
 }
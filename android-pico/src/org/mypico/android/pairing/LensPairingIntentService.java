@@ -31,9 +31,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
@@ -50,6 +47,7 @@ import org.mypico.android.data.SafeLensPairing;
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -113,12 +111,11 @@ public class LensPairingIntentService extends IntentService {
     public void onCreate() {
         super.onCreate();
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -275,6 +272,7 @@ public class LensPairingIntentService extends IntentService {
                     final LensPairing newPairing = pairing.createLensPairing(
                         dbDataFactory, dbDataAccessor, credentials.getCredentials(), privateFields);
                     newPairing.save();
+                    PairingsProvider.notifyChange(this);
 
                     localIntent.putExtra(PERSIST_PAIRING_ACTION, true);
                     localIntent.putExtra(PAIRING, new SafeLensPairing(newPairing));
@@ -21,27 +21,24 @@
 
 package org.mypico.android.pairing;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.mypico.android.R;
 
 import android.app.Activity;
-import android.app.ListFragment;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 /**
@@ -51,31 +48,25 @@ import android.widget.TextView;
  * @author David Llewellyn-Jones <dl551@cam.ac.uk>
  * @author Graeme Jenkinson <gcj21@cam.ac.uk>
  */
-final public class LensPairingListFragment extends ListFragment {
+final public class LensPairingListFragment extends PairingListFragment {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(
         LensPairingListFragment.class.getSimpleName());
-    private static final String PAIRINGS = "PAIRINGS";
-    private static final String SERVICE = "SERVICE";
 
     private Listener listener;
-    private ArrayAdapter<SafePairing> adapter;
     private View fragmentView;
 
     /**
      * Factory for creating a new {@link LensPairingListFragment}.
      *
-     * @param pairings The pairing to show.
-     * @param service  The service associated with the pairing.
+     * @param service The service whose pairings are shown.
      * @return The generated {@ilnk LensPairingListFragment}.
      */
-    static LensPairingListFragment newInstance(final ArrayList<? extends SafePairing> pairings,
-                                               final SafeService service) {
+    static LensPairingListFragment newInstance(final SafeService service) {
         final LensPairingListFragment frag = new LensPairingListFragment();
 
         // Supply index input as an argument.
         final Bundle args = new Bundle();
-        args.putParcelableArrayList(PAIRINGS, pairings);
         args.putParcelable(SERVICE, service);
         frag.setArguments(args);
         return frag;
@@ -142,19 +133,6 @@ final public class LensPairingListFragment extends ListFragment {
         }
     }
 
-    /**
-     * Update the list of pairings to be shown in the UI.
-     *
-     * @param pairings The pairings to be shown.
-     */
-    private void updatePairingList(final List<SafePairing> pairings) {
-        LOGGER.debug("Found pairings {}", pairings);
-
-        adapter.clear();
-        adapter.addAll(pairings);
-        adapter.notifyDataSetChanged();
-    }
-
     @Override
     public void onAttach(final Activity activity) {
         super.onAttach(activity);
@@ -166,37 +144,31 @@ final public class LensPairingListFragment extends ListFragment {
         final LayoutInflater inflater,
         final ViewGroup container,
         final Bundle savedInstanceState) {
-        adapter = new ArrayAdapter<SafePairing>(
-            inflater.getContext(),
-            android.R.layout.simple_list_item_1
-        );
-        adapter = new PairingsAdapter(inflater.getContext(), R.layout.row_pairing);
-        setListAdapter(adapter);
+        // Creates the adapter
+        super.onCreateView(inflater, container, savedInstanceState);
 
         fragmentView = inflater.inflate(R.layout.fragment_lens_pairing_list, container, false);
         return fragmentView;
     }
 
     @Override
-    public void onListItemClick(
-        final ListView l,
-        final View v,
-        final int position,
-        final long id) {
-        final SafePairing pairing =
-            (SafePairing) adapter.getItem(position);
+    protected Uri getPairingsUri(final SafeService service) {
+        return PairingsProvider.lensPairingsUri(service.getCommitment());
+    }
+
+    @Override
+    protected void onPairingsLoaded(final Cursor cursor) {
+        LOGGER.debug("Found {} pairings", cursor.getCount());
+    }
+
+    @Override
+    protected void onPairingLoaded(final SafePairing pairing, final boolean single) {
         listener.onPairingClicked(pairing);
     }
 
+    @Override
     public void onResume() {
         super.onResume();
-
-        final List<SafePairing> pairings =
-            getArguments().getParcelableArrayList(PAIRINGS);
-        updatePairingList(pairings);
-
-        final SafeService service =
-            getArguments().getParcelable(SERVICE);
-        updateView(service);
+        updateView(serviceInfo);
     }
-}
\ No newline at end of file
+}
@@ -29,6 +29,7 @@ import java.util.Arrays;
 import org.mypico.android.data.SafeKeyPairing;
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.backup.BackupFactory;
+import org.mypico.android.backup.BackupScheduler;
 import org.mypico.android.data.SafeSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -201,8 +202,10 @@ final public class NewKeyPairingActivity extends NewPairingActivity
         checkNotNull(backupProvider);
 
         LOGGER.debug("Configuring backup successful");
-        // Perform the backup
-        backupProvider.backup();
+        // Perform the backup, unless the BackupScheduler makes it in the background
+        if (!BackupScheduler.isAutomatic()) {
+            backupProvider.backup();
+        }
         setResult(RESULT_OK);
         finish();
     }
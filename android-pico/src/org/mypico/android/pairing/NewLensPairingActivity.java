@@ -46,6 +46,7 @@ import java.util.Set;
 import java.util.ArrayList;
 
 import org.mypico.android.backup.BackupFactory;
+import org.mypico.android.backup.BackupScheduler;
 import org.mypico.android.backup.OnConfigureBackupListener;
 import org.mypico.android.core.VisualCodeIntentGenerator;
 import org.mypico.android.data.ParcelableCredentials;
@@ -328,8 +329,10 @@ final public class NewLensPairingActivity extends NewPairingActivity
         checkNotNull(backupProvider);
 
         LOGGER.debug("Configuring backup successful");
-        // Perform the backup
-        backupProvider.backup();
+        // Perform the backup, unless the BackupScheduler makes it in the background
+        if (!BackupScheduler.isAutomatic()) {
+            backupProvider.backup();
+        }
         finish();
     }
 
@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.pairing;
+
+import org.mypico.android.R;
+import org.mypico.android.db.PairingsProvider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.TextView;
+
+/**
+ * Shows the pairings from a {@link PairingsProvider} cursor in the UI.
+ */
+public class PairingCursorAdapter extends CursorAdapter {
+
+    private static class ViewHolder {
+        TextView name;
+    }
+
+    public PairingCursorAdapter(final Context context) {
+        // The cursor is supplied later by a loader, which also handles content changes
+        super(context, null, 0);
+    }
+
+    @Override
+    public View newView(final Context context, final Cursor cursor, final ViewGroup parent) {
+        // Inflate the layout and store its views in a holder
+        final View view = LayoutInflater.from(context).inflate(R.layout.row_pairing, parent, false);
+        final ViewHolder holder = new ViewHolder();
+        holder.name = (TextView) view.findViewById(R.id.row_pairing__name);
+        view.setTag(holder);
+        return view;
+    }
+
+    @Override
+    public void bindView(final View view, final Context context, final Cursor cursor) {
+        final ViewHolder holder = (ViewHolder) view.getTag();
+        holder.name.setText(PairingsProvider.getSummary(cursor).getDisplayName());
+    }
+}
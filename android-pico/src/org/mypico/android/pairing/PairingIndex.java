@@ -0,0 +1,171 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.pairing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.mypico.android.data.PairingSummary;
+import org.mypico.android.db.PairingsProvider;
+
+import android.database.Cursor;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+/**
+ * In-memory prefix index over the pairings shown by a {@link PairingsProvider} cursor.
+ * <p>
+ * Each pairing is indexed under every word of its display name, that is of its service name and
+ * of its own name, and under the whole display name. The terms are kept in a sorted map, so the
+ * pairings matching a prefix are one sub-map away. {@link #update(Cursor)} is given each new
+ * cursor and only re-indexes the pairings that were added, renamed or removed. Lookups never
+ * touch the database.
+ * <p>
+ * Not thread-safe; it is meant to be used from the UI thread.
+ */
+final class PairingIndex {
+
+    // Separates the term from the pairing id in the index keys, sorting before any other character
+    private static final char SEPARATOR = '\u0000';
+
+    private final SortedMap<String, Integer> terms = new TreeMap<String, Integer>();
+    private SparseArray<PairingSummary> pairings = new SparseArray<PairingSummary>();
+    private SparseIntArray positions = new SparseIntArray();
+
+    /**
+     * Bring the index up to date with a cursor.
+     *
+     * @param cursor Pairings from {@link PairingsProvider}. Its position is restored afterwards.
+     */
+    void update(final Cursor cursor) {
+        final SparseArray<PairingSummary> current = new SparseArray<PairingSummary>();
+        final SparseIntArray currentPositions = new SparseIntArray();
+        final int restore = cursor.getPosition();
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final PairingSummary pairing = PairingsProvider.getSummary(cursor);
+            final PairingSummary previous = pairings.get(pairing.getId());
+            if (previous == null) {
+                add(pairing);
+            } else if (!previous.getDisplayName().equals(pairing.getDisplayName())) {
+                remove(previous);
+                add(pairing);
+            }
+            current.put(pairing.getId(), pairing);
+            currentPositions.put(pairing.getId(), cursor.getPosition());
+        }
+        cursor.moveToPosition(restore);
+
+        for (int i = 0; i < pairings.size(); i++) {
+            if (current.get(pairings.keyAt(i)) == null) {
+                remove(pairings.valueAt(i));
+            }
+        }
+        pairings = current;
+        positions = currentPositions;
+    }
+
+    /**
+     * Find the pairings matching a query. A pairing matches if each word of the query is a prefix
+     * of one of its words, or if the whole query is a prefix of its display name.
+     *
+     * @param query The query, case is ignored.
+     * @return Positions in the last cursor given to {@link #update(Cursor)} of the matching
+     * pairings, in ascending order.
+     */
+    int[] find(final String query) {
+        final String normalised = normalise(query);
+        Set<Integer> matches = null;
+        for (String word : words(normalised)) {
+            final Set<Integer> found = lookup(word);
+            if (matches == null) {
+                matches = found;
+            } else {
+                matches.retainAll(found);
+            }
+        }
+        if (matches == null) {
+            matches = new HashSet<Integer>();
+        }
+        matches.addAll(lookup(normalised));
+
+        final int[] result = new int[matches.size()];
+        int i = 0;
+        for (Integer id : matches) {
+            result[i++] = positions.get(id);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private Set<Integer> lookup(final String prefix) {
+        final Set<Integer> found = new HashSet<Integer>();
+        if (!prefix.isEmpty()) {
+            // Every key starting with the prefix sorts below the prefix followed by U+FFFF
+            found.addAll(terms.subMap(prefix, prefix + Character.MAX_VALUE).values());
+        }
+        return found;
+    }
+
+    private void add(final PairingSummary pairing) {
+        for (String term : terms(pairing)) {
+            terms.put(term + SEPARATOR + pairing.getId(), pairing.getId());
+        }
+    }
+
+    private void remove(final PairingSummary pairing) {
+        for (String term : terms(pairing)) {
+            terms.remove(term + SEPARATOR + pairing.getId());
+        }
+    }
+
+    private static Set<String> terms(final PairingSummary pairing) {
+        final String displayName = normalise(pairing.getDisplayName());
+        final Set<String> result = new HashSet<String>(words(displayName));
+        if (!displayName.isEmpty()) {
+            result.add(displayName);
+        }
+        return result;
+    }
+
+    private static String normalise(final String text) {
+        return (text == null) ? "" : text.trim().toLowerCase(Locale.getDefault());
+    }
+
+    private static List<String> words(final String text) {
+        final List<String> result = new ArrayList<String>();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+}
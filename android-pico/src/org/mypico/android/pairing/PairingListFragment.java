@@ -21,58 +21,189 @@
 
 package org.mypico.android.pairing;
 
-import org.mypico.android.core.PicoService;
-import org.mypico.android.core.PicoServiceImpl;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.mypico.android.data.SafeKeyPairing;
+import org.mypico.android.data.SafeLensPairing;
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
+import org.mypico.android.db.DbHelper;
+import org.mypico.jpico.data.pairing.KeyPairing;
+import org.mypico.jpico.data.pairing.LensPairing;
+import org.mypico.jpico.db.DbDataAccessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.ListFragment;
-import android.content.ComponentName;
+import android.app.LoaderManager;
+import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.ServiceConnection;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
-import android.os.IBinder;
+import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.CursorAdapter;
 import android.widget.ListView;
 
 /**
  * Abstract base class for PairingListFragments, a concrete subclass such as
  * {@link KeyPairingListFragment} or {@link LensPairingListFragment} must be used.
+ * <p>
+ * The pairings are loaded from {@link org.mypico.android.db.PairingsProvider} and the list
+ * reloads itself whenever they change. Only the fields shown in the list are loaded; the full
+ * pairing is loaded by id when one is chosen, see {@link #loadPairing(long, boolean)}. Both are
+ * loaded by this fragment's loaders, so a result that arrives while the fragment is stopped or
+ * being recreated is delivered once it is started again.
  *
  * @author Claudio Dettoni <cd611@cam.ac.uk>
  * @author Graeme Jenkinson <gcj21@cam.ac.uk>
  */
 public abstract class PairingListFragment
-    extends ListFragment implements ServiceConnection {
+    extends ListFragment implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private final static Logger LOGGER =
         LoggerFactory.getLogger(PairingListFragment.class.getSimpleName());
+    protected static final String SERVICE = "SERVICE";
+
+    private static final int PAIRINGS_LOADER = 0;
+    private static final int PAIRING_LOADER = 1;
+    private static final String PAIRING_ID = "PAIRING_ID";
+    private static final String SINGLE = "SINGLE";
 
-    protected ArrayAdapter<SafePairing> adapter;
+    protected CursorAdapter adapter;
     protected SafeService serviceInfo;
 
-    protected PicoService picoService;
-    private boolean bound = false;
+    private final Handler handler = new Handler();
+    private final PairingCallbacks pairingCallbacks = new PairingCallbacks();
+
+    /**
+     * Loads one full pairing by id, for {@link #loadPairing(long, boolean)}.
+     */
+    private static final class PairingLoader extends AsyncTaskLoader<SafePairing> {
+
+        private final int pairingId;
+        private final boolean single;
+        private SafePairing pairing;
+        private boolean loaded = false;
+
+        PairingLoader(final Context context, final int pairingId, final boolean single) {
+            super(context);
+            this.pairingId = pairingId;
+            this.single = single;
+        }
+
+        @Override
+        public SafePairing loadInBackground() {
+            try {
+                final DbDataAccessor accessor =
+                    DbHelper.getInstance(getContext()).getDataAccessor();
+                final LensPairing lp = accessor.getLensPairingById(pairingId);
+                if (lp != null) {
+                    return new SafeLensPairing(lp);
+                }
+                final KeyPairing kp = accessor.getKeyPairingById(pairingId);
+                return (kp != null) ? new SafeKeyPairing(kp) : null;
+            } catch (SQLException e) {
+                LOGGER.error("Failed to connect to database", e);
+            } catch (IOException e) {
+                LOGGER.error("Failed to read pairing " + pairingId, e);
+            }
+            return null;
+        }
+
+        @Override
+        public void deliverResult(final SafePairing data) {
+            pairing = data;
+            loaded = true;
+            if (isStarted()) {
+                super.deliverResult(data);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (loaded) {
+                deliverResult(pairing);
+            } else {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            onStopLoading();
+            pairing = null;
+            loaded = false;
+        }
+    }
+
+    /**
+     * Hands a loaded pairing to {@link #onPairingLoaded(SafePairing, boolean)}, once.
+     */
+    private final class PairingCallbacks implements LoaderManager.LoaderCallbacks<SafePairing> {
+
+        @Override
+        public Loader<SafePairing> onCreateLoader(final int id, final Bundle args) {
+            return new PairingLoader(
+                getActivity(), args.getInt(PAIRING_ID), args.getBoolean(SINGLE));
+        }
+
+        @Override
+        public void onLoadFinished(final Loader<SafePairing> loader, final SafePairing pairing) {
+            // Loaders cannot be destroyed, nor the activity change fragments, from here
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // If this fragment has been replaced, its successor gets the result
+                    if (!isAdded() || getLoaderManager().getLoader(PAIRING_LOADER) != loader) {
+                        return;
+                    }
+                    getLoaderManager().destroyLoader(PAIRING_LOADER);
+                    if (pairing != null) {
+                        onPairingLoaded(pairing, ((PairingLoader) loader).single);
+                    } else {
+                        LOGGER.warn("Pairing not found or not read");
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onLoaderReset(final Loader<SafePairing> loader) {
+            // nothing held
+        }
+    }
 
     @Override
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        // Get service info from parent activity's intent
-        final Intent intent = getActivity().getIntent();
-        serviceInfo = (SafeService) intent.getParcelableExtra(
-            SafeService.class.getCanonicalName());
+        // Get service info from the arguments, or else the parent activity's intent
+        final Bundle args = getArguments();
+        if (args != null && args.containsKey(SERVICE)) {
+            serviceInfo = args.getParcelable(SERVICE);
+        } else {
+            final Intent intent = getActivity().getIntent();
+            serviceInfo = (SafeService) intent.getParcelableExtra(
+                SafeService.class.getCanonicalName());
+        }
 
         if (serviceInfo != null) {
-            LOGGER.debug("Got service info from activity's intent");
+            LOGGER.debug("Got service info");
         } else {
-            LOGGER.warn("Failed to get service info from activity's intent");
+            LOGGER.warn("Failed to get service info");
         }
 
         LOGGER.debug("Fragment created");
@@ -83,64 +214,91 @@ public abstract class PairingListFragment
         final LayoutInflater inflater,
         final ViewGroup container,
         final Bundle savedInstanceState) {
-        adapter = new ArrayAdapter<SafePairing>(
-            inflater.getContext(),
-            android.R.layout.simple_list_item_1
-        );
+        adapter = new PairingCursorAdapter(inflater.getContext());
         setListAdapter(adapter);
         return super.onCreateView(inflater, container, savedInstanceState);
     }
 
     @Override
-    public void onStart() {
-        super.onStart();
-        // Bind to the Pico service
-        final Intent intent =
-            new Intent(getActivity(), PicoServiceImpl.class);
-        getActivity().bindService(intent, this, Context.BIND_AUTO_CREATE);
+    public void onActivityCreated(final Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        if (serviceInfo != null) {
+            getLoaderManager().initLoader(PAIRINGS_LOADER, null, this);
+        }
+        // Pick up a pairing requested before the fragment was recreated
+        if (getLoaderManager().getLoader(PAIRING_LOADER) != null) {
+            getLoaderManager().initLoader(PAIRING_LOADER, null, pairingCallbacks);
+        }
     }
 
-    public void onResume() {
-        super.onResume();
+    /**
+     * Get the URI of the pairings to list.
+     *
+     * @param service The service whose pairings are listed.
+     * @return The URI, one of the {@link org.mypico.android.db.PairingsProvider} URIs.
+     */
+    protected abstract Uri getPairingsUri(SafeService service);
 
-        // If the pico service is bound, then update the pairing list.
-        if (bound) {
-            updatePairingList();
-        }
-    }
+    /**
+     * Called when the pairings have been loaded, and again whenever they change.
+     *
+     * @param cursor The pairings, positioned before the first row.
+     */
+    protected abstract void onPairingsLoaded(Cursor cursor);
 
-    protected abstract void updatePairingList();
+    /**
+     * Called when a pairing requested by {@link #loadPairing(long, boolean)} has been loaded.
+     *
+     * @param pairing The full pairing.
+     * @param single  The value passed to {@link #loadPairing(long, boolean)}.
+     */
+    protected abstract void onPairingLoaded(SafePairing pairing, boolean single);
 
-    @Override
-    public void onStop() {
-        super.onStop();
-        // Unbind from the Pico service
-        if (bound) {
-            getActivity().unbindService(this);
-            bound = false;
-        }
+    /**
+     * Load the full pairing, which is delivered once to
+     * {@link #onPairingLoaded(SafePairing, boolean)}. A new request replaces one still loading.
+     *
+     * @param id     Id of the pairing.
+     * @param single <code>true</code> if the pairing is loaded because it is the only one listed,
+     *               <code>false</code> if it was chosen from the list.
+     */
+    protected void loadPairing(final long id, final boolean single) {
+        final Bundle args = new Bundle();
+        args.putInt(PAIRING_ID, (int) id);
+        args.putBoolean(SINGLE, single);
+        getLoaderManager().restartLoader(PAIRING_LOADER, args, pairingCallbacks);
     }
 
     @Override
-    public abstract void onListItemClick(
+    public void onListItemClick(
         final ListView l,
         final View v,
         final int position,
-        final long id);
+        final long id) {
+        loadPairing(id, false);
+    }
 
-    // implements ServiceConnection
+    // implements LoaderManager.LoaderCallbacks<Cursor>
 
     @Override
-    public void onServiceConnected(
-        final ComponentName name, final IBinder binder) {
-        picoService = ((PicoServiceImpl.PicoServiceBinder) binder).getService();
-        bound = true;
+    public Loader<Cursor> onCreateLoader(final int id, final Bundle args) {
+        LOGGER.debug("Updating pairings list...");
+        return new CursorLoader(getActivity(), getPairingsUri(serviceInfo),
+            null, null, null, null);
+    }
 
-        updatePairingList();
+    @Override
+    public void onLoadFinished(final Loader<Cursor> loader, final Cursor cursor) {
+        adapter.swapCursor(cursor);
+        if (cursor != null) {
+            onPairingsLoaded(cursor);
+        } else {
+            LOGGER.error("Failed to query pairings");
+        }
     }
 
     @Override
-    public void onServiceDisconnected(final ComponentName name) {
-        bound = false;
+    public void onLoaderReset(final Loader<Cursor> loader) {
+        adapter.swapCursor(null);
     }
 }
@@ -26,9 +26,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.support.v4.content.LocalBroadcastManager;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.SparseBooleanArray;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -37,7 +43,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.CursorAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 import android.widget.AbsListView.MultiChoiceModeListener;
@@ -45,9 +52,10 @@ import android.widget.AbsListView.MultiChoiceModeListener;
 import com.google.common.base.Optional;
 
 import java.util.ArrayList;
-import java.util.List;
 
+import org.mypico.android.data.PairingSummary;
 import org.mypico.android.data.SafePairing;
+import org.mypico.android.db.PairingsProvider;
 import org.mypico.android.util.ProgressDialogFragment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,18 +72,21 @@ import org.mypico.android.R;
  * @author Seb Aebischer <seb.aebischer@cl.cam.ac.uk>
  */
 public class PairingsFragment extends ListFragment
-    implements DeletePairingDialog.DeletePairingListener {
+    implements DeletePairingDialog.DeletePairingListener, LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final Logger LOGGER =
         LoggerFactory.getLogger(PairingsFragment.class.getSimpleName());
 
-    private ArrayAdapter<SafePairing> adapter;
+    private CursorAdapter adapter;
+    private final PairingIndex index = new PairingIndex();
+    private Cursor pairings;
+    private String filter = "";
     private Optional<ActionMode> actionMode = Optional.absent();
     private final IntentFilter intentFilter = new IntentFilter();
     private final ResponseReceiver responseReceiver = new ResponseReceiver();
 
     {
-        intentFilter.addAction(PairingsIntentService.GET_ALL_PAIRINGS_ACTION);
+        intentFilter.addAction(PairingsIntentService.GET_PAIRING_ACTION);
         intentFilter.addAction(PairingsIntentService.DELETE_PAIRINGS_ACTION);
     }
 
@@ -88,17 +99,13 @@ public class PairingsFragment extends ListFragment
 
         @Override
         public void onReceive(final Context context, final Intent intent) {
-            if (intent.getAction().equals(PairingsIntentService.GET_ALL_PAIRINGS_ACTION)) {
-                if (!intent.hasExtra(PairingsIntentService.EXCEPTION)) {
-                    final ArrayList<SafePairing> keyPairings =
-                        intent.getParcelableArrayListExtra(PairingsIntentService.PAIRINGS);
-                    getAllPairings(keyPairings);
+            if (intent.getAction().equals(PairingsIntentService.GET_PAIRING_ACTION)) {
+                if (intent.hasExtra(PairingsIntentService.PAIRING)) {
+                    final SafePairing pairing =
+                        intent.getParcelableExtra(PairingsIntentService.PAIRING);
+                    pairing.startDetail(getActivity());
                 } else {
-                    final Bundle extras = intent.getExtras();
-                    final Throwable exception =
-                        (Throwable) extras.getSerializable(PairingsIntentService.EXCEPTION);
-                    LOGGER.error("Exception raise by IntentService {}", exception);
-                    getAllPairingsError();
+                    LOGGER.warn("Pairing not found or not read");
                 }
             } else if (intent.getAction().equals(PairingsIntentService.DELETE_PAIRINGS_ACTION)) {
                 if (!intent.hasExtra(PairingsIntentService.EXCEPTION)) {
@@ -113,29 +120,6 @@ public class PairingsFragment extends ListFragment
         }
     }
 
-    /**
-     * Triggered when the pairings have been read from the database.
-     *
-     * @param pairings The list of pairings read.
-     */
-    private void getAllPairings(final List<SafePairing> pairings) {
-        LOGGER.debug("Found pairings {}", pairings);
-
-        adapter.clear();
-        adapter.addAll(pairings);
-        adapter.notifyDataSetChanged();
-
-        // Hide the progress view
-        setLoadingViewVisible(false);
-    }
-
-    /**
-     * Triggered in case there's an error reading the pairings from the database.
-     */
-    private void getAllPairingsError() {
-        LOGGER.debug("Exception thrown querying pairings");
-    }
-
     private void deletePairings(final int total, final int deleted) {
         LOGGER.info("Paired terminal successfuly deleted");
 
@@ -147,9 +131,6 @@ public class PairingsFragment extends ListFragment
             progressFragment.dismiss();
         }
 
-        // Update the list of terminals paired with Pico
-        updateList();
-
         // Display a toast, several variations on the wording
         final String message;
         if (deleted == total) {
@@ -186,15 +167,15 @@ public class PairingsFragment extends ListFragment
      * @param list The UI view.
      * @return The list of selected pairings.
      */
-    private static ArrayList<SafePairing> getSelected(final ListView list) {
-        final ArrayList<SafePairing> selected =
-            new ArrayList<SafePairing>(list.getCheckedItemCount());
+    private ArrayList<PairingSummary> getSelected(final ListView list) {
+        final ArrayList<PairingSummary> selected =
+            new ArrayList<PairingSummary>(list.getCheckedItemCount());
         final SparseBooleanArray p = list.getCheckedItemPositions();
 
         for (int i = 0; i < p.size(); i++) {
             if (p.valueAt(i)) {
-                final SafePairing t = (SafePairing) list.getAdapter().getItem(
-                    p.keyAt(i));
+                final PairingSummary t = PairingsProvider.getSummary(
+                    (Cursor) adapter.getItem(p.keyAt(i)));
                 LOGGER.debug("Terminal {} selected at pos {}", t.getName(), i);
                 selected.add(t);
             }
@@ -216,7 +197,7 @@ public class PairingsFragment extends ListFragment
     @Override
     public View onCreateView(final LayoutInflater inflater, final ViewGroup container,
                              final Bundle savedInstanceState) {
-        adapter = new PairingsAdapter(inflater.getContext(), R.layout.row_pairing);
+        adapter = new PairingCursorAdapter(inflater.getContext());
         setListAdapter(adapter);
         return inflater.inflate(R.layout.fragment_pairings, container, false);
     }
@@ -226,13 +207,35 @@ public class PairingsFragment extends ListFragment
         super.onViewCreated(view, savedInstanceState);
         final ListView listView = getListView();
         listView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        getLoaderManager().initLoader(0, null, this);
+
+        // Filter the pairings as the user types
+        ((EditText) view.findViewById(R.id.pairings_filter)).addTextChangedListener(
+            new TextWatcher() {
+
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                    // Not used
+                }
+
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {
+                    // Not used
+                }
+
+                @Override
+                public void afterTextChanged(Editable s) {
+                    filter = s.toString();
+                    showPairings();
+                }
+            });
         listView.setMultiChoiceModeListener(new MultiChoiceModeListener() {
 
             @Override
             public boolean onActionItemClicked(final ActionMode mode, final MenuItem item) {
                 int itemId = item.getItemId();
                 if (itemId == R.id.action_delete) {
-                    final ArrayList<SafePairing> pairings = getSelected(listView);
+                    final ArrayList<PairingSummary> pairings = getSelected(listView);
                     final DeletePairingDialog dialog =
                         DeletePairingDialog.getInstance(pairings, PairingsFragment.this);
                     // Show the dialog
@@ -285,9 +288,6 @@ public class PairingsFragment extends ListFragment
         // the TermianlIntentService (unregistered in the onPause lifecycle method)
         LocalBroadcastManager.getInstance(getActivity())
             .registerReceiver(responseReceiver, intentFilter);
-
-        // Update the list of pairings with Pico
-        updateList();
     }
 
     @Override
@@ -301,20 +301,54 @@ public class PairingsFragment extends ListFragment
 
     @Override
     public void onListItemClick(ListView l, View v, int position, long id) {
-        SafePairing pairing = (SafePairing) getListView().getItemAtPosition(position);
-        pairing.startDetail(getActivity());
+        // The list only holds summaries, so load the full pairing before showing its details
+        final Intent intent = new Intent(getActivity(), PairingsIntentService.class);
+        intent.setAction(PairingsIntentService.GET_PAIRING_ACTION);
+        intent.putExtra(PairingsIntentService.PAIRING_ID, (int) id);
+        getActivity().startService(intent);
     }
 
-    /**
-     * Update the list of pairings shown in the UI.
+    /*
+     * Pairings loader, which reloads the list whenever the pairings change
      */
-    private void updateList() {
-        LOGGER.debug("Updating pairings shown on UI");
 
-        // Query all the Key and Lens pairings
-        final Intent lpIntent = new Intent(getActivity(), PairingsIntentService.class);
-        lpIntent.setAction(PairingsIntentService.GET_ALL_PAIRINGS_ACTION);
-        getActivity().startService(lpIntent);
+    @Override
+    public Loader<Cursor> onCreateLoader(final int id, final Bundle args) {
+        LOGGER.debug("Loading pairings shown on UI");
+        return new CursorLoader(getActivity(), PairingsProvider.CONTENT_URI,
+            null, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(final Loader<Cursor> loader, final Cursor cursor) {
+        if (cursor != null) {
+            index.update(cursor);
+        } else {
+            LOGGER.error("Exception thrown querying pairings");
+        }
+        pairings = cursor;
+        showPairings();
+
+        // Hide the progress view
+        setLoadingViewVisible(false);
+    }
+
+    @Override
+    public void onLoaderReset(final Loader<Cursor> loader) {
+        pairings = null;
+        adapter.swapCursor(null);
+    }
+
+    /**
+     * Show the loaded pairings which match the filter, looking them up in the index rather than
+     * querying the database again.
+     */
+    private void showPairings() {
+        if (pairings == null || filter.trim().isEmpty()) {
+            adapter.swapCursor(pairings);
+        } else {
+            adapter.swapCursor(new FilteredCursor(pairings, index.find(filter)));
+        }
     }
 
 	/*
@@ -323,7 +357,7 @@ public class PairingsFragment extends ListFragment
 
 
     @Override
-    public void onDeleteOk(final ArrayList<SafePairing> pairings) {
+    public void onDeleteOk(final ArrayList<PairingSummary> pairings) {
         if (actionMode.isPresent()) {
             // Show the progress dialog
             final ProgressDialogFragment progressDialog =
@@ -26,21 +26,21 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
-import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
-
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.mypico.android.data.PairingSummary;
 import org.mypico.android.data.ParcelableCredentials;
 import org.mypico.android.data.SafeKeyPairing;
 import org.mypico.android.data.SafeLensPairing;
 import org.mypico.android.data.SafePairing;
 import org.mypico.android.data.SafeService;
 import org.mypico.android.db.DbHelper;
+import org.mypico.android.db.PairingBatch;
+import org.mypico.android.db.PairingsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,11 +68,13 @@ public class PairingsIntentService extends IntentService {
     static final String IS_PAIRING_PRESENT_ACTION = "IS_PAIRING_PRESENT";
     static final String PERSIST_PAIRING_ACTION = "PERSIST_PAIRING";
     static final String GET_ALL_PAIRINGS_ACTION = "GET_ALL_PAIRINGS";
+    static final String GET_PAIRING_ACTION = "GET_PAIRING";
     static final String DELETE_PAIRINGS_ACTION = "DELETE_PAIRINGS";
     static final String CHANGE_PAIRING_NAME_ACTION = "CHANGE_PAIRING_NAME_ACTION";
     static final String PAIRING = "PAIRING";
     static final String PAIRINGS = "PAIRINGS";
     static final String PAIRINGS_DELETED = "PAIRINGS_DELETED";
+    static final String PAIRING_ID = "PAIRING_ID";
     static final String SERVICE = "SERVICE";
     static final String CREDENTIALS = "CREDENTIALS";
     static final String EXCEPTION = "EXCEPTION";
@@ -92,12 +94,11 @@ public class PairingsIntentService extends IntentService {
     public void onCreate() {
         super.onCreate();
 
-        // Ormlite helper
-        final OrmLiteSqliteOpenHelper helper =
-            OpenHelperManager.getHelper(this, DbHelper.class);
+        // Shared database access
+        final DbHelper helper = DbHelper.getInstance(this);
         try {
-            dbDataFactory = new DbDataFactory(helper.getConnectionSource());
-            dbDataAccessor = new DbDataAccessor(helper.getConnectionSource());
+            dbDataFactory = helper.getDataFactory();
+            dbDataAccessor = helper.getDataAccessor();
         } catch (SQLException e) {
             LOGGER.error("Failed to connect to database");
             throw new RuntimeException(e);
@@ -158,8 +159,29 @@ public class PairingsIntentService extends IntentService {
             } finally {
                 LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
             }
+        } else if (intent.getAction().equals(GET_PAIRING_ACTION)) {
+            // Return the result as a broadcast
+            final Intent localIntent = new Intent(GET_PAIRING_ACTION);
+            try {
+                final int id = intent.getIntExtra(PAIRING_ID, 0);
+                final LensPairing lp = dbDataAccessor.getLensPairingById(id);
+                if (lp != null) {
+                    localIntent.putExtra(PAIRING, new SafeLensPairing(lp));
+                } else {
+                    final KeyPairing kp = dbDataAccessor.getKeyPairingById(id);
+                    if (kp != null) {
+                        localIntent.putExtra(PAIRING, new SafeKeyPairing(kp));
+                    }
+                }
+            } catch (IOException e) {
+                final Bundle extras = new Bundle();
+                extras.putSerializable(EXCEPTION, (Serializable) e);
+                localIntent.putExtras(extras);
+            } finally {
+                LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+            }
         } else if (intent.getAction().equals(DELETE_PAIRINGS_ACTION)) {
-            final ArrayList<SafePairing> pairings =
+            final ArrayList<PairingSummary> pairings =
                 intent.getParcelableArrayListExtra(PairingsIntentService.PAIRINGS);
             final int total = pairings.size();
             int deleted = 0;
@@ -168,15 +190,20 @@ public class PairingsIntentService extends IntentService {
             // Return the result as a broadcast
             final Intent localIntent = new Intent(DELETE_PAIRINGS_ACTION);
             try {
-                for (SafePairing sp : pairings) {
-                    try {
-                        sp.getPairing(dbDataAccessor).delete();
+                // Delete them all in a single transaction
+                final PairingBatch batch = new PairingBatch();
+                for (PairingSummary pairing : pairings) {
+                    batch.delete(pairing.getId());
+                }
+                for (PairingBatch.Outcome outcome : batch.execute(DbHelper.getInstance(this))) {
+                    if (outcome == PairingBatch.Outcome.DONE) {
                         ++deleted;
-                        LOGGER.info("{} deleted (note: all deleted pairings have an id of 0)", sp);
-                    } catch (IOException e) {
-                        LOGGER.warn(sp.toString() + " not deleted (IOException)", e);
                     }
                 }
+                LOGGER.info("{} of {} pairing(s) deleted", deleted, total);
+                PairingsProvider.notifyChange(this);
+            } catch (IOException e) {
+                LOGGER.warn("pairings not deleted (IOException)", e);
             } finally {
                 localIntent.putExtra(PAIRINGS, total);
                 localIntent.putExtra(PAIRINGS_DELETED, deleted);
@@ -196,6 +223,7 @@ public class PairingsIntentService extends IntentService {
                         dbDataAccessor);
                     newPairing.setName(newName);
                     newPairing.save();
+                    PairingsProvider.notifyChange(this);
 
                     localIntent.putExtra(CHANGE_PAIRING_NAME_ACTION, true);
                     localIntent.putExtra(PAIRING, new SafePairing(newPairing));
@@ -15,6 +15,7 @@ import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.qrcode.QRCodeReader;
 
 import org.mypico.android.R;
+import org.mypico.android.util.LatencyTracer;
 
 /**
  * {@link Handler} that receives and processes camera frames, running in the {@link ScannerThread}.
@@ -79,6 +80,7 @@ class ScannerHandler extends Handler {
             width, height, 0, 0, width, height, false);
         BinaryBitmap bmp = new BinaryBitmap(new HybridBinarizer(source));
         Result result = null;
+        final long start = LatencyTracer.now();
 
         try {
             result = qrCodeReader.decode(bmp);
@@ -93,6 +95,8 @@ class ScannerHandler extends Handler {
 
         if (result != null) {
             Log.d(TAG, "Found valid code");
+            LatencyTracer.getInstance().recordPending(
+                LatencyTracer.STAGE_QR_DECODE, start, LatencyTracer.now());
             if (resultHandler != null)
                 Message.obtain(resultHandler, R.id.codeFound, result).sendToTarget();
         } else {
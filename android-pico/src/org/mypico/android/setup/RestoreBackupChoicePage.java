@@ -154,6 +154,31 @@ public final class RestoreBackupChoicePage extends SingleFixedChoicePage impleme
             mCallbacks = null;
         }
 
+        /**
+         * Show the page's current choices, keeping the selected one checked.
+         */
+        public void updateChoices() {
+            final SingleFixedChoicePage fixedChoicePage = (SingleFixedChoicePage) mPage;
+            mChoices = new ArrayList<String>();
+            for (int i = 0; i < fixedChoicePage.getOptionCount(); i++) {
+                mChoices.add(fixedChoicePage.getOptionAt(i));
+            }
+            setListAdapter(new ArrayAdapter<String>(getActivity(),
+                android.R.layout.simple_list_item_single_choice,
+                android.R.id.text1,
+                mChoices));
+
+            final ListView listView = getListView();
+            final String selection = mPage.getData().getString(Page.SIMPLE_DATA_KEY);
+            listView.clearChoices();
+            for (int i = 0; i < mChoices.size(); i++) {
+                if (mChoices.get(i).equals(selection)) {
+                    listView.setItemChecked(i, true);
+                    break;
+                }
+            }
+        }
+
         @Override
         public void onListItemClick(ListView l, View v, int position, long id) {
             mPage.getData().putString(Page.SIMPLE_DATA_KEY,
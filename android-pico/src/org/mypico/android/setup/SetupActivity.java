@@ -26,6 +26,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.FragmentTransaction;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
@@ -33,6 +34,8 @@ import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
@@ -50,9 +53,15 @@ import com.example.android.wizardpager.wizard.ui.StepPagerStrip;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.mypico.android.backup.BackupDiscovery;
 import org.mypico.android.backup.BackupFactory;
 import org.mypico.android.util.InvalidWordException;
 import org.slf4j.Logger;
@@ -90,6 +99,7 @@ public class SetupActivity extends FragmentActivity implements
     private static final String ACTIVITY_SETUP_FRAGMENT_TAG =
         "ActivitySetupDialogFragment";
     private static final String SETUP_ACTIVITY_MODEL = "SetupModel";
+    private static final String DISCOVERED_BACKUP_NAME = "discovered-restore.backup";
 
     public final static int SETUP_RESULT_CODE = 0x01;
     public final static int RESTORE_BACKUP_RESULT_CODE = 0x02;
@@ -106,6 +116,14 @@ public class SetupActivity extends FragmentActivity implements
     private StepPagerStrip mStepPagerStrip;
     private IBackupProvider backupProvider;
 
+    // Backups found on any linked provider, by their label on the restore options page
+    private final Map<String, BackupDiscovery.Candidate> discoveredBackups =
+        new LinkedHashMap<String, BackupDiscovery.Candidate>();
+    private DiscoverBackupsTask discoverBackupsTask;
+    private Boolean providerHasBackups;
+    private Page restoreChoicePage;
+    private Future<File> discoveredBackupDownload;
+
     /**
      * Call to move to the next wizard page.
      */
@@ -361,7 +379,17 @@ public class SetupActivity extends FragmentActivity implements
                     } else if (page instanceof RestoreBackupChoicePage) {
                         final String backupChoice = page.getData().getString(Page.SIMPLE_DATA_KEY);
                         final String[] restoreChoices = getResources().getStringArray(activity_setup__restore_backup__choices);
-                        if (backupChoice.equals(restoreChoices[0])) {
+                        discoveredBackupDownload = null;
+                        if (discoveredBackups.containsKey(backupChoice)) {
+                            // Fetch the backup while the user enters their recovery words
+                            discoveredBackupDownload = BackupDiscovery.download(
+                                discoveredBackups.get(backupChoice),
+                                new File(getCacheDir(), DISCOVERED_BACKUP_NAME));
+                            ((RestoreBackupChoicePage) page).setValue(
+                                RestoreBackupChoicePage.RESTORED_KEY, backupChoice);
+                            page.notifyDataChanged();
+                            nextPage();
+                        } else if (backupChoice.equals(restoreChoices[0])) {
                             // Restore the latest backup
                             backupProvider.restoreLatestBackup();
                         } else if (backupChoice.equals(restoreChoices[1])) {
@@ -376,7 +404,13 @@ public class SetupActivity extends FragmentActivity implements
                         final byte[] userSecret;
                         try {
                             userSecret = new PgpWordListByteString(SetupActivity.this).fromWords(pgpWords);
-                            backupProvider.decryptRestoredBackup(userSecret);
+                            if (discoveredBackupDownload != null) {
+                                // Blocks on the download, so keep it off the serial executor
+                                new DiscoveredBackupTask(userSecret)
+                                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                            } else {
+                                backupProvider.decryptRestoredBackup(userSecret);
+                            }
                         } catch (InvalidWordException e) {
                             onRestoreBackupFailure();
                         }
@@ -417,8 +451,8 @@ public class SetupActivity extends FragmentActivity implements
         if (page instanceof RestoreBackupChoicePage) {
             final RestoreBackupChoicePage rbcPage = (RestoreBackupChoicePage) page;
 
-            // Set the restore options
-            final List<String> choices = new ArrayList<String>();
+            // Set the restore options, offering the newest backups found on any provider first
+            final List<String> choices = new ArrayList<String>(discoveredBackups.keySet());
             for (final RestoreOption option : backupProvider.getRestoreOptions()) {
                 switch (option) {
                     case RESTORE_LATEST:
@@ -669,11 +703,185 @@ public class SetupActivity extends FragmentActivity implements
                 // Advance the Wizard to the next page
                 nextPage();
             } else {
+                // Look for backups on all the linked providers while this one is queried
+                if (discoverBackupsTask != null) {
+                    discoverBackupsTask.cancel(true);
+                }
+                providerHasBackups = null;
+                restoreChoicePage = null;
+                discoveredBackups.clear();
+                discoverBackupsTask = new DiscoverBackupsTask();
+                // The provider's own query below runs on the serial executor, so the discovery
+                // must not hold that up
+                discoverBackupsTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
                 backupProvider.isEmpty();
             }
         }
     }
 
+    /**
+     * Finds the newest backups on all the linked providers, for offering alongside the configured
+     * provider's restore options.
+     */
+    private final class DiscoverBackupsTask
+        extends AsyncTask<Void, List<BackupDiscovery.Candidate>, Void> {
+
+        @Override
+        protected Void doInBackground(final Void... params) {
+            try {
+                BackupDiscovery.discover(getApplicationContext(), new BackupDiscovery.Listener() {
+                    @Override
+                    public void onCandidatesFound(final List<BackupDiscovery.Candidate> found) {
+                        publishProgress(found);
+                    }
+                });
+            } catch (InterruptedException e) {
+                LOGGER.debug("Backup discovery interrupted");
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(final List<BackupDiscovery.Candidate>... found) {
+            setDiscoveredBackups(found[found.length - 1]);
+        }
+
+        @Override
+        public void onPostExecute(final Void result) {
+            discoverBackupsTask = null;
+            onRestoreQueriesCompleted();
+        }
+    }
+
+    /**
+     * Replace the backups found on the linked providers, leaving out the configured provider's
+     * newest backup when its own "restore latest" option already offers it. If the restore options
+     * are already showing they are updated in place.
+     *
+     * @param candidates The newest backups found so far, newest first.
+     */
+    private void setDiscoveredBackups(final List<BackupDiscovery.Candidate> candidates) {
+        final boolean offersLatest =
+            backupProvider.getRestoreOptions().contains(RestoreOption.RESTORE_LATEST);
+        boolean latestSkipped = false;
+        discoveredBackups.clear();
+        for (final BackupDiscovery.Candidate candidate : candidates) {
+            if (offersLatest && !latestSkipped &&
+                candidate.getType() == backupProvider.getBackupType()) {
+                latestSkipped = true;
+            } else {
+                discoveredBackups.put(getCandidateLabel(candidate), candidate);
+            }
+        }
+
+        if (restoreChoicePage != null) {
+            setRestoreOptions(restoreChoicePage);
+            final Fragment shown = mPagerAdapter.mPrimaryItem;
+            if (shown instanceof RestoreBackupChoicePage.RestoreBackupChoicePageFragment) {
+                ((RestoreBackupChoicePage.RestoreBackupChoicePageFragment) shown).updateChoices();
+            }
+        } else {
+            onRestoreQueriesCompleted();
+        }
+    }
+
+    /**
+     * Waits for a backup found by {@link DiscoverBackupsTask} to be fetched, then decrypts it.
+     */
+    private final class DiscoveredBackupTask extends AsyncTask<Void, Void, File> {
+
+        private final byte[] userSecret;
+
+        DiscoveredBackupTask(final byte[] userSecret) {
+            this.userSecret = userSecret;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mNextButton.setEnabled(false);
+        }
+
+        @Override
+        protected File doInBackground(final Void... params) {
+            try {
+                return discoveredBackupDownload.get();
+            } catch (ExecutionException e) {
+                LOGGER.error("Backup could not be fetched", e.getCause());
+                return null;
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void onPostExecute(final File backupFile) {
+            mNextButton.setEnabled(true);
+            if (backupFile != null) {
+                backupProvider.decryptRestoredBackup(backupFile, userSecret);
+            } else {
+                discoveredBackupDownload = null;
+                onRestoreBackupFailure();
+            }
+        }
+    }
+
+    /**
+     * Describe a backup found on one of the providers, for the restore options page.
+     *
+     * @param candidate The backup.
+     * @return The label.
+     */
+    private String getCandidateLabel(final BackupDiscovery.Candidate candidate) {
+        final String time = DateUtils.formatDateTime(this, candidate.getTime(),
+            DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+        final String size = Formatter.formatFileSize(this, candidate.getSize());
+        final String provider = candidate.getType().getProviderName();
+        if (candidate.getDevice().isPresent()) {
+            return getString(R.string.activity_setup__restore_backup__candidate,
+                provider, candidate.getDevice().get(), time, size);
+        } else {
+            return getString(R.string.activity_setup__restore_backup__candidate_snapshot,
+                provider, time, size);
+        }
+    }
+
+    /**
+     * Called when the configured provider has been queried, when backups are found on any of the
+     * linked providers and when the discovery has finished. The wizard moves on to the restore
+     * options as soon as there is anything to restore, with backups found later added to them.
+     * Only when the configured provider is empty does it wait for the discovery to finish.
+     */
+    private void onRestoreQueriesCompleted() {
+        if (providerHasBackups == null) {
+            return;
+        }
+        final boolean hasBackups = providerHasBackups || !discoveredBackups.isEmpty();
+        if (!hasBackups && discoverBackupsTask != null) {
+            return;
+        }
+        providerHasBackups = null;
+
+        if (hasBackups) {
+            // Set the backup provider
+            final Page page = mCurrentPageSequence.get(mPager.getCurrentItem());
+            if (page instanceof SelectBackupProviderPage) {
+                final SelectBackupProviderPage sbpPage = (SelectBackupProviderPage) page;
+                sbpPage.setBackupProvider(backupProvider.getBackupType().getProviderName());
+            }
+
+            // Set the restore options
+            restoreChoicePage = mCurrentPageSequence.get(mPager.getCurrentItem() + 1);
+            setRestoreOptions(restoreChoicePage);
+
+            // Advance the Wizard to the next page
+            nextPage();
+        } else {
+            // Display a dialog to the user informing them that there are no backups to restore
+            final DialogFragment dg = BackupFailureDialogFragment.newInstance(R.string.activity_setup__query_backup_is_empty);
+            dg.show(getSupportFragmentManager(), ACTIVITY_SETUP_FRAGMENT_TAG);
+        }
+    }
+
     @Override
     public void onRestoreBackupStart() {
         LOGGER.trace("Started restoring Pico pairings and services database");
@@ -708,27 +916,17 @@ public class SetupActivity extends FragmentActivity implements
     public void onQueryBackupIsNotEmpty() {
         LOGGER.debug("Backup provider is not empty");
 
-        // Set the backup provider
-        final Page page = mCurrentPageSequence.get(mPager.getCurrentItem());
-        if (page instanceof SelectBackupProviderPage) {
-            final SelectBackupProviderPage sbpPage = (SelectBackupProviderPage) page;
-            sbpPage.setBackupProvider(backupProvider.getBackupType().getProviderName());
-        }
-
-        // Set the restore options
-        setRestoreOptions(mCurrentPageSequence.get(mPager.getCurrentItem() + 1));
-
-        // Advance the Wizard to the next page
-        nextPage();
+        providerHasBackups = true;
+        onRestoreQueriesCompleted();
     }
 
     @Override
     public void onQueryBackupIsEmpty() {
         LOGGER.debug("Backup provider is empty");
 
-        // Display a dialog to the user informing them that there are no backups to restore
-        final DialogFragment dg = BackupFailureDialogFragment.newInstance(R.string.activity_setup__query_backup_is_empty);
-        dg.show(getSupportFragmentManager(), ACTIVITY_SETUP_FRAGMENT_TAG);
+        // Backups may still have been found on another provider
+        providerHasBackups = false;
+        onRestoreQueriesCompleted();
     }
 
     @Override
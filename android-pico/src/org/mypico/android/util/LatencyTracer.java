@@ -0,0 +1,392 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+/**
+ * Lightweight tracer for the time taken by each stage of an authentication, from decoding the QR
+ * code through to the result reaching {@link org.mypico.android.pairing.AuthenticateActivity}.
+ * <p>
+ * Each authentication is given an id by {@link #begin()}, which is carried between components in
+ * the {@link #EXTRA_AUTH_ID} intent extra. Stages are stamped against the id using the monotonic
+ * {@link SystemClock#elapsedRealtimeNanos()} clock, either as explicit spans with
+ * {@link #record(long, String, long, long)} or as the time since the previous stamp with
+ * {@link #mark(long, String)}. Stages that happen before the id exists (decoding the QR code) are
+ * recorded with {@link #recordPending(String, long, long)} and adopted by the next trace.
+ * <p>
+ * The latency of every stage is aggregated into a histogram, which can be written to a file with
+ * {@link #dump(File)} for offline analysis along with the most recent traces.
+ * <p>
+ * It uses the singleton pattern, so all components in the process share a single tracer.
+ */
+public final class LatencyTracer {
+
+    private static final Logger LOGGER =
+        LoggerFactory.getLogger(LatencyTracer.class.getSimpleName());
+
+    /**
+     * Key for the authentication id extra. This extra is a {@code long}.
+     */
+    public static final String EXTRA_AUTH_ID =
+        LatencyTracer.class.getCanonicalName() + ".authId";
+
+    /**
+     * Id returned when there is no trace.
+     */
+    public static final long NO_TRACE = 0;
+
+    public static final String STAGE_QR_DECODE = "qr_decode";
+    public static final String STAGE_INTENT_GENERATION = "intent_generation";
+    public static final String STAGE_DISPATCH = "dispatch";
+    public static final String STAGE_DB_LOOKUP = "db_lookup";
+    public static final String STAGE_TRANSPORT_CONNECT = "transport_connect";
+    public static final String STAGE_PROVER_PREFIX = "prover_stage_";
+    public static final String STAGE_SESSION_PERSIST = "session_persist";
+    public static final String STAGE_RESULT_BROADCAST = "result_broadcast";
+    public static final String STAGE_TOTAL = "total";
+
+    private static final String DUMP_FILE_NAME = "auth_latency.txt";
+
+    // Pending spans older than this aren't adopted by a new trace
+    private static final long PENDING_EXPIRY_NANOS = 60L * 1000 * 1000 * 1000;
+    private static final int MAX_ACTIVE_TRACES = 16;
+    private static final int MAX_RECENT_TRACES = 64;
+
+    private static LatencyTracer instance;
+
+    private long nextId = 1;
+    private final List<Span> pending = new ArrayList<Span>();
+    private final LinkedHashMap<Long, Trace> active = new LinkedHashMap<Long, Trace>();
+    private final LinkedList<Trace> recent = new LinkedList<Trace>();
+    private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+    /**
+     * A single timed stage of an authentication.
+     */
+    private static final class Span {
+        final String stage;
+        final long startNanos;
+        final long endNanos;
+
+        Span(final String stage, final long startNanos, final long endNanos) {
+            this.stage = stage;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    /**
+     * The spans recorded for one authentication.
+     */
+    private static final class Trace {
+        final long id;
+        final long startNanos;
+        long lastMarkNanos;
+        final List<Span> spans = new ArrayList<Span>();
+
+        Trace(final long id, final long startNanos) {
+            this.id = id;
+            this.startNanos = startNanos;
+            this.lastMarkNanos = startNanos;
+        }
+    }
+
+    /**
+     * Latency histogram for a single stage. Bucket 0 counts latencies under 1ms and bucket
+     * {@code i} counts latencies in {@code [2^(i-1), 2^i)} milliseconds; the last bucket also
+     * collects anything longer.
+     */
+    private static final class Histogram {
+        static final int BUCKETS = 18;
+
+        final long[] counts = new long[BUCKETS];
+        long count;
+        long totalNanos;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos;
+
+        void add(final long nanos) {
+            final long millis = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKETS - 1 && millis >= (1L << bucket)) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * Upper bound, in milliseconds, of the bucket containing the given percentile.
+         */
+        long percentileMillis(final int percentile) {
+            final long threshold = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+
+    private LatencyTracer() {
+    }
+
+    /**
+     * Get the tracer instance.
+     *
+     * @return The current instance.
+     */
+    public static synchronized LatencyTracer getInstance() {
+        if (instance == null) {
+            instance = new LatencyTracer();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the current value of the monotonic clock used to stamp spans.
+     *
+     * @return The current time in nanoseconds.
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Get the authentication id carried by an intent.
+     *
+     * @param intent The intent.
+     * @return The id, or {@link #NO_TRACE} if the intent doesn't carry one.
+     */
+    public static long getAuthId(final Intent intent) {
+        return (intent == null) ? NO_TRACE : intent.getLongExtra(EXTRA_AUTH_ID, NO_TRACE);
+    }
+
+    /**
+     * Get the file that {@link #dump(Context)} writes to.
+     *
+     * @param context Context used to find the application's files directory.
+     * @return The dump file.
+     */
+    public static File getDumpFile(final Context context) {
+        return new File(context.getFilesDir(), DUMP_FILE_NAME);
+    }
+
+    /**
+     * Record a span for a stage that completed before the authentication it belongs to was
+     * given an id. The span is adopted by the next call to {@link #begin()}.
+     *
+     * @param stage      The stage name.
+     * @param startNanos Start of the stage, from {@link #now()}.
+     * @param endNanos   End of the stage, from {@link #now()}.
+     */
+    public synchronized void recordPending(final String stage, final long startNanos,
+                                           final long endNanos) {
+        pending.add(new Span(stage, startNanos, endNanos));
+    }
+
+    /**
+     * Start a new trace, adopting any recent pending spans.
+     *
+     * @return The id of the new trace.
+     */
+    public synchronized long begin() {
+        final long now = now();
+        long start = now;
+        final List<Span> adopted = new ArrayList<Span>();
+        for (Span span : pending) {
+            if (now - span.endNanos < PENDING_EXPIRY_NANOS) {
+                adopted.add(span);
+                start = Math.min(start, span.startNanos);
+            }
+        }
+        pending.clear();
+
+        final Trace trace = new Trace(nextId++, start);
+        trace.lastMarkNanos = now;
+        for (Span span : adopted) {
+            addSpan(trace, span);
+        }
+
+        // Traces that never complete (for example a cancelled login) mustn't accumulate
+        if (active.size() >= MAX_ACTIVE_TRACES) {
+            final Iterator<Long> it = active.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        active.put(trace.id, trace);
+        return trace.id;
+    }
+
+    /**
+     * Record a span for a stage of an authentication.
+     *
+     * @param authId     The id of the authentication.
+     * @param stage      The stage name.
+     * @param startNanos Start of the stage, from {@link #now()}.
+     * @param endNanos   End of the stage, from {@link #now()}.
+     */
+    public synchronized void record(final long authId, final String stage,
+                                    final long startNanos, final long endNanos) {
+        final Trace trace = active.get(authId);
+        if (trace != null) {
+            addSpan(trace, new Span(stage, startNanos, endNanos));
+            trace.lastMarkNanos = Math.max(trace.lastMarkNanos, endNanos);
+        }
+    }
+
+    /**
+     * Record a span for a stage of an authentication that runs from the end of the previous
+     * span (or the start of the trace) until now.
+     *
+     * @param authId The id of the authentication.
+     * @param stage  The stage name.
+     */
+    public synchronized void mark(final long authId, final String stage) {
+        final Trace trace = active.get(authId);
+        if (trace != null) {
+            final long now = now();
+            addSpan(trace, new Span(stage, trace.lastMarkNanos, now));
+            trace.lastMarkNanos = now;
+        }
+    }
+
+    /**
+     * Complete a trace, recording the total time taken by the authentication.
+     *
+     * @param authId The id of the authentication.
+     */
+    public synchronized void end(final long authId) {
+        final Trace trace = active.remove(authId);
+        if (trace != null) {
+            final long now = now();
+            addSpan(trace, new Span(STAGE_TOTAL, trace.startNanos, now));
+            recent.addLast(trace);
+            if (recent.size() > MAX_RECENT_TRACES) {
+                recent.removeFirst();
+            }
+            LOGGER.debug("Authentication {} took {}ms", authId, (now - trace.startNanos) / 1000000);
+        }
+    }
+
+    /**
+     * Write the per-stage histograms and the most recent traces to the default dump file in
+     * the application's files directory.
+     *
+     * @param context Context used to find the application's files directory.
+     */
+    public void dump(final Context context) {
+        final File file = getDumpFile(context);
+        try {
+            dump(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write latency trace to {}", file, e);
+        }
+    }
+
+    /**
+     * Write the per-stage histograms and the most recent traces to a file.
+     * <p>
+     * The file starts with one line per stage giving the number of samples, the mean, minimum
+     * and maximum in milliseconds, the upper bound of the bucket containing the 50th, 90th and
+     * 99th percentiles, and the raw bucket counts. It is followed by one line per span of each
+     * recent trace: {@code authId,stage,startOffsetMicros,durationMicros}.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void dump(final File file) throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("# stage,count,meanMs,minMs,maxMs,p50Ms,p90Ms,p99Ms,buckets");
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                final Histogram h = entry.getValue();
+                final StringBuilder buckets = new StringBuilder();
+                for (int i = 0; i < Histogram.BUCKETS; i++) {
+                    if (i > 0) {
+                        buckets.append(' ');
+                    }
+                    buckets.append(h.counts[i]);
+                }
+                out.printf("%s,%d,%.3f,%.3f,%.3f,%d,%d,%d,%s%n",
+                    entry.getKey(),
+                    h.count,
+                    h.totalNanos / 1e6 / h.count,
+                    h.minNanos / 1e6,
+                    h.maxNanos / 1e6,
+                    h.percentileMillis(50),
+                    h.percentileMillis(90),
+                    h.percentileMillis(99),
+                    buckets);
+            }
+            out.println("# authId,stage,startOffsetMicros,durationMicros");
+            for (Trace trace : recent) {
+                for (Span span : trace.spans) {
+                    out.printf("%d,%s,%d,%d%n",
+                        trace.id,
+                        span.stage,
+                        (span.startNanos - trace.startNanos) / 1000,
+                        (span.endNanos - span.startNanos) / 1000);
+                }
+            }
+            if (out.checkError()) {
+                throw new IOException("Error writing " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void addSpan(final Trace trace, final Span span) {
+        trace.spans.add(span);
+        Histogram histogram = histograms.get(span.stage);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(span.stage, histogram);
+        }
+        histogram.add(span.endNanos - span.startNanos);
+    }
+}
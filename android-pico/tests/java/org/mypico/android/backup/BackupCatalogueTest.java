@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import android.test.AndroidTestCase;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Tests of {@link BackupCatalogue}: entries survive a save and load, with or without a hash, a
+ * tampered catalogue is rejected, and entries recognise the backup files they record.
+ */
+public class BackupCatalogueTest extends AndroidTestCase {
+
+    private BackupKey key;
+    private MemoryBackupStore store;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        key = new TestBackupKey();
+        store = new MemoryBackupStore();
+        file = new File(getContext().getCacheDir(), "catalogue_test.backup");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        final byte[] hash = Hashing.sha256().hashBytes(new byte[]{1, 2, 3}).asBytes();
+        final BackupCatalogue catalogue = new BackupCatalogue();
+        catalogue.add(new BackupCatalogue.Entry("old", 1000, 10, hash));
+        catalogue.add(new BackupCatalogue.Entry("new", 3000, 30, null));
+        catalogue.add(new BackupCatalogue.Entry("middle", 2000, 20, hash));
+        catalogue.save(store, key);
+
+        final List<BackupCatalogue.Entry> entries =
+            BackupCatalogue.load(store, key).getEntries();
+
+        assertEquals(3, entries.size());
+        assertEquals("new", entries.get(0).getName());
+        assertEquals(3000, entries.get(0).getTime());
+        assertEquals(30, entries.get(0).getSize());
+        assertFalse(entries.get(0).getHash().isPresent());
+        assertEquals("middle", entries.get(1).getName());
+        assertTrue(Arrays.equals(hash, entries.get(1).getHash().get()));
+        assertEquals("old", entries.get(2).getName());
+    }
+
+    public void testAddReplacesAndPruneForgetsOldest() {
+        final BackupCatalogue catalogue = new BackupCatalogue();
+        catalogue.add(new BackupCatalogue.Entry("a", 1000, 10, null));
+        catalogue.add(new BackupCatalogue.Entry("b", 2000, 10, null));
+        catalogue.add(new BackupCatalogue.Entry("a", 3000, 10, null));
+
+        assertEquals(2, catalogue.getEntries().size());
+        assertEquals("a", catalogue.getLatest().get().getName());
+
+        final List<BackupCatalogue.Entry> pruned = catalogue.prune(1);
+        assertEquals(1, pruned.size());
+        assertEquals("b", pruned.get(0).getName());
+        assertEquals(1, catalogue.getEntries().size());
+    }
+
+    public void testWrongKeyRejected() throws Exception {
+        savedCatalogue();
+        assertRejected(new TestBackupKey());
+    }
+
+    public void testTamperedCatalogueRejected() throws Exception {
+        savedCatalogue();
+        final String name = store.list(BackupCatalogue.FOLDER).get(0);
+        final byte[] blob = store.read(BackupCatalogue.FOLDER, name);
+        blob[blob.length - 1] ^= 1;
+        store.write(BackupCatalogue.FOLDER, name, blob);
+
+        assertRejected(key);
+    }
+
+    public void testMissingCatalogueRejected() {
+        assertRejected(key);
+    }
+
+    public void testEntryDescribesAndMatchesFile() throws Exception {
+        final byte[] contents = ChunkedBackupTest.database(5000);
+        Files.write(contents, file);
+        final BackupCatalogue.Entry entry = BackupCatalogue.Entry.forFile(file);
+
+        assertEquals(file.getName(), entry.getName());
+        assertFalse(entry.getHash().isPresent());
+        assertTrue(entry.describes(file));
+        assertTrue(entry.matches(file));
+
+        final byte[] hash = Hashing.sha256().hashBytes(contents).asBytes();
+        final BackupCatalogue.Entry hashed = new BackupCatalogue.Entry(
+            file.getName(), file.lastModified(), file.length(), hash);
+        assertTrue(hashed.matches(file));
+
+        // Same size and time, different contents: only the hash can tell
+        contents[0] ^= 1;
+        final long modified = file.lastModified();
+        Files.write(contents, file);
+        file.setLastModified(modified);
+        assertTrue(hashed.describes(file));
+        assertFalse(hashed.matches(file));
+
+        Files.write(Arrays.copyOf(contents, contents.length + 1), file);
+        assertFalse(entry.describes(file));
+        assertFalse(entry.matches(file));
+    }
+
+    private void savedCatalogue() throws IOException {
+        final BackupCatalogue catalogue = new BackupCatalogue();
+        catalogue.add(new BackupCatalogue.Entry("backup", 1000, 10, null));
+        catalogue.save(store, key);
+    }
+
+    private void assertRejected(final BackupKey key) {
+        try {
+            BackupCatalogue.load(store, key);
+            fail("Catalogue was loaded");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import android.test.AndroidTestCase;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests of the {@link ChunkedBackup} format: backups in each version read back, and a backup
+ * that has been reordered, truncated, extended or had its flags changed is rejected.
+ */
+public class ChunkedBackupTest extends AndroidTestCase {
+
+    // Several full chunks and a short last one
+    private static final int LENGTH = 3 * ChunkedBackup.CHUNK_SIZE + 1000;
+    // Offset of the flags in a version 2 header
+    private static final int FLAGS_OFFSET = ChunkedBackup.MAGIC.length + 4 + 4;
+    private static final int HEADER_LENGTH = FLAGS_OFFSET + 4 + ChunkedBackup.FILE_ID_LENGTH;
+
+    private BackupKey key;
+    private byte[] database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        key = new TestBackupKey();
+        database = database(LENGTH);
+    }
+
+    public void testVersion1RoundTrip() throws Exception {
+        final byte[] backup = writeVersion1(database);
+
+        assertTrue(ChunkedBackup.isChunked(new ByteArrayInputStream(backup)));
+        assertTrue(Arrays.equals(database, decrypt(backup, key)));
+    }
+
+    public void testVersion2RoundTrip() throws Exception {
+        final byte[] backup = encrypt(database, false);
+
+        assertEquals(ChunkedBackup.encryptedLength(LENGTH), backup.length);
+        assertEquals(0, flags(backup));
+        assertTrue(Arrays.equals(database, decrypt(backup, key)));
+    }
+
+    public void testVersion2DeflateRoundTrip() throws Exception {
+        final byte[] backup = encrypt(database, true);
+
+        assertTrue(backup.length < ChunkedBackup.encryptedLength(LENGTH));
+        assertTrue(backup.length <= ChunkedBackup.maxEncryptedLength(LENGTH));
+        assertEquals(ChunkedBackup.FLAG_DEFLATE, flags(backup));
+        assertTrue(Arrays.equals(database, decrypt(backup, key)));
+    }
+
+    public void testEncryptedAsReadRoundTrip() throws Exception {
+        final InputStream in =
+            ChunkedBackup.newEncryptingStream(new ByteArrayInputStream(database), key);
+        final byte[] backup = ByteStreams.toByteArray(in);
+
+        assertEquals(ChunkedBackup.encryptedLength(LENGTH), backup.length);
+        assertTrue(Arrays.equals(database, decrypt(backup, key)));
+    }
+
+    public void testEmptyRoundTrip() throws Exception {
+        final byte[] backup = encrypt(new byte[0], false);
+
+        assertEquals(ChunkedBackup.encryptedLength(0), backup.length);
+        assertEquals(0, decrypt(backup, key).length);
+    }
+
+    public void testWrongKeyRejected() throws Exception {
+        assertRejected(encrypt(database, false), new TestBackupKey());
+    }
+
+    public void testReorderedChunksRejected() throws Exception {
+        for (byte[] backup : new byte[][]{writeVersion1(database), encrypt(database, false)}) {
+            final int header = headerLength(backup);
+            final List<byte[]> records = records(backup, header);
+            final byte[] first = records.get(0);
+            records.set(0, records.get(1));
+            records.set(1, first);
+            assertRejected(join(backup, header, records), key);
+        }
+    }
+
+    public void testTruncatedBackupRejected() throws Exception {
+        final byte[] backup = encrypt(database, true);
+        final List<byte[]> records = records(backup, HEADER_LENGTH);
+
+        // Whole chunks dropped from the end
+        assertRejected(join(backup, HEADER_LENGTH, records.subList(0, records.size() - 1)), key);
+        // Cut part way through the last chunk
+        assertRejected(Arrays.copyOf(backup, backup.length - 1), key);
+        // Cut inside the header
+        assertRejected(Arrays.copyOf(backup, HEADER_LENGTH - 1), key);
+    }
+
+    public void testExtendedBackupRejected() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            final byte[] backup = encrypt(database, compress);
+            final List<byte[]> records = records(backup, HEADER_LENGTH);
+
+            // A stray byte after the last chunk
+            assertRejected(Arrays.copyOf(backup, backup.length + 1), key);
+            // The last chunk repeated
+            records.add(records.get(records.size() - 1));
+            assertRejected(join(backup, HEADER_LENGTH, records), key);
+        }
+    }
+
+    public void testFlippedFlagRejected() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            final byte[] backup = encrypt(database, compress);
+            final int flipped = flags(backup) ^ ChunkedBackup.FLAG_DEFLATE;
+            ByteBuffer.wrap(backup).putInt(FLAGS_OFFSET, flipped);
+            assertRejected(backup, key);
+        }
+    }
+
+    public void testFlippedLastChunkFlagRejected() throws Exception {
+        final byte[] backup = encrypt(database, false);
+        // Mark the first chunk as the last, hiding the rest
+        backup[HEADER_LENGTH] |= 0x80;
+        assertRejected(backup, key);
+    }
+
+    /**
+     * Generate a database-like file: half random, half the repeated text and free pages that
+     * compress well.
+     */
+    static byte[] database(final int length) {
+        final byte[] bytes = new byte[length];
+        final Random random = new Random(length);
+        for (int offset = 0; offset < length; offset += 4096) {
+            final int n = Math.min(4096, length - offset);
+            if ((offset / 4096) % 2 == 0) {
+                final byte[] page = new byte[n];
+                random.nextBytes(page);
+                System.arraycopy(page, 0, bytes, offset, n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    bytes[offset + i] = (byte) ("Pairing " + (i / 64)).charAt(i % 8);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] encrypt(final byte[] plain, final boolean compress) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = ChunkedBackup.newEncryptingStream(bytes, key, compress);
+        out.write(plain);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a backup in version 1 of the format, which had no flags and is no longer written.
+     */
+    private byte[] writeVersion1(final byte[] plain) throws Exception {
+        final byte[] fileId = new byte[ChunkedBackup.FILE_ID_LENGTH];
+        new SecureRandom().nextBytes(fileId);
+        final ChunkedBackup.Keys keys = new ChunkedBackup.Keys(key, fileId);
+        final Cipher cipher = keys.cipher();
+        final Mac mac = keys.mac();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.write(ChunkedBackup.MAGIC);
+        out.writeInt(ChunkedBackup.VERSION_NO_FLAGS);
+        out.writeInt(ChunkedBackup.CHUNK_SIZE);
+        out.write(fileId);
+        int offset = 0;
+        long index = 0;
+        do {
+            final int length = Math.min(ChunkedBackup.CHUNK_SIZE, plain.length - offset);
+            final boolean last = (offset + length == plain.length);
+            final int record = last ? (length | ChunkedBackup.LAST_CHUNK) : length;
+            keys.init(cipher, Cipher.ENCRYPT_MODE, index);
+            final byte[] ciphertext = cipher.doFinal(plain, offset, length);
+            out.writeInt(record);
+            out.write(ciphertext);
+            out.write(ChunkedBackup.tag(mac, index, record, ciphertext, length));
+            offset += length;
+            index++;
+        } while (offset < plain.length);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(final byte[] backup, final BackupKey key) throws IOException {
+        final InputStream in =
+            ChunkedBackup.newDecryptingStream(new ByteArrayInputStream(backup), key);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertRejected(final byte[] backup, final BackupKey key) {
+        try {
+            decrypt(backup, key);
+            fail("Tampered backup was accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static int flags(final byte[] backup) {
+        return ByteBuffer.wrap(backup).getInt(FLAGS_OFFSET);
+    }
+
+    private static int headerLength(final byte[] backup) {
+        final int version = ByteBuffer.wrap(backup).getInt(ChunkedBackup.MAGIC.length);
+        return (version == ChunkedBackup.VERSION_NO_FLAGS) ? HEADER_LENGTH - 4 : HEADER_LENGTH;
+    }
+
+    /**
+     * Split a backup into its chunk records.
+     */
+    private static List<byte[]> records(final byte[] backup, final int header) {
+        final List<byte[]> records = new ArrayList<byte[]>();
+        final ByteBuffer buffer = ByteBuffer.wrap(backup);
+        for (int offset = header; offset < backup.length; ) {
+            final int length = (buffer.getInt(offset) & ~ChunkedBackup.LAST_CHUNK)
+                + 4 + ChunkedBackup.TAG_LENGTH;
+            records.add(Arrays.copyOfRange(backup, offset, offset + length));
+            offset += length;
+        }
+        return records;
+    }
+
+    /**
+     * Put a backup's header back together with a list of chunk records.
+     */
+    private static byte[] join(final byte[] backup, final int header,
+                               final List<byte[]> records) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(backup, 0, header);
+        for (byte[] record : records) {
+            bytes.write(record);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mypico.jpico.backup.BackupKey;
+
+import android.test.AndroidTestCase;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests of {@link IncrementalBackup}: snapshots restore the database they were made from, only
+ * changed chunks are written, and a bundle whose manifest or chunks don't match is rejected.
+ */
+public class IncrementalBackupTest extends AndroidTestCase {
+
+    // Several chunks and a short last one
+    private static final int LENGTH = 5 * IncrementalBackup.CHUNK_SIZE + 100;
+    // Offset of the creation time in a manifest, which download doesn't check
+    private static final int CREATED_OFFSET = 8;
+
+    private BackupKey key;
+    private MemoryBackupStore store;
+    private File dbFile;
+    private File bundle;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        key = new TestBackupKey();
+        store = new MemoryBackupStore();
+        dbFile = new File(getContext().getCacheDir(), "incremental_test.db");
+        bundle = new File(getContext().getCacheDir(), "incremental_test.bundle");
+        Files.write(ChunkedBackupTest.database(LENGTH), dbFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        dbFile.delete();
+        bundle.delete();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        final IncrementalBackup.Stats stats =
+            IncrementalBackup.create(dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS);
+        final String snapshot = IncrementalBackup.latestSnapshot(store);
+
+        assertEquals(stats.snapshot, snapshot);
+        assertEquals(6, stats.chunks);
+        assertEquals(6, stats.written);
+        assertEquals(LENGTH, IncrementalBackup.snapshotLength(store, snapshot));
+        assertTrue(Arrays.equals(Files.toByteArray(dbFile), restore(snapshot, key)));
+    }
+
+    public void testOnlyChangedChunksWritten() throws Exception {
+        IncrementalBackup.create(dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS);
+        final byte[] changed = Files.toByteArray(dbFile);
+        changed[2 * IncrementalBackup.CHUNK_SIZE + 10] ^= 1;
+        Files.write(changed, dbFile);
+        // Snapshots are named by the millisecond they were made in
+        Thread.sleep(5);
+
+        final IncrementalBackup.Stats stats =
+            IncrementalBackup.create(dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS);
+
+        assertEquals(6, stats.chunks);
+        assertEquals(1, stats.written);
+        assertEquals(7, store.list(IncrementalBackup.CHUNKS).size());
+        assertTrue(Arrays.equals(changed, restore(stats.snapshot, key)));
+    }
+
+    public void testOldSnapshotsPruned() throws Exception {
+        final byte[] database = Files.toByteArray(dbFile);
+        String first = null;
+        for (int i = 0; i < 3; i++) {
+            database[i * IncrementalBackup.CHUNK_SIZE] ^= 1;
+            Files.write(database, dbFile);
+            final String snapshot = IncrementalBackup.create(dbFile, key, store, 2).snapshot;
+            if (first == null) {
+                first = snapshot;
+            }
+            Thread.sleep(5);
+        }
+
+        final List<String> snapshots = store.list(IncrementalBackup.SNAPSHOTS);
+        assertEquals(2, snapshots.size());
+        assertFalse(snapshots.contains(first));
+        // The six chunks of the newest snapshot, and the one the other still needs
+        assertEquals(7, store.list(IncrementalBackup.CHUNKS).size());
+        assertTrue(Arrays.equals(database,
+            restore(IncrementalBackup.latestSnapshot(store), key)));
+    }
+
+    public void testWrongKeyRejected() throws Exception {
+        final String snapshot = IncrementalBackup.create(
+            dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS).snapshot;
+        assertRejected(snapshot, new TestBackupKey());
+    }
+
+    public void testTamperedManifestRejected() throws Exception {
+        final String snapshot = IncrementalBackup.create(
+            dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS).snapshot;
+        final byte[] manifest = store.read(IncrementalBackup.SNAPSHOTS, snapshot);
+        manifest[CREATED_OFFSET] ^= 1;
+        store.write(IncrementalBackup.SNAPSHOTS, snapshot, manifest);
+
+        assertRejected(snapshot, key);
+    }
+
+    public void testSwappedChunkRejected() throws Exception {
+        final String snapshot = IncrementalBackup.create(
+            dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS).snapshot;
+        // Each blob is a valid backup under the key, but not of the chunk its name claims
+        final List<String> chunks = store.list(IncrementalBackup.CHUNKS);
+        store.write(IncrementalBackup.CHUNKS, chunks.get(0),
+            store.read(IncrementalBackup.CHUNKS, chunks.get(1)));
+
+        assertRejected(snapshot, key);
+    }
+
+    public void testTruncatedBundleRejected() throws Exception {
+        final String snapshot = IncrementalBackup.create(
+            dbFile, key, store, IncrementalBackup.DEFAULT_SNAPSHOTS).snapshot;
+        IncrementalBackup.download(store, snapshot, bundle);
+        final byte[] bytes = Files.toByteArray(bundle);
+
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1), key);
+        assertRejected(Arrays.copyOf(bytes, bytes.length + 1), key);
+    }
+
+    private byte[] restore(final String snapshot, final BackupKey key) throws IOException {
+        IncrementalBackup.download(store, snapshot, bundle);
+        final InputStream in = new FileInputStream(bundle);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IncrementalBackup.restore(in, key, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertRejected(final String snapshot, final BackupKey key) {
+        try {
+            restore(snapshot, key);
+            fail("Tampered snapshot was restored");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static void assertRejected(final byte[] bundle, final BackupKey key) {
+        try {
+            IncrementalBackup.restore(
+                new ByteArrayInputStream(bundle), key, new ByteArrayOutputStream());
+            fail("Tampered bundle was restored");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mypico.android.backup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BackupStore} held in memory, which tests can read and tamper with directly.
+ */
+final class MemoryBackupStore implements BackupStore {
+
+    private final Map<String, Map<String, byte[]>> folders =
+        new HashMap<String, Map<String, byte[]>>();
+
+    @Override
+    public synchronized List<String> list(final String folder) {
+        final Map<String, byte[]> blobs = folders.get(folder);
+        return (blobs == null)
+            ? new ArrayList<String>() : new ArrayList<String>(blobs.keySet());
+    }
+
+    @Override
+    public synchronized byte[] read(final String folder, final String name) throws IOException {
+        final Map<String, byte[]> blobs = folders.get(folder);
+        final byte[] data = (blobs == null) ? null : blobs.get(name);
+        if (data == null) {
+            throw new FileNotFoundException(folder + "/" + name);
+        }
+        return data.clone();
+    }
+
+    @Override
+    public synchronized void write(final String folder, final String name, final byte[] data) {
+        Map<String, byte[]> blobs = folders.get(folder);
+        if (blobs == null) {
+            blobs = new HashMap<String, byte[]>();
+            folders.put(folder, blobs);
+        }
+        blobs.put(name, data.clone());
+    }
+
+    @Override
+    public synchronized void delete(final String folder, final String name) {
+        final Map<String, byte[]> blobs = folders.get(folder);
+        if (blobs != null) {
+            blobs.remove(name);
+        }
+    }
+}
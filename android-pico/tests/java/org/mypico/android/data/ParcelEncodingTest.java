@@ -0,0 +1,226 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.mypico.android.data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.jpico.data.session.Session;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+/**
+ * Compares the compact parcel encoding of the <code>Safe*</code> classes with the format they
+ * used before it.
+ * <p>
+ * For each of {@link #SCALES} a list of sessions spread over {@link #SERVICES} services is
+ * written the way a <code>Bundle</code> writes an <code>ArrayList</code> extra: once in the old
+ * format, with a class name for each nested object and URIs written as parcelables, and once in
+ * the compact format. The old format is reproduced here, as the classes no longer write it.
+ */
+public class ParcelEncodingTest extends AndroidTestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        ParcelEncodingTest.class.getSimpleName());
+
+    private static final int[] SCALES = {1, 10, 100, 1000};
+    private static final int SERVICES = 10;
+    private static final int SAMPLES = 50;
+
+    // Value the old format wrote for an unset pairing date
+    private static final long INVALID_DATE = -1;
+    // Parcel.VAL_PARCELABLE, written before each element of a list in a Bundle
+    private static final int VAL_PARCELABLE = 4;
+
+    public void testCompactListReadsBack() {
+        for (int scale : SCALES) {
+            final List<SafeSession> sessions = sessions(scale);
+            final Parcel parcel = Parcel.obtain();
+            try {
+                parcel.writeList(sessions);
+                parcel.setDataPosition(0);
+                final List<?> read = parcel.readArrayList(SafeSession.class.getClassLoader());
+
+                assertEquals(scale, read.size());
+                for (int i = 0; i < scale; i++) {
+                    final SafeSession expected = sessions.get(i);
+                    final SafeSession actual = (SafeSession) read.get(i);
+                    assertEquals(expected.getId(), actual.getId());
+                    assertEquals(expected.getStatus(), actual.getStatus());
+                    assertEquals(expected.getLastAuthDate(), actual.getLastAuthDate());
+                    assertEquals(expected.getSafePairing().getName(),
+                        actual.getSafePairing().getName());
+                    assertEquals(expected.getSafePairing().getSafeService().getAddress(),
+                        actual.getSafePairing().getSafeService().getAddress());
+                }
+            } finally {
+                parcel.recycle();
+            }
+        }
+    }
+
+    /**
+     * Dropping the nested class names and parcelable URIs must shrink every list, including the
+     * single-element lists that are actually sent to other components.
+     */
+    public void testCompactListIsSmaller() {
+        for (int scale : SCALES) {
+            final List<SafeSession> sessions = sessions(scale);
+            final Parcel legacy = Parcel.obtain();
+            final Parcel compact = Parcel.obtain();
+            try {
+                writeLegacyList(legacy, sessions);
+                compact.writeList(sessions);
+                LOGGER.info("{} sessions: legacy {} bytes, compact {} bytes", new Object[]{
+                    scale, legacy.dataSize(), compact.dataSize()});
+                assertTrue(scale + " sessions", compact.dataSize() < legacy.dataSize());
+            } finally {
+                legacy.recycle();
+                compact.recycle();
+            }
+        }
+    }
+
+    /**
+     * Reports the mean time to marshal each list in both formats, and to unmarshal the compact
+     * one. The timings are only logged: they vary too much between runs to assert on.
+     */
+    public void testMarshalTimes() {
+        for (int scale : SCALES) {
+            final List<SafeSession> sessions = sessions(scale);
+            long legacyTime = 0;
+            long compactTime = 0;
+            long readTime = 0;
+            for (int i = 0; i <= SAMPLES; i++) {
+                final Parcel legacy = Parcel.obtain();
+                final Parcel compact = Parcel.obtain();
+                try {
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    writeLegacyList(legacy, sessions);
+                    final long legacyWrite = SystemClock.elapsedRealtimeNanos() - start;
+
+                    start = SystemClock.elapsedRealtimeNanos();
+                    compact.writeList(sessions);
+                    final long compactWrite = SystemClock.elapsedRealtimeNanos() - start;
+
+                    compact.setDataPosition(0);
+                    start = SystemClock.elapsedRealtimeNanos();
+                    compact.readArrayList(SafeSession.class.getClassLoader());
+                    final long compactRead = SystemClock.elapsedRealtimeNanos() - start;
+
+                    // The first pass only warms up
+                    if (i > 0) {
+                        legacyTime += legacyWrite;
+                        compactTime += compactWrite;
+                        readTime += compactRead;
+                    }
+                } finally {
+                    legacy.recycle();
+                    compact.recycle();
+                }
+            }
+            LOGGER.info("{} sessions: legacy write {}us, compact write {}us, compact read {}us",
+                new Object[]{scale, legacyTime / SAMPLES / 1000, compactTime / SAMPLES / 1000,
+                    readTime / SAMPLES / 1000});
+        }
+    }
+
+    /**
+     * Build sessions the way {@link SafeSession#SafeSession(Session)} does for sessions read from
+     * the database: each has its own pairing and service objects, with known ids.
+     */
+    private static List<SafeSession> sessions(final int count) {
+        final List<SafeSession> sessions = new ArrayList<SafeSession>(count);
+        final Date now = new Date();
+        for (int i = 0; i < count; i++) {
+            final int serviceId = i % SERVICES;
+            final byte[] commitment = new byte[32];
+            commitment[0] = (byte) serviceId;
+            final SafeService service = new SafeService(serviceId, true,
+                "Service " + serviceId, Uri.parse("http://service" + serviceId + ".example.com/"),
+                commitment, null);
+            final SafePairing pairing =
+                new SafePairing(i, true, "Pairing " + i, service, now);
+            sessions.add(new SafeSession(i, pairing, Session.Status.ACTIVE,
+                Session.Error.values()[0], now, null));
+        }
+        return sessions;
+    }
+
+    private static void writeLegacyList(final Parcel out, final List<SafeSession> sessions) {
+        out.writeInt(sessions.size());
+        for (SafeSession session : sessions) {
+            out.writeInt(VAL_PARCELABLE);
+            out.writeString(SafeSession.class.getName());
+            writeLegacySession(out, session);
+        }
+    }
+
+    private static void writeLegacySession(final Parcel out, final SafeSession session) {
+        out.writeInt(session.getId());
+        out.writeString(SafePairing.class.getName());
+        writeLegacyPairing(out, session.getSafePairing());
+        out.writeInt(session.getStatus().ordinal());
+        out.writeInt(session.getError().ordinal());
+        final Date lastAuthDate = session.getLastAuthDate();
+        out.writeLong((lastAuthDate != null) ? lastAuthDate.getTime() : 0);
+        // The samples have no auth token
+        out.writeString(null);
+    }
+
+    private static void writeLegacyPairing(final Parcel out, final SafePairing pairing) {
+        out.writeBooleanArray(new boolean[]{pairing.idIsKnown()});
+        final Date dateCreated = pairing.getDateCreated().orNull();
+        out.writeLong((dateCreated != null) ? dateCreated.getTime() : INVALID_DATE);
+        out.writeInt(pairing.getId());
+        out.writeString(pairing.getName());
+        out.writeString(SafeService.class.getName());
+        writeLegacyService(out, pairing.getSafeService());
+    }
+
+    private static void writeLegacyService(final Parcel out, final SafeService service) {
+        out.writeInt(service.getCommitment().length);
+        out.writeByteArray(service.getCommitment());
+        out.writeBooleanArray(new boolean[]{service.idIsKnown()});
+        // The id is not exposed; it only affects the timing, not the size
+        out.writeInt(0);
+        out.writeString(service.getName());
+        writeLegacyUri(out, service.getAddress());
+        writeLegacyUri(out, service.getLogoUri());
+    }
+
+    private static void writeLegacyUri(final Parcel out, final Uri uri) {
+        if (uri == null) {
+            out.writeString(null);
+        } else {
+            // As Parcel.writeParcelable does
+            out.writeString(uri.getClass().getName());
+            uri.writeToParcel(out, 0);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.mypico.android.db;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.jpico.crypto.CryptoFactory;
+import org.mypico.jpico.data.pairing.KeyPairing;
+import org.mypico.jpico.data.service.Service;
+import org.mypico.jpico.data.session.Session;
+import org.mypico.jpico.db.DbDataAccessor;
+import org.mypico.jpico.db.DbDataFactory;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+/**
+ * Test of concurrent authentication writes and pairing-list reads.
+ * <p>
+ * A scratch database is seeded with synthetic key pairings. Writer threads then persist
+ * sessions, as {@code AuthenticateIntentService} does after each login, while reader threads
+ * load the full pairing list, as {@code PairingsIntentService} does. The run is repeated with
+ * the read-only pool disabled and enabled.
+ */
+public class DbConcurrencyTest extends AndroidTestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DbConcurrencyTest.class.getSimpleName());
+
+    private static final String DATABASE_NAME = "pico_concurrency_test.db";
+
+    private static final int PAIRINGS = 200;
+    private static final int WRITERS = 2;
+    private static final int SESSIONS_PER_WRITER = 50;
+    private static final int READERS = 2;
+    private static final int READS_PER_READER = 20;
+    // Number of runs in each configuration for the timing comparison
+    private static final int RUNS = 5;
+    // Factor by which the pooled median may exceed the serial one before the test fails
+    private static final double TOLERANCE = 1.25;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Every write must land and every read must see the whole list, whether the reads share the
+     * writer's connection or use the pool.
+     */
+    public void testReadsAndWritesComplete() throws Exception {
+        run(0);
+        run(DbHelper.DEFAULT_READ_CONNECTIONS);
+    }
+
+    /**
+     * With the pool, list reads no longer queue behind session writes, so they must be no slower
+     * than on a single connection. The configurations are run alternately several times and
+     * their medians compared, with a {@link #TOLERANCE} for scheduling noise.
+     */
+    public void testPoolSpeedsUpReadsUnderWriteLoad() throws Exception {
+        final long[] serialRuns = new long[RUNS];
+        final long[] pooledRuns = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            serialRuns[i] = run(0);
+            pooledRuns[i] = run(DbHelper.DEFAULT_READ_CONNECTIONS);
+        }
+        final long serial = median(serialRuns);
+        final long pooled = median(pooledRuns);
+        LOGGER.info("List read under write load: single connection {}us, read pool {}us",
+            serial / 1000, pooled / 1000);
+        assertTrue("pooled " + pooled + "ns, single connection " + serial + "ns",
+            pooled <= serial * TOLERANCE);
+    }
+
+    private static long median(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Run the writers and readers against a freshly seeded database.
+     *
+     * @param readConnections Size of the read-only pool.
+     * @return The mean latency of a list read in nanoseconds.
+     */
+    private long run(final int readConnections) throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        final DbHelper helper = new DbHelper(getContext(), DATABASE_NAME, true);
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        try {
+            helper.setReadConnectionPoolSize(readConnections);
+            final DbDataFactory factory = helper.getDataFactory();
+            final DbDataAccessor accessor = helper.getDataAccessor();
+            final List<KeyPairing> pairings = seed(factory);
+
+            final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+            final List<Future<Long>> reads = new ArrayList<Future<Long>>();
+            for (int i = 0; i < WRITERS; i++) {
+                writes.add(executor.submit(new SessionWriter(factory, pairings, i)));
+            }
+            for (int i = 0; i < READERS; i++) {
+                reads.add(executor.submit(new ListReader(accessor)));
+            }
+
+            long readNanos = 0;
+            for (Future<Long> read : reads) {
+                readNanos += read.get();
+            }
+            for (Future<Void> write : writes) {
+                write.get();
+            }
+            assertEquals(WRITERS * SESSIONS_PER_WRITER, helper.getSessionDao().countOf());
+            return readNanos / (READERS * READS_PER_READER);
+        } finally {
+            executor.shutdownNow();
+            helper.close();
+        }
+    }
+
+    private static List<KeyPairing> seed(final DbDataFactory factory) throws IOException {
+        final SecureRandom random = new SecureRandom();
+        final KeyPair keyPair = CryptoFactory.INSTANCE.ecKpg().generateKeyPair();
+        final List<KeyPairing> pairings = new ArrayList<KeyPairing>(PAIRINGS);
+        for (int i = 0; i < PAIRINGS; i++) {
+            final byte[] commitment = new byte[32];
+            random.nextBytes(commitment);
+            final Service service = new Service(factory, "Service " + i,
+                URI.create("http://test.invalid/" + i), commitment);
+            final KeyPairing pairing =
+                new KeyPairing(factory, "Pairing " + i, service, keyPair, null);
+            pairing.save();
+            pairings.add(pairing);
+        }
+        return pairings;
+    }
+
+    /**
+     * Persists closed sessions against the synthetic pairings.
+     */
+    private static final class SessionWriter implements Callable<Void> {
+
+        private final DbDataFactory factory;
+        private final List<KeyPairing> pairings;
+        private final int id;
+
+        SessionWriter(final DbDataFactory factory, final List<KeyPairing> pairings,
+                      final int id) {
+            this.factory = factory;
+            this.pairings = pairings;
+            this.id = id;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            for (int i = 0; i < SESSIONS_PER_WRITER; i++) {
+                final KeyPairing pairing = pairings.get((id + i) % pairings.size());
+                Session.newInstanceClosed(factory, id + "-" + i, pairing, null).save();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Loads the full pairing list repeatedly, checking its size and returning the total time
+     * spent.
+     */
+    private static final class ListReader implements Callable<Long> {
+
+        private final DbDataAccessor accessor;
+
+        ListReader(final DbDataAccessor accessor) {
+            this.accessor = accessor;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            long total = 0;
+            for (int i = 0; i < READS_PER_READER; i++) {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                final int keyPairings = accessor.getAllKeyPairings().size();
+                accessor.getAllLensPairings();
+                total += SystemClock.elapsedRealtimeNanos() - start;
+                assertEquals(PAIRINGS, keyPairings);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.mypico.android.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.mypico.android.data.SafePairing.PairingType;
+import org.mypico.jpico.db.DbPairingImp;
+import org.mypico.jpico.db.DbServiceImp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+
+/**
+ * Checks with {@code EXPLAIN QUERY PLAN} that the login lookups and the pairing joins use the
+ * indexes added by {@link DbIndexes} rather than scanning a table.
+ */
+public class DbIndexesTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "pico_indexes_test.db";
+
+    private DbHelper helper;
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        helper = new DbHelper(getContext(), DATABASE_NAME, true);
+        // Opening for writing adds the indexes
+        db = helper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        helper.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEqualityLookupsUseIndexes() throws Exception {
+        for (DbIndexes.Column c : DbIndexes.hotColumns(helper)) {
+            assertNoTableScan("SELECT * FROM `" + c.table + "` WHERE `" + c.column + "` = ?");
+        }
+    }
+
+    public void testPairingsByServiceCommitmentUseIndexes() throws Exception {
+        assertNoTableScan(byServiceCommitment(helper.getKeyPairingDao().queryBuilder()));
+        assertNoTableScan(byServiceCommitment(helper.getLensPairingDao().queryBuilder()));
+    }
+
+    public void testPairingSummariesByServiceUseIndexes() throws Exception {
+        assertNoTableScan(PairingSummaries.select(helper, null, true));
+        assertNoTableScan(PairingSummaries.select(helper, PairingType.KEY, true));
+        assertNoTableScan(PairingSummaries.select(helper, PairingType.CREDENTIAL, true));
+    }
+
+    /**
+     * Join a pairing query to the pairing and service tables and filter on the service
+     * commitment, as the jpico accessors do when a service asks to authenticate.
+     */
+    private String byServiceCommitment(final QueryBuilder<?, ?> pairingsOfType)
+        throws Exception {
+        final QueryBuilder<DbServiceImp, Integer> services =
+            helper.getServiceDao().queryBuilder();
+        services.where().eq(serviceCommitmentColumn(), new SelectArg());
+        final QueryBuilder<DbPairingImp, Integer> pairings =
+            helper.getPairingDao().queryBuilder();
+        return pairingsOfType.join(pairings.join(services)).prepareStatementString();
+    }
+
+    private String serviceCommitmentColumn() throws Exception {
+        final String table = DbHelper.getTableInfo(helper.getServiceDao()).getTableName();
+        for (DbIndexes.Column c : DbIndexes.hotColumns(helper)) {
+            if (c.table.equals(table)) {
+                return c.column;
+            }
+        }
+        throw new AssertionError("No indexed column in " + table);
+    }
+
+    /**
+     * Assert that no step of a statement's plan scans a table without an index.
+     *
+     * @param sql The statement, with a single argument.
+     */
+    private void assertNoTableScan(final String sql) {
+        final List<String> steps = new ArrayList<String>();
+        final Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, new String[]{"0"});
+        try {
+            final int detail = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                steps.add(plan.getString(detail));
+            }
+        } finally {
+            plan.close();
+        }
+        for (String step : steps) {
+            final String upper = step.toUpperCase(Locale.US);
+            assertFalse(sql + " scans a table: " + steps,
+                upper.startsWith("SCAN") && !upper.contains(" USING "));
+        }
+    }
+}
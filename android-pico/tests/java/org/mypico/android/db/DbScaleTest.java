@@ -0,0 +1,296 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.mypico.android.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.mypico.android.backup.ChunkedBackup;
+import org.mypico.android.data.SafeKeyPairing;
+import org.mypico.android.data.SafeLensPairing;
+import org.mypico.android.data.SafePairing;
+import org.mypico.jpico.backup.BackupKey;
+import org.mypico.jpico.crypto.CryptoFactory;
+import org.mypico.jpico.data.pairing.KeyPairing;
+import org.mypico.jpico.data.pairing.LensPairing;
+import org.mypico.jpico.data.service.Service;
+import org.mypico.jpico.data.session.Session;
+import org.mypico.jpico.data.terminal.Terminal;
+import org.mypico.jpico.db.DbDataAccessor;
+import org.mypico.jpico.db.DbDataFactory;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.j256.ormlite.misc.TransactionManager;
+
+/**
+ * Tests how the data layer scales with the size of the database.
+ * <p>
+ * For each of {@link #SCALES} a scratch database is filled through the real jpico data classes
+ * with that many key pairings, each with its own service and a closed session, and that many
+ * terminals. The test then lists every pairing the way {@code GET_ALL_PAIRINGS_ACTION} does,
+ * looks pairings and terminals up by commitment, inserts and deletes pairings, and writes a
+ * compressed backup of the database.
+ * <p>
+ * The indexed lookups, inserts and deletes must stay within {@link #MAX_GROWTH} times their
+ * latency on the smallest database. Listing and backing up have to touch every row, so it is
+ * their time per row that must stay within that factor.
+ */
+public class DbScaleTest extends AndroidTestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DbScaleTest.class.getSimpleName());
+
+    /// Number of pairings, and sessions, in each generated database
+    private static final int[] SCALES = {10, 1000, 50000};
+    /// Factor by which a per-row latency may grow from the smallest to the largest database
+    private static final double MAX_GROWTH = 10;
+
+    private static final String DATABASE_NAME = "pico_scale_test.db";
+    // Number of operations averaged for the lookup, insert and delete metrics
+    private static final int SAMPLES = 20;
+    // Differences below this are noise whatever the ratio
+    private static final long MIN_GROWTH_NANOS = 1000000;
+    // Scale at which the backup sizes are compared
+    private static final int BACKUP_SCALE = 1000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Lookups, inserts and deletes use the indexes, so their latency must not grow with the
+     * number of pairings the way a table scan would. Listing and backing up must stay linear.
+     */
+    public void testPerRowLatencyScales() throws Exception {
+        final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+        final BackupKey key = new TestBackupKey();
+        for (int scale : SCALES) {
+            getContext().deleteDatabase(DATABASE_NAME);
+            final DbHelper helper = new DbHelper(getContext(), DATABASE_NAME, true);
+            try {
+                runScale(helper, scale, timings);
+                helper.checkpoint();
+                timings.put("backup@" + scale, timeBackup(
+                    getContext().getDatabasePath(DATABASE_NAME), key, scale));
+            } finally {
+                helper.close();
+            }
+        }
+        LOGGER.info("Data layer scaling (ns): {}", timings);
+
+        final int smallest = SCALES[0];
+        final int largest = SCALES[SCALES.length - 1];
+        for (String metric
+            : new String[]{"list", "lookup", "terminal", "insert", "delete", "backup"}) {
+            final long small = timings.get(metric + "@" + smallest);
+            final long large = timings.get(metric + "@" + largest);
+            assertTrue(String.format("%s took %.2fms at %d pairings, %.2fms at %d",
+                    metric, large / 1e6, largest, small / 1e6, smallest),
+                large <= small * MAX_GROWTH || large - small <= MIN_GROWTH_NANOS);
+        }
+    }
+
+    /**
+     * A compressed backup of a realistic database must be smaller than an uncompressed one.
+     */
+    public void testCompressedBackupIsSmaller() throws Exception {
+        final BackupKey key = new TestBackupKey();
+        getContext().deleteDatabase(DATABASE_NAME);
+        final DbHelper helper = new DbHelper(getContext(), DATABASE_NAME, true);
+        try {
+            seed(helper, helper.getDataFactory(),
+                CryptoFactory.INSTANCE.ecKpg().generateKeyPair(), BACKUP_SCALE);
+            helper.checkpoint();
+            final File dbFile = getContext().getDatabasePath(DATABASE_NAME);
+            final long plain = backupSize(dbFile, key, false);
+            final long deflated = backupSize(dbFile, key, true);
+            LOGGER.info("Backup {} bytes, compressed {} bytes", plain, deflated);
+            assertTrue(deflated + " >= " + plain, deflated < plain);
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void runScale(final DbHelper helper, final int scale,
+                                 final Map<String, Long> timings) throws Exception {
+        final DbDataFactory factory = helper.getDataFactory();
+        final DbDataAccessor accessor = helper.getDataAccessor();
+        final KeyPair keyPair = CryptoFactory.INSTANCE.ecKpg().generateKeyPair();
+        final List<byte[]> commitments = seed(helper, factory, keyPair, scale);
+
+        timings.put("list@" + scale, timeList(accessor, scale));
+        timings.put("lookup@" + scale, timeLookup(accessor, commitments));
+        timings.put("terminal@" + scale, timeTerminalLookup(accessor, commitments));
+
+        final List<Integer> inserted = new ArrayList<Integer>(SAMPLES);
+        timings.put("insert@" + scale, timeInsert(factory, keyPair, scale, inserted));
+        timings.put("delete@" + scale, timeDelete(helper, inserted));
+        assertEquals(scale, accessor.getAllKeyPairings().size());
+    }
+
+    /**
+     * Fill the database in a single transaction, returning a sample of the commitments. Each
+     * commitment is shared by a service and a terminal.
+     */
+    private static List<byte[]> seed(final DbHelper helper, final DbDataFactory factory,
+                                     final KeyPair keyPair, final int count) throws Exception {
+        final List<byte[]> sample = new ArrayList<byte[]>(SAMPLES);
+        final SecureRandom random = new SecureRandom();
+        final int stride = Math.max(1, count / SAMPLES);
+        TransactionManager.callInTransaction(helper.getConnectionSource(), new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                for (int i = 0; i < count; i++) {
+                    final byte[] commitment = new byte[32];
+                    random.nextBytes(commitment);
+                    createPairing(factory, keyPair, i, commitment);
+                    new Terminal(factory, "Terminal " + i, commitment,
+                        keyPair.getPublic(), keyPair.getPrivate()).save();
+                    if (i % stride == 0 && sample.size() < SAMPLES) {
+                        sample.add(commitment);
+                    }
+                }
+                return null;
+            }
+        });
+        return sample;
+    }
+
+    private static KeyPairing createPairing(final DbDataFactory factory, final KeyPair keyPair,
+                                            final int i, final byte[] commitment)
+        throws IOException {
+        final Service service = new Service(factory, "Service " + i,
+            URI.create("http://test.invalid/" + i), commitment);
+        final KeyPairing pairing = new KeyPairing(factory, "Pairing " + i, service, keyPair, null);
+        pairing.save();
+        Session.newInstanceClosed(factory, Integer.toString(i), pairing, null).save();
+        return pairing;
+    }
+
+    /**
+     * Load every pairing and convert it for a broadcast, as {@code GET_ALL_PAIRINGS_ACTION} does,
+     * returning the time per pairing.
+     */
+    private static long timeList(final DbDataAccessor accessor, final int scale)
+        throws IOException {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final List<SafePairing> result = new ArrayList<SafePairing>();
+        for (LensPairing lp : accessor.getAllLensPairings()) {
+            result.add(new SafeLensPairing(lp));
+        }
+        for (KeyPairing kp : accessor.getAllKeyPairings()) {
+            result.add(new SafeKeyPairing(kp));
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals(scale, result.size());
+        return elapsed / scale;
+    }
+
+    private static long timeLookup(final DbDataAccessor accessor, final List<byte[]> commitments)
+        throws IOException {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (byte[] commitment : commitments) {
+            assertFalse("Seeded pairing not found",
+                accessor.getKeyPairingsByServiceCommitment(commitment).isEmpty());
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / Math.max(1, commitments.size());
+    }
+
+    private static long timeTerminalLookup(final DbDataAccessor accessor,
+                                           final List<byte[]> commitments) throws IOException {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (byte[] commitment : commitments) {
+            assertNotNull("Seeded terminal not found",
+                accessor.getTerminalByCommitment(commitment));
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / Math.max(1, commitments.size());
+    }
+
+    private static long timeInsert(final DbDataFactory factory, final KeyPair keyPair,
+                                   final int scale, final List<Integer> inserted)
+        throws IOException {
+        final SecureRandom random = new SecureRandom();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < SAMPLES; i++) {
+            final byte[] commitment = new byte[32];
+            random.nextBytes(commitment);
+            inserted.add(createPairing(factory, keyPair, scale + i, commitment).getId());
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / SAMPLES;
+    }
+
+    private static long timeDelete(final DbHelper helper, final List<Integer> ids)
+        throws IOException {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int id : ids) {
+            final List<PairingBatch.Outcome> outcome =
+                new PairingBatch().delete(id).execute(helper);
+            assertEquals("Inserted pairing " + id + " not deleted",
+                PairingBatch.Outcome.DONE, outcome.get(0));
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / Math.max(1, ids.size());
+    }
+
+    /**
+     * Write a compressed backup of the database, returning the time per pairing.
+     */
+    private static long timeBackup(final File dbFile, final BackupKey key, final int scale)
+        throws IOException {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final long size = backupSize(dbFile, key, true);
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        assertTrue("Empty backup", size > 0);
+        return elapsed / scale;
+    }
+
+    private static long backupSize(final File dbFile, final BackupKey key, final boolean compress)
+        throws IOException {
+        final CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+        ChunkedBackup.writeBackup(dbFile, key, compress, out);
+        return out.getCount();
+    }
+
+    /**
+     * A random backup key, so the user's configured key is neither needed nor replaced.
+     */
+    private static final class TestBackupKey extends BackupKey {
+        TestBackupKey() {
+            super();
+        }
+    }
+}
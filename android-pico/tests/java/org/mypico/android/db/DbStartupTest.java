@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright Cambridge Authentication Ltd, 2017
+ *
+ * This file is part of android-pico.
+ *
+ * android-pico is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * android-pico is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with android-pico. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.mypico.android.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.table.TableInfo;
+
+/**
+ * Cold-start test comparing DAO creation with and without the pre-generated ORMLite table
+ * configuration.
+ * <p>
+ * Each cold start clears the ORMLite caches, constructs a fresh {@link DbHelper} against a
+ * scratch database and builds every DAO, which is the work done on the first database access
+ * after the process starts.
+ */
+public class DbStartupTest extends AndroidTestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DbStartupTest.class.getSimpleName());
+
+    private static final String DATABASE_NAME = "pico_startup_test.db";
+    private static final int ITERATIONS = 10;
+    // Factor by which the config file median may exceed the reflection one before the test fails
+    private static final double TOLERANCE = 1.25;
+
+    @Override
+    protected void tearDown() throws Exception {
+        DaoManager.clearCache();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * The generated configuration must describe the same tables and columns as the annotations,
+     * otherwise it is stale and the DAOs would read and write the wrong columns.
+     */
+    public void testConfigFileMatchesAnnotations() throws SQLException {
+        DaoManager.clearCache();
+        final List<String> reflected = describeTables(false);
+        DaoManager.clearCache();
+        final List<String> configured = describeTables(true);
+        assertEquals(reflected, configured);
+    }
+
+    /**
+     * Building the DAOs from the configuration must be no slower than reflecting over the
+     * annotations. The two are run alternately and their medians compared, with a
+     * {@link #TOLERANCE} for scheduling noise.
+     */
+    public void testConfigFileStartsNoSlower() throws SQLException {
+        // Warm the class loader so the first measured run is not penalised
+        coldStart(false);
+        final long[] reflectionRuns = new long[ITERATIONS];
+        final long[] configFileRuns = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            reflectionRuns[i] = coldStart(false);
+            configFileRuns[i] = coldStart(true);
+        }
+        final long reflection = median(reflectionRuns);
+        final long configFile = median(configFileRuns);
+        LOGGER.info("DAO cold start: reflection {}us, config file {}us",
+            reflection / 1000, configFile / 1000);
+        assertTrue("config file " + configFile + "ns, reflection " + reflection + "ns",
+            configFile <= reflection * TOLERANCE);
+    }
+
+    private List<String> describeTables(final boolean useConfigFile) throws SQLException {
+        final DbHelper helper = new DbHelper(getContext(), DATABASE_NAME, useConfigFile);
+        try {
+            final List<String> tables = new ArrayList<String>();
+            describe(helper.getServiceDao(), tables);
+            describe(helper.getPairingDao(), tables);
+            describe(helper.getKeyPairingDao(), tables);
+            describe(helper.getLensPairingDao(), tables);
+            describe(helper.getSessionDao(), tables);
+            describe(helper.getTerminalDao(), tables);
+            return tables;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void describe(final Dao<?, ?> dao, final List<String> tables) {
+        final TableInfo<?, ?> info = DbHelper.getTableInfo(dao);
+        final StringBuilder sb = new StringBuilder(info.getTableName());
+        for (FieldType field : info.getFieldTypes()) {
+            sb.append(' ').append(field.getColumnName());
+            if (field.isId() || field.isGeneratedId()) {
+                sb.append("(id)");
+            }
+            if (field.isForeign()) {
+                sb.append("(foreign)");
+            }
+        }
+        tables.add(sb.toString());
+    }
+
+    private static long median(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private long coldStart(final boolean useConfigFile) throws SQLException {
+        DaoManager.clearCache();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final DbHelper helper = new DbHelper(getContext(), DATABASE_NAME, useConfigFile);
+        try {
+            helper.getServiceDao();
+            helper.getPairingDao();
+            helper.getKeyPairingDao();
+            helper.getLensPairingDao();
+            helper.getSessionDao();
+            helper.getTerminalDao();
+            return SystemClock.elapsedRealtimeNanos() - start;
+        } finally {
+            helper.close();
+        }
+    }
+}
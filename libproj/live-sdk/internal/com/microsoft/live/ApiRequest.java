@@ -214,7 +214,8 @@ abstract class ApiRequest<ResponseType> {
         // if the session will soon expire, try to send the request without a token.
         // the request *may* not need the token, let's give it a try rather than
         // risk a request with an invalid token.
-        if (!this.session.willExpireInSecs(SESSION_TOKEN_SEND_BUFFER_SECS)) {
+        if (this.sendsAccessToken() &&
+            !this.session.willExpireInSecs(SESSION_TOKEN_SEND_BUFFER_SECS)) {
             request.addHeader(createAuthroizationHeader(this.session));
         }
 
@@ -254,6 +255,16 @@ abstract class ApiRequest<ResponseType> {
         this.observers.remove(observer);
     }
 
+    /**
+     * Subclasses that send requests to pre-authorized URLs, such as an upload session,
+     * can override this to leave the Authorization header off.
+     *
+     * @return true if the access_token should be sent with the request
+     */
+    protected boolean sendsAccessToken() {
+        return true;
+    }
+
     /**
      * Factory method that allows subclasses to choose which type of request will
      * be performed.
@@ -33,6 +33,7 @@ enum Config {
     private Uri oAuthDesktopUri;
     private Uri oAuthLogoutUri;
     private Uri oAuthTokenUri;
+    private Uri uploadSessionUri;
 
     Config() {
         // initialize default values for constants
@@ -42,6 +43,7 @@ enum Config {
         oAuthDesktopUri = Uri.parse("https://login.live.com/oauth20_desktop.srf");
         oAuthLogoutUri = Uri.parse("https://login.live.com/oauth20_logout.srf");
         oAuthTokenUri = Uri.parse("https://login.live.com/oauth20_token.srf");
+        uploadSessionUri = Uri.parse("https://api.onedrive.com/v1.0");
     }
 
     public Uri getApiUri() {
@@ -68,6 +70,15 @@ enum Config {
         return oAuthTokenUri;
     }
 
+    /**
+     * @return the base of the OneDrive API used for resumable upload sessions. The session
+     *         requests carry the Live Connect access token, and fall back to the Live API if it
+     *         is not accepted there.
+     */
+    public Uri getUploadSessionUri() {
+        return uploadSessionUri;
+    }
+
     public void setApiUri(Uri apiUri) {
         assert apiUri != null;
         this.apiUri = apiUri;
@@ -98,4 +109,9 @@ enum Config {
         assert oAuthTokenUri != null;
         this.oAuthTokenUri = oAuthTokenUri;
     }
+
+    public void setUploadSessionUri(Uri uploadSessionUri) {
+        assert uploadSessionUri != null;
+        this.uploadSessionUri = uploadSessionUri;
+    }
 }
@@ -36,6 +36,8 @@ final class ErrorMessages {
             "Another login operation is already in progress.";
     public static final String MISSING_UPLOAD_LOCATION =
             "The provided path does not contain an upload_location.";
+    public static final String MISSING_UPLOAD_URL =
+            "The server did not return an uploadUrl for the upload session.";
     public static final String NON_INSTANTIABLE_CLASS = "Non-instantiable class";
     public static final String NULL_PARAMETER =
             "Input parameter '%1$s' is invalid. '%1$s' cannot be null.";
@@ -0,0 +1,571 @@
+//------------------------------------------------------------------------------
+// Copyright 2014 Microsoft Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// Description: See the class level JavaDoc comments.
+//------------------------------------------------------------------------------
+
+package com.microsoft.live;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.microsoft.live.EntityEnclosingApiRequest.UploadProgressListener;
+
+/**
+ * ResumableUploadRequest uploads a file in ranges through an upload session, so that a dropped
+ * connection only costs the range that was in flight rather than the whole file.
+ *
+ * The session is created with an HTTP POST, which returns a pre-authorized uploadUrl. Each range
+ * is sent to the uploadUrl with an HTTP PUT and a Content-Range header; the server answers with
+ * the nextExpectedRanges until the last range, which returns the new file. An HTTP GET on the
+ * uploadUrl reports the ranges the server is still waiting for.
+ *
+ * The uploadUrl and the number of bytes accepted are written to a state file after every range,
+ * so a later request for the same file and filename resumes where this one stopped, even after
+ * the process has been restarted.
+ *
+ * Upload sessions belong to the OneDrive API at {@link Config#getUploadSessionUri()}, not to the
+ * Live API the rest of the SDK talks to. If that endpoint refuses the Live Connect access token,
+ * for example because it was granted for the wl.skydrive_update scope only, the whole file is
+ * uploaded with a single {@link UploadRequest} to the Live API instead.
+ */
+class ResumableUploadRequest extends ApiRequest<JSONObject> {
+
+    public static final String METHOD = HttpPut.METHOD_NAME;
+
+    /** Size of each range. The server requires a multiple of 320 KiB. */
+    static final int RANGE_SIZE = 4 * 320 * 1024;
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 1000L;
+    private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final String CONFLICT_BEHAVIOR_KEY = "@name.conflictBehavior";
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+    private static final String CREATE_SESSION_PATH = ":/createUploadSession";
+    private static final String ERROR_KEY = "error";
+    private static final String FOLDER_ID_PREFIX = "folder.";
+    private static final String ITEM_KEY = "item";
+    private static final String NEXT_EXPECTED_RANGES_KEY = "nextExpectedRanges";
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final String ROOT_PATH = "me/skydrive";
+    private static final String SIZE_KEY = "size";
+    private static final String UPLOAD_URL_KEY = "uploadUrl";
+
+    /**
+     * State is the persisted progress of an upload session.
+     */
+    static class State {
+
+        private static final String FILENAME_KEY = "filename";
+        private static final String LAST_MODIFIED_KEY = "lastModified";
+        private static final String LENGTH_KEY = "length";
+        private static final String OFFSET_KEY = "offset";
+
+        final String uploadUrl;
+        final String filename;
+        final long length;
+        final long lastModified;
+        long offset;
+
+        State(String uploadUrl, String filename, long length, long lastModified) {
+            assert !TextUtils.isEmpty(uploadUrl);
+            assert !TextUtils.isEmpty(filename);
+
+            this.uploadUrl = uploadUrl;
+            this.filename = filename;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.offset = 0L;
+        }
+
+        /**
+         * Reads the state written by {@link #save(File)}.
+         *
+         * @param stateFile to read
+         * @return the state, or null if there is none or it cannot be read
+         */
+        static State load(File stateFile) {
+            if (!stateFile.isFile()) {
+                return null;
+            }
+
+            try {
+                RandomAccessFile in = new RandomAccessFile(stateFile, "r");
+                byte[] bytes;
+                try {
+                    bytes = new byte[(int) in.length()];
+                    in.readFully(bytes);
+                } finally {
+                    in.close();
+                }
+
+                JSONObject json = new JSONObject(new String(bytes, "UTF-8"));
+                State state = new State(json.getString(UPLOAD_URL_KEY),
+                                        json.getString(FILENAME_KEY),
+                                        json.getLong(LENGTH_KEY),
+                                        json.getLong(LAST_MODIFIED_KEY));
+                state.offset = json.getLong(OFFSET_KEY);
+                return state;
+            } catch (IOException e) {
+                return null;
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+
+        /** @return true if this state belongs to an upload of the given file and filename */
+        boolean isFor(File file, String filename) {
+            return this.filename.equals(filename) &&
+                   this.length == file.length() &&
+                   this.lastModified == file.lastModified();
+        }
+
+        /**
+         * Writes the state to a temporary file that then replaces the given file, so that an
+         * interrupted write leaves the previous state intact.
+         *
+         * @param stateFile to write to
+         * @throws LiveOperationException if the state could not be written
+         */
+        void save(File stateFile) throws LiveOperationException {
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try {
+                JSONObject json = new JSONObject();
+                json.put(UPLOAD_URL_KEY, this.uploadUrl);
+                json.put(FILENAME_KEY, this.filename);
+                json.put(LENGTH_KEY, this.length);
+                json.put(LAST_MODIFIED_KEY, this.lastModified);
+                json.put(OFFSET_KEY, this.offset);
+
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(json.toString().getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                tmp.delete();
+                throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+            } catch (JSONException e) {
+                tmp.delete();
+                throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+            }
+
+            if (!tmp.renameTo(stateFile)) {
+                tmp.delete();
+                throw new LiveOperationException(ErrorMessages.CLIENT_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Converts a Live Connect folder path, such as me/skydrive or a folder id, into the item
+     * path used by the upload session API.
+     */
+    static String toItemPath(String path) {
+        assert !TextUtils.isEmpty(path);
+
+        if (path.equalsIgnoreCase(ROOT_PATH)) {
+            return "/drive/root";
+        }
+
+        // Live Connect folder ids have the form folder.<cid>.<item id>
+        String id = path;
+        if (id.startsWith(FOLDER_ID_PREFIX)) {
+            id = id.substring(id.lastIndexOf('.') + 1);
+        }
+        return "/drive/items/" + Uri.encode(id);
+    }
+
+    private boolean authorized;
+    private final HttpClient client;
+    private HttpUriRequest currentRequest;
+    private final File file;
+    private final String filename;
+    private final List<UploadProgressListener> listeners;
+    private final OverwriteOption overwrite;
+    private final LiveConnectSession session;
+    private final File stateFile;
+    private int statusCode;
+
+    public ResumableUploadRequest(LiveConnectSession session,
+                                  HttpClient client,
+                                  String path,
+                                  File file,
+                                  String filename,
+                                  OverwriteOption overwrite,
+                                  File stateFile) {
+        super(session,
+              client,
+              JsonResponseHandler.INSTANCE,
+              path,
+              ResponseCodes.UNSUPPRESSED,
+              Redirects.UNSUPPRESSED);
+
+        assert file != null;
+        assert !TextUtils.isEmpty(filename);
+        assert overwrite != null;
+        assert stateFile != null;
+
+        this.client = client;
+        this.file = file;
+        this.filename = filename;
+        this.listeners = new ArrayList<UploadProgressListener>();
+        this.overwrite = overwrite;
+        this.session = session;
+        this.stateFile = stateFile;
+
+        // The response handler only sees the body, but the status code says whether the
+        // session wants more ranges or is complete.
+        this.addObserver(new Observer() {
+            @Override
+            public void onComplete(HttpResponse response) {
+                statusCode = response.getStatusLine().getStatusCode();
+            }
+        });
+    }
+
+    /**
+     * Adds an UploadProgressListener to be called after each range is accepted.
+     *
+     * @param listener to add
+     * @return always true
+     */
+    public boolean addListener(UploadProgressListener listener) {
+        assert listener != null;
+
+        return this.listeners.add(listener);
+    }
+
+    /**
+     * Removes an UploadProgressListener.
+     *
+     * @param listener to be removed
+     * @return true if the the listener was removed
+     */
+    public boolean removeListener(UploadProgressListener listener) {
+        assert listener != null;
+
+        return this.listeners.remove(listener);
+    }
+
+    @Override
+    public String getMethod() {
+        return METHOD;
+    }
+
+    /**
+     * Uploads the remaining ranges of the file, creating or resuming the upload session as
+     * needed. Failed ranges are retried with an increasing delay, asking the server which range
+     * it expects next before each retry. If the upload still fails the state file is kept, so
+     * the next request for the same file can resume.
+     *
+     * @return the new file, or the error returned by the server
+     * @throws LiveOperationException if the upload failed after all attempts
+     */
+    @Override
+    public JSONObject execute() throws LiveOperationException {
+        State state = State.load(this.stateFile);
+        if (state != null && !state.isFor(this.file, this.filename)) {
+            this.stateFile.delete();
+            state = null;
+        }
+
+        boolean resuming = (state != null);
+        int attempts = 0;
+        while (true) {
+            try {
+                if (state == null) {
+                    JSONObject response = this.createSession();
+                    if (this.statusCode == HttpStatus.SC_UNAUTHORIZED ||
+                        this.statusCode == HttpStatus.SC_FORBIDDEN) {
+                        // The session endpoint did not accept the Live Connect token or its
+                        // scopes, so fall back to a single upload through the Live API
+                        return this.uploadWholeFile();
+                    } else if (response.has(ERROR_KEY)) {
+                        return response;
+                    }
+                    state = new State(response.optString(UPLOAD_URL_KEY),
+                                      this.filename,
+                                      this.file.length(),
+                                      this.file.lastModified());
+                    state.save(this.stateFile);
+                } else if (resuming) {
+                    long offset = this.queryOffset(state);
+                    if (offset < 0L) {
+                        // The session has expired, start again with a new one
+                        this.stateFile.delete();
+                        state = null;
+                        continue;
+                    } else if (offset >= state.length) {
+                        // Every range was accepted but the final response was lost, so the
+                        // file only needs to be looked up rather than uploaded again
+                        JSONObject item = this.findItem(state);
+                        this.stateFile.delete();
+                        if (item == null) {
+                            state = null;
+                            continue;
+                        }
+                        this.notifyListeners(state.length, state.length);
+                        return item;
+                    }
+                    state.offset = offset;
+                    state.save(this.stateFile);
+                }
+                resuming = false;
+                this.notifyListeners(state.length, state.offset);
+
+                JSONObject response = this.putRange(state);
+                if (this.statusCode == HttpStatus.SC_OK ||
+                    this.statusCode == HttpStatus.SC_CREATED) {
+                    this.stateFile.delete();
+                    this.notifyListeners(state.length, state.length);
+                    return response;
+                } else if (this.statusCode == HttpStatus.SC_ACCEPTED) {
+                    state.offset = nextOffset(response);
+                    state.save(this.stateFile);
+                    attempts = 0;
+                } else if (this.statusCode == HttpStatus.SC_NOT_FOUND) {
+                    this.stateFile.delete();
+                    state = null;
+                    throw new LiveOperationException(ErrorMessages.SERVER_ERROR);
+                } else if (this.statusCode == SC_REQUESTED_RANGE_NOT_SATISFIABLE ||
+                           this.statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    throw new LiveOperationException(ErrorMessages.SERVER_ERROR);
+                } else {
+                    // Any other response is final, so don't try to resume it later
+                    this.stateFile.delete();
+                    return response;
+                }
+            } catch (LiveOperationException e) {
+                attempts += 1;
+                if (attempts >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                sleep(RETRY_DELAY_MS << (attempts - 1));
+                resuming = (state != null);
+            }
+        }
+    }
+
+    @Override
+    protected HttpUriRequest createHttpRequest() throws LiveOperationException {
+        return this.currentRequest;
+    }
+
+    @Override
+    protected boolean sendsAccessToken() {
+        return this.authorized;
+    }
+
+    /**
+     * Performs an HttpPost on the folder to create an upload session for the file.
+     */
+    private JSONObject createSession() throws LiveOperationException {
+        String uri = Config.INSTANCE.getUploadSessionUri().toString() +
+                     toItemPath(this.getPath()) + ":/" + Uri.encode(this.filename) +
+                     CREATE_SESSION_PATH;
+
+        JSONObject body = new JSONObject();
+        try {
+            JSONObject item = new JSONObject();
+            item.put(CONFLICT_BEHAVIOR_KEY, conflictBehavior(this.overwrite));
+            body.put(ITEM_KEY, item);
+        } catch (JSONException e) {
+            throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+        }
+
+        HttpPost request = new HttpPost(uri);
+        try {
+            request.setEntity(new JsonEntity(body));
+        } catch (UnsupportedEncodingException e) {
+            throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+        }
+
+        JSONObject response = this.send(request, true);
+        if (response.has(ERROR_KEY) ||
+            this.statusCode == HttpStatus.SC_UNAUTHORIZED ||
+            this.statusCode == HttpStatus.SC_FORBIDDEN) {
+            return response;
+        } else if (this.statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw new LiveOperationException(ErrorMessages.SERVER_ERROR);
+        } else if (TextUtils.isEmpty(response.optString(UPLOAD_URL_KEY))) {
+            throw new LiveOperationException(ErrorMessages.MISSING_UPLOAD_URL);
+        }
+        return response;
+    }
+
+    /**
+     * Performs an HttpPut of the next range of the file on the session's uploadUrl.
+     */
+    private JSONObject putRange(State state) throws LiveOperationException {
+        assert state.offset < state.length;
+
+        int count = (int) Math.min(RANGE_SIZE, state.length - state.offset);
+        byte[] range = new byte[count];
+        try {
+            RandomAccessFile in = new RandomAccessFile(this.file, "r");
+            try {
+                in.seek(state.offset);
+                in.readFully(range);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+        }
+
+        HttpPut request = new HttpPut(state.uploadUrl);
+        request.addHeader(CONTENT_RANGE_HEADER, "bytes " + state.offset + "-" +
+                                                (state.offset + count - 1) + "/" + state.length);
+        request.setEntity(new ByteArrayEntity(range));
+        return this.send(request, false);
+    }
+
+    /**
+     * Performs an HttpGet on the session's uploadUrl to find the next range the server expects.
+     *
+     * @return the offset of the next range, the length of the file if the server has accepted
+     *         every range, or -1 if the session no longer exists
+     */
+    private long queryOffset(State state) throws LiveOperationException {
+        JSONObject response = this.send(new HttpGet(state.uploadUrl), false);
+        if (this.statusCode == HttpStatus.SC_NOT_FOUND) {
+            return -1L;
+        } else if (this.statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw new LiveOperationException(ErrorMessages.SERVER_ERROR);
+        }
+
+        JSONArray ranges = response.optJSONArray(NEXT_EXPECTED_RANGES_KEY);
+        if (ranges == null || ranges.length() == 0) {
+            return state.length;
+        }
+        return Math.min(nextOffset(response), state.length);
+    }
+
+    /**
+     * Performs an HttpGet on the uploaded file, for when the response to the final range was
+     * lost.
+     *
+     * @return the file, or null if there is no file of the uploaded length with that name
+     */
+    private JSONObject findItem(State state) throws LiveOperationException {
+        String uri = Config.INSTANCE.getUploadSessionUri().toString() +
+                     toItemPath(this.getPath()) + ":/" + Uri.encode(this.filename);
+
+        JSONObject response = this.send(new HttpGet(uri), true);
+        if (this.statusCode == HttpStatus.SC_NOT_FOUND) {
+            return null;
+        } else if (this.statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw new LiveOperationException(ErrorMessages.SERVER_ERROR);
+        }
+        return (response.optLong(SIZE_KEY, -1L) == state.length) ? response : null;
+    }
+
+    /**
+     * Uploads the whole file with a single {@link UploadRequest} to the Live API.
+     */
+    private JSONObject uploadWholeFile() throws LiveOperationException {
+        this.stateFile.delete();
+        this.notifyListeners(this.file.length(), 0L);
+
+        UploadRequest request = new UploadRequest(this.session,
+                                                  this.client,
+                                                  this.getPath(),
+                                                  new FileEntity(this.file, OCTET_STREAM),
+                                                  this.filename,
+                                                  this.overwrite);
+        JSONObject response = request.execute();
+        if (!response.has(ERROR_KEY)) {
+            this.notifyListeners(this.file.length(), this.file.length());
+        }
+        return response;
+    }
+
+    private JSONObject send(HttpUriRequest request, boolean authorized)
+            throws LiveOperationException {
+        this.currentRequest = request;
+        this.authorized = authorized;
+        this.statusCode = 0;
+
+        JSONObject response = super.execute();
+        return (response == null) ? new JSONObject() : response;
+    }
+
+    private void notifyListeners(long totalBytes, long numBytesWritten) {
+        for (UploadProgressListener listener : this.listeners) {
+            listener.onProgress(totalBytes, numBytesWritten);
+        }
+    }
+
+    private static String conflictBehavior(OverwriteOption overwrite) {
+        switch (overwrite) {
+            case Overwrite:
+                return "replace";
+            case Rename:
+                return "rename";
+            default:
+                return "fail";
+        }
+    }
+
+    /**
+     * Parses the start of the first of the nextExpectedRanges, which have the form
+     * start-end or start-.
+     */
+    private static long nextOffset(JSONObject response) throws LiveOperationException {
+        try {
+            String range = response.getJSONArray(NEXT_EXPECTED_RANGES_KEY).getString(0);
+            int dash = range.indexOf('-');
+            return Long.parseLong((dash < 0) ? range : range.substring(0, dash));
+        } catch (JSONException e) {
+            throw new LiveOperationException(ErrorMessages.SERVER_ERROR, e);
+        } catch (NumberFormatException e) {
+            throw new LiveOperationException(ErrorMessages.SERVER_ERROR, e);
+        }
+    }
+
+    private static void sleep(long millis) throws LiveOperationException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LiveOperationException(ErrorMessages.CLIENT_ERROR, e);
+        }
+    }
+}
@@ -277,6 +277,7 @@ public class LiveConnectClient {
         public static final String OVERWRITE = "overwrite";
         public static final String PATH = "path";
         public static final String SESSION = "session";
+        public static final String STATE_FILE = "stateFile";
 
         private ParamNames() { throw new AssertionError(ErrorMessages.NON_INSTANTIABLE_CLASS); }
     }
@@ -1753,6 +1754,118 @@ public class LiveConnectClient {
         return operation;
     }
 
+    /**
+     * Uploads a file in ranges through a resumable upload session, performing asynchronous
+     * HTTP PUTs of each range.
+     *
+     * The upload session and the number of bytes the server has accepted are kept in the given
+     * state file. If the upload fails, calling this method again with the same file, filename
+     * and state file continues from the last accepted range instead of starting again. The state
+     * file is deleted once the upload completes. If the upload session endpoint does not accept
+     * the session's access token, the file is uploaded with a single HTTP PUT instead.
+     *
+     * {@link LiveUploadOperationListener#onUploadCompleted(LiveOperation)} will be called on
+     * success.
+     * {@link LiveUploadOperationListener#onUploadProgress(int, int, LiveOperation)} will be called
+     * after each range is accepted. Both of these methods will be called on the main/UI thread.
+     * Otherwise,
+     * {@link LiveUploadOperationListener#onUploadFailed(LiveOperationException, LiveOperation)}
+     * will be called. This method will NOT be called on the main/UI thread.
+     *
+     * If a file with the same name exists the upload will fail.
+     *
+     * @param path folder to upload to.
+     * @param filename name of the new resource.
+     * @param file contents of the upload.
+     * @param stateFile where the progress of the upload is kept between attempts.
+     * @param listener called on completion, on progress, or on an error of the upload request.
+     * @return the LiveOperation associated with the request.
+     */
+    public LiveOperation uploadResumableAsync(String path,
+                                              String filename,
+                                              File file,
+                                              File stateFile,
+                                              LiveUploadOperationListener listener) {
+        return this.uploadResumableAsync(
+                path,
+                filename,
+                file,
+                stateFile,
+                OverwriteOption.DoNotOverwrite,
+                listener,
+                null);
+    }
+
+    /**
+     * Uploads a file in ranges through a resumable upload session, performing asynchronous
+     * HTTP PUTs of each range.
+     *
+     * The upload session and the number of bytes the server has accepted are kept in the given
+     * state file. If the upload fails, calling this method again with the same file, filename
+     * and state file continues from the last accepted range instead of starting again. The state
+     * file is deleted once the upload completes. If the upload session endpoint does not accept
+     * the session's access token, the file is uploaded with a single HTTP PUT instead.
+     *
+     * {@link LiveUploadOperationListener#onUploadCompleted(LiveOperation)} will be called on
+     * success.
+     * {@link LiveUploadOperationListener#onUploadProgress(int, int, LiveOperation)} will be called
+     * after each range is accepted. Both of these methods will be called on the main/UI thread.
+     * Otherwise,
+     * {@link LiveUploadOperationListener#onUploadFailed(LiveOperationException, LiveOperation)}
+     * will be called. This method will NOT be called on the main/UI thread.
+     *
+     * @param path folder to upload to.
+     * @param filename name of the new resource.
+     * @param file contents of the upload.
+     * @param stateFile where the progress of the upload is kept between attempts.
+     * @param overwrite specifies what to do when a file with the same name exists.
+     * @param listener called on completion, on progress, or on an error of the upload request.
+     * @param userState arbitrary object that is used to determine the caller of the method.
+     * @return the LiveOperation associated with the request.
+     */
+    public LiveOperation uploadResumableAsync(String path,
+                                              String filename,
+                                              File file,
+                                              File stateFile,
+                                              OverwriteOption overwrite,
+                                              LiveUploadOperationListener listener,
+                                              Object userState) {
+        assertValidPath(path);
+        LiveConnectUtils.assertNotNullOrEmpty(filename, ParamNames.FILENAME);
+        LiveConnectUtils.assertNotNull(file, ParamNames.FILE);
+        LiveConnectUtils.assertNotNull(stateFile, ParamNames.STATE_FILE);
+        LiveConnectUtils.assertNotNull(overwrite, ParamNames.OVERWRITE);
+        if (listener == null) {
+            listener = NULL_UPLOAD_OPERATION_LISTENER;
+        }
+
+        ResumableUploadRequest request = new ResumableUploadRequest(this.session,
+                                                                    this.httpClient,
+                                                                    path,
+                                                                    file,
+                                                                    filename,
+                                                                    overwrite,
+                                                                    stateFile);
+
+        ApiRequestAsync<JSONObject> asyncRequest = ApiRequestAsync.newInstance(request);
+
+        // Progress is reported per range, so listen to the request directly
+        request.addListener(asyncRequest);
+
+        LiveOperation operation = new LiveOperation.Builder(request.getMethod(), request.getPath())
+                                                   .userState(userState)
+                                                   .apiRequestAsync(asyncRequest)
+                                                   .build();
+
+        UploadRequestListener operationListener = new UploadRequestListener(operation, listener);
+
+        asyncRequest.addObserver(operationListener);
+        asyncRequest.addProgressObserver(operationListener);
+        asyncRequest.execute();
+
+        return operation;
+    }
+
     /**
      * Sets the HttpClient that is used in requests.
      *
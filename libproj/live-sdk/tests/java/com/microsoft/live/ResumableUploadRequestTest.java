@@ -0,0 +1,340 @@
+//------------------------------------------------------------------------------
+// Copyright 2014 Microsoft Corporation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// Description: See the class level JavaDoc comments.
+//------------------------------------------------------------------------------
+
+package com.microsoft.live;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+/**
+ * Runs {@link ResumableUploadRequest} against a local stand-in for the upload session and Live
+ * APIs, which can fail ranges, lose the response to the final range or refuse the access token.
+ */
+public class ResumableUploadRequestTest extends AndroidTestCase {
+
+    private static final String FILENAME = "backup.bin";
+    private static final int LENGTH = 2 * ResumableUploadRequest.RANGE_SIZE + 1000;
+
+    private Uri apiUri;
+    private Uri uploadSessionUri;
+    private StandInServer server;
+    private DefaultHttpClient client;
+    private LiveConnectSession session;
+    private File file;
+    private File stateFile;
+    private byte[] contents;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StandInServer();
+        new Thread(server).start();
+
+        apiUri = Config.INSTANCE.getApiUri();
+        uploadSessionUri = Config.INSTANCE.getUploadSessionUri();
+        Config.INSTANCE.setApiUri(Uri.parse(server.base + "/v5.0"));
+        Config.INSTANCE.setUploadSessionUri(Uri.parse(server.base));
+
+        // Lost responses must reach the request, not be retried inside the client
+        client = new DefaultHttpClient();
+        client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+
+        session = new LiveConnectSession(new LiveAuthClient(getContext(), "0000000000000000"));
+        session.setAccessToken("token");
+        session.setExpiresIn(new Date(System.currentTimeMillis() + 60 * 60 * 1000L));
+
+        contents = new byte[LENGTH];
+        new Random(LENGTH).nextBytes(contents);
+        file = new File(getContext().getCacheDir(), FILENAME);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        stateFile = new File(getContext().getCacheDir(), FILENAME + ".state");
+        stateFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        Config.INSTANCE.setApiUri(apiUri);
+        Config.INSTANCE.setUploadSessionUri(uploadSessionUri);
+        file.delete();
+        stateFile.delete();
+        super.tearDown();
+    }
+
+    public void testUploadsInRanges() throws Exception {
+        JSONObject item = newRequest().execute();
+
+        assertEquals(FILENAME, item.getString("name"));
+        assertTrue(Arrays.equals(contents, server.received()));
+        assertEquals(1, server.sessions);
+        assertEquals(LENGTH, server.bytesPut);
+        assertEquals(0, server.authorizedPuts);
+        assertFalse(stateFile.exists());
+    }
+
+    public void testFailedRangeIsResumed() throws Exception {
+        server.failPuts = 1;
+
+        JSONObject item = newRequest().execute();
+
+        assertEquals(FILENAME, item.getString("name"));
+        assertTrue(Arrays.equals(contents, server.received()));
+        assertEquals(1, server.sessions);
+        assertFalse(stateFile.exists());
+    }
+
+    public void testLostFinalResponseIsNotUploadedAgain() throws Exception {
+        server.dropFinalResponse = true;
+
+        JSONObject item = newRequest().execute();
+
+        assertEquals(FILENAME, item.getString("name"));
+        assertEquals(LENGTH, item.getLong("size"));
+        assertEquals(1, server.sessions);
+        assertEquals(LENGTH, server.bytesPut);
+        assertFalse(stateFile.exists());
+    }
+
+    public void testRefusedTokenFallsBackToSingleUpload() throws Exception {
+        server.refuseSessions = true;
+
+        JSONObject item = newRequest().execute();
+
+        assertFalse(item.has("error"));
+        assertEquals(1, server.wholeUploads);
+        assertTrue(Arrays.equals(contents, server.received()));
+        assertFalse(stateFile.exists());
+    }
+
+    private ResumableUploadRequest newRequest() {
+        return new ResumableUploadRequest(session,
+                                          client,
+                                          "me/skydrive",
+                                          file,
+                                          FILENAME,
+                                          OverwriteOption.Overwrite,
+                                          stateFile);
+    }
+
+    /**
+     * StandInServer answers one request per connection, following the OneDrive upload session
+     * API and the Live API upload_location and PUT.
+     */
+    private static class StandInServer implements Runnable {
+
+        final ServerSocket socket;
+        final String base;
+
+        volatile boolean dropFinalResponse;
+        volatile int failPuts;
+        volatile boolean refuseSessions;
+
+        volatile int authorizedPuts;
+        volatile long bytesPut;
+        volatile int sessions;
+        volatile int wholeUploads;
+
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private boolean committed;
+        private long length = -1L;
+        private boolean open;
+
+        StandInServer() throws IOException {
+            socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            base = "http://127.0.0.1:" + socket.getLocalPort();
+        }
+
+        synchronized byte[] received() {
+            return received.toByteArray();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket connection = socket.accept();
+                    try {
+                        serve(connection);
+                    } finally {
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                    // Closed by tearDown, or the client went away
+                }
+            }
+        }
+
+        private synchronized void serve(Socket connection) throws IOException {
+            InputStream in = connection.getInputStream();
+            String[] head = readHead(in).split("\r\n");
+            String[] requestLine = head[0].split(" ");
+            String method = requestLine[0];
+            String path = Uri.decode(Uri.parse(requestLine[1]).getPath());
+
+            int contentLength = 0;
+            String contentRange = null;
+            boolean authorized = false;
+            for (int i = 1; i < head.length; i++) {
+                int colon = head[i].indexOf(':');
+                String name = head[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = head[i].substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    contentLength = Integer.parseInt(value);
+                } else if (name.equals("content-range")) {
+                    contentRange = value;
+                } else if (name.equals("authorization")) {
+                    authorized = true;
+                }
+            }
+            byte[] body = new byte[contentLength];
+            for (int read = 0; read < contentLength; ) {
+                int count = in.read(body, read, contentLength - read);
+                if (count < 0) {
+                    throw new IOException("Request body ended early");
+                }
+                read += count;
+            }
+
+            OutputStream out = connection.getOutputStream();
+            if (method.equals("POST") && path.endsWith(":/createUploadSession")) {
+                if (refuseSessions) {
+                    respond(out, 401, "{\"error\":{\"code\":\"unauthenticated\"}}");
+                    return;
+                }
+                sessions += 1;
+                received.reset();
+                committed = false;
+                length = -1L;
+                open = true;
+                respond(out, 200, "{\"uploadUrl\":\"" + base + "/session\"}");
+            } else if (method.equals("PUT") && path.equals("/session")) {
+                bytesPut += body.length;
+                if (authorized) {
+                    authorizedPuts += 1;
+                }
+                if (failPuts > 0) {
+                    failPuts -= 1;
+                    respond(out, 503, "");
+                    return;
+                }
+
+                // bytes <first>-<last>/<length>
+                String[] range = contentRange.substring(6).split("[-/]");
+                if (Long.parseLong(range[0]) != received.size()) {
+                    respond(out, 416, "");
+                    return;
+                }
+                length = Long.parseLong(range[2]);
+                received.write(body);
+                if (received.size() < length) {
+                    respond(out, 202, nextExpectedRanges());
+                    return;
+                }
+                committed = true;
+                if (!dropFinalResponse) {
+                    respond(out, 201, item());
+                }
+            } else if (method.equals("GET") && path.equals("/session")) {
+                if (!open) {
+                    respond(out, 404, "");
+                } else {
+                    respond(out, 200, nextExpectedRanges());
+                }
+            } else if (method.equals("GET") && path.equals("/drive/root:/" + FILENAME)) {
+                if (committed) {
+                    respond(out, 200, item());
+                } else {
+                    respond(out, 404, "");
+                }
+            } else if (method.equals("GET") && path.equals("/v5.0/me/skydrive")) {
+                respond(out, 200, "{\"upload_location\":\"" + base + "/upload/\"}");
+            } else if (method.equals("PUT") && path.equals("/upload/" + FILENAME)) {
+                wholeUploads += 1;
+                received.reset();
+                received.write(body);
+                respond(out, 201, "{\"id\":\"file.1\",\"source\":\"" + base + "/file\"}");
+            } else {
+                respond(out, 400, "");
+            }
+        }
+
+        private String nextExpectedRanges() {
+            JSONArray ranges = new JSONArray();
+            if (!committed) {
+                ranges.put(received.size() + "-");
+            }
+            return "{\"nextExpectedRanges\":" + ranges + "}";
+        }
+
+        private String item() {
+            return "{\"id\":\"item\",\"name\":\"" + FILENAME + "\",\"size\":" + length + "}";
+        }
+
+        private static String readHead(InputStream in) throws IOException {
+            StringBuilder head = new StringBuilder();
+            while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Request ended early");
+                }
+                head.append((char) b);
+            }
+            return head.substring(0, head.length() - 4);
+        }
+
+        private static void respond(OutputStream out, int status, String body)
+                throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            String head = "HTTP/1.1 " + status + " Stand-in\r\n" +
+                          "Content-Type: application/json\r\n" +
+                          "Content-Length: " + bytes.length + "\r\n" +
+                          "Connection: close\r\n\r\n";
+            out.write(head.getBytes("US-ASCII"));
+            out.write(bytes);
+            out.flush();
+        }
+    }
+}